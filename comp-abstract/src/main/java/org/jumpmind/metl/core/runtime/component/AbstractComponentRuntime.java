@@ -156,6 +156,10 @@ abstract public class AbstractComponentRuntime implements IComponentRuntime {
     @Override
     public void flowCompletedWithErrors(Throwable myError) {
     }
+
+    @Override
+    public void flowSucceeded() {
+    }
     
     protected ComponentStatistics getComponentStatistics() {
     	return context.getComponentStatistics();
@@ -227,6 +231,19 @@ abstract public class AbstractComponentRuntime implements IComponentRuntime {
         return context.getFlowStep().getComponent().getInputModel();
     }
 
+    /**
+     * Create a row whose values are laid out by the output model's schema
+     */
+    protected EntityData createOutputEntityData() {
+        Component component = getComponent();
+        IModel model = component != null ? component.getOutputModel() : null;
+        if (model instanceof RelationalModel) {
+            return new EntityData(((RelationalModel) model).getEntityDataSchema());
+        } else {
+            return new EntityData();
+        }
+    }
+
     protected IExecutionTracker getExecutionTracker() {
         return context.getExecutionTracker();
     }
@@ -0,0 +1,80 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import groovy.lang.GroovyClassLoader;
+
+/**
+ * The groovy classes that components compile for their expressions. A class
+ * is shared across component instances and flow runs so the same expression
+ * is only compiled once. The least recently used classes are dropped once
+ * there are too many, and each class is compiled by its own class loader so
+ * that a dropped class can be unloaded when flows are redeployed.
+ */
+final public class CompiledGroovyClasses {
+
+    static final int MAX_COMPILED_CLASSES = 1000;
+
+    static private AtomicLong sequence = new AtomicLong();
+
+    static private Map<String, Class<?>> compiledClasses = Collections
+            .synchronizedMap(new LinkedHashMap<String, Class<?>>(16, .75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+                    return size() > MAX_COMPILED_CLASSES;
+                }
+            });
+
+    private CompiledGroovyClasses() {
+    }
+
+    /**
+     * @param classNamePrefix
+     *            the prefix of the generated class name. It also keeps the
+     *            classes of different kinds of expressions apart.
+     * @param expression
+     *            the expression the class is compiled for
+     * @param source
+     *            creates the groovy source of the class from its generated
+     *            name
+     */
+    public static Class<?> compile(String classNamePrefix, String expression, Function<String, String> source) {
+        String key = classNamePrefix + ":" + expression;
+        Class<?> clazz = compiledClasses.get(key);
+        if (clazz == null) {
+            String className = classNamePrefix + sequence.incrementAndGet();
+            @SuppressWarnings("resource")
+            GroovyClassLoader classLoader = new GroovyClassLoader(CompiledGroovyClasses.class.getClassLoader());
+            clazz = classLoader.parseClass(source.apply(className), className + ".groovy");
+            compiledClasses.put(key, clazz);
+        }
+        return clazz;
+    }
+
+}
@@ -23,6 +23,7 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
@@ -32,13 +33,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
-
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.lang.time.FastDateFormat;
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.codehaus.groovy.control.CompilationFailedException;
 import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
@@ -67,8 +65,6 @@ public class ModelAttributeScriptHelper {
 
     public static final RemoveAttribute REMOVE_ATTRIBUTE = new RemoveAttribute();
 
-    static private ThreadLocal<ScriptEngine> scriptEngine = new ThreadLocal<ScriptEngine>();
-
     public ModelAttributeScriptHelper(Message message, ComponentContext context, ModelAttrib attribute, ModelEntity entity, RelationalModel model,
             EntityData data, Object value) {
         this(context, attribute, entity, model);
@@ -465,31 +461,53 @@ public class ModelAttributeScriptHelper {
 
     public static Object eval(Message message, ComponentContext context, ModelAttrib attribute, Object value, RelationalModel model, ModelEntity entity,
             EntityData data, String expression) {
-        ScriptEngine engine = scriptEngine.get();
-        if (engine == null) {
-            engine = new GroovyScriptEngineImpl();
-            scriptEngine.set(engine);
+        ModelAttributeScriptHelper helper = create(context, attribute, entity, model, "return " + expression);
+        helper.setMessage(message);
+        helper.setData(data);
+        helper.setValue(value);
+        try {
+            return helper.eval();
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Unable to evaluate groovy script.  Attribute ==> " + attribute.getName() + ".  Value ==> "
+                    + (value == null ? "null" : value.toString()) + "." + e.getMessage(), e);
         }
-        engine.put("value", value);
-        engine.put("data", data);
-        engine.put("entity", entity);
-        engine.put("model", model);
-        engine.put("attribute", attribute);
-        engine.put("message", message);
-        engine.put("context", context);
+    }
 
+    /**
+     * Create a helper whose eval() method runs the passed in groovy code. The
+     * helper class is compiled the first time the code is seen. Callers should
+     * hold on to the returned helper and set the message, data and value on it
+     * for each row it is evaluated against. A helper instance should not be
+     * shared between threads.
+     */
+    public static ModelAttributeScriptHelper create(ComponentContext context, ModelAttrib attribute, ModelEntity entity,
+            RelationalModel model, String evalBody) {
         try {
-            String importString = "import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n";
-            String code = String.format(
-                    "return new ModelAttributeScriptHelper(message, context, attribute, entity, model, data, value) { public Object eval() { return %s } }.eval()",
-                    expression);
-            return engine.eval(importString + code);
-        } catch (ScriptException e) {
-            throw new RuntimeException("Unable to evaluate groovy script.  Attribute ==> " + attribute.getName() + ".  Value ==> "
-                    + value.toString() + "." + e.getCause().getMessage(), e);
+            return compile(evalBody).newInstance(context, attribute, entity, model);
+        } catch (CompilationFailedException e) {
+            throw new RuntimeException("Unable to compile groovy script.  Attribute ==> " + (attribute == null ? "null" : attribute.getName())
+                    + "." + e.getMessage(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
         }
     }
 
+    /*
+     * The compiled helper classes are keyed by the body of the generated eval
+     * method
+     */
+    @SuppressWarnings("unchecked")
+    protected static Constructor<? extends ModelAttributeScriptHelper> compile(String evalBody) throws ReflectiveOperationException {
+        Class<? extends ModelAttributeScriptHelper> clazz = (Class<? extends ModelAttributeScriptHelper>) CompiledGroovyClasses
+                .compile("ModelAttributeScriptHelper", evalBody, className -> String.format(
+                        "import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n"
+                        + "class %1$s extends ModelAttributeScriptHelper {\n"
+                        + "  %1$s(org.jumpmind.metl.core.runtime.component.ComponentContext context, org.jumpmind.metl.core.model.ModelAttrib attribute, "
+                        + "org.jumpmind.metl.core.model.ModelEntity entity, org.jumpmind.metl.core.model.RelationalModel model) { super(context, attribute, entity, model) }\n"
+                        + "  public Object eval() { %2$s \n }\n" + "}", className, evalBody));
+        return clazz.getConstructor(ComponentContext.class, ModelAttrib.class, ModelEntity.class, RelationalModel.class);
+    }
+
     static class RemoveAttribute {
 
     }
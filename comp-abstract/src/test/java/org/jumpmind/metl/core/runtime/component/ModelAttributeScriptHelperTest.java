@@ -20,8 +20,10 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -36,4 +38,16 @@ public class ModelAttributeScriptHelperTest {
         assertNotNull(helper.parsedate("yyyy-MM-dd", "0000-00-01"));
 
     }
+    
+    @Test
+    public void testCreateReusesCompiledExpression() {
+        ModelAttributeScriptHelper helper1 = ModelAttributeScriptHelper.create(null, null, null, null, "upper()");
+        ModelAttributeScriptHelper helper2 = ModelAttributeScriptHelper.create(null, null, null, null, "upper()");
+        assertSame(helper1.getClass(), helper2.getClass());
+        
+        helper1.setValue("abc");
+        helper2.setValue("xyz");
+        assertEquals("ABC", helper1.eval());
+        assertEquals("XYZ", helper2.eval());
+    }
 }
@@ -0,0 +1,230 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataKey;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+
+/**
+ * Compares the rows of one entity from an old and a new version of a data set.
+ * Rows are matched on the primary key attributes of the entity (or on all of
+ * its attributes if it has no primary key). Values are normalized before they
+ * are compared so that numbers compare by their numeric value and binary
+ * values by their content.
+ */
+public abstract class AbstractEntityDiff implements Closeable {
+
+    public interface IDiffListener {
+        public void diff(ChangeType changeType, EntityData data);
+
+        /**
+         * Called for a row of the old version whose key was already seen. Only
+         * the first old row with a key is diffed.
+         */
+        public void duplicateKey(EntityData data);
+    }
+
+    protected ModelEntity entity;
+
+    protected EntityDataSchema schema;
+
+    protected String[] entityAttributeIds;
+
+    protected String[] outputAttributeIds;
+
+    protected String[] keyAttributeIds;
+
+    protected boolean[] keyNumeric;
+
+    protected String[] compareAttributeIds;
+
+    protected boolean[] compareNumeric;
+
+    protected boolean addEnabled = true;
+
+    protected boolean chgEnabled = true;
+
+    protected boolean delEnabled = true;
+
+    /**
+     * @param outputAttributes
+     *            the attributes that are sent for rows that are different
+     * @param compareAttributes
+     *            the non key attributes that are compared to detect a change
+     */
+    public AbstractEntityDiff(ModelEntity entity, EntityDataSchema schema, List<ModelAttrib> outputAttributes,
+            List<ModelAttrib> compareAttributes) {
+        this.entity = entity;
+        this.schema = schema;
+        List<ModelAttrib> attributes = entity.getModelAttributes();
+        this.entityAttributeIds = toIds(attributes);
+        this.outputAttributeIds = toIds(outputAttributes);
+        List<ModelAttrib> keyAttributes = new ArrayList<>();
+        for (ModelAttrib attribute : attributes) {
+            if (attribute.isPk()) {
+                keyAttributes.add(attribute);
+            }
+        }
+        if (keyAttributes.size() == 0) {
+            keyAttributes.addAll(attributes);
+            compareAttributes = new ArrayList<>();
+        }
+        this.keyAttributeIds = toIds(keyAttributes);
+        this.keyNumeric = toNumericFlags(keyAttributes);
+        this.compareAttributeIds = toIds(compareAttributes);
+        this.compareNumeric = toNumericFlags(compareAttributes);
+    }
+
+    public void setEnabled(boolean addEnabled, boolean chgEnabled, boolean delEnabled) {
+        this.addEnabled = addEnabled;
+        this.chgEnabled = chgEnabled && compareAttributeIds.length > 0;
+        this.delEnabled = delEnabled;
+    }
+
+    public ModelEntity getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return the attributes of this entity that the row has or null if the
+     *         row has none of them
+     */
+    public EntityData project(EntityData data) {
+        EntityData entityData = null;
+        for (String attributeId : entityAttributeIds) {
+            if (data.containsKey(attributeId)) {
+                if (entityData == null) {
+                    entityData = new EntityData(schema);
+                }
+                entityData.put(attributeId, data.get(attributeId));
+            }
+        }
+        return entityData;
+    }
+
+    /**
+     * Adds a row that has already been projected to this entity
+     */
+    public abstract void add(EntityData data, boolean fromOldVersion);
+
+    /**
+     * Sends the remaining differences once all rows have been added
+     */
+    public abstract void finish(IDiffListener listener);
+
+    @Override
+    public abstract void close();
+
+    protected void changed(ChangeType changeType, EntityData data, IDiffListener listener) {
+        EntityData output = data;
+        if (outputAttributeIds.length != entityAttributeIds.length) {
+            output = new EntityData(schema);
+            for (String attributeId : outputAttributeIds) {
+                if (data.containsKey(attributeId)) {
+                    output.put(attributeId, data.get(attributeId));
+                }
+            }
+        }
+        output.setChangeType(changeType);
+        listener.diff(changeType, output);
+    }
+
+    protected EntityDataKey getKey(EntityData data) {
+        return EntityDataKey.of(data, keyAttributeIds, keyNumeric);
+    }
+
+    /**
+     * Hashes the compare values as they are, without normalizing them
+     */
+    protected long hashCompareValues(EntityData data) {
+        long hash = 1125899906842597L;
+        for (String attributeId : compareAttributeIds) {
+            Object value = data.get(attributeId);
+            hash = 31 * hash + (value == null ? 0 : value instanceof byte[] ? Arrays.hashCode((byte[]) value) : value.hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Rows whose raw values are equal are unchanged. The values are only
+     * normalized when they differ, e.g. 1.0 and 1 for a numeric attribute.
+     */
+    protected boolean isChanged(EntityData oldData, EntityData newData) {
+        return !isRawEqual(oldData, newData) && isNormalizedDifferent(oldData, newData);
+    }
+
+    /**
+     * @param oldHash
+     *            the {@link #hashCompareValues(EntityData)} of the old row
+     */
+    protected boolean isChanged(EntityData oldData, long oldHash, EntityData newData) {
+        if (oldHash != hashCompareValues(newData)) {
+            return isNormalizedDifferent(oldData, newData);
+        }
+        return isChanged(oldData, newData);
+    }
+
+    protected boolean isRawEqual(EntityData oldData, EntityData newData) {
+        for (String attributeId : compareAttributeIds) {
+            Object oldValue = oldData.get(attributeId);
+            Object newValue = newData.get(attributeId);
+            if (oldValue instanceof byte[] && newValue instanceof byte[]) {
+                if (!Arrays.equals((byte[]) oldValue, (byte[]) newValue)) {
+                    return false;
+                }
+            } else if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isNormalizedDifferent(EntityData oldData, EntityData newData) {
+        return !Arrays.equals(EntityDataKey.normalize(oldData, compareAttributeIds, compareNumeric),
+                EntityDataKey.normalize(newData, compareAttributeIds, compareNumeric));
+    }
+
+    protected static String[] toIds(List<ModelAttrib> attributes) {
+        String[] ids = new String[attributes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = attributes.get(i).getId();
+        }
+        return ids;
+    }
+
+    protected static boolean[] toNumericFlags(List<ModelAttrib> attributes) {
+        boolean[] numeric = new boolean[attributes.size()];
+        for (int i = 0; i < numeric.length; i++) {
+            numeric[i] = attributes.get(i).getDataType() != null && attributes.get(i).getDataType().isNumeric();
+        }
+        return numeric;
+    }
+
+}
@@ -22,42 +22,26 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-
-import org.apache.commons.io.FileUtils;
-import org.h2.Driver;
-import org.jumpmind.db.model.Column;
-import org.jumpmind.db.model.IIndex;
-import org.jumpmind.db.model.IndexColumn;
-import org.jumpmind.db.model.Table;
-import org.jumpmind.db.platform.IDatabasePlatform;
-import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
-import org.jumpmind.db.sql.SqlTemplateSettings;
-import org.jumpmind.db.util.ResettableBasicDataSource;
-import org.jumpmind.metl.core.model.AbstractNamedObject;
+
 import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.ComponentAttribSetting;
 import org.jumpmind.metl.core.model.ComponentEntitySetting;
-import org.jumpmind.metl.core.model.DataType;
-import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
-import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.component.AbstractEntityDiff.IDiffListener;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.properties.TypedProperties;
 
@@ -65,7 +49,14 @@ public class DataDiff extends AbstractComponentRuntime {
 
     public static String SOURCE_1 = "source.1";
     public static String SOURCE_2 = "source.2";
-    public static String IN_MEMORY_COMPARE = "in.memory.compare";
+
+    public final static String DIFF_MODE = "diff.mode";
+
+    public final static String DIFF_MODE_HASH = "HASH";
+
+    public final static String DIFF_MODE_SORTED_MERGE = "SORTED MERGE";
+
+    public final static String MAX_ROWS_IN_MEMORY = "max.rows.in.memory";
 
     public final static String ENTITY_ADD_ENABLED = "add.enabled";
 
@@ -83,21 +74,27 @@ public class DataDiff extends AbstractComponentRuntime {
 
     String sourceStep2Id;
 
-    boolean inMemoryCompare = true;
+    boolean sortedMerge = false;
 
-    IDatabasePlatform databasePlatform;
+    int maxRowsInMemory;
 
-    RdbmsWriter databaseWriter;
+    List<ModelEntity> entities;
 
-    String databaseName;
+    List<AbstractEntityDiff> diffs;
 
-    List<ModelEntity> entities;
+    /*
+     * Deletes are sent after all adds and changes, in reverse entity order, so
+     * that child rows are deleted before their parents.  They are held here
+     * until then.
+     */
+    List<EntityDataSpillFile> deletes;
 
-    Throwable error;
+    List<Listener> listeners;
+
+    ArrayList<EntityData> dataToSend;
 
     @Override
     public void start() {
-        error = null;
         TypedProperties properties = getTypedProperties();
         this.sourceStep1Id = properties.get(SOURCE_1);
         if (isBlank(sourceStep1Id)) {
@@ -110,7 +107,8 @@ public class DataDiff extends AbstractComponentRuntime {
                     "Please choose a step where the data to compare comes from");
         }
 
-        this.inMemoryCompare = properties.is(IN_MEMORY_COMPARE);
+        this.sortedMerge = DIFF_MODE_SORTED_MERGE.equals(properties.get(DIFF_MODE, DIFF_MODE_HASH));
+        this.maxRowsInMemory = properties.getInt(MAX_ROWS_IN_MEMORY, 100000);
         this.rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE);
         Component comp = context.getFlowStep().getComponent();
         comp.setOutputModel(comp.getInputModel());
@@ -134,287 +132,171 @@ public class DataDiff extends AbstractComponentRuntime {
                 return new Integer(orderValue1).compareTo(new Integer(orderValue2));
             }
         });
-    }
-
-    @Override
-    public void handle(Message message, ISendMessageCallback callback,
-            boolean unitOfWorkBoundaryReached) {
-        createDatabase();
-        loadIntoDatabase(message);
-        if (unitOfWorkBoundaryReached && error == null) {
-            calculateDiff(callback);
-        }
-    }
-    
-    /*
-     * Column names must be quoted in order to handle names with spaces.
-     * Note: Quoting the name also makes the name case sensitive in H2.
-     * Make the name upper case to match the table create statement.
-     */
-    protected String getFormattedName(AbstractNamedObject o) {
-        return "\"" + o.getName().toUpperCase() + "\"";
-    }
 
-    protected void calculateDiff(ISendMessageCallback callback) {
-        Map<ModelEntity, String> changeSqls = new HashMap<>();
-        Map<ModelEntity, String> addSqls = new HashMap<>();
-        Map<ModelEntity, String> delSqls = new HashMap<>();
-        Component component = context.getFlowStep().getComponent();
+        int maxRowsPerEntity = Math.max(1, maxRowsInMemory / Math.max(1, entities.size()));
+        diffs = new ArrayList<>(entities.size());
+        deletes = new ArrayList<>(entities.size());
+        listeners = new ArrayList<>(entities.size());
         for (ModelEntity entity : entities) {
-            StringBuilder addSql = new StringBuilder("select ");
-            StringBuilder chgSql = new StringBuilder(addSql);
-            StringBuilder delSql = new StringBuilder(addSql);
-            appendColumns(addSql, "curr.", entity);
-            appendColumns(delSql, "orig.", entity);
-            appendColumns(chgSql, "curr.", entity);
-
-            addSql.append(" from " + entity.getName() + "_2 curr left join " + entity.getName()
-                    + "_1 orig on ");
-            delSql.append(" from " + entity.getName() + "_1 orig left join " + entity.getName()
-                    + "_2 curr on ");
-            chgSql.append(" from " + entity.getName() + "_1 orig join " + entity.getName()
-                    + "_2 curr on ");
-            boolean secondPk = false;
+            List<ModelAttrib> outputAttributes = new ArrayList<>();
+            List<ModelAttrib> compareAttributes = new ArrayList<>();
             for (ModelAttrib attribute : entity.getModelAttributes()) {
-                if (attribute.isPk()) {
-                    if (secondPk) {
-                        addSql.append(" and ");
-                        delSql.append(" and ");
-                        chgSql.append(" and ");
+                if (isCompareEnabled(comp, attribute)) {
+                    outputAttributes.add(attribute);
+                    if (!attribute.isPk()) {
+                        compareAttributes.add(attribute);
                     }
-                    addSql.append("curr.").append(getFormattedName(attribute)).append("=").append("orig.")
-                            .append(getFormattedName(attribute));
-                    delSql.append("curr.").append(getFormattedName(attribute)).append("=").append("orig.")
-                            .append(getFormattedName(attribute));
-                    chgSql.append("curr.").append(getFormattedName(attribute)).append("=").append("orig.")
-                            .append(getFormattedName(attribute));
-                    secondPk = true;
                 }
             }
+            AbstractEntityDiff diff = sortedMerge
+                    ? new MergeEntityDiff(entity, inputModel.getEntityDataSchema(), outputAttributes, compareAttributes, maxRowsPerEntity)
+                    : new HashEntityDiff(entity, inputModel.getEntityDataSchema(), outputAttributes, compareAttributes, maxRowsPerEntity);
+            diff.setEnabled(isEnabled(comp, entity, ENTITY_ADD_ENABLED), isEnabled(comp, entity, ENTITY_CHG_ENABLED),
+                    isEnabled(comp, entity, ENTITY_DEL_ENABLED));
+            diffs.add(diff);
+            deletes.add(new EntityDataSpillFile("metl-diff", inputModel.getEntityDataSchema()));
+            listeners.add(new Listener(diffs.size() - 1));
+        }
+    }
 
-            addSql.append(" where ");
-            delSql.append(" where ");
-            chgSql.append(" where ");
-            secondPk = false;
-            boolean secondCol = false;
-            for (ModelAttrib attribute : entity.getModelAttributes()) {
-                if (attribute.isPk()) {
-                    if (secondPk) {
-                        addSql.append(" or ");
-                        delSql.append(" or ");
-                    }
-                    addSql.append("orig.").append(getFormattedName(attribute)).append(" is null");
-                    delSql.append("curr.").append(getFormattedName(attribute)).append(" is null");
-                    secondPk = true;
-                } else {
-                    ComponentAttribSetting matchColumnSetting = component
-                            .getSingleAttributeSetting(attribute.getId(),
-                                    DataDiff.ATTRIBUTE_COMPARE_ENABLED);
-                    boolean matchColumn = matchColumnSetting != null
-                            ? Boolean.parseBoolean(matchColumnSetting.getValue()) : true;
-                    if (matchColumn) {
-                        if (secondCol) {
-                            chgSql.append(" or ");
+    protected boolean isCompareEnabled(Component component, ModelAttrib attribute) {
+        ComponentAttribSetting matchColumnSetting = component.getSingleAttributeSetting(attribute.getId(),
+                DataDiff.ATTRIBUTE_COMPARE_ENABLED);
+        return matchColumnSetting != null ? Boolean.parseBoolean(matchColumnSetting.getValue()) : true;
+    }
+
+    protected boolean isEnabled(Component component, ModelEntity entity, String name) {
+        ComponentEntitySetting setting = component.getSingleEntitySetting(entity.getId(), name);
+        return setting != null ? Boolean.parseBoolean(setting.getValue()) : true;
+    }
+
+    @Override
+    public void handle(Message message, ISendMessageCallback callback,
+            boolean unitOfWorkBoundaryReached) {
+        if (message instanceof EntityDataMessage) {
+            String originatingStepId = message.getHeader().getOriginatingStepId();
+            Boolean fromOldVersion = null;
+            if (sourceStep1Id.equals(originatingStepId)) {
+                fromOldVersion = true;
+            } else if (sourceStep2Id.equals(originatingStepId)) {
+                fromOldVersion = false;
+            }
+
+            if (fromOldVersion != null) {
+                ArrayList<EntityData> payload = ((EntityDataMessage) message).getPayload();
+                for (EntityData data : payload) {
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    for (int i = 0; i < diffs.size(); i++) {
+                        AbstractEntityDiff diff = diffs.get(i);
+                        EntityData entityData = diff.project(data);
+                        if (entityData != null) {
+                            if (sortedMerge) {
+                                Listener listener = listeners.get(i);
+                                listener.callback = callback;
+                                ((MergeEntityDiff) diff).add(entityData, fromOldVersion, listener);
+                            } else {
+                                diff.add(entityData, fromOldVersion);
+                            }
                         }
-                        chgSql.append("curr.").append(getFormattedName(attribute)).append(" != ")
-                                .append("orig.").append(getFormattedName(attribute));
-                        chgSql.append(" or ");
-                        chgSql.append("curr.").append(getFormattedName(attribute)).append(" is null and ")
-                                .append("orig.").append(getFormattedName(attribute))
-                                .append(" is not null ");
-                        chgSql.append(" or ");
-                        chgSql.append("curr.").append(getFormattedName(attribute))
-                                .append(" is not null and ").append("orig.")
-                                .append(getFormattedName(attribute)).append(" is null ");
-                        secondCol = true;
                     }
                 }
+                flush(callback);
             }
-
-            //we only want to do a change compare if this entity has 
-            //cols to compare other than the primary key.
-            if (!entity.hasOnlyPrimaryKeys() && secondCol) {
-                changeSqls.put(entity, chgSql.toString());
-                log(LogLevel.INFO, "Generated diff sql for CHG: %s", chgSql);
-            }
-            log(LogLevel.INFO, "Generated diff sql for ADD: %s", addSql);
-            log(LogLevel.INFO, "Generated diff sql for DEL: %s", delSql);
-            addSqls.put(entity, addSql.toString());
-            delSqls.put(entity, delSql.toString());
-
         }
 
-        RdbmsReader reader = new RdbmsReader();
-        reader.setDataSource(databasePlatform.getDataSource());
-        reader.setContext(context);
-        reader.setComponentDefinition(componentDefinition);
-        reader.setRowsPerMessage(rowsPerMessage);
-        reader.setThreadNumber(threadNumber);
+        if (unitOfWorkBoundaryReached) {
+            calculateDiff(callback);
+        }
+    }
 
-        for (ModelEntity entity : entities) {
-            ComponentEntitySetting add = component.getSingleEntitySetting(entity.getId(),
-                    DataDiff.ENTITY_ADD_ENABLED);
-            ComponentEntitySetting chg = component.getSingleEntitySetting(entity.getId(),
-                    DataDiff.ENTITY_CHG_ENABLED);
-            boolean addEnabled = add != null ? Boolean.parseBoolean(add.getValue()) : true;
-            boolean chgEnabled = chg != null ? Boolean.parseBoolean(chg.getValue()) : true;
-            if (addEnabled) {
-                reader.setSql(addSqls.get(entity));
-                reader.setEntityChangeType(ChangeType.ADD);
-                reader.handle(new ControlMessage(this.context.getFlowStep().getId()), callback,
-                        false);
-                info("Sent %d ADD records for %s", reader.getRowReadDuringHandle(),
-                        entity.getName());
+    protected void calculateDiff(ISendMessageCallback callback) {
+        try {
+            for (int i = 0; i < diffs.size(); i++) {
+                AbstractEntityDiff diff = diffs.get(i);
+                boolean last = i == diffs.size() - 1;
+                Listener listener = listeners.get(i);
+                listener.callback = callback;
+                listener.sendDeletes = last;
+                if (diff instanceof HashEntityDiff && ((HashEntityDiff) diff).getSpilledRowCount() > 0) {
+                    info("Spilled %d rows of %s to disk to diff them", ((HashEntityDiff) diff).getSpilledRowCount(),
+                            diff.getEntity().getName());
+                }
+                diff.finish(listener);
+                flush(callback);
+                info("Sent %d ADD, %d CHG records for %s", listener.adds, listener.chgs, diff.getEntity().getName());
+                if (listener.duplicates > 0) {
+                    log(LogLevel.WARN, "Ignored %d rows of %s from the old version whose key was already seen", listener.duplicates,
+                            diff.getEntity().getName());
+                }
+                listener.adds = 0;
+                listener.chgs = 0;
+                listener.duplicates = 0;
+                if (last) {
+                    sendDeletes(i, callback);
+                }
             }
 
-            if (chgEnabled && changeSqls.get(entity) != null) {
-                reader.setSql(changeSqls.get(entity));
-                reader.setEntityChangeType(ChangeType.CHG);
-                reader.handle(new ControlMessage(this.context.getFlowStep().getId()), callback,
-                        false);
-                info("Sent %d CHG records for %s", reader.getRowReadDuringHandle(),
-                        entity.getName());
+            for (int i = diffs.size() - 2; i >= 0; i--) {
+                sendDeletes(i, callback);
             }
-
+        } finally {
+            close();
         }
+    }
 
-        for (int i = entities.size() - 1; i >= 0; i--) {
-            ModelEntity entity = entities.get(i);
-            ComponentEntitySetting del = component.getSingleEntitySetting(entity.getId(),
-                    DataDiff.ENTITY_DEL_ENABLED);
-            boolean delEnabled = del != null ? Boolean.parseBoolean(del.getValue()) : true;
-
-            if (delEnabled) {
-                reader.setSql(delSqls.get(entity));
-                reader.setEntityChangeType(ChangeType.DEL);
-                reader.handle(new ControlMessage(this.context.getFlowStep().getId()), callback,
-                        false);
-                info("Sent %d DEL records for %s", reader.getRowReadDuringHandle(),
-                        entity.getName());
-            }
+    protected void sendDeletes(int index, ISendMessageCallback callback) {
+        EntityDataSpillFile file = deletes.get(index);
+        long count = file.getRowCount();
+        Iterator<EntityData> rows = file.iterator();
+        while (rows.hasNext()) {
+            send(rows.next(), callback);
         }
-
-        ResettableBasicDataSource ds = databasePlatform.getDataSource();
-
-        ds.close();
-
-        if (!inMemoryCompare) {
-            try {
-                Files.list(Paths.get(System.getProperty("h2.baseDir")))
-                        .filter(path -> path.toFile().getName().startsWith(databaseName))
-                        .forEach(path -> deleteDatabaseFile(path.toFile()));
-            } catch (IOException e) {
-                log.warn("Failed to delete file", e);
-            }
+        file.close();
+        flush(callback);
+        count += listeners.get(index).dels;
+        listeners.get(index).dels = 0;
+        if (count > 0) {
+            info("Sent %d DEL records for %s", count, entities.get(index).getName());
         }
-
-        databasePlatform = null;
-        databaseName = null;
-        databaseWriter = null;
-
     }
 
-    protected void deleteDatabaseFile(File file) {
-        log(LogLevel.INFO, "Deleting database file: %s", file.getName());
-        FileUtils.deleteQuietly(file);
+    protected void send(EntityData data, ISendMessageCallback callback) {
+        if (dataToSend == null) {
+            dataToSend = new ArrayList<>();
+        }
+        dataToSend.add(data);
+        if (dataToSend.size() >= rowsPerMessage) {
+            flush(callback);
+        }
     }
 
-    protected void appendColumns(StringBuilder sql, String prefix, ModelEntity entity) {
-        for (ModelAttrib attribute : entity.getModelAttributes()) {
-
-            Component component = context.getFlowStep().getComponent();
-            ComponentAttribSetting matchColumnSetting = component.getSingleAttributeSetting(
-                    attribute.getId(), DataDiff.ATTRIBUTE_COMPARE_ENABLED);
-            boolean matchColumn = matchColumnSetting != null
-                    ? Boolean.parseBoolean(matchColumnSetting.getValue()) : true;
-            if (matchColumn) {
-                sql.append(prefix).append(getFormattedName(attribute)).append(" /* ")
-                        .append(entity.getName()).append(".").append(attribute.getName())
-                        .append(" */").append(",");
-            }
+    protected void flush(ISendMessageCallback callback) {
+        if (dataToSend != null && dataToSend.size() > 0) {
+            callback.sendEntityDataMessage(null, dataToSend);
+            dataToSend = null;
         }
-        sql.replace(sql.length() - 1, sql.length(), "");
     }
 
-    protected void loadIntoDatabase(Message message) {
-        String originatingStepId = message.getHeader().getOriginatingStepId();
-        String tableSuffix = null;
-        if (sourceStep1Id.equals(originatingStepId)) {
-            tableSuffix = "_1";
-        } else if (sourceStep2Id.equals(originatingStepId)) {
-            tableSuffix = "_2";
+    protected void close() {
+        for (AbstractEntityDiff diff : diffs) {
+            diff.close();
         }
-
-        if (databaseWriter == null) {
-            databaseWriter = new RdbmsWriter();
-            databaseWriter.setDatabasePlatform(databasePlatform);
-            databaseWriter.setComponentDefinition(componentDefinition);
-            databaseWriter.setReplaceRows(true);
-            databaseWriter.setContext(context);
-            databaseWriter.setThreadNumber(threadNumber);
+        for (EntityDataSpillFile file : deletes) {
+            file.close();
         }
-
-        if (tableSuffix != null) {
-            databaseWriter.setTableSuffix(tableSuffix);
-            try {
-                databaseWriter.handle(message, null, false);
-            } finally {
-                error = databaseWriter.getError();
-            }
+        for (Listener listener : listeners) {
+            listener.sendDeletes = false;
+            listener.callback = null;
         }
+        dataToSend = null;
     }
 
-    protected void createDatabase() {
-        if (databasePlatform == null) {
-            ResettableBasicDataSource ds = new ResettableBasicDataSource();
-            ds.setDriverClassName(Driver.class.getName());
-            ds.setMaxActive(1);
-            ds.setInitialSize(1);
-            ds.setMinIdle(1);
-            ds.setMaxIdle(1);
-            databaseName = UUID.randomUUID().toString();
-            if (inMemoryCompare) {
-                ds.setUrl("jdbc:h2:mem:" + databaseName);
-            } else {
-                ds.setUrl("jdbc:h2:file:./" + databaseName);
-            }
-            databasePlatform = JdbcDatabasePlatformFactory.createNewPlatformInstance(ds,
-                    new SqlTemplateSettings(), true, false);
-
-            RelationalModel inputModel = (RelationalModel) context.getFlowStep().getComponent().getInputModel();
-            List<ModelEntity> entities = inputModel.getModelEntities();
-            for (ModelEntity entity : entities) {
-                Table table = new Table();
-                table.setName(entity.getName() + "_1");
-                List<ModelAttrib> attributes = entity.getModelAttributes();
-                for (ModelAttrib attribute : attributes) {
-                    DataType dataType = attribute.getDataType();
-                    Column column = new Column(attribute.getName());
-                    if (dataType.isNumeric()) {
-                        column.setTypeCode(Types.DECIMAL);
-                    } else if (dataType.isBoolean()) {
-                        column.setTypeCode(Types.BOOLEAN);
-                    } else if (dataType.isTimestamp()) {
-                        column.setTypeCode(Types.TIMESTAMP);
-                    } else if (dataType.isBinary()) {
-                        column.setTypeCode(Types.BLOB);
-                    } else {
-                        column.setTypeCode(Types.LONGVARCHAR);
-                    }
-
-                    column.setPrimaryKey(attribute.isPk());
-                    table.addColumn(column);
-                }
-                alterCaseToMatchLogicalCase(table);
-                databasePlatform.createTables(false, false, table);
-
-                table.setName(entity.getName().toUpperCase() + "_2");
-                databasePlatform.createTables(false, false, table);
-
-            }
-
-            log(LogLevel.INFO, "Creating databasePlatform with the following url: %s", ds.getUrl());
+    @Override
+    public void stop() {
+        if (diffs != null) {
+            close();
         }
+        super.stop();
     }
 
     @Override
@@ -422,23 +304,46 @@ public class DataDiff extends AbstractComponentRuntime {
         return false;
     }
 
-    private void alterCaseToMatchLogicalCase(Table table) {
-        table.setName(table.getName().toUpperCase());
+    class Listener implements IDiffListener {
 
-        Column[] columns = table.getColumns();
-        for (Column column : columns) {
-            column.setName(column.getName().toUpperCase());
-        }
+        int index;
+
+        boolean sendDeletes;
+
+        ISendMessageCallback callback;
 
-        IIndex[] indexes = table.getIndices();
-        for (IIndex index : indexes) {
-            index.setName(index.getName().toUpperCase());
+        long adds;
 
-            IndexColumn[] indexColumns = index.getColumns();
-            for (IndexColumn indexColumn : indexColumns) {
-                indexColumn.setName(indexColumn.getName().toUpperCase());
+        long chgs;
+
+        long dels;
+
+        long duplicates;
+
+        Listener(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void diff(ChangeType changeType, EntityData data) {
+            if (changeType == ChangeType.DEL && !sendDeletes) {
+                deletes.get(index).write(data);
+            } else {
+                if (changeType == ChangeType.ADD) {
+                    adds++;
+                } else if (changeType == ChangeType.CHG) {
+                    chgs++;
+                } else {
+                    dels++;
+                }
+                send(data, callback);
             }
         }
+
+        @Override
+        public void duplicateKey(EntityData data) {
+            duplicates++;
+        }
     }
 
 }
@@ -0,0 +1,235 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataKey;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
+
+/**
+ * Diffs rows that arrive in any order. The rows of the old version are put in
+ * a hash table by key and the rows of the new version are looked up in it.
+ * When there are more rows than fit in memory, both versions are hash
+ * partitioned by key into temporary files and each pair of partitions is
+ * diffed on its own. Partitions that are still too big are partitioned again.
+ */
+public class HashEntityDiff extends AbstractEntityDiff {
+
+    static final int PARTITIONS = 16;
+
+    static final int MAX_PARTITION_DEPTH = 3;
+
+    int maxRowsInMemory;
+
+    List<EntityData> oldRows = new ArrayList<>();
+
+    List<EntityData> newRows = new ArrayList<>();
+
+    EntityDataSpillFile[] oldPartitions;
+
+    EntityDataSpillFile[] newPartitions;
+
+    long spilledRowCount;
+
+    public HashEntityDiff(ModelEntity entity, EntityDataSchema schema, List<ModelAttrib> outputAttributes,
+            List<ModelAttrib> compareAttributes, int maxRowsInMemory) {
+        super(entity, schema, outputAttributes, compareAttributes);
+        this.maxRowsInMemory = maxRowsInMemory > 0 ? maxRowsInMemory : 1;
+    }
+
+    @Override
+    public void add(EntityData data, boolean fromOldVersion) {
+        if (oldPartitions != null) {
+            partition(data, getKey(data), 0, fromOldVersion ? oldPartitions : newPartitions);
+        } else {
+            (fromOldVersion ? oldRows : newRows).add(data);
+            if (oldRows.size() + newRows.size() > maxRowsInMemory) {
+                oldPartitions = createPartitions();
+                newPartitions = createPartitions();
+                for (EntityData row : oldRows) {
+                    partition(row, getKey(row), 0, oldPartitions);
+                }
+                for (EntityData row : newRows) {
+                    partition(row, getKey(row), 0, newPartitions);
+                }
+                oldRows = new ArrayList<>();
+                newRows = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows that were written to temporary files
+     */
+    public long getSpilledRowCount() {
+        return spilledRowCount;
+    }
+
+    @Override
+    public void finish(IDiffListener listener) {
+        if (oldPartitions == null) {
+            diff(oldRows.iterator(), newRows.iterator(), listener);
+            oldRows = new ArrayList<>();
+            newRows = new ArrayList<>();
+        } else {
+            diffPartitions(oldPartitions, newPartitions, 0, listener);
+            oldPartitions = null;
+            newPartitions = null;
+        }
+    }
+
+    protected void diffPartitions(EntityDataSpillFile[] oldFiles, EntityDataSpillFile[] newFiles, int depth,
+            IDiffListener listener) {
+        try {
+            for (int i = 0; i < oldFiles.length; i++) {
+                if (oldFiles[i].getRowCount() > maxRowsInMemory && depth + 1 < MAX_PARTITION_DEPTH) {
+                    EntityDataSpillFile[] oldSubFiles = createPartitions();
+                    EntityDataSpillFile[] newSubFiles = createPartitions();
+                    repartition(oldFiles[i], oldSubFiles, depth + 1);
+                    repartition(newFiles[i], newSubFiles, depth + 1);
+                    diffPartitions(oldSubFiles, newSubFiles, depth + 1, listener);
+                } else {
+                    diff(oldFiles[i].iterator(), newFiles[i].iterator(), listener);
+                }
+                oldFiles[i].close();
+                newFiles[i].close();
+            }
+        } finally {
+            close(oldFiles);
+            close(newFiles);
+        }
+    }
+
+    protected void repartition(EntityDataSpillFile file, EntityDataSpillFile[] partitions, int depth) {
+        Iterator<EntityData> rows = file.iterator();
+        while (rows.hasNext()) {
+            EntityData row = rows.next();
+            partition(row, getKey(row), depth, partitions);
+        }
+        file.close();
+    }
+
+    protected void diff(Iterator<EntityData> oldRows, Iterator<EntityData> newRows, IDiffListener listener) {
+        Map<EntityDataKey, OldRow> table = new HashMap<>();
+        while (oldRows.hasNext()) {
+            EntityData row = oldRows.next();
+            EntityDataKey key = getKey(row);
+            if (table.containsKey(key)) {
+                listener.duplicateKey(row);
+            } else {
+                table.put(key, new OldRow(row, chgEnabled ? hashCompareValues(row) : 0));
+            }
+        }
+
+        while (newRows.hasNext()) {
+            EntityData row = newRows.next();
+            OldRow oldRow = table.get(getKey(row));
+            if (oldRow == null) {
+                if (addEnabled) {
+                    changed(ChangeType.ADD, row, listener);
+                }
+            } else {
+                oldRow.matched = true;
+                if (chgEnabled && isChanged(oldRow.data, oldRow.hash, row)) {
+                    changed(ChangeType.CHG, row, listener);
+                }
+            }
+        }
+
+        if (delEnabled) {
+            for (OldRow oldRow : table.values()) {
+                if (!oldRow.matched) {
+                    changed(ChangeType.DEL, oldRow.data, listener);
+                }
+            }
+        }
+    }
+
+    protected void partition(EntityData data, EntityDataKey key, int depth, EntityDataSpillFile[] partitions) {
+        /*
+         * Each level of partitioning uses a different group of bits from the
+         * mixed hash so that a partition splits up when it is partitioned
+         * again
+         */
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        partitions[(hash >>> (depth * 4)) & (PARTITIONS - 1)].write(data);
+        if (depth == 0) {
+            spilledRowCount++;
+        }
+    }
+
+    protected EntityDataSpillFile[] createPartitions() {
+        EntityDataSpillFile[] partitions = new EntityDataSpillFile[PARTITIONS];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new EntityDataSpillFile("metl-diff", schema);
+        }
+        return partitions;
+    }
+
+    protected void close(EntityDataSpillFile[] partitions) {
+        if (partitions != null) {
+            for (EntityDataSpillFile partition : partitions) {
+                partition.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        close(oldPartitions);
+        close(newPartitions);
+        oldPartitions = null;
+        newPartitions = null;
+        oldRows = new ArrayList<>();
+        newRows = new ArrayList<>();
+        spilledRowCount = 0;
+    }
+
+    static class OldRow {
+
+        EntityData data;
+
+        long hash;
+
+        boolean matched;
+
+        OldRow(EntityData data, long hash) {
+            this.data = data;
+            this.hash = hash;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.List;
+
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataKey;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.EntityDataSpillQueue;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+
+/**
+ * Diffs rows from two versions that are both sorted by key. Rows are diffed as
+ * soon as a row from the other version is available to compare with, so
+ * only the rows of the version that has gotten ahead of the other are held.
+ * Those rows spill to a temporary file if there are more than fit in memory.
+ */
+public class MergeEntityDiff extends AbstractEntityDiff {
+
+    int maxRowsInMemory;
+
+    RowQueue oldRows;
+
+    RowQueue newRows;
+
+    EntityDataKey lastOldKey;
+
+    EntityDataKey lastNewKey;
+
+    EntityDataKey lastMergedOldKey;
+
+    public MergeEntityDiff(ModelEntity entity, EntityDataSchema schema, List<ModelAttrib> outputAttributes,
+            List<ModelAttrib> compareAttributes, int maxRowsInMemory) {
+        super(entity, schema, outputAttributes, compareAttributes);
+        this.maxRowsInMemory = maxRowsInMemory > 0 ? maxRowsInMemory : 1;
+        this.oldRows = new RowQueue();
+        this.newRows = new RowQueue();
+    }
+
+    /**
+     * Adds a row and sends the differences that can be determined so far
+     */
+    public void add(EntityData data, boolean fromOldVersion, IDiffListener listener) {
+        add(data, fromOldVersion);
+        merge(listener);
+    }
+
+    @Override
+    public void add(EntityData data, boolean fromOldVersion) {
+        EntityDataKey key = getKey(data);
+        EntityDataKey lastKey = fromOldVersion ? lastOldKey : lastNewKey;
+        if (lastKey != null && key.compareTo(lastKey) < 0) {
+            throw new MisconfiguredException(
+                    "The rows of %s from the %s version are not sorted by key.  %s came after %s",
+                    entity.getName(), fromOldVersion ? "old" : "new", key, lastKey);
+        }
+        if (fromOldVersion) {
+            lastOldKey = key;
+            oldRows.add(data);
+        } else {
+            lastNewKey = key;
+            newRows.add(data);
+        }
+    }
+
+    protected void merge(IDiffListener listener) {
+        while (oldRows.peek() != null && newRows.peek() != null) {
+            if (skipDuplicateOldRow(listener)) {
+                continue;
+            }
+            EntityDataKey oldKey = oldRows.peekKey();
+            int compare = oldKey.compareTo(newRows.peekKey());
+            if (compare <= 0) {
+                lastMergedOldKey = oldKey;
+            }
+            if (compare < 0) {
+                EntityData oldData = oldRows.poll();
+                if (delEnabled) {
+                    changed(ChangeType.DEL, oldData, listener);
+                }
+            } else if (compare > 0) {
+                EntityData newData = newRows.poll();
+                if (addEnabled) {
+                    changed(ChangeType.ADD, newData, listener);
+                }
+            } else {
+                EntityData oldData = oldRows.poll();
+                EntityData newData = newRows.poll();
+                if (chgEnabled && isChanged(oldData, newData)) {
+                    changed(ChangeType.CHG, newData, listener);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void finish(IDiffListener listener) {
+        merge(listener);
+        EntityData data;
+        while (oldRows.peek() != null) {
+            if (!skipDuplicateOldRow(listener)) {
+                lastMergedOldKey = oldRows.peekKey();
+                data = oldRows.poll();
+                if (delEnabled) {
+                    changed(ChangeType.DEL, data, listener);
+                }
+            }
+        }
+        while ((data = newRows.poll()) != null) {
+            if (addEnabled) {
+                changed(ChangeType.ADD, data, listener);
+            }
+        }
+        close();
+    }
+
+    /**
+     * Old rows are sorted, so a duplicate key follows the row it duplicates
+     */
+    protected boolean skipDuplicateOldRow(IDiffListener listener) {
+        if (lastMergedOldKey != null && oldRows.peekKey().compareTo(lastMergedOldKey) == 0) {
+            listener.duplicateKey(oldRows.poll());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        oldRows.close();
+        newRows.close();
+        oldRows = new RowQueue();
+        newRows = new RowQueue();
+        lastOldKey = null;
+        lastNewKey = null;
+        lastMergedOldKey = null;
+    }
+
+    /**
+     * A spillable queue of rows that remembers the key of the row at its head
+     */
+    class RowQueue extends EntityDataSpillQueue {
+
+        EntityDataKey headKey;
+
+        RowQueue() {
+            super("metl-diff", schema, maxRowsInMemory);
+        }
+
+        EntityDataKey peekKey() {
+            if (headKey == null) {
+                EntityData data = peek();
+                if (data != null) {
+                    headKey = getKey(data);
+                }
+            }
+            return headKey;
+        }
+
+        @Override
+        public EntityData poll() {
+            headKey = null;
+            return super.poll();
+        }
+    }
+
+}
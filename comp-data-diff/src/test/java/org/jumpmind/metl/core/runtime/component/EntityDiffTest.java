@@ -0,0 +1,219 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.DataType;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.component.AbstractEntityDiff.IDiffListener;
+import org.junit.Test;
+
+public class EntityDiffTest {
+
+    RelationalModel model = createModel();
+
+    ModelEntity entity = model.getModelEntities().get(0);
+
+    int normalizedCompares;
+
+    @Test
+    public void testAddChangeDelete() {
+        List<EntityData> oldRows = Arrays.asList(row(1, "a", "1.00"), row(2, "b", "2"), row(3, "c", "3"));
+        List<EntityData> newRows = Arrays.asList(row(1, "a", "1.00"), row(2, "b", "2.5"), row(4, "d", "4"));
+        for (AbstractEntityDiff diff : createDiffs(1000)) {
+            Listener listener = diff(diff, oldRows, newRows);
+            assertEquals(Arrays.asList("ADD:4", "CHG:2", "DEL:3"), listener.sorted());
+            assertEquals(0, listener.duplicates.size());
+        }
+    }
+
+    @Test
+    public void testRawValuesAreNotNormalizedWhenEqual() {
+        List<EntityData> oldRows = Arrays.asList(row(1, "a", "1.00"), row(2, "b", "2"), bytesRow(3, new byte[] { 1, 2 }));
+        List<EntityData> newRows = Arrays.asList(row(1, "a", "1.00"), row(2, "b", "2.000"), bytesRow(3, new byte[] { 1, 2 }));
+        for (AbstractEntityDiff diff : createDiffs(1000)) {
+            normalizedCompares = 0;
+            Listener listener = diff(diff, oldRows, newRows);
+            assertEquals(Collections.emptyList(), listener.sorted());
+            assertEquals(diff instanceof MergeEntityDiff ? "merge" : "hash", 1, normalizedCompares);
+        }
+    }
+
+    @Test
+    public void testDuplicateOldKeys() {
+        List<EntityData> oldRows = Arrays.asList(row(1, "a", "1"), row(1, "x", "9"), row(2, "b", "2"), row(3, "c", "3"),
+                row(3, "y", "9"));
+        List<EntityData> newRows = Arrays.asList(row(1, "a", "1"), row(2, "b", "2"));
+        for (int maxRowsInMemory : new int[] { 1000, 1 }) {
+            for (AbstractEntityDiff diff : createDiffs(maxRowsInMemory)) {
+                Listener listener = diff(diff, oldRows, newRows);
+                String engine = diff instanceof MergeEntityDiff ? "merge" : "hash";
+                assertEquals(engine, Arrays.asList("DEL:3"), listener.sorted());
+                assertEquals(engine, 2, listener.duplicates.size());
+                List<String> duplicates = new ArrayList<>();
+                for (EntityData data : listener.duplicates) {
+                    duplicates.add(data.get("id") + ":" + data.get("name"));
+                }
+                Collections.sort(duplicates);
+                assertEquals(engine, Arrays.asList("1:x", "3:y"), duplicates);
+            }
+        }
+    }
+
+    @Test
+    public void testSpilledHashDiffMatchesInMemory() {
+        List<EntityData> oldRows = new ArrayList<>();
+        List<EntityData> newRows = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            if (i % 7 != 0) {
+                oldRows.add(row(i, "name " + i, Integer.toString(i)));
+            }
+            if (i % 5 != 0) {
+                newRows.add(row(i, "name " + i, i % 3 == 0 ? i + ".5" : i + ".0"));
+            }
+        }
+        HashEntityDiff spilled = new HashEntityDiff(entity, model.getEntityDataSchema(), entity.getModelAttributes(),
+                compareAttributes(), 10);
+        List<String> expected = diff(new HashEntityDiff(entity, model.getEntityDataSchema(), entity.getModelAttributes(),
+                compareAttributes(), 1000), oldRows, newRows).sorted();
+        assertEquals(expected, diff(spilled, oldRows, newRows).sorted());
+        assertEquals(expected, diff(createDiffs(1).get(1), oldRows, newRows).sorted());
+    }
+
+    protected Listener diff(AbstractEntityDiff diff, List<EntityData> oldRows, List<EntityData> newRows) {
+        Listener listener = new Listener();
+        boolean merge = diff instanceof MergeEntityDiff;
+        for (int i = 0; i < Math.max(oldRows.size(), newRows.size()); i++) {
+            if (i < oldRows.size()) {
+                add(diff, oldRows.get(i), true, merge, listener);
+            }
+            if (i < newRows.size()) {
+                add(diff, newRows.get(i), false, merge, listener);
+            }
+        }
+        diff.finish(listener);
+        diff.close();
+        return listener;
+    }
+
+    protected void add(AbstractEntityDiff diff, EntityData data, boolean fromOldVersion, boolean merge, Listener listener) {
+        if (merge) {
+            ((MergeEntityDiff) diff).add(data.copy(), fromOldVersion, listener);
+        } else {
+            diff.add(data.copy(), fromOldVersion);
+        }
+    }
+
+    protected List<AbstractEntityDiff> createDiffs(int maxRowsInMemory) {
+        List<AbstractEntityDiff> diffs = new ArrayList<>();
+        diffs.add(new HashEntityDiff(entity, model.getEntityDataSchema(), entity.getModelAttributes(), compareAttributes(),
+                maxRowsInMemory) {
+            @Override
+            protected boolean isNormalizedDifferent(EntityData oldData, EntityData newData) {
+                normalizedCompares++;
+                return super.isNormalizedDifferent(oldData, newData);
+            }
+        });
+        diffs.add(new MergeEntityDiff(entity, model.getEntityDataSchema(), entity.getModelAttributes(), compareAttributes(),
+                maxRowsInMemory) {
+            @Override
+            protected boolean isNormalizedDifferent(EntityData oldData, EntityData newData) {
+                normalizedCompares++;
+                return super.isNormalizedDifferent(oldData, newData);
+            }
+        });
+        return diffs;
+    }
+
+    protected List<ModelAttrib> compareAttributes() {
+        List<ModelAttrib> attributes = new ArrayList<>(entity.getModelAttributes());
+        attributes.remove(0);
+        return attributes;
+    }
+
+    protected EntityData row(int id, String name, String amount) {
+        EntityData data = new EntityData(model.getEntityDataSchema());
+        data.put("id", new BigDecimal(id));
+        data.put("name", name);
+        data.put("amount", amount);
+        return data;
+    }
+
+    protected EntityData bytesRow(int id, byte[] bytes) {
+        EntityData data = row(id, null, null);
+        data.put("data", bytes);
+        return data;
+    }
+
+    protected static RelationalModel createModel() {
+        ModelEntity entity = new ModelEntity("test", "TEST");
+        ModelAttrib id = new ModelAttrib("id", entity.getId(), "ID");
+        id.setPk(true);
+        id.setDataType(DataType.INTEGER);
+        entity.addModelAttribute(id);
+        ModelAttrib name = new ModelAttrib("name", entity.getId(), "NAME");
+        name.setDataType(DataType.VARCHAR);
+        entity.addModelAttribute(name);
+        ModelAttrib amount = new ModelAttrib("amount", entity.getId(), "AMOUNT");
+        amount.setDataType(DataType.DECIMAL);
+        entity.addModelAttribute(amount);
+        ModelAttrib data = new ModelAttrib("data", entity.getId(), "DATA");
+        data.setDataType(DataType.BINARY);
+        entity.addModelAttribute(data);
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+
+    static class Listener implements IDiffListener {
+
+        List<String> diffs = new ArrayList<>();
+
+        List<EntityData> duplicates = new ArrayList<>();
+
+        @Override
+        public void diff(ChangeType changeType, EntityData data) {
+            diffs.add(changeType + ":" + data.get("id"));
+        }
+
+        @Override
+        public void duplicateKey(EntityData data) {
+            duplicates.add(data);
+        }
+
+        List<String> sorted() {
+            List<String> sorted = new ArrayList<>(diffs);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+}
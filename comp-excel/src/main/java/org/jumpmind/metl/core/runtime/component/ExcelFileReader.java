@@ -20,6 +20,7 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
@@ -30,13 +31,26 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.xmlbeans.XmlException;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.ComponentAttribSetting;
 import org.jumpmind.metl.core.model.RelationalModel;
@@ -46,6 +60,13 @@ import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.properties.TypedProperties;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class ExcelFileReader extends AbstractFileReader {
 
@@ -60,12 +81,16 @@ public class ExcelFileReader extends AbstractFileReader {
     public static final String SETTING_EXCEL_MAPPING = "excel.mapping";
 
     public final static String IGNORE_ERROR = "ignore.error";
+
+    public final static String SETTING_STREAMING = "streaming";
     
     int rowsPerMessage = 1000;
 
     int headerLinesToSkip = 0;
 
     boolean ignoreError = false;
+
+    boolean streaming = false;
     
     RelationalModel outputModel;
 
@@ -81,6 +106,7 @@ public class ExcelFileReader extends AbstractFileReader {
         rowsPerMessage = properties.getInt(SETTING_ROWS_PER_MESSAGE, rowsPerMessage);
         headerLinesToSkip = properties.getInt(SETTING_HEADER_LINES_TO_SKIP, headerLinesToSkip);
         ignoreError = properties.is(IGNORE_ERROR, false);
+        streaming = properties.is(SETTING_STREAMING, streaming);
         convertAttributeSettingsToMaps();
     }
 
@@ -147,7 +173,11 @@ public class ExcelFileReader extends AbstractFileReader {
                 String filePath = resolveParamsAndHeaders(file, inputMessage);
                 inStream = directory.getInputStream(filePath, mustExist);
                 if (inStream != null) {
-                    readWorkbook(headers, inStream, callback);
+                    if (streaming) {
+                        streamWorkbook(headers, inStream, callback);
+                    } else {
+                        readWorkbook(headers, inStream, callback);
+                    }
                 }
             } catch (IOException e) {
                 throw new IoException("Error reading from file " + e.getMessage());
@@ -258,4 +288,242 @@ public class ExcelFileReader extends AbstractFileReader {
             IOUtils.closeQuietly(wb);
         }
     }
+
+    /**
+     * Reads the workbook with the XSSF event model. The sheet XML is parsed
+     * with SAX and rows are sent downstream in batches of rows per message
+     * while the sheet is being parsed, so only the shared strings table and
+     * the current batch are held in memory.
+     */
+    private void streamWorkbook(Map<String, Serializable> headers, InputStream inStream,
+            ISendMessageCallback callback) throws IOException {
+        /*
+         * OPCPackage inflates every part into memory when opened from a
+         * stream, so spool the workbook to a temp file and open it from there
+         */
+        File spoolFile = File.createTempFile("metl-excel-", ".xlsx");
+        OPCPackage pkg = null;
+        try {
+            FileUtils.copyInputStreamToFile(inStream, spoolFile);
+            pkg = OPCPackage.open(spoolFile, PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(pkg);
+            SheetRowHandler handler = new SheetRowHandler(headers, callback,
+                    new ReadOnlySharedStringsTable(pkg), reader.getStylesTable(),
+                    isDate1904(reader));
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                InputStream sheetStream = sheets.next();
+                try {
+                    String sheetName = sheets.getSheetName();
+                    if (worsheetsToRead.contains(sheetName)) {
+                        handler.worksheetColumnArray = worksheetColumnListMap.get(sheetName);
+                        XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+                        xmlReader.setContentHandler(handler);
+                        xmlReader.parse(new InputSource(sheetStream));
+                    }
+                } finally {
+                    IOUtils.closeQuietly(sheetStream);
+                }
+            }
+            // send leftovers
+            handler.sendPayload();
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IoException(e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+            FileUtils.deleteQuietly(spoolFile);
+        }
+    }
+
+    private boolean isDate1904(XSSFReader reader) throws IOException, OpenXML4JException {
+        InputStream workbookStream = reader.getWorkbookData();
+        try {
+            CTWorkbook workbook = WorkbookDocument.Factory.parse(workbookStream).getWorkbook();
+            return workbook.isSetWorkbookPr() && workbook.getWorkbookPr().getDate1904();
+        } catch (XmlException e) {
+            throw new IoException(e);
+        } finally {
+            IOUtils.closeQuietly(workbookStream);
+        }
+    }
+
+    /**
+     * Converts the rows of a sheet to {@link EntityData} using the same cell
+     * value rules as {@link #readWorkbook(Map, InputStream, ISendMessageCallback)}.
+     * One handler is used for all sheets of a file so that header lines to
+     * skip and partial batches carry over from sheet to sheet the same way.
+     */
+    class SheetRowHandler extends DefaultHandler {
+
+        Map<String, Serializable> headers;
+
+        ISendMessageCallback callback;
+
+        ReadOnlySharedStringsTable sharedStrings;
+
+        StylesTable styles;
+
+        boolean date1904;
+
+        String[] worksheetColumnArray;
+
+        ArrayList<EntityData> outboundPayload = new ArrayList<EntityData>();
+
+        int currentFileLinesRead = 1;
+
+        EntityData data;
+
+        int rowNumber;
+
+        int columnIndex;
+
+        String cellType;
+
+        int styleIndex;
+
+        boolean formula;
+
+        StringBuilder value = new StringBuilder();
+
+        StringBuilder formulaText = new StringBuilder();
+
+        StringBuilder text;
+
+        SheetRowHandler(Map<String, Serializable> headers, ISendMessageCallback callback,
+                ReadOnlySharedStringsTable sharedStrings, StylesTable styles, boolean date1904) {
+            this.headers = headers;
+            this.callback = callback;
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.date1904 = date1904;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            if ("row".equals(localName)) {
+                String r = attributes.getValue("r");
+                rowNumber = r != null ? Integer.parseInt(r) : rowNumber + 1;
+                columnIndex = -1;
+                if (currentFileLinesRead > headerLinesToSkip) {
+                    data = new EntityData();
+                }
+            } else if (data != null) {
+                if ("c".equals(localName)) {
+                    String r = attributes.getValue("r");
+                    columnIndex = r != null ? calculateColumnIndex(columnLetters(r)) : columnIndex + 1;
+                    cellType = attributes.getValue("t");
+                    String s = attributes.getValue("s");
+                    styleIndex = s != null ? Integer.parseInt(s) : 0;
+                    formula = false;
+                    value.setLength(0);
+                    formulaText.setLength(0);
+                } else if ("v".equals(localName) || ("t".equals(localName) && "inlineStr".equals(cellType))) {
+                    text = value;
+                } else if ("f".equals(localName)) {
+                    formula = true;
+                    text = formulaText;
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("row".equals(localName)) {
+                if (data != null) {
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    // only add the data record to the outbound payload if there is data existing
+                    if (!data.isEmpty()) {
+                        outboundPayload.add(data);
+                    }
+                    if (outboundPayload.size() == rowsPerMessage) {
+                        sendPayload();
+                    }
+                    data = null;
+                }
+                currentFileLinesRead++;
+            } else if (data != null) {
+                if ("c".equals(localName)) {
+                    if (columnIndex < worksheetColumnArray.length && worksheetColumnArray[columnIndex] != null) {
+                        data.put(worksheetColumnArray[columnIndex], getCellValue());
+                    }
+                } else if ("v".equals(localName) || "t".equals(localName) || "f".equals(localName)) {
+                    text = null;
+                }
+            }
+        }
+
+        void sendPayload() {
+            if (outboundPayload.size() > 0) {
+                callback.sendEntityDataMessage(headers, outboundPayload);
+                outboundPayload = new ArrayList<EntityData>();
+            }
+        }
+
+        Object getCellValue() {
+            String cellValue = value.toString();
+            if (formula) {
+                // the object model only hands back string formula results
+                if ("str".equals(cellType)) {
+                    return cellValue;
+                } else if (ignoreError) {
+                    return null;
+                } else {
+                    throw new UnsupportedOperationException("Error in cell formula: " + formulaText
+                            + " .  Invalid cell (RowIdx:ColIdx): " + rowNumber + ":" + (columnIndex + 1));
+                }
+            } else if ("s".equals(cellType)) {
+                return cellValue.length() > 0 ? sharedStrings.getEntryAt(Integer.parseInt(cellValue.trim())) : null;
+            } else if ("inlineStr".equals(cellType) || "str".equals(cellType)) {
+                return cellValue;
+            } else if ("b".equals(cellType)) {
+                return cellValue.length() > 0 ? "1".equals(cellValue.trim()) : null;
+            } else if ("e".equals(cellType)) {
+                if (ignoreError) {
+                    return null;
+                } else {
+                    throw new UnsupportedOperationException(
+                            "Error in cell.  (RowIdx:ColIdx): " + rowNumber + ":" + (columnIndex + 1));
+                }
+            } else if (cellValue.length() == 0) {
+                return null;
+            } else {
+                double number = Double.parseDouble(cellValue);
+                if (isDateFormatted(number)) {
+                    return DateUtil.getJavaDate(number, date1904);
+                } else {
+                    return number;
+                }
+            }
+        }
+
+        boolean isDateFormatted(double number) {
+            if (styles != null && styleIndex < styles.getNumCellStyles() && DateUtil.isValidExcelDate(number)) {
+                XSSFCellStyle style = styles.getStyleAt(styleIndex);
+                return DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+            } else {
+                return false;
+            }
+        }
+
+        String columnLetters(String cellReference) {
+            int i = 0;
+            while (i < cellReference.length() && Character.isLetter(cellReference.charAt(i))) {
+                i++;
+            }
+            return cellReference.substring(0, i).toUpperCase();
+        }
+    }
 }
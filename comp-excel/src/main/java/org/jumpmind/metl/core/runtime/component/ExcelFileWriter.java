@@ -38,6 +38,7 @@ import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.ComponentAttribSetting;
@@ -69,6 +70,10 @@ public class ExcelFileWriter extends AbstractFileWriter {
 
     public final static String EXCEL_WRITER_ATTRIBUTE_ORDINAL = "excel.writer.attribute.ordinal";
 
+    public final static String SETTING_STREAMING = "streaming";
+
+    public final static String SETTING_ROW_ACCESS_WINDOW = "row.access.window";
+
     public final static String EXCEL_OUTPUT_FORMAT = "Microsoft Excel XML (.xlsx)";
     
     boolean emptyFile;
@@ -76,6 +81,10 @@ public class ExcelFileWriter extends AbstractFileWriter {
     boolean inputDataReceived = false;
     
     boolean includeHeader;
+
+    boolean streaming;
+
+    int rowAccessWindow = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
             
     String excelOutputType = EXCEL_OUTPUT_TYPE;
     
@@ -103,6 +112,8 @@ public class ExcelFileWriter extends AbstractFileWriter {
         includeHeader = properties.is(SETTING_INCLUDE_HEADER, false);
         excelOutputType = properties.get(EXCEL_OUTPUT_TYPE, excelOutputType);
         excelSheetName = properties.get(SETTING_SHEET_NAME, excelSheetName);
+        streaming = properties.is(SETTING_STREAMING, false);
+        rowAccessWindow = properties.getInt(SETTING_ROW_ACCESS_WINDOW, rowAccessWindow);
         String enteredFileName = properties.get(SETTING_RELATIVE_PATH);
         
         // make sure the user entered a valid name extension matching the type of output requested
@@ -119,8 +130,25 @@ public class ExcelFileWriter extends AbstractFileWriter {
         	relativePathAndFile = properties.get(SETTING_RELATIVE_PATH);
         }
         
+        if (streaming && "Microsoft Excel (.xls)".equals(excelOutputType)) {
+            throw new MisconfiguredException("Streaming is only supported for the Microsoft Excel XML (.xlsx) output type.");
+        } else if (streaming && rowAccessWindow <= 0) {
+            throw new MisconfiguredException("The rows kept in memory must be greater than zero when streaming.");
+        }
+
+        createWorkbook();
+        convertAttributeSettingsToAttributeFormat();
+    }
+
+    private void createWorkbook() {
         if ("Microsoft Excel (.xls)".equals(excelOutputType)) {
         	wb = new HSSFWorkbook();
+        } else if (streaming) {
+            /*
+             * only the last rowAccessWindow rows are kept in memory. older rows
+             * are flushed to a temp file and copied into the sheet on write
+             */
+            wb = new SXSSFWorkbook(rowAccessWindow);
         } else {
             wb = new XSSFWorkbook();
         }
@@ -128,7 +156,7 @@ public class ExcelFileWriter extends AbstractFileWriter {
         // fix user entered sheet (tab) name if it does not meet the Excel requirements
         String safeName = WorkbookUtil.createSafeSheetName(excelSheetName);
         sheet = wb.createSheet(safeName);
-        convertAttributeSettingsToAttributeFormat();
+        rowNbr = 0;
     }
 
     @Override
@@ -171,7 +199,7 @@ public class ExcelFileWriter extends AbstractFileWriter {
             
             // if we need to include the header add it to the output and update the boolean to not output again
             if (includeHeader) {
-            	Row row = sheet.createRow((short)rowNbr);
+            	Row row = sheet.createRow(rowNbr);
         		for (AttributeFormat attr : attributes) {
                     if (attr.getAttribute() != null) {
                 		Cell cell = row.createCell(colNbr);
@@ -190,7 +218,7 @@ public class ExcelFileWriter extends AbstractFileWriter {
             if (inputMessage instanceof EntityDataMessage) {
                 ArrayList<EntityData> inputRows = ((EntityDataMessage)inputMessage).getPayload();
                 for (EntityData inputRow : inputRows) {
-                	Row row = sheet.createRow((short)rowNbr);
+                	Row row = sheet.createRow(rowNbr);
                 	for (AttributeFormat attribute : attributes) {
                         Object object = inputRow.get(attribute.getAttributeId());
                     	Cell cell = row.createCell(colNbr);
@@ -206,15 +234,18 @@ public class ExcelFileWriter extends AbstractFileWriter {
     	try {
 	        if ((inputMessage instanceof ControlMessage || unitOfWorkBoundaryReached) && callback != null) {
 				if (fileOut != null) {
-					wb.write(fileOut);
+					writeWorkbook();
+				}
+				if (streaming) {
+				    closeFile();
 				}
 	            closeDirectory();
 	            ArrayList<String> results = new ArrayList<>(1);
 	            results.add("{\"status\":\"success\"}");
 	            callback.sendTextMessage(null, results);
-	        } else if (inputMessage instanceof ContentMessage) {
+	        } else if (inputMessage instanceof ContentMessage && !streaming) {
 				if (fileOut != null) {
-					wb.write(fileOut);
+					writeWorkbook();
 				}
 	            closeFile();
 	        }
@@ -223,6 +254,27 @@ public class ExcelFileWriter extends AbstractFileWriter {
 		}
     }
     
+    /*
+     * The whole workbook is rewritten on each message unless streaming. A
+     * streamed sheet can only be written once, so the file stays open across
+     * messages and is written at the end of the unit of work. Then its temp
+     * files are removed and the next file starts over with its own header.
+     */
+    private void writeWorkbook() throws IOException {
+        wb.write(fileOut);
+        if (wb instanceof SXSSFWorkbook) {
+            disposeWorkbook();
+            createWorkbook();
+            includeHeader = getTypedProperties().is(SETTING_INCLUDE_HEADER, false);
+        }
+    }
+
+    private void disposeWorkbook() {
+        if (wb instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) wb).dispose();
+        }
+    }
+
     private void closeDirectory() {
         if (directory != null) {
             directory.close();
@@ -230,15 +282,31 @@ public class ExcelFileWriter extends AbstractFileWriter {
         }        
     }
     
+    @Override
+    public void flowCompleted(boolean cancelled) {
+        if (streaming && fileOut != null && !cancelled) {
+            try {
+                writeWorkbook();
+            } catch (IOException e) {
+                throw new IoException(e);
+            } finally {
+                closeFile();
+            }
+        }
+        super.flowCompleted(cancelled);
+    }
+
     @Override
     public void stop() {
         super.stop();
         closeDirectory();
+        disposeWorkbook();
     }
 
     @Override
     public void flowCompletedWithErrors(Throwable myError) {
         closeFile();
+        disposeWorkbook();
         super.flowCompletedWithErrors(myError);
     }
 
@@ -0,0 +1,184 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Folder;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.LocalFile;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.jumpmind.properties.TypedProperties;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ExcelFileReaderTest {
+
+    private static final String FILE_PATH = "build/files/";
+
+    private static final String FILE_NAME = "excel_test_reader.xlsx";
+
+    private static final Date DATE = new Date(1475280000000L);
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream out = new FileOutputStream(FILE_PATH + FILE_NAME)) {
+            CellStyle dateStyle = wb.createCellStyle();
+            dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+            Sheet sheet = wb.createSheet("Sheet1");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("NAME");
+            header.createCell(1).setCellValue("AMOUNT");
+            header.createCell(2).setCellValue("ACTIVE");
+            header.createCell(3).setCellValue("CREATED");
+            for (int i = 1; i <= 5; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("name " + i);
+                row.createCell(1).setCellValue(i * 1.5);
+                row.createCell(2).setCellValue(i % 2 == 0);
+                row.createCell(3).setCellValue(DATE);
+                row.getCell(3).setCellStyle(dateStyle);
+            }
+            wb.write(out);
+        }
+    }
+
+    @Test
+    public void testStreamingReadMatchesTheObjectModel() throws Exception {
+        List<ArrayList<EntityData>> expected = read(false);
+        List<ArrayList<EntityData>> actual = read(true);
+        assertEquals(3, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadCellValues() throws Exception {
+        List<ArrayList<EntityData>> messages = read(true);
+        assertEquals(2, messages.get(0).size());
+        assertEquals(1, messages.get(2).size());
+        EntityData row = messages.get(0).get(1);
+        assertEquals("name 2", row.get("name"));
+        assertEquals(3.0, row.get("amount"));
+        assertEquals(Boolean.TRUE, row.get("active"));
+        assertEquals(DATE, row.get("created"));
+    }
+
+    private static List<ArrayList<EntityData>> read(boolean streaming) throws Exception {
+        FlowStep flowStep = createReaderFlowStep(streaming);
+        ExcelFileReader reader = new ExcelFileReader();
+        reader.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(),
+                deployResource(flowStep.getComponent().getResource()), null, null, null));
+        reader.start();
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        reader.handle(new ControlMessage("fake step id"), callback, true);
+        reader.flowCompleted(false);
+        return callback.getPayloadList();
+    }
+
+    private static Map<String, IResourceRuntime> deployResource(Resource resource) {
+        IResourceRuntime resourceRuntime = new LocalFile();
+        TypedProperties properties = new TypedProperties();
+        properties.put(LocalFile.LOCALFILE_PATH, FILE_PATH);
+        resourceRuntime.start(resource, properties);
+        Map<String, IResourceRuntime> deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), resourceRuntime);
+        return deployedResources;
+    }
+
+    private static FlowStep createReaderFlowStep(boolean streaming) {
+        Folder folder = TestUtils.createFolder("Test Folder");
+        Flow flow = TestUtils.createFlow("TestFlow", folder);
+        Setting[] settingData = new Setting[4];
+        settingData[0] = new Setting(ExcelFileReader.SETTING_RELATIVE_PATH, FILE_NAME);
+        settingData[1] = new Setting(ExcelFileReader.SETTING_ROWS_PER_MESSAGE, "2");
+        settingData[2] = new Setting(ExcelFileReader.SETTING_HEADER_LINES_TO_SKIP, "1");
+        settingData[3] = new Setting(ExcelFileReader.SETTING_STREAMING, Boolean.toString(streaming));
+        Component component = TestUtils.createComponent(ExcelFileReader.TYPE, false, createResource(), null,
+                createOutputModel(), null, createAttributeSettings(), settingData);
+        FlowStep readerFlowStep = new FlowStep();
+        readerFlowStep.setFlowId(flow.getId());
+        readerFlowStep.setComponentId(component.getId());
+        readerFlowStep.setCreateBy("Test");
+        readerFlowStep.setCreateTime(new Date());
+        readerFlowStep.setLastUpdateBy("Test");
+        readerFlowStep.setLastUpdateTime(new Date());
+        readerFlowStep.setComponent(component);
+        return readerFlowStep;
+    }
+
+    private static Resource createResource() {
+        List<Setting> settings = new ArrayList<Setting>(1);
+        settings.add(new Setting(LocalFile.LOCALFILE_PATH, FILE_PATH));
+        Resource resource = new Resource();
+        resource.setName("Test Resource");
+        resource.setFolderId("Test Folder Resource");
+        resource.setType(LocalFile.TYPE);
+        resource.setFolder(TestUtils.createFolder("Test Folder Resource"));
+        resource.setSettings(settings);
+        return resource;
+    }
+
+    private static List<ComponentAttribSetting> createAttributeSettings() {
+        List<ComponentAttribSetting> attributeSettings = new ArrayList<ComponentAttribSetting>();
+        attributeSettings.add(new ComponentAttribSetting("name", ExcelFileReader.SETTING_EXCEL_MAPPING, "Sheet1:A"));
+        attributeSettings.add(new ComponentAttribSetting("amount", ExcelFileReader.SETTING_EXCEL_MAPPING, "Sheet1:B"));
+        attributeSettings.add(new ComponentAttribSetting("active", ExcelFileReader.SETTING_EXCEL_MAPPING, "Sheet1:C"));
+        attributeSettings.add(new ComponentAttribSetting("created", ExcelFileReader.SETTING_EXCEL_MAPPING, "Sheet1:D"));
+        return attributeSettings;
+    }
+
+    private static RelationalModel createOutputModel() {
+        ModelEntity entity = new ModelEntity("test", "TEST");
+        entity.addModelAttribute(new ModelAttrib("name", entity.getId(), "NAME"));
+        entity.addModelAttribute(new ModelAttrib("amount", entity.getId(), "AMOUNT"));
+        entity.addModelAttribute(new ModelAttrib("active", entity.getId(), "ACTIVE"));
+        entity.addModelAttribute(new ModelAttrib("created", entity.getId(), "CREATED"));
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+}
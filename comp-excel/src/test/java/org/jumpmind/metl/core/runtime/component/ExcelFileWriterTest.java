@@ -0,0 +1,172 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Folder;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.LocalFile;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.jumpmind.properties.TypedProperties;
+import org.junit.Test;
+
+public class ExcelFileWriterTest {
+
+    private static final String FILE_PATH = "build/files/";
+
+    private static final String FILE_NAME = "excel_test_writer.xlsx";
+
+    @Test
+    public void testStreamingWriteKeepsTheRowsOfEveryMessage() throws Exception {
+        writeMessages(true);
+        checkWorkbook();
+    }
+
+    @Test
+    public void testWriteKeepsTheRowsOfEveryMessage() throws Exception {
+        writeMessages(false);
+        checkWorkbook();
+    }
+
+    private static void writeMessages(boolean streaming) throws Exception {
+        FlowStep flowStep = createWriterFlowStep(streaming);
+        ExcelFileWriter writer = new ExcelFileWriter();
+        writer.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(),
+                deployResource(flowStep.getComponent().getResource()), null, null, null));
+        writer.start();
+        SendMessageCallback<ArrayList<String>> callback = new SendMessageCallback<ArrayList<String>>();
+        int id = 1;
+        for (int i = 0; i < 3; i++) {
+            ArrayList<EntityData> rows = new ArrayList<EntityData>();
+            for (int j = 0; j < 4; j++, id++) {
+                EntityData row = new EntityData();
+                row.put("id", Integer.toString(id));
+                row.put("name", "name " + id);
+                rows.add(row);
+            }
+            writer.handle(new EntityDataMessage("fake step id", rows), callback, false);
+        }
+        writer.handle(new ControlMessage("fake step id"), callback, true);
+        writer.flowCompleted(false);
+        writer.stop();
+        assertEquals(1, callback.getPayloadList().size());
+    }
+
+    private static void checkWorkbook() throws Exception {
+        try (InputStream in = new FileInputStream(FILE_PATH + FILE_NAME); Workbook wb = new XSSFWorkbook(in)) {
+            Sheet sheet = wb.getSheet("Sheet1");
+            assertEquals(12, sheet.getLastRowNum());
+            Row header = sheet.getRow(0);
+            assertEquals("ID", header.getCell(0).getStringCellValue());
+            assertEquals("NAME", header.getCell(1).getStringCellValue());
+            for (int i = 1; i <= 12; i++) {
+                Row row = sheet.getRow(i);
+                assertEquals(Integer.toString(i), row.getCell(0).getStringCellValue());
+                assertEquals("name " + i, row.getCell(1).getStringCellValue());
+            }
+        }
+    }
+
+    private static Map<String, IResourceRuntime> deployResource(Resource resource) {
+        IResourceRuntime resourceRuntime = new LocalFile();
+        TypedProperties properties = new TypedProperties();
+        properties.put(LocalFile.LOCALFILE_PATH, FILE_PATH);
+        resourceRuntime.start(resource, properties);
+        Map<String, IResourceRuntime> deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), resourceRuntime);
+        return deployedResources;
+    }
+
+    private static FlowStep createWriterFlowStep(boolean streaming) {
+        Folder folder = TestUtils.createFolder("Test Folder");
+        Flow flow = TestUtils.createFlow("TestFlow", folder);
+        Setting[] settingData = new Setting[4];
+        settingData[0] = new Setting(ExcelFileWriter.SETTING_RELATIVE_PATH, FILE_NAME);
+        settingData[1] = new Setting(ExcelFileWriter.SETTING_INCLUDE_HEADER, "true");
+        settingData[2] = new Setting(ExcelFileWriter.SETTING_STREAMING, Boolean.toString(streaming));
+        settingData[3] = new Setting(ExcelFileWriter.SETTING_ROW_ACCESS_WINDOW, "2");
+        Component component = TestUtils.createComponent(ExcelFileWriter.TYPE, false, createResource(),
+                createInputModel(), null, null, createAttributeSettings(), settingData);
+        FlowStep writerFlowStep = new FlowStep();
+        writerFlowStep.setFlowId(flow.getId());
+        writerFlowStep.setComponentId(component.getId());
+        writerFlowStep.setCreateBy("Test");
+        writerFlowStep.setCreateTime(new Date());
+        writerFlowStep.setLastUpdateBy("Test");
+        writerFlowStep.setLastUpdateTime(new Date());
+        writerFlowStep.setComponent(component);
+        return writerFlowStep;
+    }
+
+    private static Resource createResource() {
+        List<Setting> settings = new ArrayList<Setting>(1);
+        settings.add(new Setting(LocalFile.LOCALFILE_PATH, FILE_PATH));
+        Resource resource = new Resource();
+        resource.setName("Test Resource");
+        resource.setFolderId("Test Folder Resource");
+        resource.setType(LocalFile.TYPE);
+        resource.setFolder(TestUtils.createFolder("Test Folder Resource"));
+        resource.setSettings(settings);
+        return resource;
+    }
+
+    private static List<ComponentAttribSetting> createAttributeSettings() {
+        List<ComponentAttribSetting> attributeSettings = new ArrayList<ComponentAttribSetting>();
+        attributeSettings.add(new ComponentAttribSetting("id", ExcelFileWriter.EXCEL_WRITER_ATTRIBUTE_ORDINAL, "1"));
+        attributeSettings.add(new ComponentAttribSetting("name", ExcelFileWriter.EXCEL_WRITER_ATTRIBUTE_ORDINAL, "2"));
+        return attributeSettings;
+    }
+
+    private static RelationalModel createInputModel() {
+        ModelEntity entity = new ModelEntity("test", "TEST");
+        entity.addModelAttribute(new ModelAttrib("id", entity.getId(), "ID"));
+        entity.addModelAttribute(new ModelAttrib("name", entity.getId(), "NAME"));
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+}
@@ -28,6 +28,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -45,6 +49,7 @@ import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.metl.core.runtime.resource.FileInfo;
 import org.jumpmind.metl.core.runtime.resource.IDirectory;
 import org.jumpmind.metl.core.runtime.resource.LocalFile;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 import org.jumpmind.util.FormatUtils;
 import org.springframework.util.AntPathMatcher;
@@ -89,6 +94,8 @@ public class FilePoller extends AbstractComponentRuntime {
     public final static String SETTING_FILE_SORT_DESCENDING = "file.sort.descending";
 
     public final static String SETTING_TRIGGER_FILE_PATH = "trigger.file.path";
+
+    public final static String SETTING_PARALLEL_TRANSFERS = "parallel.transfers";
     
     String runWhen = PER_UNIT_OF_WORK;
 
@@ -122,6 +129,8 @@ public class FilePoller extends AbstractComponentRuntime {
     
     int filesPerMessage = 1000;
 
+    int parallelTransfers = 1;
+
     ArrayList<FileInfo> filesSent = new ArrayList<FileInfo>();
 
     @Override
@@ -154,6 +163,7 @@ public class FilePoller extends AbstractComponentRuntime {
         fileSortDescending = properties.is(SETTING_FILE_SORT_DESCENDING, fileSortDescending);
         runWhen = properties.get(RUN_WHEN, PER_UNIT_OF_WORK);        
         getFilePatternFromMessage = properties.is(SETTING_GET_FILE_PATTERN_FROM_MESSAGE);
+        parallelTransfers = properties.getInt(SETTING_PARALLEL_TRANSFERS, parallelTransfers);
         
         if (!getFilePatternFromMessage && StringUtils.isEmpty(filePattern)) {
             throw new MisconfiguredException(
@@ -355,27 +365,25 @@ public class FilePoller extends AbstractComponentRuntime {
 
     protected void deleteFiles() {
         IDirectory directory = getResourceReference();
-        for (FileInfo srcFile : filesSent) {
+        forEachFile(filesSent, directory, srcFile -> {
             if(directory.delete(srcFile.getRelativePath())) {
                 log(LogLevel.INFO, "Deleted %s", srcFile.getRelativePath());
             } else {
                 log(LogLevel.WARN, "Failed to delete %s", srcFile.getRelativePath());
             }            
-        }
+        });
     }
 
     protected void archive(String archivePath) {
         IDirectory directory = getResourceReference();
-        for (FileInfo srcFile : filesSent) {
-            directory.moveToDir(srcFile.getRelativePath(), archivePath);
-        }
+        forEachFile(filesSent, directory, srcFile -> directory.moveToDir(srcFile.getRelativePath(), archivePath));
     }
     
     protected void compressedArchive(String archivePath) {
         String path = getResourceRuntime().getResourceRuntimeSettings().get(LocalFile.LOCALFILE_PATH);
         IDirectory directory = getResourceReference();
-        ZipOutputStream zos = null;
-        for (FileInfo srcFileName : filesSent) {
+        forEachFile(filesSent, directory, srcFileName -> {
+            ZipOutputStream zos = null;
             try {
                 String destinationZipFile = path + File.separator + archivePath + File.separator + srcFileName.getName() + ".zip";
                 String sourceFile = srcFileName.getRelativePath();
@@ -407,6 +415,46 @@ public class FilePoller extends AbstractComponentRuntime {
             } finally {
                 IOUtils.closeQuietly(zos);
             }
+        });
+    }
+
+    /**
+     * Applies the action to each file, spreading the files over
+     * {@link #parallelTransfers} threads when more than one is configured. Each
+     * worker thread uses its own directory session and releases it when done.
+     */
+    protected void forEachFile(List<FileInfo> files, IDirectory directory, Consumer<FileInfo> action) {
+        if (parallelTransfers <= 1 || files.size() <= 1) {
+            files.forEach(action);
+            return;
+        }
+        ExecutorService executor = ThreadUtils.createFixedThreadPool(
+                String.format("%s-%d-transfer", getFlowStep().getName(), threadNumber), files.size(),
+                Math.min(parallelTransfers, files.size()));
+        try {
+            List<Future<?>> transfers = new ArrayList<>(files.size());
+            for (FileInfo file : files) {
+                transfers.add(executor.submit(() -> {
+                    try {
+                        action.accept(file);
+                    } finally {
+                        directory.close();
+                    }
+                }));
+            }
+            for (Future<?> transfer : transfers) {
+                transfer.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IoException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IoException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
     }
 	
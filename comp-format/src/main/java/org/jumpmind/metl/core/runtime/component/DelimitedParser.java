@@ -137,7 +137,7 @@ public class DelimitedParser extends AbstractComponentRuntime {
             csvReader.setUseTextQualifier(false);
         }
         while (csvReader.readRecord()) {
-            EntityData data = new EntityData();
+            EntityData data = createOutputEntityData();
             if (attributes.size() > 0) {
                 for (AttributeFormat attribute : attributes) {
                     Object value = csvReader.get(attribute.getOrdinal() - 1);
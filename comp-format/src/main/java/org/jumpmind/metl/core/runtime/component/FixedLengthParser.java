@@ -106,7 +106,7 @@ public class FixedLengthParser extends AbstractComponentRuntime {
 
     private EntityData processInputRow(Message inputMessage, String inputRow) throws IOException {
         if (attributesList.size() > 0) {
-            EntityData data = new EntityData();
+            EntityData data = createOutputEntityData();
             for (AttributeFormat attribute : attributesList) {
                 int length = attribute.getLength() > inputRow.length() ? inputRow.length() : attribute.getLength();
                 Object value = null;
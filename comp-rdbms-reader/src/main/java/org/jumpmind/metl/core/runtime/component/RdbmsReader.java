@@ -23,11 +23,16 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -35,8 +40,14 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.jumpmind.db.sql.SqlException;
+import org.jumpmind.metl.core.model.ExecutionWatermark;
 import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
@@ -48,7 +59,9 @@ import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.persist.IExecutionService;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
@@ -78,6 +91,24 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
 
     private static final String SQL_FROM_MESSAGE = "sql.get.from.message";
 
+    public final static String PARTITION_COLUMN = "partition.column";
+
+    public final static String PARTITION_THREADS = "partition.threads";
+
+    public final static String PARTITION_BOUNDARIES = "partition.boundaries";
+
+    public final static String INCREMENTAL_COLUMN = "incremental.column";
+
+    public final static String INCREMENTAL_INITIAL_VALUE = "incremental.initial.value";
+
+    public final static String WATERMARK_PARAM = "WATERMARK";
+
+    static final String PARTITION_ALIAS = "metl_partition";
+
+    static final String PARTITION_LOW_PARAM = "metl_partition_low";
+
+    static final String PARTITION_HIGH_PARAM = "metl_partition_high";
+
     List<String> sqls;
 
     String runWhen = PER_UNIT_OF_WORK;
@@ -97,6 +128,18 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
     String unitOfWork = COMPONENT_LIFETIME;
     
     boolean getSqlFromMessage = false;
+
+    String partitionColumn;
+
+    int partitionThreads = 1;
+
+    List<Object> partitionBoundaries;
+
+    String incrementalColumn;
+
+    Object watermark;
+
+    Object highWatermark;
     
     @Override
     public void start() {
@@ -110,6 +153,30 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         runWhen = properties.get(RUN_WHEN, runWhen);
         unitOfWork = properties.get(UNIT_OF_WORK, unitOfWork);
         queryTimeout = properties.getInt(QUERY_TIMEOUT, queryTimeout);
+        partitionColumn = properties.get(PARTITION_COLUMN);
+        partitionThreads = properties.getInt(PARTITION_THREADS, partitionThreads);
+        partitionBoundaries = parsePartitionBoundaries(properties.get(PARTITION_BOUNDARIES));
+        if (partitionThreads < 1) {
+            throw new MisconfiguredException("The number of partition threads must be at least 1");
+        }
+        if (isBlank(partitionColumn) && partitionBoundaries.size() > 0) {
+            throw new MisconfiguredException("A partition column is required when partition boundaries are provided");
+        }
+        incrementalColumn = properties.get(INCREMENTAL_COLUMN);
+        if (isIncremental()) {
+            watermark = loadWatermark(properties.get(INCREMENTAL_INITIAL_VALUE));
+        }
+    }
+
+    /*
+     * The watermark is only advanced once every step, including the ones
+     * that write the rows that were read, has completed without error
+     */
+    @Override
+    public void flowSucceeded() {
+        if (isIncremental() && highWatermark != null) {
+            saveWatermark();
+        }
     }
 
     @Override
@@ -162,10 +229,18 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                 checkForInterruption();
                 String sqlToExecute = prepareSql(sql, inputMessage, entity);
                 Map<String, Object> paramMap = prepareParams(sqlToExecute, inputMessage, entity, runWhen);
+                if (isIncremental()) {
+                    paramMap.put(WATERMARK_PARAM, watermark);
+                }
                 log(LogLevel.INFO, "About to run: %s", sqlToExecute);
                 log(LogLevel.INFO, "Passing params: %s", paramMap);
-                resultSetToEntityDataConverter.setSqlToExecute(sqlToExecute);
-                template.query(sqlToExecute, paramMap, resultSetToEntityDataConverter);
+                if (isPartitioned()) {
+                    sendLeftOverRows(callback, outboundPayload);
+                    readPartitions(template, sqlToExecute, paramMap, inputMessage, callback, unitOfWorkBoundaryReached);
+                } else {
+                    resultSetToEntityDataConverter.setSqlToExecute(sqlToExecute);
+                    template.query(sqlToExecute, paramMap, resultSetToEntityDataConverter);
+                }
                 if (unitOfWork.equalsIgnoreCase(SQL_STATEMENT)) {
                     sendLeftOverRows(callback, outboundPayload);
                     callback.sendControlMessage();
@@ -187,6 +262,317 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         } 
     }
     
+    boolean isIncremental() {
+        return isNotBlank(incrementalColumn);
+    }
+
+    /*
+     * The watermark saved by the last execution that completed without error
+     * is used. The initial value only applies until the first one is saved.
+     */
+    private Object loadWatermark(String initialValue) {
+        String value = null;
+        IExecutionService executionService = context.getExecutionService();
+        if (executionService != null && context.getDeployment() != null) {
+            ExecutionWatermark stored = executionService.findExecutionWatermark(context.getDeployment().getId(),
+                    context.getFlowStep().getId());
+            if (stored != null) {
+                value = stored.getWatermark();
+            }
+        }
+        if (isBlank(value)) {
+            value = initialValue;
+        }
+        if (isBlank(value)) {
+            throw new MisconfiguredException(
+                    "An initial watermark value is required until %s has completed an incremental read", getComponent().getName());
+        }
+        log(LogLevel.INFO, "Reading rows where %s is past the watermark of %s", incrementalColumn, value);
+        return parseLiteral(value);
+    }
+
+    private void saveWatermark() {
+        IExecutionService executionService = context.getExecutionService();
+        if (executionService != null && context.getDeployment() != null) {
+            String deploymentId = context.getDeployment().getId();
+            String flowStepId = context.getFlowStep().getId();
+            /*
+             * every thread of the step has its own runtime, so keep whichever
+             * high watermark is the highest
+             */
+            synchronized (context) {
+                ExecutionWatermark stored = executionService.findExecutionWatermark(deploymentId, flowStepId);
+                if (stored == null) {
+                    stored = new ExecutionWatermark(deploymentId, flowStepId);
+                } else if (isNotBlank(stored.getWatermark())
+                        && compareWatermarks(highWatermark, parseLiteral(stored.getWatermark())) <= 0) {
+                    return;
+                }
+                stored.setWatermark(formatWatermark(highWatermark));
+                executionService.save(stored);
+                log(LogLevel.INFO, "Advanced the watermark for %s to %s", incrementalColumn, stored.getWatermark());
+            }
+        }
+    }
+
+    synchronized void updateHighWatermark(Object value) {
+        if (value != null && (highWatermark == null || compareWatermarks(value, highWatermark) > 0)) {
+            highWatermark = value;
+        }
+    }
+
+    static int compareWatermarks(Object value, Object other) {
+        if (value instanceof Number && other instanceof Number) {
+            return new BigDecimal(value.toString()).compareTo(new BigDecimal(other.toString()));
+        } else if (value instanceof Timestamp && other instanceof Timestamp) {
+            return ((Timestamp) value).compareTo((Timestamp) other);
+        } else if (value instanceof Date && other instanceof Date) {
+            return Long.compare(((Date) value).getTime(), ((Date) other).getTime());
+        } else {
+            return value.toString().compareTo(other.toString());
+        }
+    }
+
+    static String formatWatermark(Object value) {
+        if (value instanceof Number) {
+            return new BigDecimal(value.toString()).toPlainString();
+        } else if (value instanceof Timestamp || value instanceof java.sql.Date) {
+            return value.toString();
+        } else if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime()).toString();
+        } else {
+            return value.toString();
+        }
+    }
+
+    boolean isPartitioned() {
+        return isNotBlank(partitionColumn) && (partitionThreads > 1 || partitionBoundaries.size() > 0);
+    }
+
+    /*
+     * Splits the query into ranges of the partition column and reads the ranges
+     * concurrently. The workers only convert rows. Batches are handed back to
+     * this thread, which is the only one that sends messages, so each
+     * partition's rows stay in the order its query returned them.
+     */
+    private void readPartitions(NamedParameterJdbcTemplate template, String sql, Map<String, Object> paramMap,
+            Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        List<Object> boundaries = partitionBoundaries.size() > 0 ? partitionBoundaries
+                : computePartitionBoundaries(selectPartitionRange(template, sql, paramMap), partitionThreads);
+        List<Partition> partitions = getPartitions(boundaries);
+        int threadCount = Math.min(partitionThreads, partitions.size());
+        log(LogLevel.INFO, "Reading %d partition(s) of %s using %d thread(s)", partitions.size(), partitionColumn, threadCount);
+
+        BlockingQueue<PartitionBatch> batches = new ArrayBlockingQueue<>(threadCount * 2);
+        ExecutorService executor = ThreadUtils.createFixedThreadPool(
+                String.format("%s-partition", getComponent().getName()), partitions.size(), threadCount);
+        try {
+            for (Partition partition : partitions) {
+                executor.execute(() -> readPartition(template, sql, paramMap, partition, inputMessage, callback,
+                        unitOfWorkBoundaryReached, batches));
+            }
+
+            int partitionsRead = 0;
+            long ts = System.currentTimeMillis();
+            while (partitionsRead < partitions.size()) {
+                checkForInterruption();
+                PartitionBatch batch = batches.poll(1, TimeUnit.SECONDS);
+                if (batch != null) {
+                    if (batch.error instanceof Error) {
+                        throw (Error) batch.error;
+                    } else if (batch.error != null) {
+                        throw (RuntimeException) batch.error;
+                    }
+                    if (batch.rows.size() > 0) {
+                        rowReadDuringHandle += batch.rows.size();
+                        callback.sendEntityDataMessage(null, batch.rows);
+                    }
+                    if (batch.last) {
+                        partitionsRead++;
+                    }
+                }
+
+                long newTs = System.currentTimeMillis();
+                if (newTs - ts > 10000) {
+                    getExecutionTracker().updateStatistics(threadNumber, context);
+                    log(LogLevel.INFO, "Rows read by partition: %s", getComponentStatistics().getPartitionEntitiesProcessed());
+                    ts = newTs;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void readPartition(NamedParameterJdbcTemplate template, String sql, Map<String, Object> paramMap,
+            Partition partition, Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached,
+            BlockingQueue<PartitionBatch> batches) {
+        try {
+            Map<String, Object> partitionParamMap = new HashMap<>(paramMap);
+            partitionParamMap.put(PARTITION_LOW_PARAM, partition.low);
+            partitionParamMap.put(PARTITION_HIGH_PARAM, partition.high);
+            String partitionSql = partition.getSql(sql, partitionColumn);
+            log(LogLevel.DEBUG, "Reading partition %d: %s", partition.number, partitionSql);
+            PartitionToEntityDataConverter converter = new PartitionToEntityDataConverter(partition, inputMessage,
+                    callback, unitOfWorkBoundaryReached, batches);
+            converter.setSqlToExecute(sql);
+            template.query(partitionSql, partitionParamMap, converter);
+            converter.sendPayload(true);
+        } catch (RuntimeException | Error e) {
+            /*
+             * Errors are passed on too so that the reading thread always sees
+             * the last batch of every partition
+             */
+            try {
+                batches.put(new PartitionBatch(null, true, e));
+            } catch (InterruptedException ex) {
+            }
+        }
+    }
+
+    private Object[] selectPartitionRange(NamedParameterJdbcTemplate template, String sql, Map<String, Object> paramMap) {
+        String rangeSql = String.format("select min(%s), max(%s) from (%s) %s", partitionColumn, partitionColumn,
+                stripDelimiter(sql), PARTITION_ALIAS);
+        log(LogLevel.INFO, "About to run: %s", rangeSql);
+        return template.query(rangeSql, paramMap, (ResultSetExtractor<Object[]>) rs -> rs.next()
+                ? new Object[] { JdbcUtils.getResultSetValue(rs, 1), JdbcUtils.getResultSetValue(rs, 2) }
+                : new Object[2]);
+    }
+
+    /**
+     * Splits the range between min and max into at most count ranges of equal
+     * width. Numeric ranges are split on whole numbers when both ends are of
+     * an integer type. Dates and timestamps are split on milliseconds.
+     * 
+     * @return the lower bound of every range but the first, in ascending order
+     */
+    static List<Object> computePartitionBoundaries(Object[] range, int count) {
+        List<Object> boundaries = new ArrayList<>();
+        Object min = range[0];
+        Object max = range[1];
+        if (min == null || max == null || count < 2) {
+            return boundaries;
+        } else if (min instanceof Number && max instanceof Number) {
+            BigDecimal low = new BigDecimal(min.toString());
+            BigDecimal high = new BigDecimal(max.toString());
+            boolean whole = isWholeNumber((Number) min) && isWholeNumber((Number) max);
+            BigDecimal width = high.subtract(low).divide(BigDecimal.valueOf(count), 10, RoundingMode.HALF_UP);
+            BigDecimal previous = low;
+            for (int i = 1; i < count; i++) {
+                BigDecimal boundary = low.add(width.multiply(BigDecimal.valueOf(i)));
+                if (whole) {
+                    boundary = boundary.setScale(0, RoundingMode.CEILING);
+                }
+                if (boundary.compareTo(previous) > 0 && boundary.compareTo(high) <= 0) {
+                    boundaries.add(whole ? (Object) boundary.toBigInteger().longValue() : boundary.stripTrailingZeros());
+                    previous = boundary;
+                }
+            }
+        } else if (min instanceof Date && max instanceof Date) {
+            long low = ((Date) min).getTime();
+            long high = ((Date) max).getTime();
+            long previous = low;
+            for (int i = 1; i < count; i++) {
+                long boundary = low + BigInteger.valueOf(high - low).multiply(BigInteger.valueOf(i))
+                        .divide(BigInteger.valueOf(count)).longValue();
+                if (boundary > previous) {
+                    boundaries.add(new Timestamp(boundary));
+                    previous = boundary;
+                }
+            }
+        } else {
+            throw new MisconfiguredException("The partition column must be a number or a date.  Its values were of type %s",
+                    min.getClass().getName());
+        }
+        return boundaries;
+    }
+
+    private static boolean isWholeNumber(Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof BigInteger || (value instanceof BigDecimal && ((BigDecimal) value).scale() <= 0);
+    }
+
+    /**
+     * Parses a comma separated list of boundaries. Values are bound the same
+     * way as {@link #parseLiteral(String)}.
+     */
+    static List<Object> parsePartitionBoundaries(String text) {
+        List<Object> boundaries = new ArrayList<>();
+        if (isNotBlank(text)) {
+            for (String value : text.split(",")) {
+                value = value.trim();
+                if (value.length() > 0) {
+                    boundaries.add(parseLiteral(value));
+                }
+            }
+            for (int i = 1; i < boundaries.size(); i++) {
+                Object previous = boundaries.get(i - 1);
+                Object boundary = boundaries.get(i);
+                if (!previous.getClass().equals(boundary.getClass())) {
+                    throw new MisconfiguredException("Partition boundaries must all be of the same type.  '%s' and '%s' are not",
+                            previous, boundary);
+                }
+                @SuppressWarnings({ "unchecked", "rawtypes" })
+                int compare = ((Comparable) previous).compareTo(boundary);
+                if (compare >= 0) {
+                    throw new MisconfiguredException("Partition boundaries must be in ascending order.  '%s' is not less than '%s'",
+                            previous, boundary);
+                }
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * @return the value as a number when it is numeric, as a timestamp or
+     *         date when it is in JDBC escape format and as a string otherwise
+     */
+    static Object parseLiteral(String value) {
+        try {
+            BigDecimal number = new BigDecimal(value);
+            return isWholeNumber(number) ? (Object) number.toBigInteger().longValue() : number;
+        } catch (NumberFormatException e) {
+        }
+        try {
+            return Timestamp.valueOf(value);
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            return java.sql.Date.valueOf(value);
+        } catch (IllegalArgumentException e) {
+        }
+        if (value.length() > 1 && value.startsWith("'") && value.endsWith("'")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * The first partition also picks up rows where the partition column is
+     * null so no row is left out.
+     */
+    static List<Partition> getPartitions(List<Object> boundaries) {
+        List<Partition> partitions = new ArrayList<>(boundaries.size() + 1);
+        Object low = null;
+        for (int i = 0; i <= boundaries.size(); i++) {
+            Object high = i < boundaries.size() ? boundaries.get(i) : null;
+            partitions.add(new Partition(i + 1, low, high));
+            low = high;
+        }
+        return partitions;
+    }
+
+    private static String stripDelimiter(String sql) {
+        sql = sql.trim();
+        while (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1).trim();
+        }
+        return sql;
+    }
+
     private ArrayList<String> getAttributeIds(String sql, ResultSetMetaData meta, Map<Integer, String> sqlEntityHints) throws SQLException {
         ArrayList<String> attributeIds = new ArrayList<String>();
         boolean attributeFound = false;
@@ -203,11 +589,13 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                 }
             }
 
-            if (isBlank(tableName)) {
+            if (isBlank(tableName) || (isPartitioned() && PARTITION_ALIAS.equalsIgnoreCase(tableName))) {
                 /*
                  * Some database driver do not support returning the table name
                  * from the metadata. This code attempts to parse the entity
-                 * name from the sql
+                 * name from the sql.  Partitioned reads wrap the query in a
+                 * derived table and some drivers report its alias as the table
+                 * name, so the original query is parsed then as well.
                  */
                 tableName = getTableNameFromSql(sql);
             }
@@ -499,28 +887,35 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
             ResultSetMetaData meta = rs.getMetaData();
             Map<Integer, String> columnHints = getSqlColumnEntityHints(sqlToExecute);
             ArrayList<String> attributeIds = getAttributeIds(sqlToExecute, meta, columnHints);
+            int watermarkColumn = isIncremental() ? getWatermarkColumn(meta) : 0;
+            Object maxWatermark = null;
             long ts = System.currentTimeMillis();
             while (rs.next()) {
                 if (outputRecCount++ % rowsPerMessage == 0 && payload != null && !payload.isEmpty()) {
-                    callback.sendEntityDataMessage(null, payload);
-                    payload.clear();
+                    sendPayload();
                 }
 
                 getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
 
-                EntityData rowData = new EntityData();
+                EntityData rowData = createOutputEntityData();
                 rowData.setChangeType(entityChangeType);
                 for (int i = 1; i <= meta.getColumnCount(); i++) {
                     String attributeId = attributeIds.get(i - 1);
-                    if (isNotBlank(attributeId)) {
+                    if (isNotBlank(attributeId) || i == watermarkColumn) {
                         Object value = JdbcUtils.getResultSetValue(rs, i);
-                        if (trimColumns && value instanceof String) {
-                            value = value.toString().trim();
+                        if (i == watermarkColumn && value != null
+                                && (maxWatermark == null || compareWatermarks(value, maxWatermark) > 0)) {
+                            maxWatermark = value;
+                        }
+                        if (isNotBlank(attributeId)) {
+                            if (trimColumns && value instanceof String) {
+                                value = value.toString().trim();
+                            }
+                            rowData.put(attributeId, value);
                         }
-                        rowData.put(attributeId, value);
                     }
                 }
-                rowReadDuringHandle++;
+                rowRead();
                 payload.add(rowData);
                 if (context.getDeployment() != null && context.getDeployment().asLogLevel() == LogLevel.DEBUG) {
                     logEntityAttributes(rowData);
@@ -532,12 +927,113 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                     ts = newTs;
                 }
             }
+            updateHighWatermark(maxWatermark);
             return payload;
         }
 
+        protected int getWatermarkColumn(ResultSetMetaData meta) throws SQLException {
+            String column = incrementalColumn.substring(incrementalColumn.lastIndexOf(".") + 1).trim();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                if (column.equalsIgnoreCase(meta.getColumnLabel(i)) || column.equalsIgnoreCase(meta.getColumnName(i))) {
+                    return i;
+                }
+            }
+            throw new MisconfiguredException("The incremental column %s was not returned by: %s", incrementalColumn, sqlToExecute);
+        }
+
         public void setSqlToExecute(String sqlToExecute) {
             this.sqlToExecute = sqlToExecute;
         }
+
+        protected void sendPayload() {
+            callback.sendEntityDataMessage(null, payload);
+            payload.clear();
+        }
+
+        protected void rowRead() {
+            rowReadDuringHandle++;
+        }
+    }
+
+    class PartitionToEntityDataConverter extends ResultSetToEntityDataConverter {
+
+        Partition partition;
+
+        BlockingQueue<PartitionBatch> batches;
+
+        public PartitionToEntityDataConverter(Partition partition, Message inputMessage, ISendMessageCallback callback,
+                boolean unitOfWorkLastMessage, BlockingQueue<PartitionBatch> batches) {
+            super(inputMessage, callback, unitOfWorkLastMessage, new ArrayList<EntityData>());
+            this.partition = partition;
+            this.batches = batches;
+        }
+
+        @Override
+        protected void sendPayload() {
+            sendPayload(false);
+        }
+
+        protected void sendPayload(boolean last) {
+            getComponentStatistics().incrementPartitionEntitiesProcessed(partition.number, payload.size());
+            try {
+                batches.put(new PartitionBatch(payload, last, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+            payload = new ArrayList<EntityData>();
+        }
+
+        @Override
+        protected void rowRead() {
+        }
+    }
+
+    static class Partition {
+
+        int number;
+
+        Object low;
+
+        Object high;
+
+        Partition(int number, Object low, Object high) {
+            this.number = number;
+            this.low = low;
+            this.high = high;
+        }
+
+        String getSql(String sql, String column) {
+            StringBuilder partitionSql = new StringBuilder("select * from (");
+            partitionSql.append(stripDelimiter(sql)).append(") ").append(PARTITION_ALIAS).append(" where ");
+            if (low == null && high == null) {
+                partitionSql.append("1=1");
+            } else if (low == null) {
+                partitionSql.append("(").append(column).append(" < :").append(PARTITION_HIGH_PARAM);
+                partitionSql.append(" or ").append(column).append(" is null)");
+            } else if (high == null) {
+                partitionSql.append(column).append(" >= :").append(PARTITION_LOW_PARAM);
+            } else {
+                partitionSql.append(column).append(" >= :").append(PARTITION_LOW_PARAM);
+                partitionSql.append(" and ").append(column).append(" < :").append(PARTITION_HIGH_PARAM);
+            }
+            return partitionSql.toString();
+        }
+    }
+
+    static class PartitionBatch {
+
+        ArrayList<EntityData> rows;
+
+        boolean last;
+
+        Throwable error;
+
+        PartitionBatch(ArrayList<EntityData> rows, boolean last, Throwable error) {
+            this.rows = rows;
+            this.last = last;
+            this.error = error;
+        }
     }
 
     public void setRunWhen(String runWhen) {
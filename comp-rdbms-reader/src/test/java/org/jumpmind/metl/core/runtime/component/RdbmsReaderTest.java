@@ -1,85 +1,212 @@
-/**
- * Licensed to JumpMind Inc under one or more contributor
- * license agreements.  See the NOTICE file distributed
- * with this work for additional information regarding
- * copyright ownership.  JumpMind Inc licenses this file
- * to you under the GNU General Public License, version 3.0 (GPLv3)
- * (the "License"); you may not use this file except in compliance
- * with the License.
- *
- * You should have received a copy of the GNU General Public License,
- * version 3.0 (GPLv3) along with this library; if not, see
- * <http://www.gnu.org/licenses/>.
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
-package org.jumpmind.metl.core.runtime.component;
-
-import static org.junit.Assert.assertEquals;
-
-import java.util.Map;
-
-import org.jumpmind.metl.core.runtime.MisconfiguredException;
-import org.junit.Test;
-
-public class RdbmsReaderTest {
-
-    @Test
-    public void testCountColumnSeparatingCommas() {
-        
-        int count = RdbmsReader.countColumnSeparatingCommas("ISNULL(a,''), b, *");
-        assertEquals(count, 2);
-        
-        count = RdbmsReader.countColumnSeparatingCommas("ISNULL(a,('')), b, 'a,b', *");
-        assertEquals(count, 3);
-    }
-
-    @Test
-    public void testGetSqlColumnEntityHints() throws Exception {
-        String sql = "select\r\n ISNULL(a,ISNULL(z,'')) /*COLA*/, 'lastName, firstName'/*COLB*/, c/*  COLC */, d /*  \"COL D\" */ from test;";
-        Map<Integer, String> hints = RdbmsReader.getSqlColumnEntityHints(sql);
-        assertEquals(hints.get(1), "COLA");
-        assertEquals(hints.get(2), "COLB");
-        assertEquals(hints.get(3), "COLC");
-        assertEquals(hints.get(4), "\"COL D\"");
-        
-        
-        // Do not allow duplicate entity attribute combinations.
-        String dupeAtribSQL = 
-                "select" + 
-                "    a   /* test.a */" + 
-                "    , b /* test.b */" + 
-                "    , c /* test.a */" + 
-                "from test;";
-        boolean errorFound = false;
-        try {
-            RdbmsReader.getSqlColumnEntityHints(dupeAtribSQL);
-        } catch(MisconfiguredException e) {
-            errorFound = true;
-        }
-        assertEquals(errorFound,true);
-        
-        
-        // Allow duplicate entity names
-        String dupeEntitySQL = 
-                "select" + 
-                "    a   /* test */" + 
-                "    , b /* test */" + 
-                "    , c /* test */" + 
-                "from test;";
-        errorFound = false;
-        try {
-            RdbmsReader.getSqlColumnEntityHints(dupeEntitySQL);
-        } catch(MisconfiguredException e) {
-            errorFound = true;
-        }
-        assertEquals(errorFound,false);
-    }
-    
-
-}
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.AbstractObject;
+import org.jumpmind.metl.core.model.AgentDeploy;
+import org.jumpmind.metl.core.model.ExecutionWatermark;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.persist.IExecutionService;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class RdbmsReaderTest {
+
+    @Test
+    public void testCountColumnSeparatingCommas() {
+        
+        int count = RdbmsReader.countColumnSeparatingCommas("ISNULL(a,''), b, *");
+        assertEquals(count, 2);
+        
+        count = RdbmsReader.countColumnSeparatingCommas("ISNULL(a,('')), b, 'a,b', *");
+        assertEquals(count, 3);
+    }
+
+    @Test
+    public void testGetSqlColumnEntityHints() throws Exception {
+        String sql = "select\r\n ISNULL(a,ISNULL(z,'')) /*COLA*/, 'lastName, firstName'/*COLB*/, c/*  COLC */, d /*  \"COL D\" */ from test;";
+        Map<Integer, String> hints = RdbmsReader.getSqlColumnEntityHints(sql);
+        assertEquals(hints.get(1), "COLA");
+        assertEquals(hints.get(2), "COLB");
+        assertEquals(hints.get(3), "COLC");
+        assertEquals(hints.get(4), "\"COL D\"");
+        
+        
+        // Do not allow duplicate entity attribute combinations.
+        String dupeAtribSQL = 
+                "select" + 
+                "    a   /* test.a */" + 
+                "    , b /* test.b */" + 
+                "    , c /* test.a */" + 
+                "from test;";
+        boolean errorFound = false;
+        try {
+            RdbmsReader.getSqlColumnEntityHints(dupeAtribSQL);
+        } catch(MisconfiguredException e) {
+            errorFound = true;
+        }
+        assertEquals(errorFound,true);
+        
+        
+        // Allow duplicate entity names
+        String dupeEntitySQL = 
+                "select" + 
+                "    a   /* test */" + 
+                "    , b /* test */" + 
+                "    , c /* test */" + 
+                "from test;";
+        errorFound = false;
+        try {
+            RdbmsReader.getSqlColumnEntityHints(dupeEntitySQL);
+        } catch(MisconfiguredException e) {
+            errorFound = true;
+        }
+        assertEquals(errorFound,false);
+    }
+
+    @Test
+    public void testComputePartitionBoundaries() {
+        assertEquals(Arrays.asList(4l, 6l, 8l),
+                RdbmsReader.computePartitionBoundaries(new Object[] { 1, 10l }, 4));
+        assertEquals(Arrays.asList(2l),
+                RdbmsReader.computePartitionBoundaries(new Object[] { 1, 2 }, 4));
+        assertEquals(Arrays.asList(new BigDecimal("0.5")),
+                RdbmsReader.computePartitionBoundaries(new Object[] { 0.0d, 1.0d }, 2));
+        assertEquals(0, RdbmsReader.computePartitionBoundaries(new Object[] { 5, 5 }, 4).size());
+        assertEquals(0, RdbmsReader.computePartitionBoundaries(new Object[2], 4).size());
+        assertEquals(Arrays.asList(new Timestamp(500)),
+                RdbmsReader.computePartitionBoundaries(new Object[] { new Timestamp(0), new Timestamp(1000) }, 2));
+    }
+
+    @Test(expected = MisconfiguredException.class)
+    public void testComputePartitionBoundariesForUnsupportedType() {
+        RdbmsReader.computePartitionBoundaries(new Object[] { "a", "z" }, 2);
+    }
+
+    @Test
+    public void testParsePartitionBoundaries() {
+        assertEquals(Arrays.asList(100l, 200l), RdbmsReader.parsePartitionBoundaries(" 100, 200,"));
+        assertEquals(Arrays.asList(Timestamp.valueOf("2017-01-01 00:00:00"), Timestamp.valueOf("2018-01-01 00:00:00")),
+                RdbmsReader.parsePartitionBoundaries("2017-01-01 00:00:00,2018-01-01 00:00:00"));
+        assertEquals(Arrays.asList("m"), RdbmsReader.parsePartitionBoundaries("'m'"));
+        assertEquals(0, RdbmsReader.parsePartitionBoundaries(null).size());
+    }
+
+    @Test(expected = MisconfiguredException.class)
+    public void testParsePartitionBoundariesOutOfOrder() {
+        RdbmsReader.parsePartitionBoundaries("200,100");
+    }
+
+    @Test
+    public void testPartitionSql() {
+        List<RdbmsReader.Partition> partitions = RdbmsReader.getPartitions(Arrays.asList(10l, 20l));
+        assertEquals(3, partitions.size());
+        String sql = "select * from test;";
+        assertEquals("select * from (select * from test) metl_partition where (id < :metl_partition_high or id is null)",
+                partitions.get(0).getSql(sql, "id"));
+        assertEquals("select * from (select * from test) metl_partition where id >= :metl_partition_low and id < :metl_partition_high",
+                partitions.get(1).getSql(sql, "id"));
+        assertEquals("select * from (select * from test) metl_partition where id >= :metl_partition_low",
+                partitions.get(2).getSql(sql, "id"));
+        assertEquals(20l, partitions.get(2).low);
+        assertEquals("select * from (select * from test) metl_partition where 1=1",
+                RdbmsReader.getPartitions(Arrays.asList()).get(0).getSql(sql, "id"));
+    }
+
+    @Test
+    public void testWatermarkRoundTrip() {
+        Timestamp timestamp = Timestamp.valueOf("2018-03-01 12:30:45.123456");
+        assertEquals(timestamp, RdbmsReader.parseLiteral(RdbmsReader.formatWatermark(timestamp)));
+        assertEquals(12345l, RdbmsReader.parseLiteral(RdbmsReader.formatWatermark(new BigDecimal("12345"))));
+        assertEquals(java.sql.Date.valueOf("2018-03-01"),
+                RdbmsReader.parseLiteral(RdbmsReader.formatWatermark(java.sql.Date.valueOf("2018-03-01"))));
+    }
+
+    @Test
+    public void testCompareWatermarks() {
+        assertEquals(1, RdbmsReader.compareWatermarks(10, 9l));
+        assertEquals(0, RdbmsReader.compareWatermarks(new BigDecimal("10.0"), 10l));
+        assertEquals(-1, RdbmsReader.compareWatermarks(Timestamp.valueOf("2018-03-01 12:30:45.1"),
+                Timestamp.valueOf("2018-03-01 12:30:45.2")));
+        assertEquals(1, RdbmsReader.compareWatermarks(Timestamp.valueOf("2018-03-02 00:00:00"),
+                java.sql.Date.valueOf("2018-03-01")));
+    }
+
+    @Test
+    public void testWatermarkIsSavedOnlyWhenTheFlowSucceeds() {
+        IExecutionService executionService = mock(IExecutionService.class);
+        ComponentContext context = mockContext(executionService);
+
+        RdbmsReader reader = createIncrementalReader(context, 20l);
+        reader.flowCompleted(false);
+        reader.flowCompletedWithErrors(null);
+        verify(executionService, never()).save(any(AbstractObject.class));
+
+        reader.flowSucceeded();
+        ArgumentCaptor<AbstractObject> saved = ArgumentCaptor.forClass(AbstractObject.class);
+        verify(executionService).save(saved.capture());
+        ExecutionWatermark watermark = (ExecutionWatermark) saved.getValue();
+        assertEquals(RdbmsReader.formatWatermark(20l), watermark.getWatermark());
+
+        when(executionService.findExecutionWatermark("deployment", "reader")).thenReturn(watermark);
+        createIncrementalReader(context, 10l).flowSucceeded();
+        verify(executionService, times(1)).save(any(AbstractObject.class));
+        assertEquals(RdbmsReader.formatWatermark(20l), watermark.getWatermark());
+    }
+
+    protected RdbmsReader createIncrementalReader(ComponentContext context, Object highWatermark) {
+        RdbmsReader reader = new RdbmsReader();
+        reader.setContext(context);
+        reader.incrementalColumn = "updated";
+        reader.updateHighWatermark(highWatermark);
+        return reader;
+    }
+
+    protected ComponentContext mockContext(IExecutionService executionService) {
+        AgentDeploy deployment = new AgentDeploy();
+        deployment.setId("deployment");
+        FlowStep flowStep = new FlowStep();
+        flowStep.setId("reader");
+        ComponentContext context = mock(ComponentContext.class);
+        when(context.getExecutionService()).thenReturn(executionService);
+        when(context.getDeployment()).thenReturn(deployment);
+        when(context.getFlowStep()).thenReturn(flowStep);
+        when(context.getExecutionTracker()).thenReturn(new ExecutionTrackerNoOp());
+        return context;
+    }
+
+}
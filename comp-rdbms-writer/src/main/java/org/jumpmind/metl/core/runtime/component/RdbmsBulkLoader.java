@@ -0,0 +1,460 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.db.platform.DatabaseNamesConstants;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.DmlStatement;
+import org.jumpmind.exception.IoException;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+/**
+ * Loads the rows for one table through the fastest path the database offers
+ * on a connection that is shared by all of the tables of a writer. Rows are
+ * handed over with {@link #add(Object[])} in the column order of the insert
+ * statement. {@link #flush()} pushes everything that is buffered to the
+ * database and frees the connection for other statements. Committing is up to
+ * the caller.
+ */
+abstract class RdbmsBulkLoader {
+
+    static final Logger log = LoggerFactory.getLogger(RdbmsBulkLoader.class);
+
+    Connection connection;
+
+    String tableName;
+
+    String columnList;
+
+    String insertSql;
+
+    int[] types;
+
+    long rowCount;
+
+    RdbmsBulkLoader(Connection connection, DmlStatement insertStatement) {
+        this.connection = connection;
+        this.insertSql = insertStatement.getSql();
+        this.types = insertStatement.getTypes();
+        this.tableName = getTableName(insertSql);
+        this.columnList = getTarget(insertSql).substring(tableName.length()).trim();
+    }
+
+    /**
+     * Picks COPY for PostgreSQL and LOAD DATA for MySQL. Any other database,
+     * a table with binary columns or a driver that does not expose its native
+     * API through the pool gets multi-row inserts.
+     */
+    static RdbmsBulkLoader create(IDatabasePlatform platform, Connection connection, DmlStatement insertStatement,
+            int rowsPerInsert) {
+        String name = platform.getName();
+        if (!hasBinaryColumns(insertStatement.getTypes())) {
+            try {
+                if (DatabaseNamesConstants.POSTGRESQL.equals(name)) {
+                    return new CopyBulkLoader(connection, insertStatement);
+                } else if (DatabaseNamesConstants.MYSQL.equals(name)) {
+                    return new LoadDataBulkLoader(connection, insertStatement);
+                }
+            } catch (SQLException | ReflectiveOperationException | LinkageError e) {
+                log.warn("The native bulk load path for {} is not available.  Falling back to multi-row inserts.  {}", name,
+                        e.getMessage());
+            }
+        }
+        return new InsertBulkLoader(connection, insertStatement, rowsPerInsert, getMaxParameters(name));
+    }
+
+    /**
+     * @return how many bind parameters the driver for a database accepts in
+     *         one statement. SQL Server refuses more than 2100 and its driver
+     *         uses a few of them itself.
+     */
+    static int getMaxParameters(String databaseName) {
+        if (databaseName == null) {
+            return Short.MAX_VALUE;
+        } else if (databaseName.startsWith("mssql") || databaseName.startsWith("ase")) {
+            return 2000;
+        } else if (DatabaseNamesConstants.SQLITE.equals(databaseName)) {
+            return 999;
+        } else if (DatabaseNamesConstants.MYSQL.equals(databaseName) || DatabaseNamesConstants.MARIADB.equals(databaseName)) {
+            return 65535;
+        } else {
+            return Short.MAX_VALUE;
+        }
+    }
+
+    abstract void add(Object[] values) throws SQLException;
+
+    abstract void flush() throws SQLException;
+
+    /**
+     * @return a description of how rows are loaded, used for logging and
+     *         results
+     */
+    abstract String getSql();
+
+    void close() {
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    static boolean hasBinaryColumns(int[] types) {
+        for (int type : types) {
+            if (type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY || type == Types.BLOB) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the table name of an insert statement as it appears in the
+     *         statement, qualified and quoted
+     */
+    static String getTableName(String insertSql) {
+        String target = getTarget(insertSql);
+        return target.substring(0, target.indexOf('(')).trim();
+    }
+
+    static String getTarget(String insertSql) {
+        return insertSql.substring(insertSql.toLowerCase().indexOf("into") + 4, getValuesIndex(insertSql)).trim();
+    }
+
+    static int getValuesIndex(String insertSql) {
+        return insertSql.toLowerCase().lastIndexOf("values");
+    }
+
+    /**
+     * Appends a row in the tab delimited text format that both PostgreSQL COPY
+     * and MySQL LOAD DATA read by default. Nulls are \N and backslashes, tabs
+     * and line breaks are escaped with a backslash.
+     */
+    static void appendDelimitedRow(StringBuilder row, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append('\t');
+            }
+            Object value = values[i];
+            if (value == null) {
+                row.append("\\N");
+            } else {
+                String text;
+                if (value instanceof Boolean) {
+                    text = (Boolean) value ? "1" : "0";
+                } else if (value instanceof BigDecimal) {
+                    text = ((BigDecimal) value).toPlainString();
+                } else if (value instanceof Date && !(value instanceof Timestamp || value instanceof java.sql.Date
+                        || value instanceof java.sql.Time)) {
+                    text = new Timestamp(((Date) value).getTime()).toString();
+                } else {
+                    text = value.toString();
+                }
+                for (int j = 0; j < text.length(); j++) {
+                    char c = text.charAt(j);
+                    switch (c) {
+                        case '\\':
+                            row.append("\\\\");
+                            break;
+                        case '\t':
+                            row.append("\\t");
+                            break;
+                        case '\n':
+                            row.append("\\n");
+                            break;
+                        case '\r':
+                            row.append("\\r");
+                            break;
+                        default:
+                            row.append(c);
+                    }
+                }
+            }
+        }
+        row.append('\n');
+    }
+
+    /**
+     * Streams rows into an open COPY ... FROM STDIN. The copy stays open across
+     * messages until it is flushed, so a load between commits is a single
+     * COPY.
+     */
+    static class CopyBulkLoader extends RdbmsBulkLoader {
+
+        static final int BUFFER_SIZE = 64 * 1024;
+
+        PGConnection pgConnection;
+
+        CopyIn copyIn;
+
+        StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+
+        CopyBulkLoader(Connection connection, DmlStatement insertStatement) throws SQLException {
+            super(connection, insertStatement);
+            this.pgConnection = connection.unwrap(PGConnection.class);
+        }
+
+        @Override
+        String getSql() {
+            return String.format("copy %s %s from stdin", tableName, columnList);
+        }
+
+        @Override
+        void add(Object[] values) throws SQLException {
+            appendDelimitedRow(buffer, values);
+            rowCount++;
+            if (buffer.length() >= BUFFER_SIZE) {
+                writeBuffer();
+            }
+        }
+
+        private void writeBuffer() throws SQLException {
+            if (copyIn == null) {
+                copyIn = pgConnection.getCopyAPI().copyIn(getSql());
+            }
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+
+        @Override
+        void flush() throws SQLException {
+            if (buffer.length() > 0) {
+                writeBuffer();
+            }
+            if (copyIn != null) {
+                CopyIn finished = copyIn;
+                copyIn = null;
+                finished.endCopy();
+            }
+        }
+
+        @Override
+        void close() {
+            buffer.setLength(0);
+            if (copyIn != null) {
+                try {
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                } catch (SQLException e) {
+                    log.debug("Failed to cancel copy", e);
+                }
+                copyIn = null;
+            }
+        }
+    }
+
+    /**
+     * Spools rows to a temp file and hands the file to LOAD DATA LOCAL INFILE
+     * as a stream when flushed. The MySQL driver classes are looked up by name
+     * so they are not a compile time dependency.
+     */
+    static class LoadDataBulkLoader extends RdbmsBulkLoader {
+
+        Class<?> mysqlStatementClass;
+
+        Method setLocalInfileInputStream;
+
+        File spoolFile;
+
+        Writer writer;
+
+        StringBuilder row = new StringBuilder();
+
+        LoadDataBulkLoader(Connection connection, DmlStatement insertStatement)
+                throws SQLException, ReflectiveOperationException {
+            super(connection, insertStatement);
+            mysqlStatementClass = Class.forName("com.mysql.jdbc.Statement");
+            setLocalInfileInputStream = mysqlStatementClass.getMethod("setLocalInfileInputStream", InputStream.class);
+            try (Statement statement = connection.createStatement()) {
+                statement.unwrap(mysqlStatementClass);
+            }
+        }
+
+        @Override
+        String getSql() {
+            return String.format("load data local infile 'metl' into table %s character set utf8mb4 %s", tableName,
+                    columnList);
+        }
+
+        @Override
+        void add(Object[] values) throws SQLException {
+            try {
+                if (writer == null) {
+                    spoolFile = File.createTempFile("metl-bulk-", ".txt");
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile), StandardCharsets.UTF_8));
+                }
+                row.setLength(0);
+                appendDelimitedRow(row, values);
+                writer.append(row);
+                rowCount++;
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        @Override
+        void flush() throws SQLException {
+            if (writer != null) {
+                InputStream in = null;
+                try (Statement statement = connection.createStatement()) {
+                    writer.close();
+                    writer = null;
+                    in = new FileInputStream(spoolFile);
+                    setLocalInfileInputStream.invoke(statement.unwrap(mysqlStatementClass), in);
+                    statement.execute(getSql());
+                } catch (IOException e) {
+                    throw new IoException(e);
+                } catch (InvocationTargetException | IllegalAccessException e) {
+                    throw new SQLException("Could not pass the rows to load data", e);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                    FileUtils.deleteQuietly(spoolFile);
+                    spoolFile = null;
+                }
+            }
+        }
+
+        @Override
+        void close() {
+            IOUtils.closeQuietly(writer);
+            writer = null;
+            FileUtils.deleteQuietly(spoolFile);
+            spoolFile = null;
+        }
+    }
+
+    /**
+     * Sends rowsPerInsert rows at a time in a single insert statement with
+     * multiple value lists. This works on H2, PostgreSQL, MySQL, SQL Server and
+     * most other databases. Fewer rows are sent per statement when a wide table
+     * would otherwise go over the bind parameter limit of the database.
+     */
+    static class InsertBulkLoader extends RdbmsBulkLoader {
+
+        int rowsPerInsert;
+
+        String valueList;
+
+        PreparedStatement fullStatement;
+
+        List<Object[]> pending;
+
+        InsertBulkLoader(Connection connection, DmlStatement insertStatement, int rowsPerInsert, int maxParameters) {
+            super(connection, insertStatement);
+            int maxRows = maxParameters / Math.max(1, types.length);
+            if (rowsPerInsert > maxRows) {
+                log.debug("Sending {} rows per insert to {} instead of {} to stay within {} bind parameters", maxRows,
+                        tableName, rowsPerInsert, maxParameters);
+                rowsPerInsert = maxRows;
+            }
+            this.rowsPerInsert = Math.max(1, rowsPerInsert);
+            this.valueList = insertSql.substring(getValuesIndex(insertSql) + "values".length()).trim();
+            this.pending = new ArrayList<>(this.rowsPerInsert);
+        }
+
+        @Override
+        String getSql() {
+            return getSql(rowsPerInsert);
+        }
+
+        String getSql(int rows) {
+            StringBuilder sql = new StringBuilder(insertSql.substring(0, getValuesIndex(insertSql) + "values".length()));
+            for (int i = 0; i < rows; i++) {
+                sql.append(i == 0 ? " " : ",").append(valueList);
+            }
+            return sql.toString();
+        }
+
+        @Override
+        void add(Object[] values) throws SQLException {
+            pending.add(values);
+            rowCount++;
+            if (pending.size() == rowsPerInsert) {
+                if (fullStatement == null) {
+                    fullStatement = connection.prepareStatement(getSql(rowsPerInsert));
+                }
+                execute(fullStatement);
+            }
+        }
+
+        @Override
+        void flush() throws SQLException {
+            if (pending.size() > 0) {
+                try (PreparedStatement statement = connection.prepareStatement(getSql(pending.size()))) {
+                    execute(statement);
+                }
+            }
+        }
+
+        private void execute(PreparedStatement statement) throws SQLException {
+            int index = 1;
+            for (Object[] values : pending) {
+                for (int i = 0; i < values.length; i++) {
+                    StatementCreatorUtils.setParameterValue(statement, index++, types[i], values[i]);
+                }
+            }
+            statement.executeUpdate();
+            pending.clear();
+        }
+
+        @Override
+        void close() {
+            pending.clear();
+            if (fullStatement != null) {
+                try {
+                    fullStatement.close();
+                } catch (SQLException e) {
+                }
+                fullStatement = null;
+            }
+        }
+    }
+}
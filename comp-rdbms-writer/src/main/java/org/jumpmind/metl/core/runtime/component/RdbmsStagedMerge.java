@@ -0,0 +1,296 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.DatabaseNamesConstants;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.DmlStatement;
+import org.jumpmind.db.sql.DmlStatement.DmlType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the inserts and updates for one table as a set. The rows are bulk
+ * loaded into a staging table which is then merged into the target table with
+ * a single statement in the dialect of the database:
+ * <ul>
+ * <li>PostgreSQL: insert ... select ... on conflict do update</li>
+ * <li>MySQL and MariaDB: insert ... select ... on duplicate key update</li>
+ * <li>H2: merge into ... key (...) select ...</li>
+ * <li>SQLite: insert ... select ... on conflict do update</li>
+ * <li>everything else: the standard merge into ... using ...</li>
+ * </ul>
+ * The staging table is a session temporary table where the database has one
+ * that the merge can read (PostgreSQL, MySQL and SQL Server) and a regular
+ * table next to the target table otherwise. Its name is unique to the
+ * execution, flow step, thread and table so that writers never share a
+ * staging table, and it is only dropped if this merge created it.
+ */
+class RdbmsStagedMerge {
+
+    static final Logger log = LoggerFactory.getLogger(RdbmsStagedMerge.class);
+
+    IDatabasePlatform platform;
+
+    Connection connection;
+
+    String targetTableName;
+
+    Table stageTable;
+
+    String stageTableName;
+
+    boolean temporary;
+
+    List<String> columns;
+
+    List<String> updateColumns;
+
+    List<String> keyColumns;
+
+    String quote;
+
+    int rowsPerInsert;
+
+    RdbmsBulkLoader loader;
+
+    boolean created;
+
+    /**
+     * @param stageTable
+     *            the columns to stage, in the catalog and schema of the target
+     *            table
+     * @param stageName
+     *            the unique name of the staging table
+     * @param updateColumns
+     *            the columns that are set when a row already exists
+     */
+    RdbmsStagedMerge(IDatabasePlatform platform, Connection connection, String targetTableName, Table stageTable,
+            String stageName, List<String> updateColumns, List<String> keyColumns, String quote, int rowsPerInsert) {
+        this.platform = platform;
+        this.connection = connection;
+        this.targetTableName = targetTableName;
+        this.stageTable = stageTable;
+        this.columns = Arrays.asList(stageTable.getColumnNames());
+        this.updateColumns = updateColumns;
+        this.keyColumns = keyColumns;
+        this.quote = quote;
+        this.rowsPerInsert = rowsPerInsert;
+        String name = platform.getName();
+        this.temporary = DatabaseNamesConstants.POSTGRESQL.equals(name) || isMySql(name) || isSqlServer(name);
+        stageTable.setName((isSqlServer(name) ? "#" : "") + stageName);
+        if (temporary) {
+            stageTable.setCatalog(null);
+            stageTable.setSchema(null);
+        }
+        DmlStatement insertStatement = platform.createDmlStatement(DmlType.INSERT, stageTable, null);
+        this.stageTableName = RdbmsBulkLoader.getTableName(insertStatement.getSql());
+        this.loader = RdbmsBulkLoader.create(platform, connection, insertStatement, rowsPerInsert);
+    }
+
+    /**
+     * Creates the staging table. This has to happen before any other
+     * statement of the transaction because some databases commit on ddl.
+     */
+    void create() throws SQLException {
+        if (!created) {
+            execute(getCreateSql());
+            created = true;
+        }
+    }
+
+    String getCreateSql() {
+        return getCreateSql(platform.getName(), targetTableName, stageTableName, columns, quote, temporary);
+    }
+
+    /**
+     * Stages and merges the rows. The rows must be unique by key.
+     *
+     * @return the number of rows that were inserted and updated
+     */
+    int[] merge(Collection<Object[]> rows) throws SQLException {
+        create();
+        for (Object[] row : rows) {
+            loader.add(row);
+        }
+        loader.flush();
+        int updated = 0;
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(getMatchedCountSql())) {
+            if (rs.next()) {
+                updated = rs.getInt(1);
+            }
+        }
+        execute(getMergeSql());
+        execute("delete from " + stageTableName);
+        return new int[] { rows.size() - updated, updated };
+    }
+
+    String getMergeSql() {
+        return getMergeSql(platform.getName(), targetTableName, stageTableName, columns, updateColumns, keyColumns, quote);
+    }
+
+    String getMatchedCountSql() {
+        return String.format("select count(*) from %s s where exists (select 1 from %s t where %s)", stageTableName,
+                targetTableName, getKeyCondition(keyColumns, quote));
+    }
+
+    void close() {
+        loader.close();
+        if (created) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("drop table " + stageTableName);
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                log.debug("Failed to drop the staging table " + stageTableName, e);
+            }
+            created = false;
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        log.debug("Running: {}", sql);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    static String getCreateSql(String databaseName, String targetTableName, String stageTableName, List<String> columns,
+            String quote, boolean temporary) {
+        String select = String.format("select %s from %s where 1=0", getColumnList(columns, quote), targetTableName);
+        if (isSqlServer(databaseName)) {
+            return String.format("select %s into %s from %s where 1=0", getColumnList(columns, quote), stageTableName,
+                    targetTableName);
+        } else if (temporary) {
+            return String.format("create temporary table %s as %s", stageTableName, select);
+        } else if (databaseName.startsWith(DatabaseNamesConstants.DB2)) {
+            return String.format("create table %s as (%s) with no data", stageTableName, select);
+        } else {
+            return String.format("create table %s as %s", stageTableName, select);
+        }
+    }
+
+    static String getMergeSql(String databaseName, String targetTableName, String stageTableName, List<String> columns,
+            List<String> updateColumns, List<String> keyColumns, String quote) {
+        String columnList = getColumnList(columns, quote);
+        StringBuilder sql = new StringBuilder();
+        if (DatabaseNamesConstants.POSTGRESQL.equals(databaseName)) {
+            sql.append(String.format("insert into %s (%s) select %s from %s on conflict (%s) do ", targetTableName,
+                    columnList, columnList, stageTableName, getColumnList(keyColumns, quote)));
+            if (updateColumns.size() > 0) {
+                sql.append("update set ");
+                appendAssignments(sql, updateColumns, quote, "", "excluded.", "");
+            } else {
+                sql.append("nothing");
+            }
+        } else if (isMySql(databaseName)) {
+            sql.append(String.format("insert into %s (%s) select %s from %s on duplicate key update ", targetTableName,
+                    columnList, columnList, stageTableName));
+            if (updateColumns.size() > 0) {
+                appendAssignments(sql, updateColumns, quote, "", "values(", ")");
+            } else {
+                appendAssignments(sql, keyColumns.subList(0, 1), quote, "", "", "");
+            }
+        } else if (DatabaseNamesConstants.H2.equals(databaseName)) {
+            sql.append(String.format("merge into %s (%s) key (%s) select %s from %s", targetTableName, columnList,
+                    getColumnList(keyColumns, quote), columnList, stageTableName));
+        } else if (DatabaseNamesConstants.SQLITE.equals(databaseName)) {
+            /*
+             * The where clause is required so that SQLite doesn't parse the
+             * on conflict clause as a join constraint
+             */
+            sql.append(String.format("insert into %s (%s) select %s from %s where true on conflict (%s) do ", targetTableName,
+                    columnList, columnList, stageTableName, getColumnList(keyColumns, quote)));
+            if (updateColumns.size() > 0) {
+                sql.append("update set ");
+                appendAssignments(sql, updateColumns, quote, "", "excluded.", "");
+            } else {
+                sql.append("nothing");
+            }
+        } else {
+            sql.append(String.format("merge into %s t using %s s on (%s)", targetTableName, stageTableName,
+                    getKeyCondition(keyColumns, quote)));
+            if (updateColumns.size() > 0) {
+                sql.append(" when matched then update set ");
+                appendAssignments(sql, updateColumns, quote, "t.", "s.", "");
+            }
+            sql.append(String.format(" when not matched then insert (%s) values (", columnList));
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i > 0 ? ", " : "").append("s.").append(quote).append(columns.get(i)).append(quote);
+            }
+            sql.append(")");
+            if (isSqlServer(databaseName)) {
+                sql.append(";");
+            }
+        }
+        return sql.toString();
+    }
+
+    static String getColumnList(List<String> columns, String quote) {
+        StringBuilder list = new StringBuilder();
+        for (String column : columns) {
+            if (list.length() > 0) {
+                list.append(", ");
+            }
+            list.append(quote).append(column).append(quote);
+        }
+        return list.toString();
+    }
+
+    static String getKeyCondition(List<String> keyColumns, String quote) {
+        StringBuilder condition = new StringBuilder();
+        for (String column : keyColumns) {
+            if (condition.length() > 0) {
+                condition.append(" and ");
+            }
+            condition.append("t.").append(quote).append(column).append(quote).append(" = s.").append(quote).append(column)
+                    .append(quote);
+        }
+        return condition.toString();
+    }
+
+    static void appendAssignments(StringBuilder sql, List<String> columns, String quote, String targetPrefix,
+            String valuePrefix, String valueSuffix) {
+        for (int i = 0; i < columns.size(); i++) {
+            String column = quote + columns.get(i) + quote;
+            sql.append(i > 0 ? ", " : "").append(targetPrefix).append(column).append(" = ").append(valuePrefix)
+                    .append(column).append(valueSuffix);
+        }
+    }
+
+    static boolean isMySql(String databaseName) {
+        return DatabaseNamesConstants.MYSQL.equals(databaseName) || DatabaseNamesConstants.MARIADB.equals(databaseName);
+    }
+
+    static boolean isSqlServer(String databaseName) {
+        return databaseName != null && databaseName.startsWith("mssql");
+    }
+}
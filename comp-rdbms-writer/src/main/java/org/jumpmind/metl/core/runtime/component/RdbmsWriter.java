@@ -23,13 +23,28 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
 
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.sql.DataSource;
 
@@ -48,6 +63,7 @@ import org.jumpmind.metl.core.model.DataType;
 import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
@@ -57,8 +73,10 @@ import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.metl.core.runtime.resource.IDatasourceRuntime;
 import org.jumpmind.metl.core.util.LogUtils;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 import org.jumpmind.util.FormatUtils;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 
 public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
 
@@ -78,6 +96,12 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     public final static String TABLE_PREFIX = "table.prefix";
     public final static String AUTO_CREATE_TABLE = "table.auto.create";
     public final static String USE_CACHED_METADATA = "use.cached.table.metadata";
+    public final static String BULK_LOAD = "bulk.load";
+    public final static String BULK_COMMIT_INTERVAL = "bulk.commit.interval";
+    public final static String BULK_ROWS_PER_INSERT = "bulk.rows.per.insert";
+    public final static String STAGED_MERGE = "staged.merge";
+    public final static String PIPELINE_CONNECTIONS = "pipeline.connections";
+    public final static String PIPELINE_MESSAGES_IN_FLIGHT = "pipeline.messages.in.flight";
 
     boolean useCachedMetadata = false;
     boolean continueOnError = false;
@@ -101,6 +125,27 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     Map<TargetTableDefintion, WriteStats> statsMap = new HashMap<>();
     long lastStatsLogTime = System.currentTimeMillis();
     long sqlDuration = 0;
+    boolean bulkLoad = false;
+    int bulkCommitInterval = 100000;
+    int bulkRowsPerInsert = 100;
+    Connection bulkConnection;
+    Map<TargetTableDefintion, RdbmsBulkLoader> bulkLoaders = new HashMap<>();
+    RdbmsBulkLoader activeBulkLoader;
+    long bulkRowsSinceCommit = 0;
+    boolean stagedMerge = false;
+    Connection mergeConnection;
+    Map<TargetTableDefintion, RdbmsStagedMerge> stagedMerges = new HashMap<>();
+    int pipelineConnections = 0;
+    int pipelineMessagesInFlight = 4;
+    boolean pipelineLane = false;
+    int laneNumber = 0;
+    List<String> keyAttributeIds;
+    List<RdbmsWriter> lanes;
+    List<ExecutorService> laneExecutors;
+    Future<?>[] laneWrites;
+    long unkeyedRowCount = 0;
+    AtomicReference<Throwable> pipelineError = new AtomicReference<>();
+    Queue<Result> pipelineResults = new ConcurrentLinkedQueue<>();
 
     @Override
     public void start() {
@@ -126,11 +171,26 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         fitToColumn = properties.is(FIT_TO_COLUMN);
         tableSuffix = properties.get(TABLE_SUFFIX, "");
         autoCreateTable = properties.is(AUTO_CREATE_TABLE, false);
+        bulkLoad = properties.is(BULK_LOAD, bulkLoad);
+        bulkCommitInterval = properties.getInt(BULK_COMMIT_INTERVAL, bulkCommitInterval);
+        bulkRowsPerInsert = properties.getInt(BULK_ROWS_PER_INSERT, bulkRowsPerInsert);
+        stagedMerge = properties.is(STAGED_MERGE, stagedMerge);
+        pipelineConnections = properties.getInt(PIPELINE_CONNECTIONS, pipelineConnections);
+        pipelineMessagesInFlight = properties.getInt(PIPELINE_MESSAGES_IN_FLIGHT, pipelineMessagesInFlight);
         
         if (batchMode && insertFallback) {
             throw new MisconfiguredException("Insert fallback is not supported in batch mode");
         }
 
+        if (bulkLoad && (replaceRows || updateFirst || insertFallback || continueOnError)) {
+            throw new MisconfiguredException(
+                    "Replace rows, update first, insert fallback and continue on error are not supported with bulk load");
+        }
+
+        if (stagedMerge && (bulkLoad || continueOnError)) {
+            throw new MisconfiguredException("Bulk load and continue on error are not supported with staged merge");
+        }
+
         if (tableSuffix == null) {
             tableSuffix = "";
         }
@@ -149,6 +209,46 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         
         statsMap = new HashMap<TargetTableDefintion, WriteStats>();
         lastStatsLogTime = System.currentTimeMillis();
+
+        if (pipelineConnections > 0 && !pipelineLane) {
+            startPipeline();
+        }
+    }
+
+    /*
+     * Each lane is a writer of its own with its own connection and transaction
+     * that runs on a single thread, so the rows for a key are written in the
+     * order they arrived. The lane queues are bounded, which blocks the step
+     * thread and in turn the step's inbound queue when the database falls
+     * behind.
+     */
+    private void startPipeline() {
+        keyAttributeIds = new ArrayList<>();
+        for (ModelEntity entity : ((RelationalModel) getInputModel()).getModelEntities()) {
+            for (ModelAttrib attribute : entity.getModelAttributes()) {
+                if (attribute.isPk()) {
+                    keyAttributeIds.add(attribute.getId());
+                }
+            }
+        }
+        pipelineError.set(null);
+        pipelineResults.clear();
+        lanes = new ArrayList<>(pipelineConnections);
+        laneExecutors = new ArrayList<>(pipelineConnections);
+        laneWrites = new Future<?>[pipelineConnections];
+        for (int i = 0; i < pipelineConnections; i++) {
+            RdbmsWriter lane = new RdbmsWriter();
+            lane.pipelineLane = true;
+            lane.laneNumber = i + 1;
+            lane.setComponentDefinition(componentDefinition);
+            lane.setContext(context);
+            lane.setThreadNumber(threadNumber);
+            lane.start();
+            lanes.add(lane);
+            laneExecutors.add(ThreadUtils.createFixedThreadPool(
+                    String.format("%s-%d-writer-%d", getFlowStep().getName(), threadNumber, i + 1),
+                    Math.max(1, pipelineMessagesInFlight), 1));
+        }
     }
 
     @Override
@@ -158,7 +258,11 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
 
     @Override
     public void handle(final Message inputMessage, final ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        if (inputMessage instanceof EntityDataMessage) {
+        if (inputMessage instanceof ControlMessage) {
+            if (unitOfWorkBoundaryReached && error == null) {
+                completeUnitOfWork();
+            }
+        } else if (inputMessage instanceof EntityDataMessage) {
             results.clear();
             lastPreparedDml = null;
 
@@ -198,7 +302,20 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                 }
 
                 ArrayList<EntityData> inputRows = ((EntityDataMessage) inputMessage).getPayload();
-                if (inputRows != null && inputRows.size() > 0) {
+                if (lanes != null) {
+                    pipelineWrite(inputRows != null ? inputRows : new ArrayList<>(), unitOfWorkBoundaryReached);
+                } else if (bulkLoad && inputRows != null && inputRows.size() > 0 && isInsertOnly(inputRows)) {
+                    bulkWrite(inputRows, unitOfWorkBoundaryReached);
+                } else if (stagedMerge && inputRows != null && inputRows.size() > 0) {
+                    stagedMergeWrite(inputRows);
+                } else if (inputRows != null && inputRows.size() > 0) {
+                    if (bulkLoad) {
+                        /*
+                         * updates and deletes are written the regular way once
+                         * the rows that were bulk loaded before them are committed
+                         */
+                        commitBulkLoad();
+                    }
                     ISqlTransaction transaction = databasePlatform.getSqlTemplate().startSqlTransaction();
                     transaction.setInBatchMode(batchMode);
                     try {
@@ -215,6 +332,9 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                     } finally {
                         transaction.close();
                     }
+                } else if (unitOfWorkBoundaryReached) {
+                    /* rows bulk loaded by earlier messages end with the unit of work */
+                    commitBulkLoad();
                 }
                 if (callback != null && results.size() > 0) {
                     callback.sendTextMessage(null, convertResultsToTextPayload(results));
@@ -231,15 +351,484 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         } 
     }
     
+    /*
+     * The end of a unit of work usually arrives on its own control message.
+     * What was bulk loaded is committed and the lanes are drained here, so a
+     * failure is reported by this step before the flow completes.
+     */
+    private void completeUnitOfWork() {
+        if (lanes != null) {
+            results.clear();
+            pipelineWrite(new ArrayList<>(), true);
+        } else if (bulkLoad) {
+            commitBulkLoad();
+        }
+    }
+
     @Override
     public void flowCompleted(boolean cancelled) {
+        if (lanes != null) {
+            completePipeline(cancelled);
+            return;
+        }
+        if (bulkConnection != null && error == null) {
+            commitBulkLoad();
+        }
+        closeBulkLoad();
+        closeStagedMerge();
         writeStats(true);
     }
     
     @Override
     public void flowCompletedWithErrors(Throwable myError) {
+        if (lanes != null) {
+            stopPipeline();
+            for (RdbmsWriter lane : lanes) {
+                lane.flowCompletedWithErrors(myError);
+            }
+            return;
+        }
+        closeBulkLoad();
+        closeStagedMerge();
         writeStats(true);
     }
+
+    @Override
+    public void stop() {
+        if (lanes != null) {
+            stopPipeline();
+            for (RdbmsWriter lane : lanes) {
+                lane.stop();
+            }
+        }
+        closeBulkLoad();
+        closeStagedMerge();
+        super.stop();
+    }
+
+    /*
+     * Rows are spread across the lanes by a hash of their key values. Results
+     * and errors from the lanes are picked up on the next message and all of
+     * them are waited for at the end of each unit of work. Every lane is sent
+     * the end of a unit of work, even without rows, so it commits what it has
+     * bulk loaded.
+     */
+    private void pipelineWrite(ArrayList<EntityData> inputRows, boolean unitOfWorkBoundaryReached) {
+        throwPipelineError();
+        List<ArrayList<EntityData>> partitions = new ArrayList<>(lanes.size());
+        for (int i = 0; i < lanes.size(); i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (EntityData inputRow : inputRows) {
+            partitions.get(getLane(inputRow)).add(inputRow);
+        }
+        for (int i = 0; i < lanes.size(); i++) {
+            ArrayList<EntityData> partition = partitions.get(i);
+            if (partition.size() > 0 || unitOfWorkBoundaryReached) {
+                RdbmsWriter lane = lanes.get(i);
+                if (lane.databasePlatform == null) {
+                    lane.setDatabasePlatform(databasePlatform);
+                }
+                EntityDataMessage laneMessage = new EntityDataMessage(getFlowStepId(), partition);
+                laneWrites[i] = laneExecutors.get(i).submit(() -> {
+                    if (pipelineError.get() == null) {
+                        try {
+                            lane.handle(laneMessage, null, unitOfWorkBoundaryReached);
+                            pipelineResults.addAll(lane.results);
+                        } catch (Throwable ex) {
+                            pipelineError.compareAndSet(null, ex);
+                        }
+                    }
+                });
+            }
+        }
+        if (unitOfWorkBoundaryReached) {
+            waitForPipeline();
+        }
+        Result result;
+        while ((result = pipelineResults.poll()) != null) {
+            results.add(result);
+        }
+        throwPipelineError();
+    }
+
+    private int getLane(EntityData inputRow) {
+        int hash = 0;
+        boolean keyed = false;
+        for (String attributeId : keyAttributeIds) {
+            if (inputRow.containsKey(attributeId)) {
+                Object value = inputRow.get(attributeId);
+                if (value instanceof Number) {
+                    /* the same key can arrive as different number types */
+                    value = new BigDecimal(value.toString()).stripTrailingZeros();
+                } else if (value != null) {
+                    value = value.toString();
+                }
+                hash = 31 * hash + (value != null ? value.hashCode() : 0);
+                keyed = true;
+            }
+        }
+        if (keyed) {
+            return (hash & Integer.MAX_VALUE) % lanes.size();
+        } else {
+            return (int) (unkeyedRowCount++ % lanes.size());
+        }
+    }
+
+    private void waitForPipeline() {
+        for (int i = 0; i < laneWrites.length; i++) {
+            if (laneWrites[i] != null) {
+                try {
+                    laneWrites[i].get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                } catch (ExecutionException e) {
+                    pipelineError.compareAndSet(null, e.getCause());
+                }
+                laneWrites[i] = null;
+            }
+        }
+    }
+
+    private void throwPipelineError() {
+        Throwable ex = pipelineError.get();
+        if (ex != null) {
+            error = ex;
+            if (ex instanceof RuntimeException) {
+                throw (RuntimeException) ex;
+            } else {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    private void completePipeline(boolean cancelled) {
+        try {
+            waitForPipeline();
+            for (RdbmsWriter lane : lanes) {
+                lane.flowCompleted(cancelled);
+            }
+        } finally {
+            stopPipeline();
+        }
+        throwPipelineError();
+    }
+
+    private void stopPipeline() {
+        for (ExecutorService executor : laneExecutors) {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean isInsertOnly(List<EntityData> inputRows) {
+        for (EntityData inputRow : inputRows) {
+            if (inputRow.getChangeType() != ChangeType.ADD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Rows are streamed to each table's bulk loader on a connection that stays
+     * open across messages. The loaders are flushed and the connection is
+     * committed once the commit interval is reached or the unit of work ends.
+     */
+    private void bulkWrite(List<EntityData> inputRows, boolean unitOfWorkBoundaryReached) {
+        try {
+            if (bulkConnection == null) {
+                bulkConnection = ((DataSource) getResourceReference()).getConnection();
+                bulkConnection.setAutoCommit(false);
+            }
+            sortAndStoreRowsByTableAndOperation(inputRows);
+            for (TargetTableDefintion targetTableDefinition : targetTables) {
+                TargetTable targetInsertTable = targetTableDefinition.getInsertTable();
+                int count = targetInsertTable.getRowValues().size();
+                if (count > 0) {
+                    RdbmsBulkLoader loader = getBulkLoader(targetTableDefinition);
+                    long ts = System.currentTimeMillis();
+                    for (EntityData inputRow : targetInsertTable.getRowValues()) {
+                        loader.add(getValues(false, targetInsertTable, inputRow));
+                    }
+                    long duration = System.currentTimeMillis() - ts;
+                    sqlDuration += duration;
+                    WriteStats stats = getStats(targetTableDefinition);
+                    stats.insertCount += count;
+                    stats.loadDuration += duration;
+                    results.add(new Result(loader.getSql(), count));
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, count);
+                    bulkRowsSinceCommit += count;
+                }
+            }
+            if (bulkRowsSinceCommit >= bulkCommitInterval || unitOfWorkBoundaryReached) {
+                commitBulkLoad();
+            }
+            writeStats(false);
+        } catch (SQLException ex) {
+            error = ex;
+            closeBulkLoad();
+            throw new SqlException(ex);
+        } catch (RuntimeException ex) {
+            error = ex;
+            closeBulkLoad();
+            throw ex;
+        }
+    }
+
+    private RdbmsBulkLoader getBulkLoader(TargetTableDefintion targetTableDefinition) throws SQLException {
+        RdbmsBulkLoader loader = bulkLoaders.get(targetTableDefinition);
+        if (loader == null) {
+            loader = RdbmsBulkLoader.create(databasePlatform, bulkConnection,
+                    targetTableDefinition.getInsertTable().getStatement(), bulkRowsPerInsert);
+            log(LogLevel.INFO, "Bulk loading %s using: %s",
+                    targetTableDefinition.getInsertTable().getTable().getFullyQualifiedTableName(), loader.getSql());
+            bulkLoaders.put(targetTableDefinition, loader);
+        }
+        /*
+         * a connection can only stream to one table at a time, so finish
+         * whatever was streaming to another table first
+         */
+        if (activeBulkLoader != null && activeBulkLoader != loader) {
+            flushBulkLoader(activeBulkLoader);
+        }
+        activeBulkLoader = loader;
+        return loader;
+    }
+
+    private void flushBulkLoader(RdbmsBulkLoader loader) throws SQLException {
+        long ts = System.currentTimeMillis();
+        loader.flush();
+        long duration = System.currentTimeMillis() - ts;
+        sqlDuration += duration;
+        for (Map.Entry<TargetTableDefintion, RdbmsBulkLoader> entry : bulkLoaders.entrySet()) {
+            if (entry.getValue() == loader) {
+                getStats(entry.getKey()).loadDuration += duration;
+            }
+        }
+    }
+
+    private void commitBulkLoad() {
+        if (bulkConnection != null) {
+            try {
+                for (RdbmsBulkLoader loader : bulkLoaders.values()) {
+                    flushBulkLoader(loader);
+                }
+                activeBulkLoader = null;
+                long ts = System.currentTimeMillis();
+                bulkConnection.commit();
+                sqlDuration += System.currentTimeMillis() - ts;
+                bulkRowsSinceCommit = 0;
+            } catch (SQLException ex) {
+                error = ex;
+                closeBulkLoad();
+                throw new SqlException(ex);
+            }
+        }
+    }
+
+    private void closeBulkLoad() {
+        for (RdbmsBulkLoader loader : bulkLoaders.values()) {
+            loader.close();
+        }
+        bulkLoaders.clear();
+        activeBulkLoader = null;
+        bulkRowsSinceCommit = 0;
+        if (bulkConnection != null) {
+            try {
+                bulkConnection.rollback();
+            } catch (SQLException e) {
+                log.debug("Failed to roll back the bulk load connection", e);
+            }
+            try {
+                bulkConnection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close the bulk load connection", e);
+            }
+            bulkConnection = null;
+        }
+    }
+    
+    /*
+     * Deletes are batched and then the inserts and changes of each table are
+     * loaded into a staging table and merged into the target table with one
+     * statement. Each message is committed as one transaction.
+     */
+    private void stagedMergeWrite(List<EntityData> inputRows) {
+        try {
+            if (mergeConnection == null) {
+                mergeConnection = ((DataSource) getResourceReference()).getConnection();
+                mergeConnection.setAutoCommit(false);
+            }
+            sortAndStoreRowsByTableAndOperation(inputRows);
+            for (TargetTableDefintion targetTableDefinition : targetTables) {
+                if (targetTableDefinition.getInsertTable().getRowValues().size() > 0) {
+                    getStagedMerge(targetTableDefinition).create();
+                }
+            }
+            long ts = System.currentTimeMillis();
+            for (TargetTableDefintion targetTableDefinition : targetTables) {
+                WriteStats stats = getStats(targetTableDefinition);
+                executeStagedDeletes(targetTableDefinition.getDeleteTable(), stats);
+                if (targetTableDefinition.getInsertTable().getRowValues().size() > 0) {
+                    RdbmsStagedMerge merge = getStagedMerge(targetTableDefinition);
+                    int[] counts = merge.merge(getStagedRows(targetTableDefinition, merge));
+                    stats.insertCount += counts[0];
+                    stats.updateCount += counts[1];
+                    results.add(new Result(merge.getMergeSql(), counts[0] + counts[1]));
+                    totalStatementCount++;
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, counts[0] + counts[1]);
+                }
+            }
+            mergeConnection.commit();
+            sqlDuration += System.currentTimeMillis() - ts;
+            writeStats(false);
+        } catch (SQLException ex) {
+            error = ex;
+            closeStagedMerge();
+            throw new SqlException(ex);
+        } catch (RuntimeException ex) {
+            error = ex;
+            closeStagedMerge();
+            throw ex;
+        }
+    }
+
+    private RdbmsStagedMerge getStagedMerge(TargetTableDefintion targetTableDefinition) {
+        RdbmsStagedMerge merge = stagedMerges.get(targetTableDefinition);
+        if (merge == null) {
+            TargetTable insertTable = targetTableDefinition.getInsertTable();
+            TargetTable updateTable = targetTableDefinition.getUpdateTable();
+            Table stageTable = new Table();
+            stageTable.setCatalog(insertTable.getTable().getCatalog());
+            stageTable.setSchema(insertTable.getTable().getSchema());
+            stageTable.setName(insertTable.getTable().getName());
+            for (Column column : insertTable.getTable().getColumns()) {
+                stageTable.addColumn(column);
+            }
+            List<String> updateColumns = new ArrayList<>();
+            for (Column column : updateTable.getTable().getColumns()) {
+                if (stageTable.findColumn(column.getName()) == null) {
+                    stageTable.addColumn(column);
+                }
+                if (!column.isPrimaryKey()) {
+                    updateColumns.add(column.getName());
+                }
+            }
+            List<String> keyColumns = new ArrayList<>();
+            for (Column column : stageTable.getColumns()) {
+                if (column.isPrimaryKey()) {
+                    keyColumns.add(column.getName());
+                }
+            }
+            if (keyColumns.size() == 0) {
+                throw new MisconfiguredException("Staged merge requires a primary key on %s",
+                        insertTable.getTable().getFullyQualifiedTableName());
+            }
+            String quote = quoteIdentifiers ? databasePlatform.getDatabaseInfo().getDelimiterToken() : "";
+            merge = new RdbmsStagedMerge(databasePlatform, mergeConnection,
+                    RdbmsBulkLoader.getTableName(insertTable.getStatement().getSql()), stageTable,
+                    getStageTableName(targetTableDefinition), updateColumns, keyColumns, quote, bulkRowsPerInsert);
+            stagedMerges.put(targetTableDefinition, merge);
+        }
+        return merge;
+    }
+
+    /*
+     * The staging table is named after the execution, flow step, thread,
+     * pipeline lane and table so that concurrent writers never share one. The
+     * name is kept short enough for databases that limit identifiers to 30
+     * characters.
+     */
+    private String getStageTableName(TargetTableDefintion targetTableDefinition) {
+        return getStageTableName(getExecutionTracker().getExecutionId(), getFlowStepId(), threadNumber, laneNumber,
+                targetTables.indexOf(targetTableDefinition) + 1);
+    }
+
+    static String getStageTableName(String executionId, String flowStepId, int threadNumber, int laneNumber,
+            int tableNumber) {
+        String token = executionId != null ? executionId.replaceAll("[^A-Za-z0-9]", "") : "";
+        if (token.length() < 6) {
+            token = UUID.randomUUID().toString().replace("-", "");
+        }
+        String stepHash = String.format("%08x", flowStepId != null ? flowStepId.hashCode() : 0);
+        return String.format("metl_stg_%s%s_%d_%d_%d", token.substring(token.length() - 6).toLowerCase(),
+                stepHash.substring(2), threadNumber, laneNumber, tableNumber);
+    }
+
+    /*
+     * A merge can only touch a row once, so when a message has more than one
+     * change for a key the last one wins
+     */
+    private Collection<Object[]> getStagedRows(TargetTableDefintion targetTableDefinition, RdbmsStagedMerge merge) {
+        ModelEntity entity = targetTableDefinition.getModelEntity();
+        Column[] columns = merge.stageTable.getColumns();
+        Map<List<Object>, Object[]> rows = new LinkedHashMap<>();
+        for (EntityData inputRow : targetTableDefinition.getInsertTable().getRowValues()) {
+            Object[] values = new Object[columns.length];
+            List<Object> key = new ArrayList<>();
+            for (int i = 0; i < columns.length; i++) {
+                ModelAttrib attribute = entity.getModelAttributeByName(columns[i].getName());
+                Object value = attribute != null ? inputRow.get(attribute.getId()) : null;
+                if (fitToColumn && value instanceof String) {
+                    value = fitToColumn(targetTableDefinition.getInsertTable().getTable(), columns[i].getName(), (String) value);
+                }
+                values[i] = value;
+                if (columns[i].isPrimaryKey()) {
+                    key.add(value);
+                }
+            }
+            rows.remove(key);
+            rows.put(key, values);
+        }
+        return rows.values();
+    }
+
+    private void executeStagedDeletes(TargetTable deleteTable, WriteStats stats) throws SQLException {
+        if (deleteTable.getRowValues().size() > 0) {
+            DmlStatement statement = deleteTable.getStatement();
+            int[] types = statement.getTypes();
+            try (PreparedStatement ps = mergeConnection.prepareStatement(statement.getSql())) {
+                for (EntityData inputRow : deleteTable.getRowValues()) {
+                    Object[] rowData = getValues(false, deleteTable, inputRow);
+                    for (int i = 0; i < rowData.length; i++) {
+                        StatementCreatorUtils.setParameterValue(ps, i + 1, types[i], rowData[i]);
+                    }
+                    ps.addBatch();
+                }
+                int count = 0;
+                for (int rowCount : ps.executeBatch()) {
+                    count += rowCount == Statement.SUCCESS_NO_INFO ? 1 : rowCount;
+                }
+                stats.deleteCount += count;
+                if (count > 0) {
+                    results.add(new Result(statement.getSql(), count));
+                    totalStatementCount++;
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, count);
+                }
+            }
+        }
+    }
+
+    private void closeStagedMerge() {
+        if (mergeConnection != null) {
+            try {
+                mergeConnection.rollback();
+            } catch (SQLException e) {
+                log.debug("Failed to roll back the staged merge connection", e);
+            }
+            for (RdbmsStagedMerge merge : stagedMerges.values()) {
+                merge.close();
+            }
+            try {
+                mergeConnection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close the staged merge connection", e);
+            }
+            mergeConnection = null;
+        }
+        stagedMerges.clear();
+    }
     
     protected Table createTableFromEntity(ModelEntity entity, String tableName) {
         Table table = new Table();
@@ -297,6 +886,12 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
             for (TargetTableDefintion targetTableDefinition : targetTables) {
                 if (inputRow.getChangeType() == ChangeType.DEL) {
                     modelTable = targetTableDefinition.getDeleteTable();
+                } else if (stagedMerge) {
+                    /*
+                     * inserts and changes are merged together and must stay
+                     * in order
+                     */
+                    modelTable = targetTableDefinition.getInsertTable();
                 } else if (updateFirst || inputRow.getChangeType() == ChangeType.CHG) {
                     modelTable = targetTableDefinition.getUpdateTable();
                 } else if (inputRow.getChangeType() == ChangeType.ADD) {
@@ -433,6 +1028,11 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                         msg.append("Inserted: ");
                         msg.append(stats.insertCount);
                         rowCount += stats.insertCount;
+                        if (stats.loadDuration > 0) {
+                            msg.append(" (");
+                            msg.append(stats.insertCount * 1000 / stats.loadDuration);
+                            msg.append(" rows/sec)");
+                        }
                     }
                     if (stats.fallbackUpdateCount > 0) {
                         if (msg.length() > 0) {
@@ -772,5 +1372,6 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         int updateCount;
         int fallbackInsertCount;
         int fallbackUpdateCount;
+        long loadDuration;
     }
 }
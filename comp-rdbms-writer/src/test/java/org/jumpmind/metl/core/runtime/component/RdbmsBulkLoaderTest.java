@@ -0,0 +1,161 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.UUID;
+
+import org.h2.Driver;
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
+import org.jumpmind.db.sql.DmlStatement;
+import org.jumpmind.db.sql.DmlStatement.DmlType;
+import org.jumpmind.db.sql.SqlTemplateSettings;
+import org.jumpmind.db.util.ResettableBasicDataSource;
+import org.jumpmind.metl.core.runtime.component.RdbmsBulkLoader.InsertBulkLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RdbmsBulkLoaderTest {
+
+    ResettableBasicDataSource dataSource;
+
+    IDatabasePlatform platform;
+
+    @Before
+    public void setup() throws Exception {
+        dataSource = new ResettableBasicDataSource();
+        dataSource.setDriverClassName(Driver.class.getName());
+        dataSource.setUrl("jdbc:h2:mem:test" + UUID.randomUUID().toString().replace("-", "") + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("create table TEST (ID integer primary key, NAME varchar(50), AMOUNT decimal(10,2))");
+        }
+        platform = JdbcDatabasePlatformFactory.createNewPlatformInstance(dataSource, new SqlTemplateSettings(), false, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        dataSource.close();
+    }
+
+    @Test
+    public void testInsertBulkLoaderWritesFullAndPartialStatements() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            RdbmsBulkLoader loader = RdbmsBulkLoader.create(platform, connection, getInsertStatement(), 3);
+            assertTrue(loader instanceof InsertBulkLoader);
+            for (int i = 1; i <= 10; i++) {
+                loader.add(new Object[] { i, "name " + i, new BigDecimal(i + ".50") });
+            }
+            /* three full statements have been sent and one row is pending */
+            assertEquals(9, count(connection));
+            loader.flush();
+            connection.commit();
+            assertEquals(10, loader.getRowCount());
+            loader.close();
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            assertEquals(10, count(connection));
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("select NAME, AMOUNT from TEST where ID=7")) {
+                rs.next();
+                assertEquals("name 7", rs.getString(1));
+                assertEquals(new BigDecimal("7.50"), rs.getBigDecimal(2));
+            }
+        }
+    }
+
+    @Test
+    public void testRowsPerInsertStayWithinTheParameterLimit() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            InsertBulkLoader loader = new InsertBulkLoader(connection, getInsertStatement(), 1000, 2000);
+            assertEquals(666, loader.rowsPerInsert);
+            loader = new InsertBulkLoader(connection, getInsertStatement(), 100, 2000);
+            assertEquals(100, loader.rowsPerInsert);
+            loader = new InsertBulkLoader(connection, getInsertStatement(), 100, 2);
+            assertEquals(1, loader.rowsPerInsert);
+        }
+    }
+
+    @Test
+    public void testGetMaxParameters() {
+        assertEquals(2000, RdbmsBulkLoader.getMaxParameters("mssql2008"));
+        assertEquals(2000, RdbmsBulkLoader.getMaxParameters("ase"));
+        assertEquals(999, RdbmsBulkLoader.getMaxParameters("sqlite"));
+        assertEquals(65535, RdbmsBulkLoader.getMaxParameters("mysql"));
+        assertEquals(Short.MAX_VALUE, RdbmsBulkLoader.getMaxParameters("h2"));
+        assertEquals(Short.MAX_VALUE, RdbmsBulkLoader.getMaxParameters(null));
+    }
+
+    @Test
+    public void testGetTableName() {
+        String sql = "insert into \"S\".\"T\" (\"A\", \"B\") values (?,?)";
+        assertEquals("\"S\".\"T\"", RdbmsBulkLoader.getTableName(sql));
+        assertEquals("\"S\".\"T\" (\"A\", \"B\")", RdbmsBulkLoader.getTarget(sql));
+        assertEquals("insert into VALUES_TABLE (A) values (?)".lastIndexOf("values"),
+                RdbmsBulkLoader.getValuesIndex("insert into VALUES_TABLE (A) values (?)"));
+    }
+
+    @Test
+    public void testAppendDelimitedRow() {
+        StringBuilder row = new StringBuilder();
+        RdbmsBulkLoader.appendDelimitedRow(row,
+                new Object[] { null, "a\tb\nc\\d\re", Boolean.TRUE, new BigDecimal("1E+3"), 5 });
+        assertEquals("\\N\ta\\tb\\nc\\\\d\\re\t1\t1000\t5\n", row.toString());
+    }
+
+    @Test
+    public void testCloseDiscardsPendingRows() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            RdbmsBulkLoader loader = RdbmsBulkLoader.create(platform, connection, getInsertStatement(), 100);
+            loader.add(new Object[] { 1, "name", null });
+            loader.close();
+            loader.flush();
+            connection.commit();
+            assertEquals(0, count(connection));
+        }
+    }
+
+    private DmlStatement getInsertStatement() {
+        Table table = platform.getTableFromCache(null, null, "TEST", true);
+        return platform.createDmlStatement(DmlType.INSERT, table, null);
+    }
+
+    private static int count(Connection connection) throws Exception {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("select count(*) from TEST")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
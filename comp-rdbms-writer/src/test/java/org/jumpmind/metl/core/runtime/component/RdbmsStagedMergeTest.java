@@ -0,0 +1,152 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.h2.Driver;
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.DatabaseNamesConstants;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
+import org.jumpmind.db.sql.SqlTemplateSettings;
+import org.jumpmind.db.util.ResettableBasicDataSource;
+import org.junit.Test;
+
+public class RdbmsStagedMergeTest {
+
+    static final List<String> COLUMNS = Arrays.asList("ID", "NAME");
+
+    static final List<String> UPDATE_COLUMNS = Arrays.asList("NAME");
+
+    static final List<String> KEY_COLUMNS = Arrays.asList("ID");
+
+    @Test
+    public void testMergeSql() {
+        assertEquals("insert into T (ID, NAME) select ID, NAME from S on conflict (ID) do update set NAME = excluded.NAME",
+                getMergeSql(DatabaseNamesConstants.POSTGRESQL, UPDATE_COLUMNS));
+        assertEquals("insert into T (ID, NAME) select ID, NAME from S on duplicate key update NAME = values(NAME)",
+                getMergeSql(DatabaseNamesConstants.MYSQL, UPDATE_COLUMNS));
+        assertEquals("merge into T (ID, NAME) key (ID) select ID, NAME from S",
+                getMergeSql(DatabaseNamesConstants.H2, UPDATE_COLUMNS));
+        assertEquals(
+                "insert into T (ID, NAME) select ID, NAME from S where true on conflict (ID) do update set NAME = excluded.NAME",
+                getMergeSql(DatabaseNamesConstants.SQLITE, UPDATE_COLUMNS));
+        assertEquals("merge into T t using S s on (t.ID = s.ID) when matched then update set t.NAME = s.NAME"
+                + " when not matched then insert (ID, NAME) values (s.ID, s.NAME)",
+                getMergeSql(DatabaseNamesConstants.ORACLE, UPDATE_COLUMNS));
+        assertEquals("merge into T t using S s on (t.ID = s.ID) when matched then update set t.NAME = s.NAME"
+                + " when not matched then insert (ID, NAME) values (s.ID, s.NAME);", getMergeSql("mssql2008", UPDATE_COLUMNS));
+    }
+
+    @Test
+    public void testMergeSqlWithoutUpdateColumns() {
+        List<String> none = Collections.emptyList();
+        assertEquals("insert into T (ID, NAME) select ID, NAME from S on conflict (ID) do nothing",
+                getMergeSql(DatabaseNamesConstants.POSTGRESQL, none));
+        assertEquals("insert into T (ID, NAME) select ID, NAME from S on duplicate key update ID = ID",
+                getMergeSql(DatabaseNamesConstants.MYSQL, none));
+        assertEquals("insert into T (ID, NAME) select ID, NAME from S where true on conflict (ID) do nothing",
+                getMergeSql(DatabaseNamesConstants.SQLITE, none));
+        assertEquals("merge into T t using S s on (t.ID = s.ID) when not matched then insert (ID, NAME) values (s.ID, s.NAME)",
+                getMergeSql(DatabaseNamesConstants.ORACLE, none));
+    }
+
+    @Test
+    public void testMergeSqlWithQuotedIdentifiers() {
+        assertEquals("merge into T (\"ID\", \"NAME\") key (\"ID\") select \"ID\", \"NAME\" from S",
+                RdbmsStagedMerge.getMergeSql(DatabaseNamesConstants.H2, "T", "S", COLUMNS, UPDATE_COLUMNS, KEY_COLUMNS, "\""));
+    }
+
+    @Test
+    public void testCreateSql() {
+        assertEquals("select ID, NAME into #S from T where 1=0",
+                RdbmsStagedMerge.getCreateSql("mssql2008", "T", "#S", COLUMNS, "", true));
+        assertEquals("create temporary table S as select ID, NAME from T where 1=0",
+                RdbmsStagedMerge.getCreateSql(DatabaseNamesConstants.POSTGRESQL, "T", "S", COLUMNS, "", true));
+        assertEquals("create table S as (select ID, NAME from T where 1=0) with no data",
+                RdbmsStagedMerge.getCreateSql(DatabaseNamesConstants.DB2, "T", "S", COLUMNS, "", false));
+        assertEquals("create table S as select ID, NAME from T where 1=0",
+                RdbmsStagedMerge.getCreateSql(DatabaseNamesConstants.H2, "T", "S", COLUMNS, "", false));
+    }
+
+    @Test
+    public void testMergeIntoH2() throws Exception {
+        ResettableBasicDataSource dataSource = new ResettableBasicDataSource();
+        dataSource.setDriverClassName(Driver.class.getName());
+        dataSource.setUrl("jdbc:h2:mem:test" + UUID.randomUUID().toString().replace("-", "") + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("create table TEST (ID integer primary key, NAME varchar(50))");
+                statement.execute("insert into TEST values (1, 'old')");
+            }
+            IDatabasePlatform platform = JdbcDatabasePlatformFactory.createNewPlatformInstance(dataSource,
+                    new SqlTemplateSettings(), false, false);
+            Table stageTable = platform.getTableFromCache(null, null, "TEST", true).copy();
+            connection.setAutoCommit(false);
+            RdbmsStagedMerge merge = new RdbmsStagedMerge(platform, connection, "TEST", stageTable, "metl_stg_test",
+                    UPDATE_COLUMNS, KEY_COLUMNS, "", 100);
+            int[] counts = merge.merge(Arrays.asList(new Object[] { 1, "new" }, new Object[] { 2, "two" }));
+            connection.commit();
+            assertArrayEquals(new int[] { 1, 1 }, counts);
+            assertEquals("new", queryName(connection, 1));
+            assertEquals("two", queryName(connection, 2));
+
+            counts = merge.merge(Arrays.<Object[]> asList(new Object[] { 3, "three" }));
+            connection.commit();
+            assertArrayEquals(new int[] { 1, 0 }, counts);
+            merge.close();
+
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery(
+                            "select count(*) from information_schema.tables where table_name = 'METL_STG_TEST'")) {
+                rs.next();
+                assertEquals(0, rs.getInt(1));
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("shutdown");
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    private static String getMergeSql(String databaseName, List<String> updateColumns) {
+        return RdbmsStagedMerge.getMergeSql(databaseName, "T", "S", COLUMNS, updateColumns, KEY_COLUMNS, "");
+    }
+
+    private static String queryName(Connection connection, int id) throws Exception {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("select NAME from TEST where ID=" + id)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
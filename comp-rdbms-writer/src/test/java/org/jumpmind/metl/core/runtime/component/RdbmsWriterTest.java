@@ -0,0 +1,202 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.h2.Driver;
+import org.jumpmind.db.util.ResettableBasicDataSource;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Folder;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.resource.IDatasourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RdbmsWriterTest {
+
+    ResettableBasicDataSource dataSource;
+
+    @Before
+    public void setup() throws Exception {
+        dataSource = new ResettableBasicDataSource();
+        dataSource.setDriverClassName(Driver.class.getName());
+        dataSource.setUrl("jdbc:h2:mem:test" + UUID.randomUUID().toString().replace("-", "") + ";DB_CLOSE_DELAY=-1");
+        execute("create table TEST (ID integer primary key, NAME varchar(50) not null)");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        execute("shutdown");
+        dataSource.close();
+    }
+
+    @Test
+    public void testBulkLoadIsCommittedAtTheEndOfTheUnitOfWork() throws Exception {
+        RdbmsWriter writer = createWriter(new Setting(RdbmsWriter.BULK_LOAD, "true"));
+        writer.handle(createMessage(1, 10), null, false);
+        writer.handle(createMessage(11, 10), null, false);
+        writer.handle(new ControlMessage("fake step id"), null, true);
+        assertEquals(20, count());
+        writer.handle(createMessage(21, 5), null, false);
+        writer.handle(new ControlMessage("fake step id"), null, true);
+        assertEquals(25, count());
+        writer.flowCompleted(false);
+        writer.stop();
+    }
+
+    @Test
+    public void testPipelineIsDrainedAtTheEndOfTheUnitOfWork() throws Exception {
+        RdbmsWriter writer = createWriter(new Setting(RdbmsWriter.PIPELINE_CONNECTIONS, "2"));
+        writer.handle(createMessage(1, 10), null, false);
+        writer.handle(createMessage(11, 10), null, false);
+        writer.handle(new ControlMessage("fake step id"), null, true);
+        assertEquals(20, count());
+        writer.flowCompleted(false);
+        writer.stop();
+    }
+
+    @Test
+    public void testFirstLaneErrorIsThrownAtTheEndOfTheUnitOfWork() throws Exception {
+        RdbmsWriter writer = createWriter(new Setting(RdbmsWriter.PIPELINE_CONNECTIONS, "2"));
+        EntityDataMessage message = createMessage(1, 10);
+        /* the name column is not null, so the lane this row goes to fails */
+        message.getPayload().get(4).put("name", null);
+        try {
+            writer.handle(message, null, false);
+            writer.handle(new ControlMessage("fake step id"), null, true);
+            fail("Expected the lane error to be thrown by the end of the unit of work");
+        } catch (RuntimeException ex) {
+            assertNotNull(writer.error);
+        }
+        writer.flowCompletedWithErrors(writer.error);
+        writer.stop();
+    }
+
+    @Test
+    public void testStageTableNamesAreUniquePerFlowStep() {
+        String executionId = UUID.randomUUID().toString();
+        String name = RdbmsWriter.getStageTableName(executionId, "step-1", 1, 0, 1);
+        assertTrue(name.startsWith("metl_stg_"));
+        assertNotEquals(name, RdbmsWriter.getStageTableName(executionId, "step-2", 1, 0, 1));
+        assertNotEquals(name, RdbmsWriter.getStageTableName(UUID.randomUUID().toString(), "step-1", 1, 0, 1));
+        assertNotEquals(name, RdbmsWriter.getStageTableName(executionId, "step-1", 2, 0, 1));
+        assertNotEquals(name, RdbmsWriter.getStageTableName(executionId, "step-1", 1, 1, 1));
+        assertNotEquals(name, RdbmsWriter.getStageTableName(executionId, "step-1", 1, 0, 2));
+        assertEquals(name, RdbmsWriter.getStageTableName(executionId, "step-1", 1, 0, 1));
+        assertTrue(RdbmsWriter.getStageTableName(executionId, "step-1", 16, 16, 99).length() <= 30);
+        assertTrue(RdbmsWriter.getStageTableName(null, null, 1, 0, 1).startsWith("metl_stg_"));
+    }
+
+    private RdbmsWriter createWriter(Setting... settings) {
+        Resource resource = new Resource();
+        resource.setName("Test Resource");
+        IDatasourceRuntime resourceRuntime = mock(IDatasourceRuntime.class);
+        doReturn(dataSource).when(resourceRuntime).reference();
+        Map<String, IResourceRuntime> deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), resourceRuntime);
+
+        Folder folder = TestUtils.createFolder("Test Folder");
+        Flow flow = TestUtils.createFlow("TestFlow", folder);
+        Component component = TestUtils.createComponent(RdbmsWriter.TYPE, false, resource, createInputModel(), null, null,
+                new ArrayList<ComponentAttribSetting>(), settings);
+        component.setName("writer");
+        FlowStep flowStep = new FlowStep();
+        flowStep.setFlowId(flow.getId());
+        flowStep.setComponentId(component.getId());
+        flowStep.setCreateBy("Test");
+        flowStep.setCreateTime(new Date());
+        flowStep.setLastUpdateBy("Test");
+        flowStep.setLastUpdateTime(new Date());
+        flowStep.setComponent(component);
+
+        RdbmsWriter writer = new RdbmsWriter();
+        writer.setContext(new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), deployedResources, null, null, null));
+        writer.setThreadNumber(1);
+        writer.start();
+        return writer;
+    }
+
+    private static EntityDataMessage createMessage(int firstId, int rowCount) {
+        ArrayList<EntityData> rows = new ArrayList<>(rowCount);
+        for (int id = firstId; id < firstId + rowCount; id++) {
+            EntityData row = new EntityData();
+            row.put("id", id);
+            row.put("name", "name " + id);
+            rows.add(row);
+        }
+        return new EntityDataMessage("fake step id", rows);
+    }
+
+    private static RelationalModel createInputModel() {
+        ModelEntity entity = new ModelEntity("test", "TEST");
+        ModelAttrib id = new ModelAttrib("id", entity.getId(), "ID");
+        id.setPk(true);
+        entity.addModelAttribute(id);
+        entity.addModelAttribute(new ModelAttrib("name", entity.getId(), "NAME"));
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+
+    private int count() throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("select count(*) from TEST")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
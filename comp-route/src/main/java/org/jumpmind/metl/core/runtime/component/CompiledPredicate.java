@@ -0,0 +1,60 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+
+/**
+ * A groovy boolean expression that is compiled once. The compiled class is
+ * kept in {@link CompiledGroovyClasses} and shared by every step and thread
+ * that uses the same expression while each predicate has its own script
+ * instance, so a predicate should only be used by the thread that created it.
+ */
+public class CompiledPredicate {
+
+    String expression;
+
+    Script script;
+
+    public CompiledPredicate(String expression) {
+        this.expression = expression != null ? expression : "";
+        try {
+            Class<?> scriptClass = CompiledGroovyClasses.compile("Predicate", this.expression, className -> this.expression);
+            this.script = InvokerHelper.createScript(scriptClass, new Binding());
+        } catch (CompilationFailedException e) {
+            throw new MisconfiguredException("Could not compile the expression '%s'. %s", this.expression, e.getMessage());
+        }
+    }
+
+    public boolean test(Binding binding) {
+        script.setBinding(binding);
+        return Boolean.TRUE.equals(script.run());
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+}
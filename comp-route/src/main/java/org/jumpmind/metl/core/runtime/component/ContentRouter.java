@@ -31,16 +31,17 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.script.Bindings;
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.TextMessage;
@@ -50,6 +51,8 @@ import org.jumpmind.properties.TypedProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import groovy.lang.Binding;
+
 public class ContentRouter extends AbstractComponentRuntime {
 
     public static final String TYPE = "Content Router";
@@ -62,7 +65,13 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     List<Route> routes;
 
-    ScriptEngine scriptEngine;
+    List<CompiledPredicate> predicates;
+
+    Map<String, AttributeSlot> attributeSlots;
+
+    List<ModelEntity> entities;
+
+    EntityNameLookup entityNameLookup;
 
     boolean onlyRouteFirstMatch;
     
@@ -74,7 +83,6 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     @Override
     public void start() {
-        scriptEngine = new GroovyScriptEngineImpl();
         TypedProperties properties = getTypedProperties();
         rowsPerMessage = properties.getLong(ROWS_PER_MESSAGE);
         String json = getComponent().get(SETTING_CONFIG);
@@ -95,6 +103,29 @@ public class ContentRouter extends AbstractComponentRuntime {
             } catch (Exception e) {
                 throw new IoException(e);
             }
+            predicates = new ArrayList<>(routes.size());
+            for (Route route : routes) {
+                predicates.add(new CompiledPredicate(route.getMatchExpression()));
+            }
+        }
+        resolveAttributeSlots();
+    }
+
+    /*
+     * Attribute ids are resolved to the entity and attribute names they are
+     * bound under once instead of for every row
+     */
+    protected void resolveAttributeSlots() {
+        attributeSlots = new HashMap<>();
+        RelationalModel model = (RelationalModel) getInputModel();
+        entities = model != null ? model.getModelEntities() : new ArrayList<>();
+        for (int i = 0; i < entities.size(); i++) {
+            for (ModelAttrib attribute : entities.get(i).getModelAttributes()) {
+                attributeSlots.put(attribute.getId(), new AttributeSlot(i, attribute.getName()));
+            }
+        }
+        if (model != null) {
+            entityNameLookup = new EntityNameLookup(model);
         }
     }
 
@@ -128,31 +159,38 @@ public class ContentRouter extends AbstractComponentRuntime {
         Map<String, ArrayList<EntityData>> outboundMessages = new HashMap<String, ArrayList<EntityData>>();
         ArrayList<EntityData> inputDatas = inputMessage.getPayload();
 
+        /*
+         * the headers and flow parameters are bound once per message and only
+         * the attribute values are swapped out for each row
+         */
+        Bindings bindings = new SimpleBindings();
+        bindHeadersAndFlowParameters(bindings, inputMessage);
+        Binding binding = new Binding(bindings);
+        List<Map<String, Object>> boundEntities = getBoundEntities(bindings);
+        List<AttributeSlot> boundSlots = new ArrayList<>();
+
         for (EntityData entityData : inputDatas) {
             getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-            bindEntityData(scriptEngine, inputMessage, entityData);
+            bindEntityData(bindings, boundEntities, boundSlots, entityData);
             if (routes != null) {
-                for (Route route : routes) {
-                    try {
-                        if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                            ArrayList<EntityData> outboundPayload = outboundMessages.get(route.getTargetStepId());
-                            if (outboundPayload != null && outboundPayload.size() >= rowsPerMessage) {
-                                outboundMessages.remove(route.getTargetStepId());
-                                callback.sendEntityDataMessage(null, outboundPayload, route.getTargetStepId());
-                                targetStepsThatNeedControlMessages.add(route.getTargetStepId());
-                                outboundPayload = null;
-                            }
-                            if (outboundPayload == null) {
-                                outboundPayload = new ArrayList<EntityData>();
-                                outboundMessages.put(route.getTargetStepId(), outboundPayload);
-                            }
-                            outboundPayload.add(entityData.copy());
-                            if (onlyRouteFirstMatch) {
-                                break;
-                            }
+                for (int i = 0; i < routes.size(); i++) {
+                    if (predicates.get(i).test(binding)) {
+                        Route route = routes.get(i);
+                        ArrayList<EntityData> outboundPayload = outboundMessages.get(route.getTargetStepId());
+                        if (outboundPayload != null && outboundPayload.size() >= rowsPerMessage) {
+                            outboundMessages.remove(route.getTargetStepId());
+                            callback.sendEntityDataMessage(null, outboundPayload, route.getTargetStepId());
+                            targetStepsThatNeedControlMessages.add(route.getTargetStepId());
+                            outboundPayload = null;
+                        }
+                        if (outboundPayload == null) {
+                            outboundPayload = new ArrayList<EntityData>();
+                            outboundMessages.put(route.getTargetStepId(), outboundPayload);
+                        }
+                        outboundPayload.add(entityData.copy());
+                        if (onlyRouteFirstMatch) {
+                            break;
                         }
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
                     }
                 }
             }
@@ -165,21 +203,18 @@ public class ContentRouter extends AbstractComponentRuntime {
     }
 
     protected void handleControlMessages(ControlMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        Bindings bindings = scriptEngine.createBindings();
+        Bindings bindings = new SimpleBindings();
         bindHeadersAndFlowParameters(bindings, inputMessage);
-        scriptEngine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        Binding binding = new Binding(bindings);
         if (routes != null) {
-            for (Route route : routes) {
-                try {
-                    if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                        callback.sendControlMessage(inputMessage.getHeader(), route.getTargetStepId());
-                        targetStepsThatNeedControlMessages.remove(route.getTargetStepId());
-                        if (onlyRouteFirstMatch) {
-                            break;
-                        }
+            for (int i = 0; i < routes.size(); i++) {
+                if (predicates.get(i).test(binding)) {
+                    Route route = routes.get(i);
+                    callback.sendControlMessage(inputMessage.getHeader(), route.getTargetStepId());
+                    targetStepsThatNeedControlMessages.remove(route.getTargetStepId());
+                    if (onlyRouteFirstMatch) {
+                        break;
                     }
-                } catch (ScriptException e) {
-                    throw new RuntimeException(e);
                 }
             }
         }
@@ -188,30 +223,33 @@ public class ContentRouter extends AbstractComponentRuntime {
     protected void handleStringListPayload(TextMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         Map<String, ArrayList<String>> outboundMessages = new HashMap<String, ArrayList<String>>();
         ArrayList<String> inputDatas = (ArrayList<String>) inputMessage.getPayload();
+        Bindings bindings = new SimpleBindings();
+        bindHeadersAndFlowParameters(bindings, inputMessage);
+        Binding binding = new Binding(bindings);
         for (String data : inputDatas) {
             getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-            bindStringData(scriptEngine, inputMessage, data);
+            if (data == null) {
+                log(LogLevel.WARN, "Binding was unsuccessful since the value was null");
+            }
+            bindings.put("text", data);
             if (routes != null) {
-                for (Route route : routes) {
-                    try {
-                        if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                            ArrayList<String> outboundPayload = outboundMessages.get(route.getTargetStepId());
-                            if (outboundPayload == null) {
-                                outboundPayload = new ArrayList<String>();
-                                outboundMessages.put(route.getTargetStepId(), outboundPayload);
-                            }
-                            if (outboundPayload.size() >= rowsPerMessage) {
-                                outboundMessages.remove(route.getTargetStepId());
-                                callback.sendTextMessage(null, outboundPayload, route.getTargetStepId());
-                                targetStepsThatNeedControlMessages.add(route.getTargetStepId());
-                            }
-                            outboundPayload.add(data);
-                            if (onlyRouteFirstMatch) {
-                                break;
-                            }
+                for (int i = 0; i < routes.size(); i++) {
+                    if (predicates.get(i).test(binding)) {
+                        Route route = routes.get(i);
+                        ArrayList<String> outboundPayload = outboundMessages.get(route.getTargetStepId());
+                        if (outboundPayload == null) {
+                            outboundPayload = new ArrayList<String>();
+                            outboundMessages.put(route.getTargetStepId(), outboundPayload);
+                        }
+                        if (outboundPayload.size() >= rowsPerMessage) {
+                            outboundMessages.remove(route.getTargetStepId());
+                            callback.sendTextMessage(null, outboundPayload, route.getTargetStepId());
+                            targetStepsThatNeedControlMessages.add(route.getTargetStepId());
+                        }
+                        outboundPayload.add(data);
+                        if (onlyRouteFirstMatch) {
+                            break;
                         }
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
                     }
                 }
             }
@@ -224,6 +262,50 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     }
 
+    @SuppressWarnings("unchecked")
+    protected List<Map<String, Object>> getBoundEntities(Bindings bindings) {
+        List<Map<String, Object>> boundEntities = new ArrayList<>(entities.size());
+        for (ModelEntity entity : entities) {
+            boundEntities.add((Map<String, Object>) bindings.get(entity.getName()));
+        }
+        return boundEntities;
+    }
+
+    /*
+     * Clears the attributes that were bound for the previous row and binds the
+     * attributes of this row
+     */
+    protected void bindEntityData(Bindings bindings, List<Map<String, Object>> boundEntities, List<AttributeSlot> boundSlots,
+            EntityData entityData) {
+        for (AttributeSlot slot : boundSlots) {
+            boundEntities.get(slot.entityIndex).put(slot.attributeName, null);
+        }
+        boundSlots.clear();
+        bindings.put("CHANGE_TYPE", entityData.getChangeType().name());
+        bindings.put("ENTITY_NAMES", entityNameLookup != null ? entityNameLookup.getEntityNames(entityData) : null);
+        for (Map.Entry<String, Object> entry : entityData.entrySet()) {
+            AttributeSlot slot = attributeSlots.get(entry.getKey());
+            if (slot != null) {
+                boundEntities.get(slot.entityIndex).put(slot.attributeName, entry.getValue());
+                boundSlots.add(slot);
+            } else {
+                log(LogLevel.WARN, "Could not find attribute in the input model with an id of " + entry.getKey());
+            }
+        }
+    }
+
+    static class AttributeSlot {
+
+        int entityIndex;
+
+        String attributeName;
+
+        AttributeSlot(int entityIndex, String attributeName) {
+            this.entityIndex = entityIndex;
+            this.attributeName = attributeName;
+        }
+    }
+
     static public class Route implements Serializable {
         
         private static final long serialVersionUID = 1L;
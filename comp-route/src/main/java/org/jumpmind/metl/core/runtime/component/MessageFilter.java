@@ -21,15 +21,15 @@
 package org.jumpmind.metl.core.runtime.component;
 
 import javax.script.Bindings;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.jumpmind.metl.core.runtime.ContentMessage;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 
+import groovy.lang.Binding;
+
 public class MessageFilter extends AbstractComponentRuntime {
 
     public final static String SETTING_FILTER_EXPRESSION = "filter.expression";
@@ -40,7 +40,15 @@ public class MessageFilter extends AbstractComponentRuntime {
 
     public final static String MESSAGE_TYPE_TO_FILTER_CONTROL = "CONTROL";
 
-    ScriptEngine scriptEngine;
+    CompiledPredicate predicate;
+
+    String messageTypeToFilter;
+
+    @Override
+    public void start() {
+        messageTypeToFilter = getTypedProperties().get(SETTING_MESSAGE_TYPE_TO_FILTER);
+        predicate = new CompiledPredicate(getTypedProperties().get(SETTING_FILTER_EXPRESSION));
+    }
 
     @Override
     public boolean supportsStartupMessages() {
@@ -49,30 +57,28 @@ public class MessageFilter extends AbstractComponentRuntime {
 
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        if (scriptEngine == null) {
-            scriptEngine = new GroovyScriptEngineImpl();
+        if (predicate == null) {
+            start();
         }
 
-        String messageTypeToFilter = properties.get(SETTING_MESSAGE_TYPE_TO_FILTER);
-        String expression = properties.get(SETTING_FILTER_EXPRESSION);
-        Bindings bindings = scriptEngine.createBindings();
-        bindHeadersAndFlowParameters(bindings, inputMessage);
-        try {
-            if (MESSAGE_TYPE_TO_FILTER_CONTENT.equals(messageTypeToFilter) && inputMessage instanceof ContentMessage) {
-                if (Boolean.TRUE.equals(scriptEngine.eval(expression, bindings))) {
-                    callback.forward(inputMessage);
-                }
-            } else if (MESSAGE_TYPE_TO_FILTER_CONTROL.equals(messageTypeToFilter) && inputMessage instanceof ControlMessage) {
-                if (Boolean.TRUE.equals(scriptEngine.eval(expression, bindings))) {
-                    callback.sendControlMessage();
-                }
-            } else if (inputMessage instanceof ControlMessage) {
+        if (MESSAGE_TYPE_TO_FILTER_CONTENT.equals(messageTypeToFilter) && inputMessage instanceof ContentMessage) {
+            if (predicate.test(bind(inputMessage))) {
+                callback.forward(inputMessage);
+            }
+        } else if (MESSAGE_TYPE_TO_FILTER_CONTROL.equals(messageTypeToFilter) && inputMessage instanceof ControlMessage) {
+            if (predicate.test(bind(inputMessage))) {
                 callback.sendControlMessage();
             }
-        } catch (ScriptException e) {
-            throw new RuntimeException(e);
+        } else if (inputMessage instanceof ControlMessage) {
+            callback.sendControlMessage();
         }
 
     }
 
+    protected Binding bind(Message inputMessage) {
+        Bindings bindings = new SimpleBindings();
+        bindHeadersAndFlowParameters(bindings, inputMessage);
+        return new Binding(bindings);
+    }
+
 }
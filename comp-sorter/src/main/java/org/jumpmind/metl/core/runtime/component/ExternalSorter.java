@@ -0,0 +1,266 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataInputStream;
+import org.jumpmind.metl.core.runtime.EntityDataOutputStream;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+
+/**
+ * Sorts an unbounded number of rows. Rows are held in memory until the
+ * configured maximum is reached. Then they are sorted and spilled to a
+ * temporary file as a sorted run. The runs are merged when the sorted rows
+ * are iterated. The sort is stable.
+ */
+public class ExternalSorter implements Closeable {
+
+    static final int MAX_MERGE_WIDTH = 64;
+
+    Comparator<EntityData> comparator;
+
+    int maxRowsInMemory;
+
+    EntityDataSchema schema;
+
+    List<EntityData> rows = new ArrayList<>();
+
+    List<File> runs = new ArrayList<>();
+
+    List<Closeable> openRuns = new ArrayList<>();
+
+    long spilledRowCount;
+
+    public ExternalSorter(Comparator<EntityData> comparator, int maxRowsInMemory, EntityDataSchema schema) {
+        this.comparator = comparator;
+        this.maxRowsInMemory = maxRowsInMemory > 0 ? maxRowsInMemory : 1;
+        this.schema = schema;
+    }
+
+    public void add(EntityData data) {
+        rows.add(data);
+        if (rows.size() >= maxRowsInMemory) {
+            spill();
+        }
+    }
+
+    protected void spill() {
+        Collections.sort(rows, comparator);
+        runs.add(writeRun(rows.iterator()));
+        spilledRowCount += rows.size();
+        rows = new ArrayList<>();
+    }
+
+    protected File writeRun(Iterator<EntityData> sortedRows) {
+        try {
+            File file = File.createTempFile("metl-sort", ".run");
+            file.deleteOnExit();
+            try (EntityDataOutputStream out = new EntityDataOutputStream(new FileOutputStream(file), schema)) {
+                while (sortedRows.hasNext()) {
+                    out.write(sortedRows.next());
+                }
+            }
+            return file;
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    /**
+     * @return the rows in sorted order. The sorter can't be added to once the
+     *         rows have been iterated.
+     */
+    public Iterator<EntityData> iterator() {
+        Collections.sort(rows, comparator);
+        if (runs.size() == 0) {
+            return rows.iterator();
+        } else {
+            /*
+             * Collapse the oldest runs together until the number of open files
+             * is reasonable. The merged run stays in front to keep the sort
+             * stable.
+             */
+            while (runs.size() + 1 > MAX_MERGE_WIDTH) {
+                List<File> oldest = new ArrayList<>(runs.subList(0, MAX_MERGE_WIDTH));
+                File merged = writeRun(merge(oldest, null));
+                closeOpenRuns();
+                for (File file : oldest) {
+                    file.delete();
+                }
+                runs.removeAll(oldest);
+                runs.add(0, merged);
+            }
+            return merge(runs, rows.iterator());
+        }
+    }
+
+    protected Iterator<EntityData> merge(List<File> files, Iterator<EntityData> inMemory) {
+        List<Iterator<EntityData>> sources = new ArrayList<>(files.size() + 1);
+        for (File file : files) {
+            sources.add(new RunIterator(file));
+        }
+        if (inMemory != null) {
+            sources.add(inMemory);
+        }
+        return new MergeIterator(sources);
+    }
+
+    /**
+     * @return the number of rows that were written to temporary files
+     */
+    public long getSpilledRowCount() {
+        return spilledRowCount;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    protected void closeOpenRuns() {
+        for (Closeable run : openRuns) {
+            try {
+                run.close();
+            } catch (IOException e) {
+            }
+        }
+        openRuns.clear();
+    }
+
+    @Override
+    public void close() {
+        closeOpenRuns();
+        for (File file : runs) {
+            file.delete();
+        }
+        runs.clear();
+        rows = new ArrayList<>();
+        spilledRowCount = 0;
+    }
+
+    class RunIterator implements Iterator<EntityData> {
+
+        EntityDataInputStream in;
+
+        EntityData next;
+
+        RunIterator(File file) {
+            try {
+                in = new EntityDataInputStream(new FileInputStream(file), schema);
+                openRuns.add(in);
+                next = in.read();
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public EntityData next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            EntityData current = next;
+            try {
+                next = in.read();
+                if (next == null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+            return current;
+        }
+    }
+
+    class MergeIterator implements Iterator<EntityData> {
+
+        PriorityQueue<Head> heads;
+
+        MergeIterator(List<Iterator<EntityData>> sources) {
+            heads = new PriorityQueue<>(Math.max(1, sources.size()));
+            for (int i = 0; i < sources.size(); i++) {
+                Iterator<EntityData> source = sources.get(i);
+                if (source.hasNext()) {
+                    heads.add(new Head(i, source.next(), source));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public EntityData next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            EntityData current = head.data;
+            if (head.source.hasNext()) {
+                head.data = head.source.next();
+                heads.add(head);
+            }
+            return current;
+        }
+    }
+
+    class Head implements Comparable<Head> {
+
+        int order;
+
+        EntityData data;
+
+        Iterator<EntityData> source;
+
+        Head(int order, EntityData data, Iterator<EntityData> source) {
+            this.order = order;
+            this.data = data;
+            this.source = source;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            int compare = comparator.compare(data, o.data);
+            return compare != 0 ? compare : Integer.compare(order, o.order);
+        }
+    }
+
+}
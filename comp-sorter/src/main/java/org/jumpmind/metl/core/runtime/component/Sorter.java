@@ -20,38 +20,25 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
-import java.sql.Types;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
-import org.apache.commons.lang.ObjectUtils;
-import org.h2.Driver;
-import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
 import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
-import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
-import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.properties.TypedProperties;
-import org.jumpmind.db.model.Column;
-import org.jumpmind.db.model.IIndex;
-import org.jumpmind.db.model.IndexColumn;
-import org.jumpmind.db.model.Table;
-import org.jumpmind.db.platform.IDatabasePlatform;
-import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
-import org.jumpmind.db.sql.SqlTemplateSettings;
-import org.jumpmind.db.util.ResettableBasicDataSource;
-import org.jumpmind.metl.core.model.Component;
-import org.jumpmind.metl.core.model.ComponentAttribSetting;
-import org.jumpmind.metl.core.model.DataType;
 
 public class Sorter extends AbstractComponentRuntime {
 
@@ -62,33 +49,37 @@ public class Sorter extends AbstractComponentRuntime {
     public final static String SORTER_ATTRIBUTE_ORDINAL = "sort.attribute.order";
 
     public final static String ATTRIBUTE_SORTER_ENABLED = "sort.enabled";
+    
+    public final static String MAX_ROWS_IN_MEMORY = "sort.max.rows.in.memory";
 
     int rowsPerMessage;
-
-    IDatabasePlatform databasePlatform;
-
-    RdbmsWriter databaseWriter;
+    
+    int maxRowsInMemory;
     
     String sortAttributeId;
 
     ArrayList<ComponentAttribSetting> sortKeyAttributeIdList = new ArrayList<>();
     
-    List<EntityData> sortedRecords = new ArrayList<EntityData>();
-    
     List<ModelEntity> entities;
-
-    String databaseName;
-
-    Throwable error;
     
+    RelationalModel inputModel;
+
     boolean entitySort = true;
     
+    /*
+     * When sorting on a single attribute there is one sorter for the whole row.
+     * Otherwise there is one sorter per entity and the rows are split by
+     * entity.
+     */
+    Map<ModelEntity, ExternalSorter> sorters;
+    
     @Override
     public void start() {
         TypedProperties properties = getTypedProperties();
         rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE);
+        maxRowsInMemory = properties.getInt(MAX_ROWS_IN_MEMORY, 100000);
         String sortAttribute = properties.get(SORT_ATTRIBUTE);
-        RelationalModel inputModel = (RelationalModel) this.getComponent().getInputModel();
+        inputModel = (RelationalModel) this.getComponent().getInputModel();
         Component component = context.getFlowStep().getComponent();
     	entities = new ArrayList<>(inputModel.getModelEntities());
 
@@ -131,7 +122,17 @@ public class Sorter extends AbstractComponentRuntime {
         	throw new IllegalStateException(
         			"Sort attribute must be a valid 'entity.attribute' in the input model. "
         			+ "Or at least one attribute must be specified to sort on in the component editor.");
-        }        
+        }
+        
+        sorters = new LinkedHashMap<>();
+        if (entitySort) {
+            sorters.put(null, new ExternalSorter(new SortKeyComparator(null), maxRowsInMemory, inputModel.getEntityDataSchema()));
+        } else {
+            int maxRowsPerEntity = Math.max(1, maxRowsInMemory / Math.max(1, entities.size()));
+            for (ModelEntity entity : entities) {
+                sorters.put(entity, new ExternalSorter(new SortKeyComparator(entity), maxRowsPerEntity, inputModel.getEntityDataSchema()));
+            }
+        }
     }
     
     @Override
@@ -142,226 +143,129 @@ public class Sorter extends AbstractComponentRuntime {
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
     	if (inputMessage instanceof EntityDataMessage) {
-            if (!entitySort) {
-	            createDatabase();
-	            loadIntoDatabase(inputMessage);
-            }
-            
             ArrayList<EntityData> payload = ((EntityDataMessage)inputMessage).getPayload();
-            for (int i = 0; i < payload.size(); i++) {
+            for (EntityData record : payload) {
                 getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-                
                 if (entitySort) {
-                	EntityData record = payload.get(i);
-                	sortedRecords.add(record);
+                    sorters.get(null).add(record);
+                } else {
+                    for (ModelEntity entity : entities) {
+                        EntityData entityRecord = project(record, entity);
+                        if (entityRecord != null) {
+                            sorters.get(entity).add(entityRecord);
+                        }
+                    }
                 }
             }
     	}
 
-    	if (unitOfWorkBoundaryReached && error == null) {
-    		if (entitySort) {
-    			ArrayList<EntityData> dataToSend = new ArrayList<EntityData>();
-    			
-    			sort();
-
-    			for (EntityData record : sortedRecords) {
-    				if (dataToSend.size() >= rowsPerMessage) {
-    					callback.sendEntityDataMessage(null, dataToSend);
-    					dataToSend = new ArrayList<EntityData>();
-    				}
-    				dataToSend.add(record);
-    			}
-
-    			sortedRecords.clear();
-
-    			if (dataToSend != null && dataToSend.size() > 0) {
-    				callback.sendEntityDataMessage(null, dataToSend);
-    			}
-    		} else {
-    			sortData(callback);
-    		}
+    	if (unitOfWorkBoundaryReached) {
+    	    for (Map.Entry<ModelEntity, ExternalSorter> entry : sorters.entrySet()) {
+    	        ExternalSorter sorter = entry.getValue();
+    	        try {
+    	            if (sorter.getRunCount() > 0) {
+    	                info("Merging %d sorted runs (%d rows were spilled to disk)%s", sorter.getRunCount() + 1, sorter.getSpilledRowCount(),
+    	                        entry.getKey() != null ? " for " + entry.getKey().getName() : "");
+    	            }
+    	            ArrayList<EntityData> dataToSend = new ArrayList<EntityData>();
+    	            Iterator<EntityData> sorted = sorter.iterator();
+    	            while (sorted.hasNext()) {
+    	                if (dataToSend.size() >= rowsPerMessage) {
+    	                    callback.sendEntityDataMessage(null, dataToSend);
+    	                    dataToSend = new ArrayList<EntityData>();
+    	                }
+    	                dataToSend.add(sorted.next());
+    	            }
+    	            if (dataToSend.size() > 0) {
+    	                callback.sendEntityDataMessage(null, dataToSend);
+    	            }
+    	        } finally {
+    	            sorter.close();
+    	        }
+    	    }
     	}
     }
-
-    private void sort() {
-    	Collections.sort(sortedRecords, new Comparator<EntityData>() {
-    		@Override
-    		public int compare(EntityData o1, EntityData o2) {
-    			Object obj1 = o1.get(sortAttributeId);
-    			Object obj2 = o2.get(sortAttributeId);
-    			if ((obj1 instanceof Comparable || obj1 == null)
-    					&& (obj2 instanceof Comparable || obj2 == null)) {
-    				return ObjectUtils.compare((Comparable<?>) obj1, (Comparable<?>) obj2);
-    			} else {
-    				String str1 = obj1 != null ? obj1.toString() : null;
-    				String str2 = obj2 != null ? obj2.toString() : null;
-    				return ObjectUtils.compare(str1, str2);
-    			}
-    		}
-    	});
+    
+    @Override
+    public void stop() {
+        if (sorters != null) {
+            sorters.values().forEach(s -> s.close());
+        }
     }
+    
+    protected EntityData project(EntityData record, ModelEntity entity) {
+        EntityData entityRecord = null;
+        for (ModelAttrib attribute : entity.getModelAttributes()) {
+            if (record.containsKey(attribute.getId())) {
+                if (entityRecord == null) {
+                    entityRecord = new EntityData(inputModel.getEntityDataSchema());
+                    entityRecord.setChangeType(record.getChangeType());
+                }
+                entityRecord.put(attribute.getId(), record.get(attribute.getId()));
+            }
+        }
+        return entityRecord;
+    }
+    
+    /**
+     * Compares rows on the sort attributes in their configured order. Numeric
+     * attributes are compared by their numeric value. Nulls sort first.
+     */
+    class SortKeyComparator implements Comparator<EntityData> {
+        
+        String[] attributeIds;
+        
+        boolean[] numeric;
+        
+        SortKeyComparator(ModelEntity entity) {
+            List<ModelAttrib> attributes = new ArrayList<>();
+            for (ComponentAttribSetting setting : sortKeyAttributeIdList) {
+                ModelAttrib attribute = inputModel.getAttributeById(setting.getAttributeId());
+                if (attribute != null && (entity == null || entity.getId().equals(attribute.getEntityId()))) {
+                    attributes.add(attribute);
+                }
+            }
+            attributeIds = new String[attributes.size()];
+            numeric = new boolean[attributes.size()];
+            for (int i = 0; i < attributes.size(); i++) {
+                attributeIds[i] = attributes.get(i).getId();
+                numeric[i] = attributes.get(i).getDataType() != null && attributes.get(i).getDataType().isNumeric();
+            }
+        }
 
-	private void sortData(ISendMessageCallback callback) {
-		Map<ModelEntity, String> sqls = new HashMap<>();
-		boolean addOrderBy = false;
-		for (ModelEntity entity : entities) {
-			StringBuilder sql = new StringBuilder("select ");
-			appendColumns(sql, entity);
-			sql.append(" from " + entity.getName() + "_1 ");
-			
-			// check to see if any one attribute of the entity is flagged to sort by before adding the 'order by' clause 
-			for (ComponentAttribSetting componentAttribute : sortKeyAttributeIdList) {
-				for (ModelAttrib attribute : entity.getModelAttributes()) {
-					if (componentAttribute.getAttributeId().equals(attribute.getId())) {
-						addOrderBy = true;
-						break;
-					}
-				}
-				if (addOrderBy) {
-					break;
-				}
-			}
-			
-			if (addOrderBy) {
-				sql.append(" order by ");
-				appendSortColumns(sql, entity);
-			}
-			
-			log(LogLevel.INFO, "Generated sort sql: %s", sql);
-			sqls.put(entity, sql.toString());
-			addOrderBy = false;
-		}
-		
-		RdbmsReader reader = new RdbmsReader();
-		reader.setDataSource(databasePlatform.getDataSource());
-		reader.setContext(context);
-		reader.setComponentDefinition(componentDefinition);
-		reader.setRowsPerMessage(rowsPerMessage);
-		reader.setThreadNumber(threadNumber);
-		
-		for (ModelEntity entity : entities) {
-			reader.setSql(sqls.get(entity));
-			reader.handle(new ControlMessage(this.context.getFlowStep().getId()), callback, false);
-			info("Read %d  records for %s", reader.getRowReadDuringHandle(), entity.getName());
-		}
-		
-		ResettableBasicDataSource ds = databasePlatform.getDataSource();
-		
-		ds.close();
-		
-		databasePlatform = null;
-		databaseName = null;
-		databaseWriter = null;
-	}
-
-	
-	protected void appendColumns(StringBuilder sql, ModelEntity entity) {
-		for (ModelAttrib attribute : entity.getModelAttributes()) {
-			sql.append(attribute.getName()).append(" /* ")
-				.append(entity.getName()).append(".").append(attribute.getName())
-				.append(" */").append(",");
-		}
-		sql.replace(sql.length() - 1, sql.length(), "");
-	}
-
-
-	protected void appendSortColumns(StringBuilder sql, ModelEntity entity) {
-		for (ComponentAttribSetting componentAttribute : sortKeyAttributeIdList) {
-			for (ModelAttrib attribute : entity.getModelAttributes()) {
-				if (componentAttribute.getAttributeId().equals(attribute.getId())) {
-					sql.append(attribute.getName()).append(",");
-					break;
-				}
-			}
-		}
-		sql.replace(sql.length() - 1, sql.length(), "");
-	}
-
-	protected void loadIntoDatabase(Message message) {
-		String tableSuffix = "_1";
-		
-		if (databaseWriter == null) {
-			databaseWriter = new RdbmsWriter();
-			databaseWriter.setDatabasePlatform(databasePlatform);
-			databaseWriter.setComponentDefinition(componentDefinition);
-			databaseWriter.setReplaceRows(true);
-			databaseWriter.setContext(context);
-			databaseWriter.setThreadNumber(threadNumber);
-		}
-		
-		if (tableSuffix != null) {
-			databaseWriter.setTableSuffix(tableSuffix);
-			try {
-				databaseWriter.handle(message, null, false);
-			} finally {
-				error = databaseWriter.getError();
-			}
-		}
-	}
-
-	protected void createDatabase() {
-		if (databasePlatform == null) {
-			ResettableBasicDataSource ds = new ResettableBasicDataSource();
-			ds.setDriverClassName(Driver.class.getName());
-			ds.setMaxActive(1);
-			ds.setInitialSize(1);
-			ds.setMinIdle(1);
-			ds.setMaxIdle(1);
-			databaseName = UUID.randomUUID().toString();
-			ds.setUrl("jdbc:h2:mem:" + databaseName);
-			databasePlatform = JdbcDatabasePlatformFactory.createNewPlatformInstance(ds,
-					new SqlTemplateSettings(), true, false);
-			
-			RelationalModel inputModel = (RelationalModel) context.getFlowStep().getComponent().getInputModel();
-			List<ModelEntity> entities = inputModel.getModelEntities();
-			for (ModelEntity entity : entities) {
-				Table table = new Table();
-				table.setName(entity.getName() + "_1");
-				List<ModelAttrib> attributes = entity.getModelAttributes();
-				for (ModelAttrib attribute : attributes) {
-					DataType dataType = attribute.getDataType();
-					Column column = new Column(attribute.getName());
-					if (dataType.isNumeric()) {
-						column.setTypeCode(Types.DECIMAL);
-					} else if (dataType.isBoolean()) {
-						column.setTypeCode(Types.BOOLEAN);
-					} else if (dataType.isTimestamp()) {
-						column.setTypeCode(Types.TIMESTAMP);
-					} else if (dataType.isBinary()) {
-						column.setTypeCode(Types.BLOB);
-					} else {
-						column.setTypeCode(Types.LONGVARCHAR);
-					}
-					
-					column.setPrimaryKey(attribute.isPk());
-					table.addColumn(column);
-				}
-				
-				alterCaseToMatchLogicalCase(table);
-				databasePlatform.createTables(false, false, table);
-			}
-			
-			log(LogLevel.INFO, "Creating databasePlatform with the following url: %s", ds.getUrl());
-		}
-	}
-
+        @Override
+        public int compare(EntityData o1, EntityData o2) {
+            for (int i = 0; i < attributeIds.length; i++) {
+                int compare = compareValues(o1.get(attributeIds[i]), o2.get(attributeIds[i]), numeric[i]);
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return 0;
+        }
+        
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        protected int compareValues(Object obj1, Object obj2, boolean numeric) {
+            if (obj1 == null || obj2 == null) {
+                return obj1 == obj2 ? 0 : (obj1 == null ? -1 : 1);
+            } else if (obj1 instanceof Comparable && obj1.getClass().equals(obj2.getClass()) && !(numeric && obj1 instanceof String)) {
+                return ((Comparable) obj1).compareTo(obj2);
+            } else if (numeric) {
+                try {
+                    return toBigDecimal(obj1).compareTo(toBigDecimal(obj2));
+                } catch (NumberFormatException e) {
+                }
+            }
+            return obj1.toString().compareTo(obj2.toString());
+        }
+        
+        protected BigDecimal toBigDecimal(Object value) {
+            if (value instanceof BigDecimal) {
+                return (BigDecimal) value;
+            } else {
+                return new BigDecimal(value.toString().trim());
+            }
+        }
+    }
 
-	private void alterCaseToMatchLogicalCase(Table table) {
-		table.setName(table.getName().toUpperCase());
-		
-		Column[] columns = table.getColumns();
-		for (Column column : columns) {
-			column.setName(column.getName().toUpperCase());
-		}
-		
-		IIndex[] indexes = table.getIndices();
-		for (IIndex index : indexes) {
-			index.setName(index.getName().toUpperCase());
-			
-			IndexColumn[] indexColumns = index.getColumns();
-			for (IndexColumn indexColumn : indexColumns) {
-				indexColumn.setName(indexColumn.getName().toUpperCase());
-			}
-		}
-	}
 }
@@ -0,0 +1,144 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.junit.Test;
+
+public class ExternalSorterTest {
+
+    EntityDataSchema schema = new EntityDataSchema(Arrays.asList("key", "seq"));
+
+    Comparator<EntityData> comparator = (o1, o2) -> ((Integer) o1.get("key")).compareTo((Integer) o2.get("key"));
+
+    @Test
+    public void testInMemorySortIsStable() {
+        List<EntityData> rows = createRows(500);
+        ExternalSorter sorter = new ExternalSorter(comparator, 100000, schema);
+        List<String> sorted = sort(sorter, rows);
+        assertEquals(0, sorter.getSpilledRowCount());
+        assertEquals(0, sorter.getRunCount());
+        assertEquals(expected(rows), sorted);
+        sorter.close();
+    }
+
+    @Test
+    public void testSpilledSortMatchesInMemorySort() {
+        List<EntityData> rows = createRows(500);
+        ExternalSorter sorter = new ExternalSorter(comparator, 50, schema);
+        List<String> sorted = sort(sorter, rows);
+        assertEquals(500, sorter.getSpilledRowCount());
+        assertEquals(10, sorter.getRunCount());
+        assertEquals(expected(rows), sorted);
+        sorter.close();
+    }
+
+    @Test
+    public void testRunsAreCollapsedStably() {
+        List<EntityData> rows = createRows(1000);
+        ExternalSorter sorter = new ExternalSorter(comparator, 7, schema);
+        for (EntityData row : rows) {
+            sorter.add(row);
+        }
+        assertTrue(sorter.getRunCount() > ExternalSorter.MAX_MERGE_WIDTH);
+        List<String> sorted = toStrings(sorter.iterator());
+        assertTrue(sorter.getRunCount() < ExternalSorter.MAX_MERGE_WIDTH);
+        assertEquals(expected(rows), sorted);
+        sorter.close();
+    }
+
+    @Test
+    public void testSpillEveryRow() {
+        List<EntityData> rows = createRows(100);
+        ExternalSorter sorter = new ExternalSorter(comparator, 1, schema);
+        assertEquals(expected(rows), sort(sorter, rows));
+        sorter.close();
+    }
+
+    @Test
+    public void testCloseDeletesRuns() {
+        ExternalSorter sorter = new ExternalSorter(comparator, 10, schema);
+        for (EntityData row : createRows(30)) {
+            sorter.add(row);
+        }
+        List<File> runs = new ArrayList<>(sorter.runs);
+        assertEquals(3, runs.size());
+        sorter.iterator().next();
+        sorter.close();
+        for (File run : runs) {
+            assertFalse(run.exists());
+        }
+        assertEquals(0, sorter.getSpilledRowCount());
+        assertFalse(sorter.iterator().hasNext());
+    }
+
+    protected List<String> sort(ExternalSorter sorter, List<EntityData> rows) {
+        for (EntityData row : rows) {
+            sorter.add(row);
+        }
+        return toStrings(sorter.iterator());
+    }
+
+    /*
+     * Collections.sort is stable, so rows with the same key stay in the order
+     * they were added
+     */
+    protected List<String> expected(List<EntityData> rows) {
+        List<EntityData> sorted = new ArrayList<>(rows);
+        Collections.sort(sorted, comparator);
+        return toStrings(sorted.iterator());
+    }
+
+    protected List<String> toStrings(Iterator<EntityData> rows) {
+        List<String> strings = new ArrayList<>();
+        while (rows.hasNext()) {
+            EntityData row = rows.next();
+            strings.add(row.get("key") + ":" + row.get("seq"));
+        }
+        return strings;
+    }
+
+    protected List<EntityData> createRows(int count) {
+        Random random = new Random(count);
+        List<EntityData> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            EntityData row = new EntityData(schema);
+            row.put("key", random.nextInt(20));
+            row.put("seq", i);
+            rows.add(row);
+        }
+        return rows;
+    }
+}
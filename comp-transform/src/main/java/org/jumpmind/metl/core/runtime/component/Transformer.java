@@ -29,10 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.script.ScriptException;
-
 import org.apache.commons.collections.CollectionUtils;
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.jumpmind.metl.core.model.ComponentAttribSetting;
 import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
@@ -53,8 +50,6 @@ public class Transformer extends AbstractComponentRuntime {
 
     Map<String, String> transformsByAttributeId = new HashMap<String, String>();
     
-    GroovyScriptEngineImpl scriptEngine;
-    
     Map<String, ModelAttributeScriptHelper> helpers = new HashMap<>();
        
     long totalTime = 0;
@@ -71,7 +66,22 @@ public class Transformer extends AbstractComponentRuntime {
                     transformsByAttributeId.put(setting.getAttributeId(), setting.getValue());
                 }
             }
-        }     
+        }
+        
+        helpers.clear();
+        RelationalModel inputModel = (RelationalModel) getInputModel();
+        if (inputModel != null) {
+            long ts = System.currentTimeMillis();
+            for (Map.Entry<String, String> transform : transformsByAttributeId.entrySet()) {
+                ModelAttrib attribute = inputModel.getAttributeById(transform.getKey());
+                if (attribute != null) {
+                    ModelEntity entity = inputModel.getEntityById(attribute.getEntityId());
+                    helpers.put(attribute.getId(),
+                            ModelAttributeScriptHelper.create(context, attribute, entity, inputModel, transform.getValue()));
+                }
+            }
+            log.debug("It took " + (System.currentTimeMillis() - ts) + "ms to create " + helpers.size() + " transform classes");
+        }
     }
     
     @Override
@@ -100,9 +110,6 @@ public class Transformer extends AbstractComponentRuntime {
 
     @Override
 	public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        if (scriptEngine == null) {
-            scriptEngine = new GroovyScriptEngineImpl();
-        }
         totalTime = 0;
 		if (inputMessage instanceof EntityDataMessage) {
 			RelationalModel inputModel = (RelationalModel) getComponent().getInputModel();
@@ -129,7 +136,7 @@ public class Transformer extends AbstractComponentRuntime {
     protected EntityData processEntity(EntityData inData, Message inputMessage, RelationalModel inputModel,
     		boolean isRoot) {
 
-    		EntityData outData = new EntityData();
+    		EntityData outData = new EntityData(inputModel.getEntityDataSchema());
 		outData.setChangeType(inData.getChangeType());
 		Set<String> attributeIds = new HashSet<String>();
 		attributeIds.addAll(inData.keySet());					
@@ -155,7 +162,7 @@ public class Transformer extends AbstractComponentRuntime {
 
     @SuppressWarnings("unchecked")
     protected void processAttribute(String attributeId, EntityData inData, EntityData outData, Message inputMessage, RelationalModel inputModel) {
-        String transform = transformsByAttributeId.get(attributeId);
+        ModelAttributeScriptHelper helper = helpers.get(attributeId);
         Object value = inData.get(attributeId);
         ModelAttrib attribute = inputModel.getAttributeById(attributeId);
 
@@ -165,28 +172,7 @@ public class Transformer extends AbstractComponentRuntime {
 //        } else if (value != null && attribute.getDataType().equals(DataType.REF)) {
 //            outData.put(attributeId, processEntity((EntityData) value, inputMessage, inputModel, false));
 //        } else {
-            if (isNotBlank(transform)) {
-                ModelEntity entity = inputModel.getEntityById(attribute.getEntityId());
-                ModelAttributeScriptHelper helper = helpers.get(attribute.getId());
-                if (helper == null) {
-                    long ts = System.currentTimeMillis();
-                    scriptEngine.put("entity", entity);
-                    scriptEngine.put("attribute", attribute);
-                    scriptEngine.put("context", context);
-                    scriptEngine.put("model", getInputModel());
-                    try {
-                        String importString = "import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n";
-                        String code = String.format(
-                                "return new ModelAttributeScriptHelper(context, attribute, entity, model) { public Object eval() { %s \n } }",
-                                transform);
-                        helper = (ModelAttributeScriptHelper) scriptEngine.eval(importString + code);
-                        helpers.put(attribute.getId(), helper);
-                    } catch (ScriptException e) {
-                        throw new RuntimeException("Unable to evaluate groovy script.  Attribute ==> " + attribute.getName() + ".  Value ==> "
-                                + (value == null ? "null" : value.toString()) + "." + e.getCause().getMessage(), e);
-                    }
-                    log.debug("It took " + (System.currentTimeMillis() - ts) + "ms to create class");
-                }
+            if (helper != null) {
                 helper.setData(inData);
                 helper.setValue(value);
                 helper.setMessage(inputMessage);
@@ -32,6 +32,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.net.util.Base64;
@@ -50,7 +57,6 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.Component;
@@ -62,6 +68,7 @@ import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.metl.core.runtime.resource.HttpDirectory;
 import org.jumpmind.metl.core.runtime.resource.IHttpDirectory;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.util.ThreadUtils;
 
 public class Web extends AbstractComponentRuntime {
 
@@ -84,6 +91,16 @@ public class Web extends AbstractComponentRuntime {
     public static final String PARAMETER_REPLACEMENT = "parameter.replacement";
 
     public static final String SETTING_ENCODING = "encoding";
+
+    public static final String REQUESTS_IN_FLIGHT = "requests.in.flight";
+
+    public static final String PRESERVE_RESPONSE_ORDER = "preserve.response.order";
+
+    public static final String MAX_REQUESTS_PER_SECOND_PER_HOST = "max.requests.per.second.per.host";
+
+    public static final String RETRY_COUNT = "retry.count";
+
+    public static final String RETRY_BACKOFF_MS = "retry.backoff.ms";
     
     String runWhen;
 
@@ -107,6 +124,22 @@ public class Web extends AbstractComponentRuntime {
 
     IHttpDirectory httpDirectory;
 
+    int requestsInFlight = 0;
+
+    boolean preserveResponseOrder = true;
+
+    int maxRequestsPerSecondPerHost = 0;
+
+    int retryCount = 0;
+
+    long retryBackoffMs = 500;
+
+    int rowsPerMessage = 1000;
+
+    ExecutorService requestExecutor;
+
+    Map<String, Long> nextRequestTimeByHost = new HashMap<>();
+
     @Override
     public void start() {
         IResourceRuntime httpResource = getResourceRuntime();
@@ -127,8 +160,19 @@ public class Web extends AbstractComponentRuntime {
         }
         parameterReplacement = component.getBoolean(PARAMETER_REPLACEMENT, false);
         relativePath = component.get(RELATIVE_PATH);
-        httpClient = HttpClients.createDefault();
         encoding = properties.get(SETTING_ENCODING, encoding);
+        requestsInFlight = component.getInt(REQUESTS_IN_FLIGHT, requestsInFlight);
+        preserveResponseOrder = component.getBoolean(PRESERVE_RESPONSE_ORDER, preserveResponseOrder);
+        maxRequestsPerSecondPerHost = component.getInt(MAX_REQUESTS_PER_SECOND_PER_HOST, maxRequestsPerSecondPerHost);
+        retryCount = component.getInt(RETRY_COUNT, retryCount);
+        retryBackoffMs = component.getLong(RETRY_BACKOFF_MS, retryBackoffMs);
+        rowsPerMessage = component.getInt(ROWS_PER_MESSAGE, rowsPerMessage);
+
+        httpClient = httpDirectory.getHttpClient();
+        if (requestsInFlight > 0) {
+            requestExecutor = ThreadUtils.createFixedThreadPool(
+                    String.format("%s-%d-web", getFlowStep().getName(), threadNumber), requestsInFlight, requestsInFlight);
+        }
     }
 
     @Override
@@ -173,37 +217,171 @@ public class Web extends AbstractComponentRuntime {
         HttpEntityEnclosingRequestBase encHttpRequest = (HttpEntityEnclosingRequestBase) httpRequest;
         ByteArrayEntity requestEntity = new ByteArrayEntity(requestContent);
         encHttpRequest.setEntity(requestEntity);
-        executeRequestAndSendOutputMessage(encHttpRequest, callback, inputMessage);
+        sendResponse(execute(encHttpRequest), callback, inputMessage);
     }
 
     private void handleTextInput(String path, Message inputMessage, ISendMessageCallback callback) {
         ArrayList<String> inputPayload = new ArrayList<String>();
         inputPayload.addAll(getInputPayload(inputMessage));
-        if (inputPayload != null) {
-            for (String requestContent : inputPayload) {
-                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-                requestContent = replaceParameters(inputMessage, requestContent);
-                boolean hasContent = isNotBlank(requestContent);
-                HttpRequestBase httpRequest = buildHttpRequest(path, httpHeaders, httpParameters, httpDirectory, hasContent);
-                if (isNotBlank(requestContent)) {
-                    info("sending content to %s", path);
-                    HttpEntityEnclosingRequestBase encHttpRequest = (HttpEntityEnclosingRequestBase) httpRequest;
-                    StringEntity requestEntity;
-                    requestEntity = new StringEntity(requestContent, DEFAULT_CHARSET);
-                    encHttpRequest.setEntity(requestEntity);
-                    executeRequestAndSendOutputMessage(encHttpRequest, callback, inputMessage);
-                } else {
-                    info("getting content from %s", path);
-                    executeRequestAndSendOutputMessage(httpRequest, callback, inputMessage);
+        List<HttpRequestBase> httpRequests = new ArrayList<>(inputPayload.size());
+        for (String requestContent : inputPayload) {
+            getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+            requestContent = replaceParameters(inputMessage, requestContent);
+            boolean hasContent = isNotBlank(requestContent);
+            HttpRequestBase httpRequest = buildHttpRequest(path, httpHeaders, httpParameters, httpDirectory, hasContent);
+            if (isNotBlank(requestContent)) {
+                info("sending content to %s", path);
+                HttpEntityEnclosingRequestBase encHttpRequest = (HttpEntityEnclosingRequestBase) httpRequest;
+                StringEntity requestEntity;
+                requestEntity = new StringEntity(requestContent, DEFAULT_CHARSET);
+                encHttpRequest.setEntity(requestEntity);
+            } else {
+                info("getting content from %s", path);
+            }
+            if (requestExecutor != null) {
+                httpRequests.add(httpRequest);
+            } else {
+                sendResponse(execute(httpRequest), callback, inputMessage);
+            }
+        }
+        if (httpRequests.size() > 0) {
+            executeConcurrently(httpRequests, callback, inputMessage);
+        }
+    }
+
+    /*
+     * Runs up to requests.in.flight requests at a time. Text responses are
+     * sent in batches of up to rows.per.message, either in request order or in
+     * the order they complete. Consecutive responses are only batched while
+     * their response headers match, so each message carries the headers of
+     * every response in it.
+     */
+    private void executeConcurrently(List<HttpRequestBase> httpRequests, ISendMessageCallback callback, Message inputMessage) {
+        CompletionService<WebResponse> completionService = new ExecutorCompletionService<>(requestExecutor);
+        List<Future<WebResponse>> futures = new ArrayList<>(httpRequests.size());
+        try {
+            for (HttpRequestBase httpRequest : httpRequests) {
+                futures.add(completionService.submit(() -> execute(httpRequest)));
+            }
+            ArrayList<String> outputPayload = new ArrayList<String>();
+            Map<String, Serializable> outputMessageHeaders = null;
+            for (int i = 0; i < futures.size(); i++) {
+                WebResponse response = preserveResponseOrder ? futures.get(i).get() : completionService.take().get();
+                if (response.binaryPayload != null) {
+                    sendResponse(response, callback, inputMessage);
+                } else if (response.textPayload != null) {
+                    Map<String, Serializable> responseMessageHeaders = getOutputMessageHeaders(response, inputMessage);
+                    if (outputPayload.size() > 0 && !responseMessageHeaders.equals(outputMessageHeaders)) {
+                        callback.sendTextMessage(outputMessageHeaders, outputPayload);
+                        outputPayload = new ArrayList<String>();
+                    }
+                    outputMessageHeaders = responseMessageHeaders;
+                    outputPayload.add(response.textPayload);
+                    if (outputPayload.size() >= rowsPerMessage) {
+                        callback.sendTextMessage(outputMessageHeaders, outputPayload);
+                        outputPayload = new ArrayList<String>();
+                    }
                 }
             }
+            if (outputPayload.size() > 0) {
+                callback.sendTextMessage(outputMessageHeaders, outputPayload);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new IoException(e.getCause());
+            }
+        } finally {
+            for (Future<WebResponse> future : futures) {
+                future.cancel(true);
+            }
         }
     }
-    
-    private void executeRequestAndSendOutputMessage(HttpRequestBase httpRequest, ISendMessageCallback callback, Message inputMessage) {
+
+    /*
+     * Retries connection failures, 429 and 5xx responses with an exponential
+     * backoff
+     */
+    private WebResponse execute(HttpRequestBase httpRequest) {
+        int attempt = 0;
+        while (true) {
+            throttle(httpRequest.getURI().getHost());
+            String failure;
+            try {
+                WebResponse response = executeOnce(httpRequest);
+                if (response.error == null) {
+                    return response;
+                } else if (attempt >= retryCount || !(response.statusCode == 429 || response.statusCode / 100 == 5)) {
+                    throw new IoException(response.error.replace("%", "%%"));
+                }
+                failure = response.error;
+            } catch (IOException ex) {
+                if (attempt >= retryCount) {
+                    throw new IoException(String.format("Error calling service %s.  Error: %s", httpRequest.getURI().getPath(), ex.getMessage()));
+                }
+                failure = ex.getMessage();
+            }
+            long backoff = retryBackoffMs * (1L << Math.min(attempt, 10));
+            attempt++;
+            warn("Retrying request %d of %d to %s in %d ms.  %s", attempt, retryCount, httpRequest.getURI().getPath(), backoff,
+                    failure);
+            sleep(TimeUnit.MILLISECONDS.toNanos(backoff));
+            httpRequest.reset();
+        }
+    }
+
+    private void throttle(String host) {
+        if (maxRequestsPerSecondPerHost > 0) {
+            long interval = TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecondPerHost;
+            long wait;
+            synchronized (nextRequestTimeByHost) {
+                long now = System.nanoTime();
+                Long next = nextRequestTimeByHost.get(host);
+                long start = next == null || next < now ? now : next;
+                nextRequestTimeByHost.put(host, start + interval);
+                wait = start - now;
+            }
+            sleep(wait);
+        }
+    }
+
+    private void sleep(long nanos) {
+        if (nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        }
+    }
+
+    private Map<String, Serializable> getOutputMessageHeaders(WebResponse response, Message inputMessage) {
         Map<String, Serializable> outputMessageHeaders = new HashMap<String, Serializable>();
-        
-        ArrayList<String> outputPayload = new ArrayList<String>();
+        outputMessageHeaders.putAll(inputMessage.getHeader());
+        outputMessageHeaders.putAll(response.headers);
+        return outputMessageHeaders;
+    }
+
+    private void sendResponse(WebResponse response, ISendMessageCallback callback, Message inputMessage) {
+        Map<String, Serializable> outputMessageHeaders = getOutputMessageHeaders(response, inputMessage);
+        if (response.binaryPayload != null) {
+            callback.sendBinaryMessage(outputMessageHeaders, response.binaryPayload);
+        } else {
+            ArrayList<String> outputPayload = new ArrayList<String>();
+            if (response.textPayload != null) {
+                outputPayload.add(response.textPayload);
+            }
+            callback.sendTextMessage(outputMessageHeaders, outputPayload);
+        }
+    }
+
+    private WebResponse executeOnce(HttpRequestBase httpRequest) throws IOException {
+        WebResponse response = new WebResponse();
         byte[] outputBinaryPayload = null;
         CloseableHttpResponse httpResponse = null;
         boolean isBinary = false;
@@ -211,11 +389,11 @@ public class Web extends AbstractComponentRuntime {
         try {
             httpResponse = httpClient.execute(httpRequest);
             int responseCode = httpResponse.getStatusLine().getStatusCode();
+            response.statusCode = responseCode;
             if (responseCode / 100 != 2) {
-                throw new IoException(
-                        String.format("Error calling http method.  HTTP Status %d, HTTP Status Description %s, HTTP Result %s", responseCode,
-                                httpResponse.getStatusLine().getReasonPhrase(), 
-                                IOUtils.toString(httpResponse.getEntity().getContent())).replace("%", "%%"));
+                response.error = String.format("Error calling http method.  HTTP Status %d, HTTP Status Description %s, HTTP Result %s",
+                        responseCode, httpResponse.getStatusLine().getReasonPhrase(),
+                        httpResponse.getEntity() != null ? IOUtils.toString(httpResponse.getEntity().getContent()) : "");
             } else {
                 HttpEntity resultEntity = httpResponse.getEntity();
 
@@ -241,15 +419,14 @@ public class Web extends AbstractComponentRuntime {
                 	}
 
 	                if (!isBinary) {
-	                	outputPayload.add(IOUtils.toString(outputBinaryPayload, null));
+	                	response.textPayload = IOUtils.toString(outputBinaryPayload, null);
+	                } else {
+	                    response.binaryPayload = outputBinaryPayload;
 	                }
                 }
-                outputMessageHeaders.putAll(inputMessage.getHeader());
-                outputMessageHeaders.putAll(responseHeadersToMap(httpResponse.getAllHeaders()));
+                response.headers = responseHeadersToMap(httpResponse.getAllHeaders());
                 EntityUtils.consume(resultEntity);
             }
-        } catch (IOException ex) {
-            throw new IoException(String.format("Error calling service %s.  Error: %s", httpRequest.getURI().getPath(), ex.getMessage()));
         } finally {
             try {
                 if (httpResponse != null) {
@@ -260,11 +437,7 @@ public class Web extends AbstractComponentRuntime {
                 log.info(String.format("Unable to close http session %s", iox.getMessage()));
             }
         }
-    	if (isBinary) {
-    		callback.sendBinaryMessage(outputMessageHeaders, outputBinaryPayload);
-        } else {
-        	callback.sendTextMessage(outputMessageHeaders, outputPayload);
-        }
+        return response;
     }
 
     private Map<String, Serializable> responseHeadersToMap(Header[] headers) {
@@ -278,12 +451,11 @@ public class Web extends AbstractComponentRuntime {
 
     @Override
     public void stop() {
-        try {
-            httpClient.close();
-        } catch (IOException e) {
-            // close quietly
-            log.info(String.format("Unable to properly close httpClient connetion.  Reason: %s", e.getMessage()));
+        if (requestExecutor != null) {
+            requestExecutor.shutdownNow();
         }
+        /* the client and its connection pool are owned by the http resource */
+        log.debug("HTTP connection pool stats: {}", httpDirectory.getPoolStats());
     }
 
     private List<String> getInputPayload(Message inputMessage) {
@@ -415,6 +587,14 @@ public class Web extends AbstractComponentRuntime {
         }
     }
 
+    static class WebResponse {
+        int statusCode;
+        String error;
+        Map<String, Serializable> headers = new HashMap<String, Serializable>();
+        String textPayload;
+        byte[] binaryPayload;
+    }
+
     private class HttpGetWithEntity extends HttpEntityEnclosingRequestBase {
         public final static String METHOD_NAME = "GET";
 
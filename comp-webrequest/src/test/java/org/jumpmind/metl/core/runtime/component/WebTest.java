@@ -0,0 +1,275 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.runtime.resource.Http;
+import org.jumpmind.metl.core.runtime.resource.HttpDirectory;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.jumpmind.properties.TypedProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class WebTest {
+
+    HttpServer server;
+
+    ExecutorService serverExecutor = Executors.newFixedThreadPool(8);
+
+    AtomicInteger requestCount = new AtomicInteger();
+
+    int failuresBeforeSuccess;
+
+    int failureStatus;
+
+    Http http;
+
+    Web web;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/echo", exchange -> {
+            String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            if (requestCount.incrementAndGet() <= failuresBeforeSuccess) {
+                respond(exchange, failureStatus, "try again");
+            } else {
+                exchange.getResponseHeaders().set("Echo", body);
+                respond(exchange, 200, body);
+            }
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (web != null) {
+            web.stop();
+        }
+        if (http != null) {
+            http.stop();
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testRetryOn429() {
+        failuresBeforeSuccess = 2;
+        failureStatus = 429;
+        web = createWeb(new Setting(Web.RETRY_COUNT, "3"));
+        RecordingCallback callback = new RecordingCallback();
+        web.handle(createInput("hello"), callback, true);
+        assertEquals(3, requestCount.get());
+        assertEquals(1, callback.getPayloadList().size());
+        assertEquals("hello", callback.getPayloadList().get(0).get(0));
+        assertEquals("hello", callback.headers.get(0).get("Echo"));
+    }
+
+    @Test
+    public void testRetriesExhausted() {
+        failuresBeforeSuccess = Integer.MAX_VALUE;
+        failureStatus = 503;
+        web = createWeb(new Setting(Web.RETRY_COUNT, "2"));
+        try {
+            web.handle(createInput("hello"), new RecordingCallback(), true);
+            fail("Expected the request to fail after the retries were used up");
+        } catch (IoException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("503"));
+        }
+        assertEquals(3, requestCount.get());
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() {
+        failuresBeforeSuccess = Integer.MAX_VALUE;
+        failureStatus = 400;
+        web = createWeb(new Setting(Web.RETRY_COUNT, "3"));
+        try {
+            web.handle(createInput("hello"), new RecordingCallback(), true);
+            fail("Expected the request to fail");
+        } catch (IoException e) {
+        }
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsKeepResponseHeaders() {
+        web = createWeb(new Setting(Web.REQUESTS_IN_FLIGHT, "4"));
+        RecordingCallback callback = new RecordingCallback();
+        List<String> requests = requests(50);
+        web.handle(createInput(requests.toArray(new String[requests.size()])), callback, true);
+        assertEquals(requests.size(), requestCount.get());
+
+        List<String> responses = new ArrayList<>();
+        for (int i = 0; i < callback.getPayloadList().size(); i++) {
+            for (String response : callback.getPayloadList().get(i)) {
+                assertEquals(response, callback.headers.get(i).get("Echo"));
+                responses.add(response);
+            }
+            assertEquals("input", callback.headers.get(i).get("X-Input"));
+        }
+        assertEquals(requests, responses);
+    }
+
+    @Test
+    public void testConcurrentRequestsInCompletionOrder() {
+        web = createWeb(new Setting(Web.REQUESTS_IN_FLIGHT, "4"), new Setting(Web.PRESERVE_RESPONSE_ORDER, "false"));
+        RecordingCallback callback = new RecordingCallback();
+        List<String> requests = requests(50);
+        web.handle(createInput(requests.toArray(new String[requests.size()])), callback, true);
+
+        List<String> responses = new ArrayList<>();
+        for (int i = 0; i < callback.getPayloadList().size(); i++) {
+            for (String response : callback.getPayloadList().get(i)) {
+                assertEquals(response, callback.headers.get(i).get("Echo"));
+                responses.add(response);
+            }
+        }
+        Collections.sort(responses);
+        List<String> sortedRequests = new ArrayList<>(requests);
+        Collections.sort(sortedRequests);
+        assertEquals(sortedRequests, responses);
+    }
+
+    @Test
+    public void testConcurrentRequestsRetry() {
+        failuresBeforeSuccess = 3;
+        failureStatus = 429;
+        web = createWeb(new Setting(Web.REQUESTS_IN_FLIGHT, "4"), new Setting(Web.RETRY_COUNT, "5"));
+        RecordingCallback callback = new RecordingCallback();
+        List<String> requests = requests(10);
+        web.handle(createInput(requests.toArray(new String[requests.size()])), callback, true);
+        assertEquals(requests.size() + 3, requestCount.get());
+
+        List<String> responses = new ArrayList<>();
+        for (List<String> payload : callback.getPayloadList()) {
+            responses.addAll(payload);
+        }
+        assertEquals(requests, responses);
+    }
+
+    protected List<String> requests(int count) {
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add("request-" + i);
+        }
+        return requests;
+    }
+
+    protected TextMessage createInput(String... payload) {
+        TextMessage message = new TextMessage("source");
+        message.getHeader().put("X-Input", "input");
+        ArrayList<String> list = new ArrayList<>();
+        Collections.addAll(list, payload);
+        message.setPayload(list);
+        return message;
+    }
+
+    protected Web createWeb(Setting... extraSettings) {
+        Resource resource = new Resource();
+        resource.setName("Test Resource");
+        resource.setType(Http.TYPE);
+        resource.setFolder(TestUtils.createFolder("Test Folder Resource"));
+        TypedProperties properties = new TypedProperties();
+        properties.put(Http.URL, "http://localhost:" + server.getAddress().getPort() + "/echo");
+        properties.put(Http.HTTP_METHOD, HttpDirectory.HTTP_METHOD_POST);
+        properties.put(Http.HTTP_TIMEOUT, "10000");
+        http = new Http();
+        http.start(resource, properties);
+        Map<String, IResourceRuntime> deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), http);
+
+        List<Setting> settings = new ArrayList<>();
+        settings.add(new Setting(Web.HTTP_HEADERS, ""));
+        settings.add(new Setting(Web.HTTP_PARAMETERS, ""));
+        settings.add(new Setting(Web.RETRY_BACKOFF_MS, "1"));
+        settings.add(new Setting(Web.ROWS_PER_MESSAGE, "5"));
+        Collections.addAll(settings, extraSettings);
+        Component component = TestUtils.createComponent(Web.TYPE, false, resource, null, null, null, null,
+                settings.toArray(new Setting[settings.size()]));
+
+        Flow flow = TestUtils.createFlow("TestFlow", TestUtils.createFolder("Test Folder"));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setFlowId(flow.getId());
+        flowStep.setCreateBy("Test");
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        Web web = new Web();
+        web.setContext(new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), deployedResources, new HashMap<>(),
+                null, null));
+        web.start();
+        return web;
+    }
+
+    protected static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static class RecordingCallback extends SendMessageCallback<ArrayList<String>> {
+
+        List<Map<String, Serializable>> headers = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void sendTextMessage(Map<String, Serializable> messageHeaders, ArrayList<String> payload, String... targetStepIds) {
+            headers.add(messageHeaders);
+            super.sendTextMessage(messageHeaders, payload, targetStepIds);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The subset of XPath that {@link XmlParser} can evaluate while it streams
+ * through a document. Supported are absolute location paths made of child (/)
+ * and descendant (//) steps. A step is an element name or * optionally
+ * followed by [@name] or [@name='value'] predicates. The last step of a path
+ * may select an attribute (@name) or text().
+ */
+public class StreamingXPath {
+
+    enum Target {
+        ELEMENT, ATTRIBUTE, TEXT
+    }
+
+    String expression;
+
+    List<Step> steps = new ArrayList<>();
+
+    Target target = Target.ELEMENT;
+
+    String attributeName;
+
+    private StreamingXPath(String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * @return the compiled path or null if the expression is outside of the
+     *         supported subset
+     */
+    public static StreamingXPath compile(String expression) {
+        if (expression == null || !expression.startsWith("/")) {
+            return null;
+        }
+        StreamingXPath path = new StreamingXPath(expression);
+        int length = expression.length();
+        int index = 0;
+        while (index < length) {
+            boolean descendant = false;
+            if (expression.startsWith("//", index)) {
+                descendant = true;
+                index += 2;
+            } else if (expression.charAt(index) == '/') {
+                index++;
+            } else {
+                return null;
+            }
+
+            if (index >= length) {
+                return null;
+            } else if (expression.charAt(index) == '@') {
+                int end = endOfName(expression, index + 1);
+                if (descendant || path.steps.isEmpty() || end != length) {
+                    return null;
+                }
+                path.target = Target.ATTRIBUTE;
+                path.attributeName = expression.substring(index + 1, end);
+                index = end;
+            } else if (expression.startsWith("text()", index)) {
+                if (descendant || path.steps.isEmpty() || index + 6 != length) {
+                    return null;
+                }
+                path.target = Target.TEXT;
+                index = length;
+            } else {
+                Step step = new Step(descendant);
+                if (expression.charAt(index) == '*') {
+                    index++;
+                } else {
+                    int end = endOfName(expression, index);
+                    if (end < 0) {
+                        return null;
+                    }
+                    step.name = expression.substring(index, end);
+                    index = end;
+                }
+
+                while (index < length && expression.charAt(index) == '[') {
+                    index = parsePredicate(expression, index, step);
+                    if (index < 0) {
+                        return null;
+                    }
+                }
+                path.steps.add(step);
+            }
+        }
+        return path.steps.isEmpty() ? null : path;
+    }
+
+    /*
+     * Parses [@name] or [@name='value'] and returns the index after the
+     * closing bracket or -1 if the predicate is not supported
+     */
+    private static int parsePredicate(String expression, int index, Step step) {
+        if (!expression.startsWith("[@", index)) {
+            return -1;
+        }
+        int end = endOfName(expression, index + 2);
+        if (end < 0 || end >= expression.length()) {
+            return -1;
+        }
+        Predicate predicate = new Predicate(expression.substring(index + 2, end));
+        if (expression.charAt(end) == '=') {
+            if (end + 1 >= expression.length()) {
+                return -1;
+            }
+            char quote = expression.charAt(end + 1);
+            if (quote != '\'' && quote != '"') {
+                return -1;
+            }
+            int close = expression.indexOf(quote, end + 2);
+            if (close < 0) {
+                return -1;
+            }
+            predicate.value = expression.substring(end + 2, close);
+            end = close + 1;
+        }
+        if (end >= expression.length() || expression.charAt(end) != ']') {
+            return -1;
+        }
+        if (step.predicates.isEmpty()) {
+            step.predicates = new ArrayList<>(1);
+        }
+        step.predicates.add(predicate);
+        return end + 1;
+    }
+
+    /*
+     * Names with a namespace prefix are not supported because the parser
+     * matches on local names
+     */
+    private static int endOfName(String expression, int index) {
+        int end = index;
+        while (end < expression.length()) {
+            char c = expression.charAt(end);
+            if (Character.isLetter(c) || c == '_' || (end > index && (Character.isDigit(c) || c == '-' || c == '.'))) {
+                end++;
+            } else {
+                break;
+            }
+        }
+        return end > index ? end : -1;
+    }
+
+    /**
+     * @return true for /* which selects the context element itself
+     */
+    boolean isSelf() {
+        if (steps.size() == 1 && target == Target.ELEMENT) {
+            Step step = steps.get(0);
+            return step.name == null && !step.descendant && step.predicates.isEmpty();
+        }
+        return false;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    static class Step {
+
+        boolean descendant;
+
+        String name;
+
+        List<Predicate> predicates = Collections.emptyList();
+
+        Step(boolean descendant) {
+            this.descendant = descendant;
+        }
+
+        boolean matches(String elementName, Map<String, String> attributes) {
+            if (name != null && !name.equals(elementName)) {
+                return false;
+            }
+            for (Predicate predicate : predicates) {
+                String value = attributes.get(predicate.attributeName);
+                if (value == null || (predicate.value != null && !predicate.value.equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static class Predicate {
+
+        String attributeName;
+
+        String value;
+
+        Predicate(String attributeName) {
+            this.attributeName = attributeName;
+        }
+    }
+}
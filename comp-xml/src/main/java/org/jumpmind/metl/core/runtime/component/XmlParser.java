@@ -24,8 +24,10 @@ import java.io.ByteArrayInputStream;
 import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -62,13 +64,22 @@ public class XmlParser extends AbstractXMLComponentRuntime {
 
     boolean optimizeForSpeed = false;
 
+    boolean streamXPath = false;
+
     int rowsPerMessage;
 
+    List<XmlFormatterEntitySetting> streamingEntitySettings = new ArrayList<XmlFormatterEntitySetting>();
+
+    List<XmlFormatterEntitySetting> xpathEntitySettings = new ArrayList<XmlFormatterEntitySetting>();
+
+    List<XmlFormatterAttributeSetting> streamingAttributeSettings = new ArrayList<XmlFormatterAttributeSetting>();
+
     @Override
     public void start() {
         super.start();
         TypedProperties properties = getTypedProperties();
         optimizeForSpeed = properties.is("optimize.for.speed");
+        streamXPath = properties.is("stream.xpath");
         rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE);
 
         RelationalModel model = (RelationalModel) getComponent().getOutputModel();
@@ -106,6 +117,17 @@ public class XmlParser extends AbstractXMLComponentRuntime {
                         entitySetting.getAttributeSettings().add(new XmlFormatterAttributeSetting(componentAttributeSetting, expression));
                     }
                 }
+
+                if (streamXPath && !optimizeForSpeed && properties.is(IGNORE_NAMESPACE) && entitySetting.compileStreamingPaths()) {
+                    streamingEntitySettings.add(entitySetting);
+                    streamingAttributeSettings.addAll(entitySetting.getAttributeSettings());
+                } else {
+                    if (streamXPath) {
+                        info("The xpath settings for %s are not supported when streaming.  The whole document will be parsed for them",
+                                entityXPath);
+                    }
+                    xpathEntitySettings.add(entitySetting);
+                }
             }
         }
 
@@ -125,7 +147,12 @@ public class XmlParser extends AbstractXMLComponentRuntime {
             if (optimizeForSpeed) {
                 handleUsingPullParser(inputMessage, callback, unitOfWorkBoundaryReached);
             } else {
-                handleUsingXPath(inputMessage, callback, unitOfWorkBoundaryReached);
+                if (streamingEntitySettings.size() > 0) {
+                    handleUsingStreamingXPath(inputMessage, callback, unitOfWorkBoundaryReached);
+                }
+                if (xpathEntitySettings.size() > 0) {
+                    handleUsingXPath(inputMessage, callback, unitOfWorkBoundaryReached);
+                }
             }
         }
     }
@@ -256,7 +283,7 @@ public class XmlParser extends AbstractXMLComponentRuntime {
                 try {
                     Document document = builder.build(new StringReader(xml));
                     removeNamespaces(document);
-                    for (XmlFormatterEntitySetting entitySetting : entitySettings) {
+                    for (XmlFormatterEntitySetting entitySetting : xpathEntitySettings) {
                         List<XmlFormatterAttributeSetting> attributeSettings = entitySetting.getAttributeSettings();
                         List<Element> entityMatches = (List<Element>) entitySetting.getExpression().evaluate(document.getRootElement());
                         for (Element element : entityMatches) {
@@ -322,12 +349,187 @@ public class XmlParser extends AbstractXMLComponentRuntime {
 
     }
 
+    /*
+     * Evaluates the entity and attribute xpath settings while pulling through
+     * the document. Every open element keeps the partially matched paths that
+     * its children can complete. Attribute paths are matched against every
+     * element as a possible context the same way handleUsingXPath evaluates
+     * them against the entity element and then its ancestors. An entity is
+     * sent as soon as its element closes.
+     */
+    protected void handleUsingStreamingXPath(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        ArrayList<String> inputRows = ((TextMessage) inputMessage).getPayload();
+        ArrayList<EntityData> payload = new ArrayList<EntityData>();
+        if (inputRows != null) {
+            try {
+                XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+                for (String xml : inputRows) {
+                    parser.setInput(new StringReader(xml));
+                    List<StreamingFrame> stack = new ArrayList<>();
+                    StreamingFrame documentFrame = new StreamingFrame(null, null, 0);
+                    for (XmlFormatterEntitySetting entitySetting : streamingEntitySettings) {
+                        documentFrame.addState(new StreamingState(entitySetting.getStreamingPath(), 0, null, entitySetting, null));
+                    }
+                    stack.add(documentFrame);
+                    long sequence = 0;
+                    int eventType = parser.getEventType();
+                    while (eventType != XmlPullParser.END_DOCUMENT) {
+                        switch (eventType) {
+                            case XmlPullParser.START_TAG:
+                                StreamingFrame parent = stack.get(stack.size() - 1);
+                                Map<String, String> attributes = Collections.emptyMap();
+                                int attributeCount = parser.getAttributeCount();
+                                if (attributeCount > 0) {
+                                    attributes = new LinkedHashMap<>();
+                                    for (int i = 0; i < attributeCount; i++) {
+                                        attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+                                    }
+                                }
+                                StreamingFrame frame = new StreamingFrame(removeNameSpace(parser.getName()), attributes, ++sequence);
+                                if (parent.states != null) {
+                                    for (StreamingState state : parent.states) {
+                                        offer(state, frame);
+                                    }
+                                }
+                                for (XmlFormatterAttributeSetting attributeSetting : streamingAttributeSettings) {
+                                    StreamingXPath path = attributeSetting.getStreamingPath();
+                                    StreamingXPath.Step step = path.steps.get(0);
+                                    if ((frame.entities != null || !path.isSelf())
+                                            && (step.descendant || step.matches(frame.name, frame.attributes))) {
+                                        offer(new StreamingState(path, 0, frame, null, attributeSetting), frame);
+                                    }
+                                }
+                                stack.add(frame);
+                                break;
+                            case XmlPullParser.TEXT:
+                                String text = parser.getText();
+                                sequence++;
+                                for (int i = 1; i < stack.size(); i++) {
+                                    StreamingFrame textFrame = stack.get(i);
+                                    if (textFrame.text != null) {
+                                        textFrame.text.append(text);
+                                    }
+                                }
+                                StreamingFrame current = stack.get(stack.size() - 1);
+                                if (current.textTargets != null) {
+                                    for (StreamingState state : current.textTargets) {
+                                        state.anchor.putValue(state.attributeSetting, text, sequence);
+                                    }
+                                }
+                                break;
+                            case XmlPullParser.END_TAG:
+                                StreamingFrame closed = stack.remove(stack.size() - 1);
+                                if (closed.elementTargets != null) {
+                                    String value = closed.text.toString();
+                                    for (StreamingState state : closed.elementTargets) {
+                                        state.anchor.putValue(state.attributeSetting, value, closed.sequence);
+                                    }
+                                }
+                                if (closed.entities != null) {
+                                    for (XmlFormatterEntitySetting entitySetting : closed.entities) {
+                                        EntityData data = toEntityData(entitySetting, closed, stack);
+                                        getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                                        if (data.size() > 0) {
+                                            payload.add(data);
+                                        } else {
+                                            log(LogLevel.WARN,
+                                                    "Found entity element: <%s/> with no matching attributes.  Please make sure your xpath expressions match",
+                                                    closed.name);
+                                        }
+                                    }
+                                    if (payload.size() >= rowsPerMessage) {
+                                        callback.sendEntityDataMessage(null, payload);
+                                        payload = new ArrayList<>();
+                                    }
+                                }
+                                break;
+                        }
+                        eventType = parser.next();
+                    }
+                }
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (payload.size() > 0) {
+            callback.sendEntityDataMessage(null, payload);
+        }
+    }
+
+    protected void offer(StreamingState state, StreamingFrame frame) {
+        StreamingXPath.Step step = state.path.steps.get(state.step);
+        if (step.descendant) {
+            frame.addState(state);
+        }
+        if (step.matches(frame.name, frame.attributes)) {
+            if (state.step < state.path.steps.size() - 1) {
+                frame.addState(new StreamingState(state.path, state.step + 1, state.anchor, state.entitySetting, state.attributeSetting));
+            } else if (state.entitySetting != null) {
+                if (frame.entities == null) {
+                    frame.entities = new ArrayList<>(1);
+                }
+                if (!frame.entities.contains(state.entitySetting)) {
+                    frame.entities.add(state.entitySetting);
+                }
+            } else {
+                switch (state.path.target) {
+                    case ATTRIBUTE:
+                        String value = frame.attributes.get(state.path.attributeName);
+                        if (value != null) {
+                            state.anchor.putValue(state.attributeSetting, value, frame.sequence);
+                        }
+                        break;
+                    case TEXT:
+                        if (frame.textTargets == null) {
+                            frame.textTargets = new ArrayList<>(1);
+                        }
+                        frame.textTargets.add(state);
+                        break;
+                    default:
+                        if (frame.elementTargets == null) {
+                            frame.elementTargets = new ArrayList<>(1);
+                            frame.text = new StringBuilder();
+                        }
+                        frame.elementTargets.add(state);
+                        break;
+                }
+            }
+        }
+    }
+
+    /*
+     * Looks for each attribute value on the entity element first and then on
+     * its ancestors, like handleUsingXPath does
+     */
+    protected EntityData toEntityData(XmlFormatterEntitySetting entitySetting, StreamingFrame entityFrame, List<StreamingFrame> ancestors) {
+        EntityData data = new EntityData();
+        for (XmlFormatterAttributeSetting attributeSetting : entitySetting.getAttributeSettings()) {
+            StreamingValue value = entityFrame.getValue(attributeSetting);
+            if (value == null && !attributeSetting.getExpression().getExpression().startsWith("/" + entityFrame.name)) {
+                for (int i = ancestors.size() - 1; i > 0 && value == null; i--) {
+                    value = ancestors.get(i).getValue(attributeSetting);
+                }
+            }
+            if (value != null) {
+                data.put(attributeSetting.getSetting().getAttributeId(), value.value);
+            } else {
+                info("Did not find a match for: %s\n in: <%s/>", attributeSetting.getExpression().getExpression(), entityFrame.name);
+            }
+        }
+        return data;
+    }
+
     class XmlFormatterAttributeSetting {
 
         ComponentAttribSetting setting;
 
         XPathExpression<?> expression;
 
+        StreamingXPath streamingPath;
+
         XmlFormatterAttributeSetting(ComponentAttribSetting setting, XPathExpression<?> expression) {
             this.setting = setting;
             this.expression = expression;
@@ -340,6 +542,10 @@ public class XmlParser extends AbstractXMLComponentRuntime {
         public XPathExpression<?> getExpression() {
             return expression;
         }
+
+        public StreamingXPath getStreamingPath() {
+            return streamingPath;
+        }
     }
 
     class XmlFormatterEntitySetting {
@@ -350,6 +556,8 @@ public class XmlParser extends AbstractXMLComponentRuntime {
 
         List<XmlFormatterAttributeSetting> attributeSettings;
 
+        StreamingXPath streamingPath;
+
         XmlFormatterEntitySetting(ComponentEntitySetting setting, XPathExpression<?> expression) {
             this.setting = setting;
             this.expression = expression;
@@ -368,6 +576,110 @@ public class XmlParser extends AbstractXMLComponentRuntime {
             return attributeSettings;
         }
 
+        public StreamingXPath getStreamingPath() {
+            return streamingPath;
+        }
+
+        /**
+         * @return true if the entity xpath and all of its attribute xpaths are
+         *         in the subset that can be evaluated while streaming
+         */
+        boolean compileStreamingPaths() {
+            streamingPath = StreamingXPath.compile(expression.getExpression());
+            boolean supported = streamingPath != null && streamingPath.target == StreamingXPath.Target.ELEMENT;
+            for (XmlFormatterAttributeSetting attributeSetting : attributeSettings) {
+                attributeSetting.streamingPath = StreamingXPath.compile(attributeSetting.getExpression().getExpression());
+                supported &= attributeSetting.streamingPath != null;
+            }
+            return supported;
+        }
+
+    }
+
+    static class StreamingValue {
+
+        Object value;
+
+        long sequence;
+
+        StreamingValue(Object value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    static class StreamingState {
+
+        StreamingXPath path;
+
+        int step;
+
+        StreamingFrame anchor;
+
+        XmlFormatterEntitySetting entitySetting;
+
+        XmlFormatterAttributeSetting attributeSetting;
+
+        StreamingState(StreamingXPath path, int step, StreamingFrame anchor, XmlFormatterEntitySetting entitySetting,
+                XmlFormatterAttributeSetting attributeSetting) {
+            this.path = path;
+            this.step = step;
+            this.anchor = anchor;
+            this.entitySetting = entitySetting;
+            this.attributeSetting = attributeSetting;
+        }
+    }
+
+    static class StreamingFrame {
+
+        String name;
+
+        Map<String, String> attributes;
+
+        long sequence;
+
+        List<StreamingState> states;
+
+        List<StreamingState> elementTargets;
+
+        List<StreamingState> textTargets;
+
+        StringBuilder text;
+
+        List<XmlFormatterEntitySetting> entities;
+
+        Map<XmlFormatterAttributeSetting, StreamingValue> values;
+
+        StreamingFrame(String name, Map<String, String> attributes, long sequence) {
+            this.name = name;
+            this.attributes = attributes;
+            this.sequence = sequence;
+        }
+
+        void addState(StreamingState state) {
+            if (states == null) {
+                states = new ArrayList<>();
+            }
+            states.add(state);
+        }
+
+        /*
+         * The match that comes last in the document wins, the same as
+         * evaluating the xpath against the whole element
+         */
+        void putValue(XmlFormatterAttributeSetting attributeSetting, Object value, long sequence) {
+            if (values == null) {
+                values = new HashMap<>();
+            }
+            StreamingValue existing = values.get(attributeSetting);
+            if (existing == null || existing.sequence <= sequence) {
+                values.put(attributeSetting, new StreamingValue(value, sequence));
+            }
+        }
+
+        StreamingValue getValue(XmlFormatterAttributeSetting attributeSetting) {
+            return values != null ? values.get(attributeSetting) : null;
+        }
     }
 
 }
@@ -0,0 +1,95 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class StreamingXPathTest {
+
+    @Test
+    public void testChildAndDescendantSteps() {
+        StreamingXPath path = StreamingXPath.compile("/feed//order/*");
+        assertNotNull(path);
+        assertEquals(3, path.steps.size());
+        assertFalse(path.steps.get(0).descendant);
+        assertEquals("feed", path.steps.get(0).name);
+        assertTrue(path.steps.get(1).descendant);
+        assertEquals("order", path.steps.get(1).name);
+        assertNull(path.steps.get(2).name);
+        assertEquals(StreamingXPath.Target.ELEMENT, path.target);
+    }
+
+    @Test
+    public void testTargets() {
+        StreamingXPath path = StreamingXPath.compile("/*/customer/@id");
+        assertEquals(StreamingXPath.Target.ATTRIBUTE, path.target);
+        assertEquals("id", path.attributeName);
+        assertEquals(2, path.steps.size());
+
+        path = StreamingXPath.compile("/*/name/text()");
+        assertEquals(StreamingXPath.Target.TEXT, path.target);
+
+        assertTrue(StreamingXPath.compile("/*").isSelf());
+        assertFalse(StreamingXPath.compile("/*/name").isSelf());
+    }
+
+    @Test
+    public void testPredicates() {
+        StreamingXPath path = StreamingXPath.compile("/orders/order[@type='retail'][@id]");
+        StreamingXPath.Step step = path.steps.get(1);
+        assertEquals(2, step.predicates.size());
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("type", "retail");
+        assertFalse(step.matches("order", attributes));
+        attributes.put("id", "1");
+        assertTrue(step.matches("order", attributes));
+        assertFalse(step.matches("invoice", attributes));
+        attributes.put("type", "wholesale");
+        assertFalse(step.matches("order", attributes));
+
+        step = StreamingXPath.compile("/order[@type=\"retail\"]").steps.get(0);
+        assertTrue(step.matches("order", Collections.singletonMap("type", "retail")));
+    }
+
+    @Test
+    public void testUnsupportedExpressions() {
+        assertNull(StreamingXPath.compile("order/line"));
+        assertNull(StreamingXPath.compile("/orders/order[1]"));
+        assertNull(StreamingXPath.compile("/orders/order[total > 10]"));
+        assertNull(StreamingXPath.compile("/ns:orders/ns:order"));
+        assertNull(StreamingXPath.compile("/orders/order/@id/text()"));
+        assertNull(StreamingXPath.compile("//@id"));
+        assertNull(StreamingXPath.compile("count(/orders/order)"));
+        assertNull(StreamingXPath.compile("/orders/order | /orders/invoice"));
+        assertNull(StreamingXPath.compile("/orders/"));
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.ComponentEntitySetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class XmlParserTest {
+
+    private static final String ORDERS = "<feed region='west'>\n"
+            + "  <order id='1' type='retail'>\n"
+            + "    <customer>Alice</customer>\n"
+            + "    <line sku='A'><qty>1</qty></line>\n"
+            + "    <line sku='B'><qty>2</qty></line>\n"
+            + "    <note>first</note>\n"
+            + "    <note>second</note>\n"
+            + "  </order>\n"
+            + "  <order id='2' type='wholesale'>\n"
+            + "    <customer>Bob</customer>\n"
+            + "    <line sku='C'><qty>3</qty></line>\n"
+            + "  </order>\n"
+            + "</feed>";
+
+    private static final String MORE_ORDERS = "<ns:feed xmlns:ns='urn:test' region='east'>"
+            + "<ns:order id='3'><ns:customer>Carol</ns:customer><ns:note>only</ns:note></ns:order>"
+            + "</ns:feed>";
+
+    @Test
+    public void testStreamingMatchesDocumentParsing() {
+        List<EntityData> streamed = parse(true, ORDERS, MORE_ORDERS);
+        List<EntityData> parsed = parse(false, ORDERS, MORE_ORDERS);
+        assertEquals(select(parsed, "order_"), select(streamed, "order_"));
+        assertEquals(select(parsed, "line_"), select(streamed, "line_"));
+        assertEquals(parsed.size(), streamed.size());
+    }
+
+    @Test
+    public void testRepeatedElementsAndAttributes() {
+        List<EntityData> lines = select(parse(true, ORDERS), "line_");
+        assertEquals(3, lines.size());
+        assertLine(lines.get(0), "A", "1", "1");
+        assertLine(lines.get(1), "B", "2", "1");
+        assertLine(lines.get(2), "C", "3", "2");
+    }
+
+    @Test
+    public void testAncestorRelativePaths() {
+        List<EntityData> orders = select(parse(true, ORDERS, MORE_ORDERS), "order_");
+        assertEquals(3, orders.size());
+        assertEquals("west", orders.get(0).get("order_region"));
+        assertEquals("west", orders.get(1).get("order_region"));
+        assertEquals("east", orders.get(2).get("order_region"));
+        assertEquals("Carol", orders.get(2).get("order_customer"));
+    }
+
+    @Test
+    public void testLastMatchWins() {
+        List<EntityData> orders = select(parse(true, ORDERS), "order_");
+        assertEquals("second", orders.get(0).get("order_note"));
+        assertNull(orders.get(1).get("order_note"));
+        assertEquals(select(parse(false, ORDERS), "order_"), orders);
+    }
+
+    private static void assertLine(EntityData line, String sku, String qty, String orderId) {
+        assertEquals(sku, line.get("line_sku"));
+        assertEquals(qty, line.get("line_qty"));
+        assertEquals(orderId, line.get("line_order_id"));
+    }
+
+    /*
+     * Both paths keep the document order of each entity, but the streaming
+     * path interleaves entities in the order their elements close
+     */
+    private static List<EntityData> select(List<EntityData> entities, String attributePrefix) {
+        List<EntityData> selected = new ArrayList<>();
+        for (EntityData data : entities) {
+            if (data.keySet().iterator().next().startsWith(attributePrefix)) {
+                selected.add(data);
+            }
+        }
+        return selected;
+    }
+
+    private static List<EntityData> parse(boolean streaming, String... documents) {
+        FlowStep flowStep = createParserFlowStep(streaming);
+        XmlParser parser = new XmlParser();
+        parser.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), new HashMap<>(), null, null, null));
+        parser.start();
+        assertEquals(streaming ? 2 : 0, parser.streamingEntitySettings.size());
+        assertEquals(streaming ? 0 : 2, parser.xpathEntitySettings.size());
+
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        TextMessage message = new TextMessage("fake step id");
+        for (String document : documents) {
+            message.addString(document);
+        }
+        parser.handle(message, callback, false);
+        parser.stop();
+
+        List<EntityData> entities = new ArrayList<>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            entities.addAll(payload);
+        }
+        return entities;
+    }
+
+    private static FlowStep createParserFlowStep(boolean streaming) {
+        Setting[] settingData = new Setting[4];
+        settingData[0] = new Setting("stream.xpath", Boolean.toString(streaming));
+        settingData[1] = new Setting("optimize.for.speed", "false");
+        settingData[2] = new Setting(XmlParser.IGNORE_NAMESPACE, "true");
+        settingData[3] = new Setting(XmlParser.ROWS_PER_MESSAGE, "1000");
+
+        List<ComponentEntitySetting> entitySettings = new ArrayList<ComponentEntitySetting>();
+        entitySettings.add(new ComponentEntitySetting("order", XmlParser.XML_FORMATTER_XPATH, "/feed/order"));
+        entitySettings.add(new ComponentEntitySetting("line", XmlParser.XML_FORMATTER_XPATH, "//line"));
+
+        List<ComponentAttribSetting> attributeSettings = new ArrayList<ComponentAttribSetting>();
+        attributeSettings.add(new ComponentAttribSetting("order_id", XmlParser.XML_FORMATTER_XPATH, "/feed/order/@id"));
+        attributeSettings.add(new ComponentAttribSetting("order_customer", XmlParser.XML_FORMATTER_XPATH, "/feed/order/customer"));
+        attributeSettings.add(new ComponentAttribSetting("order_note", XmlParser.XML_FORMATTER_XPATH, "/feed/order/note"));
+        attributeSettings.add(new ComponentAttribSetting("order_region", XmlParser.XML_FORMATTER_XPATH, "/feed/@region"));
+        attributeSettings.add(new ComponentAttribSetting("line_sku", XmlParser.XML_FORMATTER_XPATH, "//line/@sku"));
+        attributeSettings.add(new ComponentAttribSetting("line_qty", XmlParser.XML_FORMATTER_XPATH, "//line/qty"));
+        attributeSettings.add(new ComponentAttribSetting("line_order_id", XmlParser.XML_FORMATTER_XPATH, "/order/@id"));
+
+        Component component = TestUtils.createComponent(XmlParser.TYPE, false, null, null, createOutputModel(), entitySettings,
+                attributeSettings, settingData);
+        FlowStep flowStep = new FlowStep();
+        flowStep.setComponentId(component.getId());
+        flowStep.setCreateBy("Test");
+        flowStep.setCreateTime(new Date());
+        flowStep.setLastUpdateBy("Test");
+        flowStep.setLastUpdateTime(new Date());
+        flowStep.setComponent(component);
+        return flowStep;
+    }
+
+    private static RelationalModel createOutputModel() {
+        ModelEntity order = new ModelEntity("order", "ORDER");
+        order.addModelAttribute(new ModelAttrib("order_id", order.getId(), "ID"));
+        order.addModelAttribute(new ModelAttrib("order_customer", order.getId(), "CUSTOMER"));
+        order.addModelAttribute(new ModelAttrib("order_note", order.getId(), "NOTE"));
+        order.addModelAttribute(new ModelAttrib("order_region", order.getId(), "REGION"));
+        ModelEntity line = new ModelEntity("line", "LINE");
+        line.addModelAttribute(new ModelAttrib("line_sku", line.getId(), "SKU"));
+        line.addModelAttribute(new ModelAttrib("line_qty", line.getId(), "QTY"));
+        line.addModelAttribute(new ModelAttrib("line_order_id", line.getId(), "ORDER_ID"));
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(order);
+        model.getModelEntities().add(line);
+        return model;
+    }
+}
@@ -61,6 +61,10 @@ public class Agent extends AbstractNamedObject {
     
     int execThreadCount = 1;
 
+    String stepScheduling = StepScheduling.THREAD_PER_STEP.name();
+
+    int stepThreadCount;
+
     public Agent(String name) {
         this();
         this.name = name;
@@ -236,4 +240,32 @@ public class Agent extends AbstractNamedObject {
         return execThreadCount;
     }
 
+    public void setStepScheduling(String stepScheduling) {
+        this.stepScheduling = stepScheduling;
+    }
+
+    public String getStepScheduling() {
+        return stepScheduling;
+    }
+
+    public StepScheduling getStepSchedulingMode() {
+        return stepScheduling == null ? StepScheduling.THREAD_PER_STEP : StepScheduling.valueOf(stepScheduling);
+    }
+
+    public void setStepSchedulingMode(StepScheduling stepScheduling) {
+        this.stepScheduling = stepScheduling.name();
+    }
+
+    /**
+     * @return the number of threads that run steps when steps are scheduled
+     *         on a shared pool. Zero means one per available processor.
+     */
+    public int getStepThreadCount() {
+        return stepThreadCount;
+    }
+
+    public void setStepThreadCount(int stepThreadCount) {
+        this.stepThreadCount = stepThreadCount;
+    }
+
 }
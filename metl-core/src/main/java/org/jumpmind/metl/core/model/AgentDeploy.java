@@ -46,6 +46,8 @@ public class AgentDeploy extends AbstractNamedObject {
     String startType = StartType.MANUAL.name();
 
     String startExpression;
+
+    int servicePoolSize;
     
     List<AgentFlowDeployParm> agentDeploymentParms;
 
@@ -139,6 +141,20 @@ public class AgentDeploy extends AbstractNamedObject {
         this.logLevel = logLevel;
     }
     
+    /**
+     * @return the number of flow runtimes kept built ahead of time when the
+     *         flow is started by an http request. Zero builds the flow for
+     *         every request. There is no screen for it yet. It is set in the
+     *         deployment's service_pool_size column.
+     */
+    public int getServicePoolSize() {
+        return servicePoolSize;
+    }
+
+    public void setServicePoolSize(int servicePoolSize) {
+        this.servicePoolSize = servicePoolSize;
+    }
+
     public void setAgentDeploymentParms(
             List<AgentFlowDeployParm> agentDeploymentParms) {
         this.agentDeploymentParms = agentDeploymentParms;
@@ -63,7 +63,7 @@ public class EntityRow implements Serializable {
             for (ModelAttrib attribute : entity.getModelAttributes()) {
                 if (name.equals(entity.getName())  && data.containsKey(attribute.getName())) {
                     if (entityData == null) {
-                        entityData = new EntityData();
+                        entityData = new EntityData(model.getEntityDataSchema());
                     }
                     String stringValue = data.get(attribute.getName());
                     entityData.put(attribute.getId(), stringValue);
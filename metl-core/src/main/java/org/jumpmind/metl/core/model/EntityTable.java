@@ -57,7 +57,7 @@ public class EntityTable implements Serializable {
     
     public EntityData toEntityData(RelationalModel model) {
         
-        EntityData entityData = new EntityData();
+        EntityData entityData = new EntityData(model.getEntityDataSchema());
         ModelEntity entity = model.getEntityByName(name);
         for (Map<String, String> row:rows) {
             for (Map.Entry<String, String> entry : row.entrySet()) {
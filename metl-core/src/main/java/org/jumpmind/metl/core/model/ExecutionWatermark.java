@@ -0,0 +1,70 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+/**
+ * The highest value of a column that a step has read for a deployment. It is
+ * kept between executions so that incremental reads only pick up rows that
+ * were added or changed since the last successful run.
+ */
+public class ExecutionWatermark extends AbstractObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private String deploymentId;
+
+    private String flowStepId;
+
+    private String watermark;
+
+    public ExecutionWatermark() {
+    }
+
+    public ExecutionWatermark(String deploymentId, String flowStepId) {
+        this.deploymentId = deploymentId;
+        this.flowStepId = flowStepId;
+    }
+
+    public String getDeploymentId() {
+        return deploymentId;
+    }
+
+    public void setDeploymentId(String deploymentId) {
+        this.deploymentId = deploymentId;
+    }
+
+    public String getFlowStepId() {
+        return flowStepId;
+    }
+
+    public void setFlowStepId(String flowStepId) {
+        this.flowStepId = flowStepId;
+    }
+
+    public String getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+
+}
@@ -28,6 +28,7 @@ import java.util.Set;
 
 import org.jumpmind.db.sql.Row;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.util.LogUtils;
 
 public class RelationalModel extends AbstractModel implements IModel, IAuditable {
@@ -39,6 +40,8 @@ public class RelationalModel extends AbstractModel implements IModel, IAuditable
     List<ModelEntity> modelEntities;
     
     List<ModelRelation> modelRelations;
+    
+    transient EntityDataSchema entityDataSchema;
 
     public RelationalModel() {
         initializeModel();
@@ -117,6 +120,7 @@ public class RelationalModel extends AbstractModel implements IModel, IAuditable
 
     public void setModelEntities(List<ModelEntity> modelEntities) {
         this.modelEntities = modelEntities;
+        this.entityDataSchema = null;
     }
     
     public List<ModelRelation> getModelRelations() {
@@ -127,6 +131,28 @@ public class RelationalModel extends AbstractModel implements IModel, IAuditable
 		this.modelRelations = modelRelations;
 	}
 
+    /**
+     * @return the slot layout for {@link EntityData} rows that hold the
+     *         attributes of this model. It is built the first time it is asked
+     *         for.
+     */
+    public EntityDataSchema getEntityDataSchema() {
+        EntityDataSchema schema = entityDataSchema;
+        if (schema == null) {
+            List<String> attributeIds = new ArrayList<>();
+            if (modelEntities != null) {
+                for (ModelEntity entity : modelEntities) {
+                    for (ModelAttrib attribute : entity.getModelAttributes()) {
+                        attributeIds.add(attribute.getId());
+                    }
+                }
+            }
+            schema = new EntityDataSchema(attributeIds);
+            entityDataSchema = schema;
+        }
+        return schema;
+    }
+
     public void sortAttributes() {
         for (ModelEntity modelEntity : modelEntities) {
             AbstractObjectNameBasedSorter.sort(modelEntity.getModelAttributes());
@@ -0,0 +1,35 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+/**
+ * How an agent runs the steps of its flows. THREAD_PER_STEP gives every step
+ * its own thread for as long as the flow runs. SHARED_POOL runs steps on a
+ * bounded pool that is shared by all of the agent's flows, and a step only
+ * uses a thread while it has messages to process.
+ * <p>
+ * There is no screen for it yet. It is set in the agent's step_scheduling
+ * column, along with step_thread_count, and takes effect when the agent is
+ * started.
+ */
+public enum StepScheduling {
+    THREAD_PER_STEP, SHARED_POOL
+}
@@ -51,6 +51,7 @@ import org.jumpmind.metl.core.model.Execution;
 import org.jumpmind.metl.core.model.ExecutionStatus;
 import org.jumpmind.metl.core.model.ExecutionStep;
 import org.jumpmind.metl.core.model.ExecutionStepLog;
+import org.jumpmind.metl.core.model.ExecutionWatermark;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerLogger;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerRecorder;
 import org.jumpmind.metl.core.runtime.IExecutionTracker;
@@ -118,6 +119,14 @@ public class ExecutionService extends AbstractService implements IExecutionServi
     public File getExecutionStepLog(String executionStepId) {
         return new File(LogUtils.getLogDir(), executionStepId + ".log");
     }
+
+    @Override
+    public ExecutionWatermark findExecutionWatermark(String deploymentId, String flowStepId) {
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("deploymentId", deploymentId);
+        args.put("flowStepId", flowStepId);
+        return findOne(ExecutionWatermark.class, args);
+    }
     
     protected List<ExecutionStepLog> findExecutionStepLogs(Set<String> executionStepIds, int limit, Set<String> statuses) {
         List<ExecutionStepLog> executionStepLogs = new ArrayList<>();
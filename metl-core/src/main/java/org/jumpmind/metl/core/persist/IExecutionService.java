@@ -32,6 +32,7 @@ import org.jumpmind.metl.core.model.AgentProjectVersionFlowDeployment;
 import org.jumpmind.metl.core.model.Execution;
 import org.jumpmind.metl.core.model.ExecutionStep;
 import org.jumpmind.metl.core.model.ExecutionStepLog;
+import org.jumpmind.metl.core.model.ExecutionWatermark;
 import org.jumpmind.metl.core.runtime.IExecutionTracker;
 
 public interface IExecutionService {
@@ -57,6 +58,8 @@ public interface IExecutionService {
     public List<String> findExecutedFlowIds();
 
     public File getExecutionStepLog(String executionStepId);
+
+    public ExecutionWatermark findExecutionWatermark(String deploymentId, String flowStepId);
     
     public IExecutionTracker getExecutionTracker(ExecutorService threadService, IExecutionService executionService, 
             Agent agent, AgentProjectVersionFlowDeployment deployment, String userId, Map<String, String> flowParameters);
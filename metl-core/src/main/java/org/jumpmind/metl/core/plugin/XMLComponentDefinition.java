@@ -98,6 +98,9 @@ public class XMLComponentDefinition extends XMLAbstractDefinition {
 
     @XmlAttribute(required = false)
     protected boolean inputOutputModelsMatch;
+    
+    @XmlAttribute(required = false)
+    protected boolean mutatesInput = true;
 
     @XmlAttribute(required = false)
     protected boolean showInputModel = false;
@@ -170,6 +173,14 @@ public class XMLComponentDefinition extends XMLAbstractDefinition {
         this.resourceCategory = resourceCategory;
     }
 
+    public boolean isMutatesInput() {
+        return mutatesInput;
+    }
+    
+    public void setMutatesInput(boolean mutatesInput) {
+        this.mutatesInput = mutatesInput;
+    }
+
     public boolean isSupportsMultipleThreads() {
         return supportsMultipleThreads;
     }
@@ -55,16 +55,21 @@ import org.jumpmind.metl.core.model.ProjectVersionDepends;
 import org.jumpmind.metl.core.model.Resource;
 import org.jumpmind.metl.core.model.ResourceName;
 import org.jumpmind.metl.core.model.StartType;
+import org.jumpmind.metl.core.model.StepScheduling;
 import org.jumpmind.metl.core.persist.IConfigurationService;
 import org.jumpmind.metl.core.persist.IExecutionService;
 import org.jumpmind.metl.core.persist.IOperationsService;
 import org.jumpmind.metl.core.plugin.IDefinitionFactory;
 import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
 import org.jumpmind.metl.core.plugin.XMLResourceDefinition;
+import org.jumpmind.metl.core.runtime.cache.LookupCacheManager;
+import org.jumpmind.metl.core.runtime.component.ComponentTypeIdConstants;
 import org.jumpmind.metl.core.runtime.component.IComponentDeploymentListener;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.runtime.component.Results;
 import org.jumpmind.metl.core.runtime.flow.FlowRuntime;
+import org.jumpmind.metl.core.runtime.flow.FlowRuntimePool;
+import org.jumpmind.metl.core.runtime.flow.StepScheduler;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
 import org.jumpmind.metl.core.runtime.subscribe.ISubscribeManager;
 import org.jumpmind.metl.core.runtime.subscribe.ISubscribeManagerAware;
@@ -109,6 +114,8 @@ public class AgentRuntime {
 
     ExecutorService flowStepsExecutionThreads;
 
+    StepScheduler stepScheduler;
+
     ThreadPoolTaskScheduler flowExecutionScheduler;
 
     ScheduledFuture<?> agentRequestHandler;
@@ -121,6 +128,10 @@ public class AgentRuntime {
 
     Map<AgentDeploy, List<FlowRuntime>> runningFlows = Collections.synchronizedMap(new HashMap<>());
 
+    Map<AgentDeploy, FlowRuntimePool> servicePools = Collections.synchronizedMap(new HashMap<>());
+
+    LookupCacheManager lookupCacheManager = new LookupCacheManager();
+
     public AgentRuntime(Agent agent, IOperationsService operationsService, IConfigurationService configurationService,
             IExecutionService executionService, IComponentRuntimeFactory componentFactory, IDefinitionFactory definitionFactory,
             IHttpRequestMappingRegistry httpRequestMappingRegistry, ISubscribeManager subscribeManager) {
@@ -180,6 +191,13 @@ public class AgentRuntime {
 
             this.flowStepsExecutionThreads = ThreadUtils.createUnboundedThreadPool(namePrefix);
 
+            if (agent.getStepSchedulingMode() == StepScheduling.SHARED_POOL) {
+                int stepThreadCount = agent.getStepThreadCount() > 0 ? agent.getStepThreadCount()
+                        : Runtime.getRuntime().availableProcessors();
+                this.stepScheduler = new StepScheduler(namePrefix, stepThreadCount);
+                log.info("Agent '{}' will run flow steps on a shared pool of {} threads", agent, stepThreadCount);
+            }
+
             this.flowExecutionScheduler = new ThreadPoolTaskScheduler();
             this.flowExecutionScheduler.setDaemon(true);
             this.flowExecutionScheduler.setThreadNamePrefix(namePrefix + "-job-");
@@ -264,6 +282,11 @@ public class AgentRuntime {
                 this.flowStepsExecutionThreads = null;
             }
 
+            if (stepScheduler != null) {
+                this.stepScheduler.shutdown();
+                this.stepScheduler = null;
+            }
+
             Collection<IResourceRuntime> resourceCollection = deployedResources.values();
             for (IResourceRuntime resource : resourceCollection) {
                 log.info("Stopping the {} resource on the {} agent", resource.getResource().getName(), agent.getName());
@@ -272,6 +295,8 @@ public class AgentRuntime {
             
             deployedResources.clear();
 
+            lookupCacheManager.clear();
+
             log.info("Agent '{}' has been stopped", agent);
         }
     }
@@ -280,6 +305,18 @@ public class AgentRuntime {
         return started;
     }
 
+    public LookupCacheManager getLookupCacheManager() {
+        return lookupCacheManager;
+    }
+
+    /**
+     * @return the scheduler that runs flow steps when the agent uses a shared
+     *         pool, otherwise null
+     */
+    public StepScheduler getStepScheduler() {
+        return stepScheduler;
+    }
+
     public synchronized AgentDeploy deploy(Flow flow, Map<String, String> parameters) {
         AgentDeploy deployment = agent.getAgentDeploymentFor(flow);
         if (deployment == null) {
@@ -356,6 +393,7 @@ public class AgentRuntime {
                 deployment.setStatus(DeploymentStatus.ENABLED.name());
                 deployment.setMessage("");
                 deployed.add(agentProjectVersionFlowDeployment);
+                startServicePool(agentProjectVersionFlowDeployment);
                 log.info("Flow '{}' has been deployed", deployment.getName());
             } catch (Exception e) {
                 log.warn("Failed to start '{}'", deployment.getName(), e);
@@ -486,9 +524,60 @@ public class AgentRuntime {
 
     public FlowRuntime createFlowRuntime(String userId, AgentDeploy deployment, Map<String, String> runtimeParameters) throws Exception {
         String executionId = createExecutionId();
-        return new FlowRuntime(executionId, userId, findDeployed(deployment), agent, componentRuntimeFactory, definitionFactory,
+        FlowRuntime flowRuntime = new FlowRuntime(executionId, userId, findDeployed(deployment), agent, componentRuntimeFactory, definitionFactory,
                 flowStepsExecutionThreads, operationsService, configurationService, executionService, deployedResources, null, globalSettings,
-                runtimeParameters);
+                runtimeParameters, lookupCacheManager);
+        flowRuntime.setStepScheduler(stepScheduler);
+        return flowRuntime;
+    }
+
+    /**
+     * Gets a flow runtime for a request to a flow that is started by an http
+     * request. When the deployment has a service pool the flow runtime was
+     * built ahead of time. Hand it back with
+     * {@link #releaseFlowRuntime(AgentDeploy, FlowRuntime)} once the request
+     * is done.
+     */
+    public FlowRuntime borrowFlowRuntime(String userId, AgentDeploy deployment, Map<String, String> runtimeParameters) throws Exception {
+        FlowRuntimePool pool = servicePools.get(deployment);
+        if (pool != null) {
+            return pool.borrow(userId, runtimeParameters);
+        } else {
+            return createFlowRuntime(userId, deployment, runtimeParameters);
+        }
+    }
+
+    public void releaseFlowRuntime(AgentDeploy deployment, FlowRuntime flowRuntime) {
+        FlowRuntimePool pool = servicePools.get(deployment);
+        if (pool != null) {
+            pool.release(flowRuntime);
+        } else if (flowRuntime != null) {
+            flowRuntime.discard();
+        }
+    }
+
+    public FlowRuntimePool getServicePool(AgentDeploy deployment) {
+        return servicePools.get(deployment);
+    }
+
+    protected void startServicePool(AgentProjectVersionFlowDeployment agentProjectVersionFlowDeployment) {
+        AgentDeploy deployment = agentProjectVersionFlowDeployment.getAgentDeployment();
+        stopServicePool(deployment);
+        int size = deployment.getServicePoolSize();
+        if (size > 0 && agentProjectVersionFlowDeployment.getFlow().findComponentsOfType(ComponentTypeIdConstants.HTTP_REQUEST).size() > 0) {
+            FlowRuntimePool pool = new FlowRuntimePool(deployment, size, () -> createFlowRuntime(null, deployment, null),
+                    flowStepsExecutionThreads);
+            servicePools.put(deployment, pool);
+            pool.fill();
+            log.info("Keeping {} flow runtimes built ahead of time for '{}'", size, deployment.getName());
+        }
+    }
+
+    protected void stopServicePool(AgentDeploy deployment) {
+        FlowRuntimePool pool = servicePools.remove(deployment);
+        if (pool != null) {
+            pool.close();
+        }
     }
 
     public Results execute(String userId, AgentDeploy deployment, Map<String, String> runtimeParameters) throws Exception {
@@ -513,6 +602,8 @@ public class AgentRuntime {
             scheduledDeployments.remove(future);
         }
 
+        stopServicePool(deployment);
+
         List<FlowRuntime> flowRuntimes = runningFlows.get(deployment);
         if (flowRuntimes != null) {
             for (FlowRuntime flowRuntime : flowRuntimes) {
@@ -637,7 +728,8 @@ public class AgentRuntime {
                 List<Notification> notifications = operationsService.findNotificationsForDeployment(deployment.getAgentDeployment());
                 flowRuntime = new FlowRuntime(executionId, userId, deployment, agent, componentRuntimeFactory, definitionFactory,
                         flowStepsExecutionThreads, operationsService, configurationService, executionService, deployedResources,
-                        notifications, globalSettings, runtimeParameters);
+                        notifications, globalSettings, runtimeParameters, lookupCacheManager);
+                flowRuntime.setStepScheduler(stepScheduler);
                 addToRunning(deployment.getAgentDeployment(), flowRuntime);
                 flowRuntime.execute();
             } catch (Exception e) {
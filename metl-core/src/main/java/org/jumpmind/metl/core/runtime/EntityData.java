@@ -20,10 +20,28 @@
  */
 package org.jumpmind.metl.core.runtime;
 
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
 import org.jumpmind.metl.core.util.NameValue;
 import org.jumpmind.util.LinkedCaseInsensitiveMap;
 
-public class EntityData extends LinkedCaseInsensitiveMap<Object> {
+/**
+ * A row of attribute values keyed by attribute id. When the row is created
+ * with an {@link EntityDataSchema} the values for attributes in the schema are
+ * stored in an array slot. Attributes that are not part of the schema (or all
+ * attributes when there is no schema) are stored in a case insensitive map.
+ * <p>
+ * Copies are copy-on-write. A copy shares the value storage of the row it was
+ * copied from until either of them is changed.
+ */
+public class EntityData extends AbstractMap<String, Object> implements Serializable, Cloneable {
 
     private static final long serialVersionUID = 1L;
 
@@ -31,11 +49,33 @@ public class EntityData extends LinkedCaseInsensitiveMap<Object> {
         ADD, CHG, DEL
     };
 
+    private enum Empty {
+        SLOT
+    };
+
     ChangeType changeType = ChangeType.ADD;
 
+    EntityDataSchema schema;
+
+    Object[] values;
+
+    int slotCount;
+
+    LinkedCaseInsensitiveMap<Object> overflow;
+
+    boolean shared;
+
     public EntityData() {
     }
 
+    public EntityData(EntityDataSchema schema) {
+        this.schema = schema;
+        if (schema != null) {
+            this.values = new Object[schema.size()];
+            Arrays.fill(this.values, Empty.SLOT);
+        }
+    }
+
     public EntityData(NameValue... nameValues) {
         if (nameValues != null) {
             for (NameValue nameValue : nameValues) {
@@ -44,8 +84,27 @@ public class EntityData extends LinkedCaseInsensitiveMap<Object> {
         }
     }
 
+    protected EntityData(EntityData data) {
+        this.changeType = data.changeType;
+        this.schema = data.schema;
+        this.slotCount = data.slotCount;
+        this.values = data.values;
+        this.overflow = data.overflow;
+        this.shared = true;
+        data.shared = true;
+    }
+
     public EntityData copy() {
-        return (EntityData) this.clone();
+        return new EntityData(this);
+    }
+
+    @Override
+    public EntityData clone() {
+        return copy();
+    }
+
+    public EntityDataSchema getSchema() {
+        return schema;
     }
 
     public ChangeType getChangeType() {
@@ -56,4 +115,329 @@ public class EntityData extends LinkedCaseInsensitiveMap<Object> {
         this.changeType = changeType;
     }
 
+    /**
+     * Get a value by its slot in the {@link EntityDataSchema} this row was
+     * created with.
+     */
+    public Object get(int slot) {
+        Object value = values[slot];
+        return value == Empty.SLOT ? null : value;
+    }
+
+    /**
+     * Put a value by its slot in the {@link EntityDataSchema} this row was
+     * created with.
+     */
+    public Object put(int slot, Object value) {
+        unshare();
+        Object old = values[slot];
+        values[slot] = value;
+        if (old == Empty.SLOT) {
+            slotCount++;
+            return null;
+        } else {
+            return old;
+        }
+    }
+
+    /**
+     * Take a private copy of the value storage if it is shared with another
+     * row
+     */
+    protected void unshare() {
+        if (shared) {
+            if (values != null) {
+                values = values.clone();
+            }
+            if (overflow != null) {
+                LinkedCaseInsensitiveMap<Object> copy = new LinkedCaseInsensitiveMap<Object>();
+                for (Map.Entry<String, Object> entry : overflow.entrySet()) {
+                    copy.put(entry.getKey(), entry.getValue());
+                }
+                overflow = copy;
+            }
+            shared = false;
+        }
+    }
+
+    protected int slotOf(Object key) {
+        return schema != null ? schema.getSlot(key) : -1;
+    }
+
+    @Override
+    public int size() {
+        return slotCount + (overflow != null ? overflow.size() : 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return values[slot] != Empty.SLOT;
+        } else {
+            return overflow != null && overflow.containsKey(key);
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return get(slot);
+        } else {
+            return overflow != null ? overflow.get(key) : null;
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return put(slot, value);
+        } else {
+            unshare();
+            if (overflow == null) {
+                overflow = new LinkedCaseInsensitiveMap<Object>();
+            }
+            return overflow.put(key, value);
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return removeSlot(slot);
+        } else {
+            if (overflow != null && overflow.containsKey(key)) {
+                unshare();
+                return overflow.remove(key);
+            } else {
+                return null;
+            }
+        }
+    }
+
+    protected Object removeSlot(int slot) {
+        Object old = values[slot];
+        if (old == Empty.SLOT) {
+            return null;
+        } else {
+            unshare();
+            values[slot] = Empty.SLOT;
+            slotCount--;
+            return old;
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (values != null) {
+            if (shared) {
+                values = new Object[values.length];
+            }
+            Arrays.fill(values, Empty.SLOT);
+            slotCount = 0;
+        }
+        overflow = null;
+        shared = false;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return EntityData.this.size();
+            }
+
+            @Override
+            public void clear() {
+                EntityData.this.clear();
+            }
+        };
+    }
+
+    class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        int nextSlot = -1;
+
+        int currentSlot = -1;
+
+        boolean currentFromOverflow = false;
+
+        Map<String, Object> iteratedOverflow;
+
+        Iterator<Map.Entry<String, Object>> overflowIterator;
+
+        String currentOverflowKey;
+
+        EntryIterator() {
+            advanceSlot();
+        }
+
+        private void advanceSlot() {
+            nextSlot++;
+            while (values != null && nextSlot < values.length && values[nextSlot] == Empty.SLOT) {
+                nextSlot++;
+            }
+        }
+
+        private boolean slotsRemaining() {
+            return values != null && nextSlot < values.length;
+        }
+
+        private Iterator<Map.Entry<String, Object>> overflowIterator() {
+            if (overflowIterator == null && overflow != null) {
+                iteratedOverflow = overflow;
+                overflowIterator = overflow.entrySet().iterator();
+            }
+            return overflowIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slotsRemaining() || (overflowIterator() != null && overflowIterator.hasNext());
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (slotsRemaining()) {
+                currentSlot = nextSlot;
+                currentFromOverflow = false;
+                advanceSlot();
+                return new SlotEntry(currentSlot);
+            } else if (overflowIterator() != null) {
+                currentSlot = -1;
+                currentFromOverflow = true;
+                currentOverflowKey = overflowIterator.next().getKey();
+                return new OverflowEntry(currentOverflowKey);
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (currentSlot >= 0) {
+                removeSlot(currentSlot);
+                currentSlot = -1;
+            } else if (currentFromOverflow) {
+                unshare();
+                if (iteratedOverflow == overflow) {
+                    overflowIterator.remove();
+                } else {
+                    /*
+                     * The storage was copied while iterating. Keep walking the
+                     * original and remove from the copy.
+                     */
+                    overflow.remove(currentOverflowKey);
+                }
+                currentFromOverflow = false;
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    class OverflowEntry implements Map.Entry<String, Object> {
+
+        final String key;
+
+        OverflowEntry(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Map.Entry) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                Object value = getValue();
+                return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    class SlotEntry implements Map.Entry<String, Object> {
+
+        final int slot;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.getAttributeId(slot);
+        }
+
+        @Override
+        public Object getValue() {
+            return get(slot);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(slot, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Map.Entry) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                Object value = getValue();
+                return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
 }
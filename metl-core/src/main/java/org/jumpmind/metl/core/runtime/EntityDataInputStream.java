@@ -0,0 +1,146 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.jumpmind.metl.core.runtime.EntityDataOutputStream.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+
+/**
+ * Reads back the rows written by {@link EntityDataOutputStream}. It must be
+ * created with the same {@link EntityDataSchema} the rows were written with.
+ */
+public class EntityDataInputStream implements Closeable {
+
+    static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+    DataInputStream in;
+
+    EntityDataSchema schema;
+
+    public EntityDataInputStream(InputStream in, EntityDataSchema schema) {
+        this(in, schema, 65536);
+    }
+
+    /**
+     * @param bufferSize
+     *            the size of the read buffer or 0 to read straight from the
+     *            input stream
+     */
+    public EntityDataInputStream(InputStream in, EntityDataSchema schema, int bufferSize) {
+        this.in = new DataInputStream(bufferSize > 0 ? new BufferedInputStream(in, bufferSize) : in);
+        this.schema = schema;
+    }
+
+    /**
+     * @return the next row or null if the end of the stream was reached
+     */
+    public EntityData read() throws IOException {
+        int changeType = in.read();
+        if (changeType < 0) {
+            return null;
+        }
+        EntityData data = new EntityData(schema);
+        data.setChangeType(CHANGE_TYPES[changeType]);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            int slot = in.readInt();
+            if (slot >= 0) {
+                data.put(slot, readValue());
+            } else {
+                String attributeId = in.readUTF();
+                data.put(attributeId, readValue());
+            }
+        }
+        return data;
+    }
+
+    public Object readValue() throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return new String(readBytes(), StandardCharsets.UTF_8);
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_BIG_DECIMAL:
+                return new BigDecimal(new String(readBytes(), StandardCharsets.UTF_8));
+            case TYPE_BIG_INTEGER:
+                return new BigInteger(readBytes());
+            case TYPE_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case TYPE_SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case TYPE_SQL_TIME:
+                return new java.sql.Time(in.readLong());
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_BYTES:
+                return readBytes();
+            case TYPE_SERIALIZED:
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(readBytes()))) {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("Unexpected value type of " + type);
+        }
+    }
+
+    protected byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The normalized key values of a row. Values are normalized so that numbers
+ * compare by their numeric value and binary values by their content. Keys sort
+ * null values first.
+ */
+public class EntityDataKey implements Comparable<EntityDataKey> {
+
+    Object[] values;
+
+    int hashCode;
+
+    public EntityDataKey(Object[] values) {
+        this.values = values;
+        this.hashCode = Arrays.hashCode(values);
+    }
+
+    public static EntityDataKey of(EntityData data, String[] attributeIds, boolean[] numeric) {
+        return new EntityDataKey(normalize(data, attributeIds, numeric));
+    }
+
+    public Object[] getValues() {
+        return values;
+    }
+
+    public static Object[] normalize(EntityData data, String[] attributeIds, boolean[] numeric) {
+        Object[] values = new Object[attributeIds.length];
+        for (int i = 0; i < attributeIds.length; i++) {
+            values[i] = normalize(data.get(attributeIds[i]), numeric[i]);
+        }
+        return values;
+    }
+
+    public static Object normalize(Object value, boolean numeric) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        } else if (numeric || value instanceof BigDecimal) {
+            try {
+                BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString().trim());
+                return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                return value.toString();
+            }
+        } else if (value instanceof Boolean) {
+            return value;
+        } else {
+            return value.toString();
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof EntityDataKey && ((EntityDataKey) obj).hashCode == hashCode
+                && Arrays.equals(values, ((EntityDataKey) obj).values);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public int compareTo(EntityDataKey o) {
+        for (int i = 0; i < values.length; i++) {
+            Object value1 = values[i];
+            Object value2 = o.values[i];
+            int compare;
+            if (value1 == null || value2 == null) {
+                compare = value1 == value2 ? 0 : (value1 == null ? -1 : 1);
+            } else if (value1 instanceof Comparable && value1.getClass().equals(value2.getClass())) {
+                compare = ((Comparable) value1).compareTo(value2);
+            } else {
+                compare = value1.toString().compareTo(value2.toString());
+            }
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
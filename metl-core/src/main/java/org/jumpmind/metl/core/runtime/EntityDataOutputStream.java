@@ -0,0 +1,178 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes {@link EntityData} rows in a compact binary format that can be read
+ * back with {@link EntityDataInputStream}. It is meant for temporary files that
+ * components spill rows to when they can't hold them in memory. Attributes
+ * that are part of the {@link EntityDataSchema} are written as their slot
+ * number instead of their id.
+ */
+public class EntityDataOutputStream implements Closeable, Flushable {
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_INTEGER = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_DOUBLE = 4;
+    static final byte TYPE_FLOAT = 5;
+    static final byte TYPE_SHORT = 6;
+    static final byte TYPE_BOOLEAN = 7;
+    static final byte TYPE_BIG_DECIMAL = 8;
+    static final byte TYPE_BIG_INTEGER = 9;
+    static final byte TYPE_TIMESTAMP = 10;
+    static final byte TYPE_SQL_DATE = 11;
+    static final byte TYPE_SQL_TIME = 12;
+    static final byte TYPE_DATE = 13;
+    static final byte TYPE_BYTES = 14;
+    static final byte TYPE_SERIALIZED = 15;
+
+    DataOutputStream out;
+
+    EntityDataSchema schema;
+
+    public EntityDataOutputStream(OutputStream out, EntityDataSchema schema) {
+        this(out, schema, 65536);
+    }
+
+    /**
+     * @param bufferSize
+     *            the size of the write buffer or 0 to write straight through
+     *            to the output stream
+     */
+    public EntityDataOutputStream(OutputStream out, EntityDataSchema schema, int bufferSize) {
+        this.out = new DataOutputStream(bufferSize > 0 ? new BufferedOutputStream(out, bufferSize) : out);
+        this.schema = schema;
+    }
+
+    public void write(EntityData data) throws IOException {
+        out.writeByte(data.getChangeType().ordinal());
+        out.writeInt(data.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            int slot = schema != null ? schema.getSlot(entry.getKey()) : -1;
+            out.writeInt(slot);
+            if (slot < 0) {
+                out.writeUTF(entry.getKey());
+            }
+            writeValue(entry.getValue());
+        }
+    }
+
+    public void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_BIG_DECIMAL);
+            writeBytes(((BigDecimal) value).toString().getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof BigInteger) {
+            out.writeByte(TYPE_BIG_INTEGER);
+            writeBytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TYPE_SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte(TYPE_SQL_TIME);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass().equals(Date.class)) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes((byte[]) value);
+        } else if (value instanceof Serializable) {
+            out.writeByte(TYPE_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            writeBytes(bytes.toByteArray());
+        } else {
+            out.writeByte(TYPE_STRING);
+            writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    protected void writeBytes(byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @return the number of bytes written so far. It stops counting at
+     *         Integer.MAX_VALUE.
+     */
+    public int size() {
+        return out.size();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
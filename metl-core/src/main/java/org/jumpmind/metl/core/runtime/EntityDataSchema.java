@@ -0,0 +1,82 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable mapping of attribute ids to slot indexes that is shared by all
+ * of the {@link EntityData} rows created for the same model. Attribute ids are
+ * matched exactly first and then case insensitively.
+ */
+public final class EntityDataSchema implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] attributeIds;
+
+    private final Map<String, Integer> slotsByAttributeId;
+
+    public EntityDataSchema(Collection<String> attributeIds) {
+        String[] ids = new String[attributeIds.size()];
+        this.slotsByAttributeId = new HashMap<>(attributeIds.size() * 4);
+        int slot = 0;
+        for (String attributeId : attributeIds) {
+            if (!slotsByAttributeId.containsKey(attributeId.toLowerCase())) {
+                ids[slot] = attributeId;
+                slotsByAttributeId.put(attributeId, slot);
+                slotsByAttributeId.put(attributeId.toLowerCase(), slot);
+                slot++;
+            }
+        }
+        this.attributeIds = slot < ids.length ? Arrays.copyOf(ids, slot) : ids;
+    }
+
+    public int size() {
+        return attributeIds.length;
+    }
+
+    public String getAttributeId(int slot) {
+        return attributeIds[slot];
+    }
+
+    /**
+     * @return the slot for the attribute id or -1 if the attribute is not part
+     *         of this schema
+     */
+    public int getSlot(Object attributeId) {
+        if (attributeId instanceof String) {
+            Integer slot = slotsByAttributeId.get(attributeId);
+            if (slot == null) {
+                slot = slotsByAttributeId.get(((String) attributeId).toLowerCase());
+            }
+            if (slot != null) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jumpmind.exception.IoException;
+
+/**
+ * A temporary file that rows are appended to and then read back in the order
+ * they were written. The file is not created until the first row is written
+ * and it is deleted when the spill file is closed.
+ */
+public class EntityDataSpillFile implements Closeable {
+
+    String prefix;
+
+    EntityDataSchema schema;
+
+    File file;
+
+    EntityDataOutputStream out;
+
+    EntityDataInputStream in;
+
+    long rowCount;
+
+    public EntityDataSpillFile(String prefix, EntityDataSchema schema) {
+        this.prefix = prefix;
+        this.schema = schema;
+    }
+
+    public void write(EntityData data) {
+        try {
+            if (out == null) {
+                if (file != null) {
+                    throw new IllegalStateException("Rows can't be written to a spill file after it has been read");
+                }
+                file = File.createTempFile(prefix, ".spill");
+                file.deleteOnExit();
+                out = new EntityDataOutputStream(new FileOutputStream(file), schema);
+            }
+            out.write(data);
+            rowCount++;
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Finishes writing and returns the rows in the order they were written.
+     * The rows can only be iterated once.
+     */
+    public Iterator<EntityData> iterator() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (file == null) {
+                return new Iterator<EntityData>() {
+                    @Override
+                    public boolean hasNext() {
+                        return false;
+                    }
+
+                    @Override
+                    public EntityData next() {
+                        throw new NoSuchElementException();
+                    }
+                };
+            }
+            in = new EntityDataInputStream(new FileInputStream(file), schema);
+            return new Iterator<EntityData>() {
+
+                EntityData next = read();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public EntityData next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    EntityData current = next;
+                    next = read();
+                    return current;
+                }
+            };
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    protected EntityData read() {
+        try {
+            EntityData data = in.read();
+            if (data == null) {
+                in.close();
+            }
+            return data;
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        } catch (IOException e) {
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        rowCount = 0;
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A first in, first out queue of rows. Once the queue holds more rows than fit
+ * in memory, new rows are written to a temporary file. The file is read back
+ * in batches after the rows in memory have been taken.
+ */
+public class EntityDataSpillQueue implements Closeable {
+
+    String prefix;
+
+    EntityDataSchema schema;
+
+    int maxRowsInMemory;
+
+    ArrayDeque<EntityData> rows = new ArrayDeque<>();
+
+    EntityDataSpillFile reading;
+
+    Iterator<EntityData> readingRows;
+
+    EntityDataSpillFile writing;
+
+    long size;
+
+    long spilledCount;
+
+    public EntityDataSpillQueue(String prefix, EntityDataSchema schema, int maxRowsInMemory) {
+        this.prefix = prefix;
+        this.schema = schema;
+        this.maxRowsInMemory = maxRowsInMemory > 0 ? maxRowsInMemory : 1;
+    }
+
+    public void add(EntityData data) {
+        if (reading == null && writing == null && rows.size() < maxRowsInMemory) {
+            rows.add(data);
+        } else {
+            if (writing == null) {
+                writing = new EntityDataSpillFile(prefix, schema);
+            }
+            writing.write(data);
+            spilledCount++;
+        }
+        size++;
+    }
+
+    /**
+     * @return the row at the head of the queue or null if it is empty
+     */
+    public EntityData peek() {
+        if (rows.isEmpty()) {
+            fill();
+        }
+        return rows.peek();
+    }
+
+    /**
+     * @return the row that was removed from the head of the queue or null if
+     *         it is empty
+     */
+    public EntityData poll() {
+        EntityData data = peek();
+        if (data != null) {
+            rows.poll();
+            size--;
+        }
+        return data;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of rows that were written to temporary files
+     */
+    public long getSpilledCount() {
+        return spilledCount;
+    }
+
+    protected void fill() {
+        if (readingRows == null || !readingRows.hasNext()) {
+            if (reading != null) {
+                reading.close();
+                reading = null;
+                readingRows = null;
+            }
+            if (writing != null) {
+                reading = writing;
+                readingRows = reading.iterator();
+                writing = null;
+            }
+        }
+        while (readingRows != null && readingRows.hasNext() && rows.size() < maxRowsInMemory) {
+            rows.add(readingRows.next());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (reading != null) {
+            reading.close();
+            reading = null;
+            readingRows = null;
+        }
+        if (writing != null) {
+            writing.close();
+            writing = null;
+        }
+        rows.clear();
+        size = 0;
+        spilledCount = 0;
+    }
+
+}
@@ -70,11 +70,25 @@ public class ExecutionTrackerRecorder extends ExecutionTrackerLogger {
     @Override
     public void beforeFlow(String executionId, Map<String, String> flowParameters) {
         super.beforeFlow(executionId, flowParameters);
+        if (flowParameters != null) {
+            this.parameters = flowParameters.toString();
+        }
         this.steps = new HashMap<String, ExecutionStep>();
         this.startTime = new Date();
         this.recorder.record(getExecution());
     }
 
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * Stops the recorder of a flow that was never started
+     */
+    public void shutdown() {
+        this.recorder.shutdown();
+    }
+
     private Execution getExecution() {
         Execution execution = new Execution();
         execution.setId(executionId);
@@ -0,0 +1,55 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.cache;
+
+import java.util.function.Function;
+
+public interface ILookupCache {
+
+    public String getName();
+
+    /**
+     * @param loader
+     *            called to load the value when the key is not in the cache or
+     *            its entry has expired. The loaded value, even if it is null,
+     *            is cached. If the loader is null, null is returned on a miss.
+     */
+    public Object get(Object key, Function<Object, Object> loader);
+
+    public void put(Object key, Object value);
+
+    public long size();
+
+    /**
+     * Records that every row of the lookup table has been put in the cache
+     */
+    public void markLoaded();
+
+    /**
+     * @return the time the cache was marked loaded or 0 if it hasn't been
+     */
+    public long getLoadedTime();
+
+    public void clear();
+
+    public void close();
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A thread safe lookup cache that can be shared by flows. Entries can expire a
+ * fixed time after they are loaded and the least recently used entries are
+ * evicted once the cache holds its maximum number of entries. The keys are
+ * spread over segments that are locked separately so that concurrent flows
+ * don't contend on a single lock.
+ */
+public class LookupCache implements ILookupCache {
+
+    static final int SEGMENTS = 16;
+
+    static final Object NULL = new Object();
+
+    String name;
+
+    long timeToLiveInMs;
+
+    ILookupCacheStore store;
+
+    Segment[] segments;
+
+    volatile long loadedTime;
+
+    /**
+     * @param maxEntries
+     *            the maximum number of entries or 0 for no limit
+     * @param timeToLiveInMs
+     *            how long an entry is kept after it is loaded or 0 to keep it
+     *            until it is evicted
+     */
+    public LookupCache(String name, int maxEntries, long timeToLiveInMs, ILookupCacheStore store) {
+        this.name = name;
+        this.timeToLiveInMs = timeToLiveInMs;
+        this.store = store;
+        this.segments = new Segment[SEGMENTS];
+        int maxEntriesPerSegment = maxEntries > 0 ? Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS) : 0;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxEntriesPerSegment);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    protected Segment segmentFor(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public Object get(Object key, Function<Object, Object> loader) {
+        Segment segment = segmentFor(key);
+        /*
+         * The value is loaded while the segment is locked so that its handle
+         * can't be released and reused by another value in the meantime
+         */
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null) {
+                if (timeToLiveInMs > 0 && System.currentTimeMillis() - entry.loadedTime > timeToLiveInMs) {
+                    segment.remove(key);
+                    if (entry.handle != NULL) {
+                        store.release(entry.handle);
+                    }
+                } else if (entry.handle == NULL) {
+                    return null;
+                } else {
+                    return store.load(entry.handle);
+                }
+            }
+        }
+
+        if (loader != null) {
+            Object value = loader.apply(key);
+            put(key, value);
+            return value;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        Object handle = value == null ? NULL : store.store(value);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry previous = segment.put(key, new Entry(handle, System.currentTimeMillis()));
+            if (previous != null && previous.handle != NULL) {
+                store.release(previous.handle);
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void markLoaded() {
+        loadedTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public long getLoadedTime() {
+        return loadedTime;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        store.clear();
+        loadedTime = 0;
+    }
+
+    @Override
+    public void close() {
+        clear();
+        store.close();
+    }
+
+    static class Entry {
+
+        Object handle;
+
+        long loadedTime;
+
+        Entry(Object handle, long loadedTime) {
+            this.handle = handle;
+            this.loadedTime = loadedTime;
+        }
+    }
+
+    class Segment extends LinkedHashMap<Object, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+            if (maxEntries > 0 && size() > maxEntries) {
+                if (eldest.getValue().handle != NULL) {
+                    store.release(eldest.getValue().handle);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            for (Entry entry : values()) {
+                if (entry.handle != NULL) {
+                    store.release(entry.handle);
+                }
+            }
+            super.clear();
+        }
+    }
+
+}
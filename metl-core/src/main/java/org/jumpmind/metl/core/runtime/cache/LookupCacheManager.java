@@ -0,0 +1,121 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The named lookup caches that are shared by the flows that run on an agent.
+ * A flow acquires a cache when it starts to use it and releases it when it
+ * stops. A cache that has been replaced or removed is closed once the last
+ * flow that acquired it releases it.
+ */
+public class LookupCacheManager {
+
+    Map<String, ILookupCache> caches = new HashMap<>();
+
+    Map<ILookupCache, Integer> references = new IdentityHashMap<>();
+
+    /**
+     * @return the cache, acquired, if it has been marked loaded within the time
+     *         to live or null if it needs to be loaded
+     */
+    public synchronized ILookupCache getLoaded(String name, long timeToLiveInMs) {
+        ILookupCache cache = caches.get(name);
+        if (cache != null && cache.getLoadedTime() > 0
+                && (timeToLiveInMs <= 0 || System.currentTimeMillis() - cache.getLoadedTime() < timeToLiveInMs)) {
+            return acquire(cache);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the named cache, acquired, creating it if it doesn't exist
+     */
+    public synchronized ILookupCache getOrCreate(String name, Supplier<ILookupCache> factory) {
+        return acquire(caches.computeIfAbsent(name, key -> factory.get()));
+    }
+
+    /**
+     * Replaces the cache with a newly loaded one that is acquired by the
+     * caller. The cache that is replaced is closed once the flows that are
+     * still using it release it.
+     */
+    public synchronized void publish(ILookupCache cache) {
+        acquire(cache);
+        retire(caches.put(cache.getName(), cache));
+    }
+
+    /**
+     * Called when a flow is done with a cache it acquired
+     */
+    public synchronized void release(ILookupCache cache) {
+        Integer count = references.get(cache);
+        if (count != null) {
+            if (count > 1) {
+                references.put(cache, count - 1);
+            } else {
+                references.remove(cache);
+                if (caches.get(cache.getName()) != cache) {
+                    cache.close();
+                }
+            }
+        }
+    }
+
+    public synchronized void remove(String name) {
+        retire(caches.remove(name));
+    }
+
+    /**
+     * Closes every cache, including the ones flows haven't released yet
+     */
+    public synchronized void clear() {
+        for (ILookupCache cache : caches.values()) {
+            cache.close();
+        }
+        for (ILookupCache cache : new ArrayList<>(references.keySet())) {
+            if (!caches.containsValue(cache)) {
+                cache.close();
+            }
+        }
+        caches.clear();
+        references.clear();
+    }
+
+    protected ILookupCache acquire(ILookupCache cache) {
+        Integer count = references.get(cache);
+        references.put(cache, count == null ? 1 : count + 1);
+        return cache;
+    }
+
+    protected void retire(ILookupCache cache) {
+        if (cache != null && !references.containsKey(cache)) {
+            cache.close();
+        }
+    }
+
+}
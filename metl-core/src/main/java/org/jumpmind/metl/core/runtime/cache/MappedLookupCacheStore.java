@@ -0,0 +1,351 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.runtime.EntityDataInputStream;
+import org.jumpmind.metl.core.runtime.EntityDataOutputStream;
+
+/**
+ * Keeps cached values outside of the heap in memory mapped temporary files.
+ * Values are encoded the same way rows are spilled to disk. A handle is a slot
+ * that records where the bytes of its value are, so values can be moved
+ * without the cache knowing.
+ * <p>
+ * Released space is counted per chunk. A chunk that no longer holds live
+ * values is reused. Once more than half of the written space is garbage, the
+ * live values of chunks that are mostly garbage are moved to the end of the
+ * store so that those chunks can be reused as well. At most one empty chunk
+ * is kept mapped. The others are deleted and their buffers dropped so the
+ * mappings can be released.
+ */
+public class MappedLookupCacheStore implements ILookupCacheStore {
+
+    static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+    static final double MAX_GARBAGE_RATIO = 0.5;
+
+    static final long RELEASED = -1;
+
+    final int chunkSize;
+
+    List<Chunk> chunks = new ArrayList<>();
+
+    Chunk current;
+
+    Chunk spare;
+
+    long[] addresses = new long[1024];
+
+    int slotCount;
+
+    int[] releasedSlots = new int[1024];
+
+    int releasedSlotCount;
+
+    long filledBytes;
+
+    long liveBytes;
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    EntityDataOutputStream encoder = new EntityDataOutputStream(bytes, null, 0);
+
+    public MappedLookupCacheStore() {
+        this(CHUNK_SIZE);
+    }
+
+    MappedLookupCacheStore(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public synchronized Object store(Object value) {
+        try {
+            bytes.reset();
+            encoder.writeValue(value);
+            encoder.flush();
+            if (bytes.size() + 4 > chunkSize) {
+                return new HeapValue(value);
+            }
+            long address = append(bytes.toByteArray());
+            int slot = allocateSlot();
+            addresses[slot] = address;
+            return slot;
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    @Override
+    public Object load(Object handle) {
+        if (handle instanceof HeapValue) {
+            return ((HeapValue) handle).value;
+        }
+        /*
+         * The bytes are copied while the lock is held because a compaction can
+         * move the value and reuse its chunk as soon as the lock is released
+         */
+        byte[] value;
+        synchronized (this) {
+            long address = addressOf((Integer) handle);
+            if (address == RELEASED) {
+                throw new IllegalStateException("The lookup cache value has been released");
+            }
+            value = read(chunks.get(chunkIndex(address)), offset(address));
+        }
+        try {
+            return new EntityDataInputStream(new ByteArrayInputStream(value), null, 0).readValue();
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    @Override
+    public synchronized void release(Object handle) {
+        if (handle instanceof HeapValue) {
+            return;
+        }
+        int slot = (Integer) handle;
+        long address = addressOf(slot);
+        if (address == RELEASED) {
+            return;
+        }
+        Chunk chunk = chunks.get(chunkIndex(address));
+        int length = chunk.buffer.getInt(offset(address)) + 4;
+        chunk.live -= length;
+        liveBytes -= length;
+        addresses[slot] = RELEASED;
+        releaseSlot(slot);
+
+        if (chunk.live == 0) {
+            if (chunk == current) {
+                filledBytes -= chunk.filled;
+                chunk.filled = 0;
+            } else {
+                recycle(chunk);
+            }
+        } else if (filledBytes > chunkSize && filledBytes - liveBytes > filledBytes * MAX_GARBAGE_RATIO) {
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+    }
+
+    /**
+     * Moves the live values out of the chunks that are mostly garbage and
+     * recycles those chunks
+     */
+    protected void compact() throws IOException {
+        List<Chunk> sparse = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            if (chunk != null && chunk != current && chunk.filled > 0 && chunk.live <= chunk.filled * (1 - MAX_GARBAGE_RATIO)) {
+                chunk.moving = true;
+                sparse.add(chunk);
+            }
+        }
+
+        if (sparse.size() > 0) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                long address = addresses[slot];
+                if (address != RELEASED) {
+                    Chunk chunk = chunks.get(chunkIndex(address));
+                    if (chunk.moving) {
+                        byte[] value = read(chunk, offset(address));
+                        chunk.live -= value.length + 4;
+                        liveBytes -= value.length + 4;
+                        addresses[slot] = append(value);
+                    }
+                }
+            }
+
+            for (Chunk chunk : sparse) {
+                chunk.moving = false;
+                recycle(chunk);
+            }
+        }
+    }
+
+    protected long append(byte[] value) throws IOException {
+        int length = value.length + 4;
+        if (current == null || current.filled + length > chunkSize) {
+            current = allocateChunk();
+        }
+        int offset = current.filled;
+        current.buffer.putInt(offset, value.length);
+        ByteBuffer target = current.buffer.duplicate();
+        target.position(offset + 4);
+        target.put(value);
+        current.filled += length;
+        current.live += length;
+        filledBytes += length;
+        liveBytes += length;
+        return ((long) current.index << 32) | offset;
+    }
+
+    protected byte[] read(Chunk chunk, int offset) {
+        byte[] value = new byte[chunk.buffer.getInt(offset)];
+        ByteBuffer source = chunk.buffer.duplicate();
+        source.position(offset + 4);
+        source.get(value);
+        return value;
+    }
+
+    protected Chunk allocateChunk() throws IOException {
+        if (spare != null) {
+            Chunk chunk = spare;
+            spare = null;
+            return chunk;
+        }
+
+        int index = chunks.indexOf(null);
+        if (index < 0) {
+            index = chunks.size();
+            chunks.add(null);
+        }
+        File file = File.createTempFile("metl-lookup", ".cache");
+        file.deleteOnExit();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            Chunk chunk = new Chunk(index, file, randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, chunkSize));
+            chunks.set(index, chunk);
+            return chunk;
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    protected void recycle(Chunk chunk) {
+        filledBytes -= chunk.filled;
+        chunk.filled = 0;
+        chunk.live = 0;
+        if (spare == null) {
+            spare = chunk;
+        } else {
+            chunks.set(chunk.index, null);
+            discard(chunk);
+        }
+    }
+
+    /**
+     * Deletes the file of a chunk and drops its buffer so that the mapping can
+     * be released by the garbage collector
+     */
+    protected void discard(Chunk chunk) {
+        chunk.buffer = null;
+        chunk.file.delete();
+    }
+
+    protected int allocateSlot() {
+        if (releasedSlotCount > 0) {
+            return releasedSlots[--releasedSlotCount];
+        }
+        if (slotCount == addresses.length) {
+            addresses = Arrays.copyOf(addresses, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    protected void releaseSlot(int slot) {
+        if (releasedSlotCount == releasedSlots.length) {
+            releasedSlots = Arrays.copyOf(releasedSlots, releasedSlotCount * 2);
+        }
+        releasedSlots[releasedSlotCount++] = slot;
+    }
+
+    protected long addressOf(int slot) {
+        return slot >= 0 && slot < slotCount ? addresses[slot] : RELEASED;
+    }
+
+    static int chunkIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    static int offset(long address) {
+        return (int) address;
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Chunk chunk : chunks) {
+            if (chunk != null) {
+                discard(chunk);
+            }
+        }
+        chunks.clear();
+        current = null;
+        spare = null;
+        slotCount = 0;
+        releasedSlotCount = 0;
+        filledBytes = 0;
+        liveBytes = 0;
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    static class Chunk {
+
+        int index;
+
+        File file;
+
+        MappedByteBuffer buffer;
+
+        int filled;
+
+        int live;
+
+        boolean moving;
+
+        Chunk(int index, File file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    static class HeapValue {
+
+        Object value;
+
+        HeapValue(Object value) {
+            this.value = value;
+        }
+    }
+
+}
@@ -27,7 +27,9 @@ import java.util.Map;
 import org.jumpmind.metl.core.model.AgentDeploy;
 import org.jumpmind.metl.core.model.Flow;
 import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.persist.IExecutionService;
 import org.jumpmind.metl.core.runtime.IExecutionTracker;
+import org.jumpmind.metl.core.runtime.cache.LookupCacheManager;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
 import org.jumpmind.util.LinkedCaseInsensitiveMap;
 
@@ -51,6 +53,10 @@ public class ComponentContext {
 
     ComponentStatistics componentStatistics = new ComponentStatistics();
 
+    LookupCacheManager lookupCacheManager;
+
+    IExecutionService executionService;
+
     LinkedCaseInsensitiveMap<Object> context;  
     
     Map<Integer, IComponentRuntime> componentRuntimeByThread = new HashMap<>();
@@ -117,6 +123,31 @@ public class ComponentContext {
         return componentStatistics;
     }
 
+    public void setLookupCacheManager(LookupCacheManager lookupCacheManager) {
+        this.lookupCacheManager = lookupCacheManager;
+    }
+
+    /**
+     * @return the lookup caches that are shared across the agent or null if the
+     *         flow is not running on an agent
+     */
+    public LookupCacheManager getLookupCacheManager() {
+        return lookupCacheManager;
+    }
+
+    public void setExecutionService(IExecutionService executionService) {
+        this.executionService = executionService;
+    }
+
+    /**
+     * @return the service that stores execution history and state kept
+     *         between executions, or null if the flow is not running on an
+     *         agent
+     */
+    public IExecutionService getExecutionService() {
+        return executionService;
+    }
+
     public Map<String, String> getGlobalSettings() {
         return globalSettings;
     }
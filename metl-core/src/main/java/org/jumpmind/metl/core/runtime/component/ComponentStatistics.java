@@ -21,127 +21,197 @@
 package org.jumpmind.metl.core.runtime.component;
 
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counters for a step, kept per thread number. Each thread number gets its own
+ * set of primitive counters, so incrementing them on the message path does not
+ * box values or look them up in a map.
+ */
 public class ComponentStatistics {
 
-    private Map<Integer, Integer> numberInboundMessages = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberOutboundMessages = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberEntitiesProcessed = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberInboundPayload = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberOutboundPayload = new ConcurrentHashMap<>();
-    private Map<Integer, Long> timeSpentInHandle = new ConcurrentHashMap<>();
-    private Map<Integer, Long> timeSpentWaiting = new ConcurrentHashMap<>();
-    
-    
+    private volatile ThreadStatistics[] statistics = new ThreadStatistics[2];
+
+    private final Map<Integer, LongAdder> partitionEntitiesProcessed = new ConcurrentHashMap<>();
+
+    protected ThreadStatistics get(int thread) {
+        ThreadStatistics[] statistics = this.statistics;
+        ThreadStatistics threadStatistics = thread < statistics.length ? statistics[thread] : null;
+        return threadStatistics != null ? threadStatistics : create(thread);
+    }
+
+    protected synchronized ThreadStatistics create(int thread) {
+        ThreadStatistics[] statistics = this.statistics;
+        if (thread >= statistics.length) {
+            ThreadStatistics[] grown = new ThreadStatistics[Math.max(thread + 1, statistics.length * 2)];
+            System.arraycopy(statistics, 0, grown, 0, statistics.length);
+            statistics = grown;
+        }
+        if (statistics[thread] == null) {
+            statistics[thread] = new ThreadStatistics();
+        }
+        this.statistics = statistics;
+        return statistics[thread];
+    }
+
     public long getTimeSpentInHandle(int thread) {
-        Long number = timeSpentInHandle.get(thread);
-        return number != null ? number : 0;
+        return get(thread).timeSpentInHandle.sum();
     }
     
     public long getTimeSpentWaiting(int thread) {
-        Long number = timeSpentWaiting.get(thread);
-        return number != null ? number : 0;
+        return get(thread).timeSpentWaiting.sum();
     }
     
     public void incrementTimeSpentInHandle(int thread, long amount) {
         if (amount > 0) {
-            Long number = timeSpentInHandle.get(thread);
-            if (number != null) {
-                number = number + amount;
-            } else {
-                number = amount;
-            }
-            timeSpentInHandle.put(thread, number);
+            get(thread).timeSpentInHandle.add(amount);
         }
     }
 
     public void incrementTimeSpentWaiting(int thread, long amount) {
         if (amount > 0) {
-            Long number = timeSpentWaiting.get(thread);
-            if (number != null) {
-                number = number + amount;
-            } else {
-                number = amount;
-            }
-            timeSpentWaiting.put(thread, number);
+            get(thread).timeSpentWaiting.add(amount);
         }
     }
 
     public int getNumberInboundMessages(int thread) {
-        Integer number = numberInboundMessages.get(thread);
-        return number != null ? number : 0;
+        return get(thread).numberInboundMessages.intValue();
     }
 
     public void setNumberInboundMessages(int thread, int numberInboundMessages) {
-        this.numberInboundMessages.put(thread, numberInboundMessages);
+        set(get(thread).numberInboundMessages, numberInboundMessages);
     }
 
     public void incrementInboundMessages(int thread) {
-        this.numberInboundMessages.put(thread, getNumberInboundMessages(thread)+1);
+        get(thread).numberInboundMessages.increment();
     }
 
     public void setNumberOutboundMessages(int thread, int numberOutboundMessages) {
-        this.numberOutboundMessages.put(thread, numberOutboundMessages);
+        set(get(thread).numberOutboundMessages, numberOutboundMessages);
     }
 
     public int getNumberOutboundMessages(int thread) {
-        Integer number = numberOutboundMessages.get(thread);
-        return number != null ? number : 0;
+        return get(thread).numberOutboundMessages.intValue();
     }
 
     public void incrementOutboundMessages(int thread) {
-        this.numberOutboundMessages.put(thread, getNumberOutboundMessages(thread)+1);
+        get(thread).numberOutboundMessages.increment();
     }
 
     public void setNumberEntitiesProcessed(int thread, int numberEntitiesProcessed) {
-        this.numberEntitiesProcessed.put(thread, getNumberEntitiesProcessed(thread)+1);
+        set(get(thread).numberEntitiesProcessed, numberEntitiesProcessed);
     }
 
     public int getNumberEntitiesProcessed(int thread) {
-        Integer number = numberEntitiesProcessed.get(thread);
-        return number != null ? number : 0;
+        return get(thread).numberEntitiesProcessed.intValue();
     }
 
     public void incrementNumberEntitiesProcessed(int thread) {
-        this.numberEntitiesProcessed.put(thread, getNumberEntitiesProcessed(thread)+1);
+        get(thread).numberEntitiesProcessed.increment();
     }
 
     public void incrementNumberEntitiesProcessed(int thread, int count) {
-        this.numberEntitiesProcessed.put(thread, getNumberEntitiesProcessed(thread)+count);
+        get(thread).numberEntitiesProcessed.add(count);
     }
     
     public void setNumberInboundPayload(int thread, int numberInboundPayload) {
-        this.numberInboundPayload.put(thread, getNumberInboundPayload(thread)+1);
+        set(get(thread).numberInboundPayload, numberInboundPayload);
     }
 
     public int getNumberInboundPayload(int thread) {
-        Integer number = numberInboundPayload.get(thread);
-        return number != null ? number : 0;
+        return get(thread).numberInboundPayload.intValue();
     }
 
     public void incrementNumberInboundPayload(int thread) {
-        this.numberInboundPayload.put(thread, getNumberInboundPayload(thread)+1);
+        get(thread).numberInboundPayload.increment();
     }
 
     public void incrementNumberInboundPayload(int thread, int count) {
-        this.numberInboundPayload.put(thread, getNumberInboundPayload(thread)+count);
+        get(thread).numberInboundPayload.add(count);
     }
     
     public void setNumberOutboundPayload(int thread, int numberOutboundPayload) {
-        this.numberOutboundPayload.put(thread, getNumberOutboundPayload(thread)+1);
+        set(get(thread).numberOutboundPayload, numberOutboundPayload);
     }
 
     public int getNumberOutboundPayload(int thread) {
-        Integer number = numberOutboundPayload.get(thread);
-        return number != null ? number : 0;
+        return get(thread).numberOutboundPayload.intValue();
     }
 
     public void incrementNumberOutboundPayload(int thread) {
-        this.numberOutboundPayload.put(thread, getNumberOutboundPayload(thread)+1);
+        get(thread).numberOutboundPayload.increment();
     }
 
     public void incrementNumberOutboundPayload(int thread, int count) {
-        this.numberOutboundPayload.put(thread, getNumberOutboundPayload(thread)+count);
+        get(thread).numberOutboundPayload.add(count);
+    }
+
+    public long getNumberEntitiesSpilled(int thread) {
+        return get(thread).numberEntitiesSpilled.sum();
+    }
+
+    public void incrementNumberEntitiesSpilled(int thread, long count) {
+        if (count > 0) {
+            get(thread).numberEntitiesSpilled.add(count);
+        }
+    }
+
+    /**
+     * @return the most memory, in bytes, that a component reported it was
+     *         using to hold rows
+     */
+    public long getPeakMemoryUsed(int thread) {
+        return get(thread).peakMemoryUsed.get();
+    }
+
+    public void updatePeakMemoryUsed(int thread, long bytes) {
+        get(thread).peakMemoryUsed.accumulate(bytes);
+    }
+
+    /**
+     * Records progress for one partition of a step that splits its work into
+     * partitions, like a partitioned database read. Partitions are counted
+     * separately from threads because several partitions can run on behalf of
+     * the same step thread.
+     */
+    public void incrementPartitionEntitiesProcessed(int partition, long count) {
+        if (count > 0) {
+            partitionEntitiesProcessed.computeIfAbsent(partition, p -> new LongAdder()).add(count);
+        }
+    }
+
+    public long getPartitionEntitiesProcessed(int partition) {
+        LongAdder adder = partitionEntitiesProcessed.get(partition);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    /**
+     * @return the number of entities processed so far for each partition,
+     *         ordered by partition number
+     */
+    public Map<Integer, Long> getPartitionEntitiesProcessed() {
+        Map<Integer, Long> progress = new TreeMap<>();
+        partitionEntitiesProcessed.forEach((partition, adder) -> progress.put(partition, adder.sum()));
+        return progress;
+    }
+
+    private static void set(LongAdder adder, long value) {
+        adder.reset();
+        adder.add(value);
+    }
+
+    static class ThreadStatistics {
+        final LongAdder numberInboundMessages = new LongAdder();
+        final LongAdder numberOutboundMessages = new LongAdder();
+        final LongAdder numberEntitiesProcessed = new LongAdder();
+        final LongAdder numberInboundPayload = new LongAdder();
+        final LongAdder numberOutboundPayload = new LongAdder();
+        final LongAdder timeSpentInHandle = new LongAdder();
+        final LongAdder timeSpentWaiting = new LongAdder();
+        final LongAdder numberEntitiesSpilled = new LongAdder();
+        final LongAccumulator peakMemoryUsed = new LongAccumulator(Math::max, 0);
     }
 }
@@ -20,10 +20,21 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.ComponentAttribSetting;
 import org.jumpmind.metl.core.model.RelationalModel;
@@ -31,11 +42,24 @@ import org.jumpmind.metl.core.model.ModelAttrib;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.HashUtils;
 import org.jumpmind.properties.TypedProperties;
 
+/**
+ * Removes duplicate rows. Rows are identified by a 128 bit hash of their key
+ * values, so only 20 bytes per distinct key are held when the first record is
+ * preserved. First records are sent as soon as they are seen. Last records
+ * are held until the end of the unit of work.
+ * <p>
+ * When the memory ceiling is reached, the keys seen so far and the remaining
+ * rows are hash partitioned to temporary files and each partition is deduped
+ * at the end of the unit of work. Rows that were spilled are sent in
+ * partition order rather than in the order they arrived.
+ */
 public class Deduper extends AbstractComponentRuntime {
 
     public static final String TYPE = "Deduper";
@@ -52,6 +76,10 @@ public class Deduper extends AbstractComponentRuntime {
 
     public final static String ATTRIBUTE_DEDUPE_ENABLED = "dedupe.enabled";
     
+    public final static String MAX_MEMORY_IN_MB = "max.memory.in.mb";
+
+    static final int PARTITIONS = 32;
+
     int rowsPerMessage = 1000;
     
     String dedupeType = DEDUPE_ENTITY;
@@ -62,7 +90,31 @@ public class Deduper extends AbstractComponentRuntime {
     
     String preserveRecord = PRESERVE_FIRST;
 
-    LinkedHashMap<String, EntityData> deduped = new LinkedHashMap<String, EntityData>();
+    boolean preserveLast;
+
+    long maxMemory;
+
+    RelationalModel inputModel;
+
+    KeyHashTable keys = new KeyHashTable();
+
+    ArrayList<EntityData> lastRows = new ArrayList<>();
+
+    long rowMemory;
+
+    long peakMemory;
+
+    EntityDataSpillFile[] spilledRows;
+
+    KeyFile[] spilledKeys;
+
+    long spilledCount;
+
+    HashUtils.KeyHasher keyHasher = new HashUtils.KeyHasher();
+
+    long[] hash = new long[2];
+
+    ArrayList<EntityData> dataToSend;
 
     @Override
     public void start() {
@@ -70,7 +122,9 @@ public class Deduper extends AbstractComponentRuntime {
         rowsPerMessage = getComponent().getInt(ROWS_PER_MESSAGE, rowsPerMessage);
         dedupeType = properties.get(DEDUPE_TYPE);
         preserveRecord = properties.get(PRESERVE_RECORD);
-        RelationalModel inputModel = (RelationalModel) this.getComponent().getInputModel();
+        preserveLast = PRESERVE_LAST.equals(preserveRecord);
+        maxMemory = properties.getLong(MAX_MEMORY_IN_MB, 64) * 1024 * 1024;
+        inputModel = (RelationalModel) this.getComponent().getInputModel();
         if (inputModel == null) {
             throw new MisconfiguredException("The input model is not set and it is required");
         }
@@ -108,45 +162,238 @@ public class Deduper extends AbstractComponentRuntime {
         if (inputMessage instanceof EntityDataMessage) {
             ArrayList<EntityData> payload = ((EntityDataMessage)inputMessage).getPayload();
             for (EntityData entityData : payload) {
-                String key = "";
-
-                if (DEDUPE_ATTRIBUTE.equals(dedupeType)) {
-                	for (String attributeId : dedupeKeyAttributeIdList) {
-                		key += entityData.get(attributeId);
-                	}
-                } else {
-                	key = entityData.toString();
+                hashKey(entityData);
+                if (spilledRows != null) {
+                    spilledRows[partition(hash[0])].write(entityData);
+                    spilledCount++;
+                } else if (preserveLast) {
+                    int index = keys.get(hash[0], hash[1]);
+                    if (index < 0) {
+                        keys.put(hash[0], hash[1], lastRows.size());
+                        lastRows.add(entityData);
+                        rowMemory += estimateSize(entityData);
+                    } else {
+                        lastRows.set(index, entityData);
+                    }
+                } else if (keys.add(hash[0], hash[1])) {
+                    send(entityData, callback);
                 }
-                
-                if (!deduped.containsKey(key)) {
-                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-                    deduped.put(key, entityData);
-                } else {
-                    // else it exists, check if we need to save the first or last value and replace if necessary
-                	if (PRESERVE_LAST.equals(preserveRecord)) {
-                		deduped.put(key, entityData);
-                	}
+
+                if (spilledRows == null && getMemoryUsed() > maxMemory) {
+                    spill();
                 }
             }
+            flush(callback);
         }
 
         if (unitOfWorkBoundaryReached) {
-            if (deduped.size() > 0) {
-                int count = 0;
-                ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
-                for (EntityData data : deduped.values()) {
-                    if (count >= rowsPerMessage) {
-                        callback.sendEntityDataMessage(null, payload);
-                        payload = new ArrayList<EntityData>();
-                        count = 0;
+            peakMemory = Math.max(peakMemory, getMemoryUsed());
+            if (spilledRows == null) {
+                for (EntityData data : lastRows) {
+                    send(data, callback);
+                }
+            } else {
+                dedupeSpilled(callback);
+            }
+            flush(callback);
+
+            ComponentStatistics statistics = getComponentStatistics();
+            statistics.incrementNumberEntitiesSpilled(threadNumber, spilledCount);
+            statistics.updatePeakMemoryUsed(threadNumber, peakMemory);
+            if (spilledCount > 0) {
+                info("Spilled %d rows to disk after reaching the memory ceiling of %d bytes", spilledCount, maxMemory);
+            }
+            reset();
+        }
+    }
+
+    protected long getMemoryUsed() {
+        return keys.getMemoryUsed() + rowMemory;
+    }
+
+    /**
+     * A rough estimate of the bytes held by a row that is referenced by this
+     * component
+     */
+    protected long estimateSize(EntityData data) {
+        return 64 + 48 * data.size();
+    }
+
+    protected void spill() {
+        peakMemory = Math.max(peakMemory, getMemoryUsed());
+        spilledRows = new EntityDataSpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            spilledRows[i] = new EntityDataSpillFile("metl-dedupe", inputModel.getEntityDataSchema());
+        }
+        if (preserveLast) {
+            for (EntityData data : lastRows) {
+                hashKey(data);
+                spilledRows[partition(hash[0])].write(data);
+            }
+            spilledCount += lastRows.size();
+        } else {
+            spilledKeys = new KeyFile[PARTITIONS];
+            for (int i = 0; i < PARTITIONS; i++) {
+                spilledKeys[i] = new KeyFile();
+            }
+            keys.forEach((high, low, value) -> spilledKeys[partition(high)].write(high, low));
+        }
+        info("Reached the memory ceiling of %d bytes with %d distinct keys.  Spilling to disk", maxMemory, keys.size());
+        keys.clear();
+        lastRows = new ArrayList<>();
+        rowMemory = 0;
+    }
+
+    protected void dedupeSpilled(ISendMessageCallback callback) {
+        for (int i = 0; i < PARTITIONS; i++) {
+            KeyHashTable table = new KeyHashTable();
+            if (spilledKeys != null) {
+                spilledKeys[i].readInto(table);
+                spilledKeys[i].close();
+            }
+            List<EntityData> rows = new ArrayList<>();
+            Iterator<EntityData> spilled = spilledRows[i].iterator();
+            while (spilled.hasNext()) {
+                EntityData data = spilled.next();
+                hashKey(data);
+                if (preserveLast) {
+                    int index = table.get(hash[0], hash[1]);
+                    if (index < 0) {
+                        table.put(hash[0], hash[1], rows.size());
+                        rows.add(data);
+                    } else {
+                        rows.set(index, data);
                     }
-                    payload.add(data);
-                    count++;
+                } else if (table.add(hash[0], hash[1])) {
+                    send(data, callback);
+                }
+            }
+            for (EntityData data : rows) {
+                send(data, callback);
+            }
+            spilledRows[i].close();
+        }
+    }
+
+    protected int partition(long high) {
+        return (int) (high >>> 59) & (PARTITIONS - 1);
+    }
+
+    protected void hashKey(EntityData entityData) {
+        keyHasher.reset();
+        if (DEDUPE_ATTRIBUTE.equals(dedupeType)) {
+            for (String attributeId : dedupeKeyAttributeIdList) {
+                keyHasher.append(entityData.get(attributeId));
+            }
+        } else {
+            for (Map.Entry<String, Object> entry : entityData.entrySet()) {
+                keyHasher.append(entry.getKey());
+                keyHasher.append(entry.getValue());
+            }
+        }
+        keyHasher.hash(hash);
+    }
+
+    protected void send(EntityData data, ISendMessageCallback callback) {
+        getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+        if (dataToSend == null) {
+            dataToSend = new ArrayList<>(rowsPerMessage);
+        }
+        dataToSend.add(data);
+        if (dataToSend.size() >= rowsPerMessage) {
+            flush(callback);
+        }
+    }
+
+    protected void flush(ISendMessageCallback callback) {
+        if (dataToSend != null && dataToSend.size() > 0) {
+            callback.sendEntityDataMessage(null, dataToSend);
+            dataToSend = null;
+        }
+    }
+
+    protected void reset() {
+        if (spilledRows != null) {
+            for (EntityDataSpillFile file : spilledRows) {
+                file.close();
+            }
+        }
+        if (spilledKeys != null) {
+            for (KeyFile file : spilledKeys) {
+                file.close();
+            }
+        }
+        spilledRows = null;
+        spilledKeys = null;
+        spilledCount = 0;
+        peakMemory = 0;
+        rowMemory = 0;
+        keys.clear();
+        lastRows = new ArrayList<>();
+        dataToSend = null;
+    }
+
+    @Override
+    public void stop() {
+        reset();
+    }
+
+    /**
+     * A temporary file of key hashes
+     */
+    static class KeyFile {
+
+        File file;
+
+        DataOutputStream out;
+
+        void write(long high, long low) {
+            try {
+                if (out == null) {
+                    file = File.createTempFile("metl-dedupe", ".keys");
+                    file.deleteOnExit();
+                    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
                 }
+                out.writeLong(high);
+                out.writeLong(low);
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
 
-                deduped.clear();
+        void readInto(KeyHashTable table) {
+            if (file != null) {
+                try {
+                    out.close();
+                    out = null;
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+                        while (true) {
+                            long high;
+                            try {
+                                high = in.readLong();
+                            } catch (EOFException e) {
+                                break;
+                            }
+                            table.add(high, in.readLong());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IoException(e);
+                }
+            }
+        }
 
-                callback.sendEntityDataMessage(null, payload);
+        void close() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+            } catch (IOException e) {
+            }
+            if (file != null) {
+                file.delete();
+                file = null;
             }
         }
     }
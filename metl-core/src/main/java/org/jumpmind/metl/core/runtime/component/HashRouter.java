@@ -0,0 +1,134 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.HashUtils;
+
+/**
+ * Sends each row to exactly one of the steps it is linked to. The step is
+ * picked by a hash of the partition attributes of the row, so all rows with
+ * the same key take the same branch and arrive there in the order they were
+ * received. The branches are the outbound links ordered by target step id.
+ * <p>
+ * Ordering is only guaranteed when this step runs with a single thread.
+ */
+public class HashRouter extends AbstractComponentRuntime {
+
+    public static final String TYPE = "Hash Router";
+
+    public final static String ATTRIBUTE_PARTITION_ENABLED = "partition.enabled";
+
+    int rowsPerMessage = 1000;
+
+    List<String> partitionAttributeIds = new ArrayList<>();
+
+    List<String> targetStepIds = new ArrayList<>();
+
+    HashUtils.KeyHasher keyHasher = new HashUtils.KeyHasher();
+
+    long[] hash = new long[2];
+
+    @Override
+    public void start() {
+        rowsPerMessage = getComponent().getInt(ROWS_PER_MESSAGE, rowsPerMessage);
+        RelationalModel inputModel = (RelationalModel) getComponent().getInputModel();
+        if (inputModel == null) {
+            throw new MisconfiguredException("The input model is not set and it is required");
+        }
+        Component component = getComponent();
+        partitionAttributeIds.clear();
+        for (ModelEntity entity : inputModel.getModelEntities()) {
+            for (ModelAttrib attribute : entity.getModelAttributes()) {
+                ComponentAttribSetting setting = component.getSingleAttributeSetting(attribute.getId(),
+                        ATTRIBUTE_PARTITION_ENABLED);
+                if (setting != null && Boolean.parseBoolean(setting.getValue())) {
+                    partitionAttributeIds.add(attribute.getId());
+                }
+            }
+        }
+        if (partitionAttributeIds.size() == 0) {
+            throw new MisconfiguredException("At least one attribute must be selected to partition on");
+        }
+
+        targetStepIds.clear();
+        for (FlowStepLink link : getFlow().findFlowStepLinksWithSource(getFlowStepId())) {
+            targetStepIds.add(link.getTargetStepId());
+        }
+        if (targetStepIds.size() == 0) {
+            throw new MisconfiguredException("A hash router must be linked to at least one step");
+        }
+        Collections.sort(targetStepIds);
+    }
+
+    @Override
+    public boolean supportsStartupMessages() {
+        return false;
+    }
+
+    @Override
+    public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        if (inputMessage instanceof EntityDataMessage) {
+            List<ArrayList<EntityData>> outboundPayloads = new ArrayList<>(targetStepIds.size());
+            for (int i = 0; i < targetStepIds.size(); i++) {
+                outboundPayloads.add(new ArrayList<>());
+            }
+            for (EntityData entityData : ((EntityDataMessage) inputMessage).getPayload()) {
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                int partition = partition(entityData);
+                ArrayList<EntityData> outboundPayload = outboundPayloads.get(partition);
+                outboundPayload.add(entityData);
+                if (outboundPayload.size() >= rowsPerMessage) {
+                    callback.sendEntityDataMessage(null, outboundPayload, targetStepIds.get(partition));
+                    outboundPayloads.set(partition, new ArrayList<>());
+                }
+            }
+            for (int i = 0; i < targetStepIds.size(); i++) {
+                if (outboundPayloads.get(i).size() > 0) {
+                    callback.sendEntityDataMessage(null, outboundPayloads.get(i), targetStepIds.get(i));
+                }
+            }
+        }
+    }
+
+    protected int partition(EntityData entityData) {
+        keyHasher.reset();
+        for (String attributeId : partitionAttributeIds) {
+            keyHasher.append(entityData.get(attributeId));
+        }
+        keyHasher.hash(hash);
+        return (int) ((hash[0] & Long.MAX_VALUE) % targetStepIds.size());
+    }
+}
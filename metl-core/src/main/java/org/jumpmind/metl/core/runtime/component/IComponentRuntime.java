@@ -35,6 +35,12 @@ public interface IComponentRuntime {
     public void flowCompleted(boolean cancelled);
     
     public void flowCompletedWithErrors(Throwable myError);
+
+    /**
+     * Called after every step has completed without error, so it runs after
+     * all of the {@link #flowCompleted(boolean)} calls of the flow
+     */
+    public void flowSucceeded();
     
     public void stop();
 
@@ -0,0 +1,657 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataKey;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
+import org.jumpmind.metl.core.runtime.EntityDataSpillQueue;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.properties.TypedProperties;
+
+/**
+ * Joins the rows from a build source step with the rows from a probe source
+ * step on one or more key attributes. Each joined row is a copy of the probe
+ * row with the non null values of the matching build row merged in.
+ * <p>
+ * The hash algorithm holds the build rows in a hash table and streams probe
+ * rows through it once the build source has sent all of its rows. When the
+ * build side has more rows than fit in memory, both sides are partitioned by
+ * key to temporary files and the partitions are joined one at a time. The
+ * sort merge algorithm expects both sources to be sorted by key and only holds
+ * the rows of the side that has gotten ahead of the other.
+ * <p>
+ * Rows with a null key value never match, which is how a database joins them.
+ */
+public class Joiner extends AbstractComponentRuntime {
+
+    public final static String TYPE = "Joiner";
+
+    public final static String BUILD_SOURCE_STEP = "build.source.step";
+    public final static String PROBE_SOURCE_STEP = "probe.source.step";
+    public final static String BUILD_KEY_ATTRIBUTES = "build.key.attributes";
+    public final static String PROBE_KEY_ATTRIBUTES = "probe.key.attributes";
+    public final static String JOIN_TYPE = "join.type";
+    public final static String JOIN_TYPE_INNER = "INNER";
+    public final static String JOIN_TYPE_LEFT_OUTER = "LEFT OUTER";
+    public final static String JOIN_TYPE_FULL_OUTER = "FULL OUTER";
+    public final static String JOIN_ALGORITHM = "join.algorithm";
+    public final static String JOIN_ALGORITHM_HASH = "HASH";
+    public final static String JOIN_ALGORITHM_SORT_MERGE = "SORT MERGE";
+    public final static String MAX_ROWS_IN_MEMORY = "max.rows.in.memory";
+
+    final static int PARTITION_COUNT = 32;
+
+    String buildStepId;
+
+    String probeStepId;
+
+    String[] buildKeyAttributeIds;
+
+    String[] probeKeyAttributeIds;
+
+    boolean[] keyNumeric;
+
+    boolean emitUnmatchedProbeRows;
+
+    boolean emitUnmatchedBuildRows;
+
+    int maxRowsInMemory;
+
+    int rowsPerMessage;
+
+    EntityDataSchema schema;
+
+    IJoin algorithm;
+
+    ISendMessageCallback callback;
+
+    ArrayList<EntityData> payload;
+
+    @Override
+    public void start() {
+        TypedProperties properties = getTypedProperties();
+        RelationalModel inputModel = (RelationalModel) getInputModel();
+        if (inputModel == null) {
+            throw new MisconfiguredException("The input model must be specified");
+        }
+        schema = inputModel.getEntityDataSchema();
+
+        buildStepId = properties.get(BUILD_SOURCE_STEP);
+        probeStepId = properties.get(PROBE_SOURCE_STEP);
+        if (isBlank(buildStepId) || isBlank(probeStepId)) {
+            throw new MisconfiguredException("Both the build and probe source steps must be selected");
+        }
+        if (buildStepId.equals(probeStepId)) {
+            throw new MisconfiguredException("The build and probe source steps must be different steps");
+        }
+        if (getFlow().findLinkBetweenSourceAndTarget(buildStepId, getFlowStepId()) == null
+                || getFlow().findLinkBetweenSourceAndTarget(probeStepId, getFlowStepId()) == null) {
+            throw new MisconfiguredException("The build and probe source steps must both be linked to this step");
+        }
+
+        List<ModelAttrib> buildKeyAttributes = toAttributes(inputModel, properties.get(BUILD_KEY_ATTRIBUTES), BUILD_KEY_ATTRIBUTES);
+        List<ModelAttrib> probeKeyAttributes = toAttributes(inputModel, properties.get(PROBE_KEY_ATTRIBUTES), PROBE_KEY_ATTRIBUTES);
+        if (buildKeyAttributes.size() == 0 || buildKeyAttributes.size() != probeKeyAttributes.size()) {
+            throw new MisconfiguredException("The build and probe keys must have the same number of attributes and at least one");
+        }
+        buildKeyAttributeIds = new String[buildKeyAttributes.size()];
+        probeKeyAttributeIds = new String[probeKeyAttributes.size()];
+        keyNumeric = new boolean[buildKeyAttributes.size()];
+        for (int i = 0; i < buildKeyAttributeIds.length; i++) {
+            buildKeyAttributeIds[i] = buildKeyAttributes.get(i).getId();
+            probeKeyAttributeIds[i] = probeKeyAttributes.get(i).getId();
+            keyNumeric[i] = isNumeric(buildKeyAttributes.get(i)) || isNumeric(probeKeyAttributes.get(i));
+        }
+
+        String joinType = properties.get(JOIN_TYPE, JOIN_TYPE_INNER);
+        emitUnmatchedProbeRows = JOIN_TYPE_LEFT_OUTER.equals(joinType) || JOIN_TYPE_FULL_OUTER.equals(joinType);
+        emitUnmatchedBuildRows = JOIN_TYPE_FULL_OUTER.equals(joinType);
+        maxRowsInMemory = properties.getInt(MAX_ROWS_IN_MEMORY, 100000);
+        if (maxRowsInMemory <= 0) {
+            maxRowsInMemory = 1;
+        }
+        rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE, 1000);
+        if (JOIN_ALGORITHM_SORT_MERGE.equals(properties.get(JOIN_ALGORITHM, JOIN_ALGORITHM_HASH))) {
+            algorithm = new SortMergeJoin();
+        } else {
+            algorithm = new HashJoin();
+        }
+    }
+
+    protected List<ModelAttrib> toAttributes(RelationalModel model, String names, String settingName) {
+        List<ModelAttrib> attributes = new ArrayList<>();
+        if (names != null) {
+            for (String name : names.split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    int index = name.indexOf('.');
+                    ModelAttrib attribute = index > 0 ? model.getAttributeByName(name.substring(0, index), name.substring(index + 1))
+                            : null;
+                    if (attribute == null) {
+                        throw new MisconfiguredException("Could not find the attribute '%s' from the %s setting.  Use ENTITY.ATTRIBUTE",
+                                name, settingName);
+                    }
+                    attributes.add(attribute);
+                }
+            }
+        }
+        return attributes;
+    }
+
+    protected static boolean isNumeric(ModelAttrib attribute) {
+        return attribute.getDataType() != null && attribute.getDataType().isNumeric();
+    }
+
+    @Override
+    public boolean supportsStartupMessages() {
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        if (algorithm != null) {
+            algorithm.close();
+        }
+    }
+
+    @Override
+    public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        this.callback = callback;
+        String originatingStepId = inputMessage.getHeader().getOriginatingStepId();
+        boolean fromBuild = buildStepId.equals(originatingStepId);
+        boolean fromProbe = probeStepId.equals(originatingStepId);
+        if (inputMessage instanceof EntityDataMessage) {
+            if (!fromBuild && !fromProbe) {
+                throw new MisconfiguredException("Received rows from a step that is neither the build nor the probe source step");
+            }
+            ArrayList<EntityData> datas = ((EntityDataMessage) inputMessage).getPayload();
+            getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, datas.size());
+            for (EntityData data : datas) {
+                if (fromBuild) {
+                    EntityDataKey key = getKey(data, buildKeyAttributeIds);
+                    if (key != null) {
+                        algorithm.build(key, data);
+                    } else if (emitUnmatchedBuildRows) {
+                        send(data.copy());
+                    }
+                } else {
+                    EntityDataKey key = getKey(data, probeKeyAttributeIds);
+                    if (key != null) {
+                        algorithm.probe(key, data);
+                    } else if (emitUnmatchedProbeRows) {
+                        send(data.copy());
+                    }
+                }
+            }
+        } else if (inputMessage instanceof ControlMessage) {
+            if (fromBuild) {
+                algorithm.buildComplete();
+            } else if (fromProbe) {
+                algorithm.probeComplete();
+            }
+        }
+
+        if (unitOfWorkBoundaryReached) {
+            algorithm.finish();
+            algorithm.close();
+        }
+        flush();
+    }
+
+    protected EntityDataKey getKey(EntityData data, String[] attributeIds) {
+        Object[] values = new Object[attributeIds.length];
+        for (int i = 0; i < attributeIds.length; i++) {
+            values[i] = EntityDataKey.normalize(data.get(attributeIds[i]), keyNumeric[i]);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return new EntityDataKey(values);
+    }
+
+    protected EntityData join(EntityData probeData, EntityData buildData) {
+        EntityData joined = probeData.copy();
+        for (Map.Entry<String, Object> entry : buildData.entrySet()) {
+            if (entry.getValue() != null) {
+                joined.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return joined;
+    }
+
+    protected void send(EntityData data) {
+        if (payload == null) {
+            payload = new ArrayList<>(rowsPerMessage);
+        }
+        payload.add(data);
+        if (payload.size() >= rowsPerMessage) {
+            flush();
+        }
+    }
+
+    protected void flush() {
+        if (payload != null && payload.size() > 0) {
+            callback.sendEntityDataMessage(null, payload);
+        }
+        payload = null;
+    }
+
+    protected void spilled(long count) {
+        getComponentStatistics().incrementNumberEntitiesSpilled(threadNumber, count);
+    }
+
+    interface IJoin {
+
+        public void build(EntityDataKey key, EntityData data);
+
+        public void buildComplete();
+
+        public void probe(EntityDataKey key, EntityData data);
+
+        public void probeComplete();
+
+        /**
+         * Sends the remaining joined and unmatched rows for the unit of work
+         */
+        public void finish();
+
+        public void close();
+    }
+
+    static class BuildRow {
+
+        EntityData data;
+
+        boolean matched;
+
+        BuildRow(EntityData data) {
+            this.data = data;
+        }
+    }
+
+    class HashJoin implements IJoin {
+
+        Map<EntityDataKey, List<BuildRow>> table = new HashMap<>();
+
+        int rowsInMemory;
+
+        boolean built;
+
+        EntityDataSpillQueue waitingProbeRows;
+
+        EntityDataSpillFile[] buildPartitions;
+
+        EntityDataSpillFile[] probePartitions;
+
+        @Override
+        public void build(EntityDataKey key, EntityData data) {
+            if (buildPartitions != null) {
+                buildPartitions[partition(key)].write(data);
+                spilled(1);
+            } else {
+                addToTable(key, data);
+                if (rowsInMemory > maxRowsInMemory && !built) {
+                    partition();
+                }
+            }
+        }
+
+        protected void addToTable(EntityDataKey key, EntityData data) {
+            List<BuildRow> rows = table.get(key);
+            if (rows == null) {
+                rows = new ArrayList<>(1);
+                table.put(key, rows);
+            }
+            rows.add(new BuildRow(data));
+            rowsInMemory++;
+        }
+
+        /**
+         * Moves the build rows to partition files. Probe rows are partitioned
+         * the same way once the build side is complete.
+         */
+        protected void partition() {
+            info("The build side of the join has more than %d rows.  Partitioning both sides to disk", maxRowsInMemory);
+            buildPartitions = new EntityDataSpillFile[PARTITION_COUNT];
+            probePartitions = new EntityDataSpillFile[PARTITION_COUNT];
+            for (int i = 0; i < PARTITION_COUNT; i++) {
+                buildPartitions[i] = new EntityDataSpillFile("metl-join-build", schema);
+                probePartitions[i] = new EntityDataSpillFile("metl-join-probe", schema);
+            }
+            for (Map.Entry<EntityDataKey, List<BuildRow>> entry : table.entrySet()) {
+                EntityDataSpillFile partition = buildPartitions[partition(entry.getKey())];
+                for (BuildRow row : entry.getValue()) {
+                    partition.write(row.data);
+                }
+            }
+            spilled(rowsInMemory);
+            table.clear();
+            rowsInMemory = 0;
+        }
+
+        protected int partition(EntityDataKey key) {
+            /*
+             * Use the high bits so that the keys of a partition still spread
+             * over the buckets of the hash table the partition is loaded into
+             */
+            return (key.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(PARTITION_COUNT));
+        }
+
+        @Override
+        public void buildComplete() {
+            built = true;
+            if (waitingProbeRows != null) {
+                EntityDataSpillQueue waiting = waitingProbeRows;
+                waitingProbeRows = null;
+                EntityData data;
+                while ((data = waiting.poll()) != null) {
+                    probe(getKey(data, probeKeyAttributeIds), data);
+                }
+                waiting.close();
+            }
+        }
+
+        @Override
+        public void probe(EntityDataKey key, EntityData data) {
+            if (!built) {
+                if (waitingProbeRows == null) {
+                    waitingProbeRows = new EntityDataSpillQueue("metl-join-probe", schema, maxRowsInMemory);
+                }
+                waitingProbeRows.add(data);
+            } else if (probePartitions != null) {
+                probePartitions[partition(key)].write(data);
+                spilled(1);
+            } else {
+                probeTable(key, data);
+            }
+        }
+
+        protected void probeTable(EntityDataKey key, EntityData data) {
+            List<BuildRow> matches = table.get(key);
+            if (matches != null) {
+                for (BuildRow match : matches) {
+                    match.matched = true;
+                    send(join(data, match.data));
+                }
+            } else if (emitUnmatchedProbeRows) {
+                send(data.copy());
+            }
+        }
+
+        @Override
+        public void probeComplete() {
+        }
+
+        @Override
+        public void finish() {
+            if (!built) {
+                buildComplete();
+            }
+            if (buildPartitions != null) {
+                for (int i = 0; i < PARTITION_COUNT; i++) {
+                    Iterator<EntityData> buildRows = buildPartitions[i].iterator();
+                    while (buildRows.hasNext()) {
+                        EntityData data = buildRows.next();
+                        addToTable(getKey(data, buildKeyAttributeIds), data);
+                    }
+                    buildPartitions[i].close();
+                    Iterator<EntityData> probeRows = probePartitions[i].iterator();
+                    while (probeRows.hasNext()) {
+                        EntityData data = probeRows.next();
+                        probeTable(getKey(data, probeKeyAttributeIds), data);
+                    }
+                    probePartitions[i].close();
+                    sendUnmatchedBuildRows();
+                }
+            } else {
+                sendUnmatchedBuildRows();
+            }
+        }
+
+        protected void sendUnmatchedBuildRows() {
+            if (emitUnmatchedBuildRows) {
+                for (List<BuildRow> rows : table.values()) {
+                    for (BuildRow row : rows) {
+                        if (!row.matched) {
+                            send(row.data.copy());
+                        }
+                    }
+                }
+            }
+            table.clear();
+            rowsInMemory = 0;
+        }
+
+        @Override
+        public void close() {
+            table.clear();
+            rowsInMemory = 0;
+            built = false;
+            if (waitingProbeRows != null) {
+                waitingProbeRows.close();
+                waitingProbeRows = null;
+            }
+            if (buildPartitions != null) {
+                for (int i = 0; i < PARTITION_COUNT; i++) {
+                    buildPartitions[i].close();
+                    probePartitions[i].close();
+                }
+                buildPartitions = null;
+                probePartitions = null;
+            }
+        }
+    }
+
+    class SortMergeJoin implements IJoin {
+
+        RowQueue buildRows = new RowQueue(buildKeyAttributeIds);
+
+        RowQueue probeRows = new RowQueue(probeKeyAttributeIds);
+
+        EntityDataKey lastBuildKey;
+
+        EntityDataKey lastProbeKey;
+
+        boolean buildComplete;
+
+        boolean probeComplete;
+
+        /*
+         * The build rows that share the key of the build row at the head of
+         * the queue. The group is complete once a build row with a greater
+         * key has arrived or the build side is complete.
+         */
+        List<EntityData> group;
+
+        EntityDataKey groupKey;
+
+        boolean groupComplete;
+
+        boolean groupMatched;
+
+        @Override
+        public void build(EntityDataKey key, EntityData data) {
+            lastBuildKey = checkSorted(key, lastBuildKey, "build");
+            buildRows.add(data);
+            merge();
+        }
+
+        @Override
+        public void buildComplete() {
+            buildComplete = true;
+            merge();
+        }
+
+        @Override
+        public void probe(EntityDataKey key, EntityData data) {
+            lastProbeKey = checkSorted(key, lastProbeKey, "probe");
+            probeRows.add(data);
+            merge();
+        }
+
+        @Override
+        public void probeComplete() {
+            probeComplete = true;
+            merge();
+        }
+
+        protected EntityDataKey checkSorted(EntityDataKey key, EntityDataKey lastKey, String side) {
+            if (lastKey != null && key.compareTo(lastKey) < 0) {
+                throw new MisconfiguredException("The rows from the %s source step are not sorted by key.  %s came after %s", side, key,
+                        lastKey);
+            }
+            return key;
+        }
+
+        protected void merge() {
+            while (true) {
+                if (group == null && buildRows.peek() != null) {
+                    group = new ArrayList<>();
+                    groupKey = buildRows.peekKey();
+                    groupComplete = false;
+                    groupMatched = false;
+                }
+                if (group != null && !groupComplete) {
+                    while (buildRows.peek() != null && buildRows.peekKey().compareTo(groupKey) == 0) {
+                        group.add(buildRows.poll());
+                    }
+                    groupComplete = buildRows.peek() != null || buildComplete;
+                }
+
+                EntityData probeData = probeRows.peek();
+                if (probeData == null) {
+                    if (probeComplete && group != null && groupComplete) {
+                        closeGroup();
+                        continue;
+                    }
+                    break;
+                }
+
+                if (group == null) {
+                    if (buildComplete) {
+                        unmatchedProbe(probeRows.poll());
+                        continue;
+                    }
+                    break;
+                }
+
+                int compare = probeRows.peekKey().compareTo(groupKey);
+                if (compare < 0) {
+                    unmatchedProbe(probeRows.poll());
+                } else if (!groupComplete) {
+                    break;
+                } else if (compare == 0) {
+                    probeRows.poll();
+                    for (EntityData buildData : group) {
+                        send(join(probeData, buildData));
+                    }
+                    groupMatched = true;
+                } else {
+                    closeGroup();
+                }
+            }
+        }
+
+        protected void unmatchedProbe(EntityData data) {
+            if (emitUnmatchedProbeRows) {
+                send(data.copy());
+            }
+        }
+
+        protected void closeGroup() {
+            if (emitUnmatchedBuildRows && !groupMatched) {
+                for (EntityData data : group) {
+                    send(data.copy());
+                }
+            }
+            group = null;
+            groupKey = null;
+        }
+
+        @Override
+        public void finish() {
+            buildComplete = true;
+            probeComplete = true;
+            merge();
+            spilled(buildRows.getSpilledCount() + probeRows.getSpilledCount());
+        }
+
+        @Override
+        public void close() {
+            buildRows.close();
+            probeRows.close();
+            lastBuildKey = null;
+            lastProbeKey = null;
+            buildComplete = false;
+            probeComplete = false;
+            group = null;
+            groupKey = null;
+        }
+    }
+
+    /**
+     * A spillable queue of rows that remembers the key of the row at its head
+     */
+    class RowQueue extends EntityDataSpillQueue {
+
+        String[] keyAttributeIds;
+
+        EntityDataKey headKey;
+
+        RowQueue(String[] keyAttributeIds) {
+            super("metl-join", schema, maxRowsInMemory);
+            this.keyAttributeIds = keyAttributeIds;
+        }
+
+        EntityDataKey peekKey() {
+            if (headKey == null) {
+                EntityData data = peek();
+                if (data != null) {
+                    headKey = getKey(data, keyAttributeIds);
+                }
+            }
+            return headKey;
+        }
+
+        @Override
+        public EntityData poll() {
+            headKey = null;
+            return super.poll();
+        }
+    }
+
+}
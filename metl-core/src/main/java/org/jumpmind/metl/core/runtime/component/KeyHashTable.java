@@ -0,0 +1,174 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+/**
+ * An open addressing hash table of 128 bit key hashes to int values. The keys
+ * are stored in primitive arrays so that each entry costs 20 bytes plus the
+ * unused capacity instead of several objects. An empty slot is marked by a
+ * zero key, so the zero key itself is held outside of the arrays.
+ */
+public class KeyHashTable {
+
+    static final int MIN_CAPACITY = 16;
+
+    long[] highs;
+
+    long[] lows;
+
+    int[] values;
+
+    int size;
+
+    int mask;
+
+    boolean hasZeroKey;
+
+    int zeroKeyValue;
+
+    public KeyHashTable() {
+        this(MIN_CAPACITY);
+    }
+
+    public KeyHashTable(int initialCapacity) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    protected void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the value for the key or -1 if the key is not in the table
+     */
+    public int get(long high, long low) {
+        if (high == 0 && low == 0) {
+            return hasZeroKey ? zeroKeyValue : -1;
+        }
+        int index = (int) low & mask;
+        while (highs[index] != 0 || lows[index] != 0) {
+            if (highs[index] == high && lows[index] == low) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the previous value for the key or -1 if the key was added
+     */
+    public int put(long high, long low, int value) {
+        if (high == 0 && low == 0) {
+            int previous = hasZeroKey ? zeroKeyValue : -1;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroKeyValue = value;
+            return previous;
+        }
+        int index = (int) low & mask;
+        while (highs[index] != 0 || lows[index] != 0) {
+            if (highs[index] == high && lows[index] == low) {
+                int previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        highs[index] = high;
+        lows[index] = low;
+        values[index] = value;
+        if (++size > (mask + 1) * 3 / 4) {
+            grow();
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the key was not already in the table
+     */
+    public boolean add(long high, long low) {
+        return put(high, low, 0) == -1;
+    }
+
+    protected void grow() {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        int[] oldValues = values;
+        allocate(highs.length << 1);
+        for (int i = 0; i < oldHighs.length; i++) {
+            if (oldHighs[i] != 0 || oldLows[i] != 0) {
+                int index = (int) oldLows[i] & mask;
+                while (highs[index] != 0 || lows[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                highs[index] = oldHighs[i];
+                lows[index] = oldLows[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Calls the visitor with each key in the table
+     */
+    public void forEach(IKeyVisitor visitor) {
+        if (hasZeroKey) {
+            visitor.visit(0, 0, zeroKeyValue);
+        }
+        for (int i = 0; i < highs.length; i++) {
+            if (highs[i] != 0 || lows[i] != 0) {
+                visitor.visit(highs[i], lows[i], values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes used by the table's arrays
+     */
+    public long getMemoryUsed() {
+        return (long) highs.length * 20;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    public interface IKeyVisitor {
+        public void visit(long high, long low, int value);
+    }
+
+}
@@ -21,6 +21,7 @@
 package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
+import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -28,64 +29,174 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import javax.sql.DataSource;
+
 import org.apache.commons.lang.ObjectUtils;
 import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.RelationalModel;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.cache.HeapLookupCacheStore;
+import org.jumpmind.metl.core.runtime.cache.ILookupCache;
+import org.jumpmind.metl.core.runtime.cache.ILookupCacheStore;
+import org.jumpmind.metl.core.runtime.cache.LookupCache;
+import org.jumpmind.metl.core.runtime.cache.LookupCacheManager;
+import org.jumpmind.metl.core.runtime.cache.MappedLookupCacheStore;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
 import org.jumpmind.properties.TypedProperties;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 public class Lookup extends AbstractComponentRuntime {
 
     public final static String TYPE = "Lookup";
 
+    public final static String LOOKUP_MODE = "lookup.mode";
+    public final static String LOOKUP_MODE_SOURCE_STEP = "SOURCE STEP";
+    public final static String LOOKUP_MODE_RDBMS_QUERY = "RDBMS QUERY";
     public final static String SOURCE_STEP = "lookup.data.source.step";
     public final static String LOOKUP_KEY = "lookup.key.attribute";
     public final static String LOOKUP_VALUE = "lookup.value.attribute";
+    public final static String LOOKUP_DATASOURCE = "lookup.datasource";
+    public final static String LOOKUP_SQL = "lookup.sql";
     public final static String REPLACEMENT_VALUE_ATTRIBUTE = "replacement.value.attribute";
     public final static String REPLACEMENT_KEY_ATTRIBUTE = "replacement.key.attribute";
+    public final static String CACHE_NAME = "lookup.cache.name";
+    public final static String CACHE_MAX_ENTRIES = "lookup.cache.max.entries";
+    public final static String CACHE_TIME_TO_LIVE_SECONDS = "lookup.cache.ttl.seconds";
+    public final static String CACHE_STORE = "lookup.cache.store";
+    public final static String CACHE_STORE_HEAP = "HEAP";
+    public final static String CACHE_STORE_MEMORY_MAPPED = "MEMORY MAPPED";
+
+    /*
+     * Rows that arrive before the lookup data has been loaded are held in
+     * memory up to this count and then spill to disk
+     */
+    final static int MAX_QUEUED_ROWS_IN_MEMORY = 10000;
 
     boolean lookupInitialized = false;
 
+    boolean queryMode = false;
+
     String sourceStepId;
     String keyAttributeId;
     String valueAttributeId;
     String replacementKeyAttributeId;
     String replacementValueAttributeId;
+    String sql;
+
+    NamedParameterJdbcTemplate jdbcTemplate;
+
+    /*
+     * A shared cache that is being loaded is only published for other flows to
+     * use once the lookup data source has sent all of its data
+     */
+    boolean publishWhenLoaded = false;
+
+    boolean sharedCache = false;
 
-    Map<Object, Object> lookup = new HashMap<Object, Object>();
+    ILookupCache lookup;
 
-    List<Message> queuedWhileWaitingForLookup = new ArrayList<Message>();
+    ArrayList<EntityData> queuedWhileWaitingForLookup = new ArrayList<EntityData>();
+
+    EntityDataSpillFile spilledWhileWaitingForLookup;
 
     @Override
     public void start() {
         lookupInitialized = false;
+        publishWhenLoaded = false;
+        sharedCache = false;
         TypedProperties properties = getTypedProperties();
+        queryMode = LOOKUP_MODE_RDBMS_QUERY.equals(properties.get(LOOKUP_MODE, LOOKUP_MODE_SOURCE_STEP));
         sourceStepId = properties.get(SOURCE_STEP);
         keyAttributeId = properties.get(LOOKUP_KEY);
         valueAttributeId = properties.get(LOOKUP_VALUE);
         replacementKeyAttributeId = properties.get(REPLACEMENT_KEY_ATTRIBUTE);
         replacementValueAttributeId = properties.get(REPLACEMENT_VALUE_ATTRIBUTE);
+        sql = properties.get(LOOKUP_SQL);
         
         if (getInputModel() == null) {
             throw new MisconfiguredException("The input model must be specified");
         }
         
-        if (isBlank(replacementKeyAttributeId) || 
-                isBlank(replacementValueAttributeId) || isBlank(keyAttributeId) || isBlank(valueAttributeId)) {
-            throw new MisconfiguredException("The lookup and replacement keys and values need to be configured");
+        if (isBlank(replacementKeyAttributeId) || isBlank(replacementValueAttributeId)) {
+            throw new MisconfiguredException("The replacement keys and values need to be configured");
+        }
+
+        if (queryMode) {
+            String dataSourceId = properties.get(LOOKUP_DATASOURCE);
+            IResourceRuntime resource = isNotBlank(dataSourceId) ? context.getDeployedResources().get(dataSourceId) : null;
+            if (resource == null) {
+                throw new MisconfiguredException("A lookup data source resource must be selected in %s mode", LOOKUP_MODE_RDBMS_QUERY);
+            }
+            if (isBlank(sql)) {
+                throw new MisconfiguredException("The lookup sql must be set in %s mode", LOOKUP_MODE_RDBMS_QUERY);
+            }
+            jdbcTemplate = new NamedParameterJdbcTemplate((DataSource) resource.reference());
+        } else {
+            if (isBlank(keyAttributeId) || isBlank(valueAttributeId)) {
+                throw new MisconfiguredException("The lookup keys and values need to be configured");
+            }
+
+            FlowStepLink link = getFlow()
+                    .findLinkBetweenSourceAndTarget(sourceStepId, this.getFlowStepId());
+            if (link == null) {
+                throw new MisconfiguredException("The lookup data source is missing"); 
+            }
         }
 
-        FlowStepLink link = getFlow()
-                .findLinkBetweenSourceAndTarget(sourceStepId, this.getFlowStepId());
-        if (link == null) {
-            throw new MisconfiguredException("The lookup data source is missing"); 
+        lookup = createOrFindCache(properties);
+    }
+
+    protected ILookupCache createOrFindCache(TypedProperties properties) {
+        String cacheName = properties.get(CACHE_NAME);
+        long timeToLiveInMs = properties.getLong(CACHE_TIME_TO_LIVE_SECONDS, 0) * 1000;
+        int maxEntries = properties.getInt(CACHE_MAX_ENTRIES, 0);
+        String storeType = properties.get(CACHE_STORE, CACHE_STORE_HEAP);
+        LookupCacheManager cacheManager = context.getLookupCacheManager();
+        boolean shared = isNotBlank(cacheName) && cacheManager != null;
+        if (queryMode) {
+            lookupInitialized = true;
+            if (shared) {
+                sharedCache = true;
+                return cacheManager.getOrCreate(cacheName, () -> createCache(cacheName, maxEntries, timeToLiveInMs, storeType));
+            } else {
+                return createCache(cacheName, maxEntries, timeToLiveInMs, storeType);
+            }
+        } else {
+            /*
+             * The whole table is streamed in from the source step so entries
+             * can't be evicted or expire one at a time.  The time to live
+             * applies to the table as a whole.
+             *
+             * When an already loaded cache is reused, the source step still
+             * runs because the flow starts it independently of this step.
+             * Its rows are ignored.
+             */
+            if (shared) {
+                ILookupCache cache = cacheManager.getLoaded(cacheName, timeToLiveInMs);
+                if (cache != null) {
+                    info("Using the lookup cache '%s' with %d entries that was already loaded.  Rows from the lookup data source will be ignored",
+                            cacheName, cache.size());
+                    lookupInitialized = true;
+                    sharedCache = true;
+                    return cache;
+                }
+                publishWhenLoaded = true;
+            }
+            return createCache(cacheName, 0, 0, storeType);
         }
     }
 
+    protected ILookupCache createCache(String name, int maxEntries, long timeToLiveInMs, String storeType) {
+        ILookupCacheStore store = CACHE_STORE_MEMORY_MAPPED.equals(storeType) ? new MappedLookupCacheStore() : new HeapLookupCacheStore();
+        return new LookupCache(name, maxEntries, timeToLiveInMs, store);
+    }
+
     @Override
     public boolean supportsStartupMessages() {
         return false;
@@ -98,52 +209,111 @@ public class Lookup extends AbstractComponentRuntime {
         }
     }
 
+    @Override
+    public void stop() {
+        if (spilledWhileWaitingForLookup != null) {
+            spilledWhileWaitingForLookup.close();
+            spilledWhileWaitingForLookup = null;
+        }
+        queuedWhileWaitingForLookup.clear();
+        if (lookup != null) {
+            if (sharedCache) {
+                context.getLookupCacheManager().release(lookup);
+            } else {
+                lookup.close();
+            }
+        }
+        lookup = null;
+    }
+
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        if (sourceStepId.equals(inputMessage.getHeader().getOriginatingStepId())) {
-            if (inputMessage instanceof EntityDataMessage) {
-                List<EntityData> datas = ((EntityDataMessage)inputMessage).getPayload();
-                for (EntityData entityData : datas) {
-                    lookup.put(ObjectUtils.toString(entityData.get(keyAttributeId)), entityData.get(valueAttributeId));
+        if (!queryMode && sourceStepId.equals(inputMessage.getHeader().getOriginatingStepId())) {
+            if (!lookupInitialized) {
+                if (inputMessage instanceof EntityDataMessage) {
+                    List<EntityData> datas = ((EntityDataMessage)inputMessage).getPayload();
+                    for (EntityData entityData : datas) {
+                        lookup.put(ObjectUtils.toString(entityData.get(keyAttributeId)), entityData.get(valueAttributeId));
+                    }
                 }
-            }
-            lookupInitialized = inputMessage instanceof ControlMessage;
-
-            if (lookupInitialized) {
-                Iterator<Message> messages = queuedWhileWaitingForLookup.iterator();
-                while (messages.hasNext()) {
-                    Message message = messages.next();
-                    if (message instanceof EntityDataMessage) {
-                        enhanceAndSend((EntityDataMessage)message, callback, unitOfWorkBoundaryReached);
+                lookupInitialized = inputMessage instanceof ControlMessage;
+
+                if (lookupInitialized) {
+                    lookup.markLoaded();
+                    if (publishWhenLoaded) {
+                        context.getLookupCacheManager().publish(lookup);
+                        publishWhenLoaded = false;
+                        sharedCache = true;
                     }
+                    sendQueued(callback);
                 }
             }
         } else if (!lookupInitialized) {
-            queuedWhileWaitingForLookup.add(inputMessage);
-        } else if (lookupInitialized && !(inputMessage instanceof ControlMessage)) {
             if (inputMessage instanceof EntityDataMessage) {
-                enhanceAndSend((EntityDataMessage)inputMessage, callback, unitOfWorkBoundaryReached);
+                queue(((EntityDataMessage) inputMessage).getPayload());
+            }
+        } else if (inputMessage instanceof EntityDataMessage) {
+            enhanceAndSend(((EntityDataMessage)inputMessage).getPayload(), callback);
+        }
+    }
+
+    protected void queue(List<EntityData> datas) {
+        for (EntityData data : datas) {
+            if (spilledWhileWaitingForLookup == null && queuedWhileWaitingForLookup.size() < MAX_QUEUED_ROWS_IN_MEMORY) {
+                queuedWhileWaitingForLookup.add(data);
+            } else {
+                if (spilledWhileWaitingForLookup == null) {
+                    spilledWhileWaitingForLookup = new EntityDataSpillFile("metl-lookup",
+                            ((RelationalModel) getInputModel()).getEntityDataSchema());
+                }
+                spilledWhileWaitingForLookup.write(data);
             }
         }
     }
 
-    protected void enhanceAndSend(EntityDataMessage message, ISendMessageCallback callback, boolean unitOfWorkLastMessage) {
-        List<EntityData> datas = message.getPayload();
+    protected void sendQueued(ISendMessageCallback callback) {
+        if (queuedWhileWaitingForLookup.size() > 0) {
+            enhanceAndSend(queuedWhileWaitingForLookup, callback);
+            queuedWhileWaitingForLookup = new ArrayList<EntityData>();
+        }
+        if (spilledWhileWaitingForLookup != null) {
+            int rowsPerMessage = MAX_QUEUED_ROWS_IN_MEMORY;
+            List<EntityData> datas = new ArrayList<>(rowsPerMessage);
+            Iterator<EntityData> spilled = spilledWhileWaitingForLookup.iterator();
+            while (spilled.hasNext()) {
+                datas.add(spilled.next());
+                if (datas.size() >= rowsPerMessage || !spilled.hasNext()) {
+                    enhanceAndSend(datas, callback);
+                    datas = new ArrayList<>(rowsPerMessage);
+                }
+            }
+            spilledWhileWaitingForLookup.close();
+            spilledWhileWaitingForLookup = null;
+        }
+    }
+
+    protected void enhanceAndSend(List<EntityData> datas, ISendMessageCallback callback) {
         if (datas != null) {
-            debug("Using lookup table: {}", lookup);
-            ArrayList<EntityData> payload = new ArrayList<EntityData>();
+            ArrayList<EntityData> payload = new ArrayList<EntityData>(datas.size());
             for (int j = 0; j < datas.size(); j++) {
                 getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
                 EntityData oldData = datas.get(j);
-                EntityData newData = new EntityData();   
-                newData.setChangeType(oldData.getChangeType());
-                newData.putAll(oldData);
+                EntityData newData = oldData.copy();
+                Object key = oldData.get(replacementKeyAttributeId);
                 newData.put(replacementValueAttributeId, 
-                        lookup.get(ObjectUtils.toString(oldData.get(replacementKeyAttributeId))));
+                        lookup.get(ObjectUtils.toString(key), queryMode ? k -> query(key) : null));
                 payload.add(newData);
             }
             callback.sendEntityDataMessage(null, payload);
         }   
     }
 
+    protected Object query(Object key) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("KEY", key);
+        params.put("key", key);
+        List<Object> values = jdbcTemplate.query(sql, params, (rs, rowNum) -> rs.getObject(1));
+        return values.size() > 0 ? values.get(0) : null;
+    }
+
 }
@@ -51,9 +51,9 @@ public class AsyncRecorder implements Runnable {
 
     protected IExecutionService executionService;
 
-    protected boolean running = false;
+    protected volatile boolean running = false;
 
-    protected boolean stopping = false;
+    protected volatile boolean stopping = false;
 
     protected Map<String, CsvWriter> logWriters = new HashMap<>();
 
@@ -79,7 +79,7 @@ public class AsyncRecorder implements Runnable {
             List<AbstractObject> toProcess = new ArrayList<>();
             synchronized (inQueue) {
                 inQueue.drainTo(toProcess);
-                if (toProcess.isEmpty()) {
+                if (toProcess.isEmpty() && !stopping) {
                     inQueue.wait();
                 }
             }
@@ -148,6 +148,9 @@ public class AsyncRecorder implements Runnable {
 
     public void shutdown() {
         this.stopping = true;
+        synchronized (inQueue) {
+            inQueue.notifyAll();
+        }
 
         while (this.running) {
             AppUtils.sleep(10);
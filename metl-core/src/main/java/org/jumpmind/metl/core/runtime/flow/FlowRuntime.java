@@ -56,7 +56,9 @@ import org.jumpmind.metl.core.persist.IOperationsService;
 import org.jumpmind.metl.core.plugin.IDefinitionFactory;
 import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
 import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerRecorder;
 import org.jumpmind.metl.core.runtime.IExecutionTracker;
+import org.jumpmind.metl.core.runtime.cache.LookupCacheManager;
 import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
 import org.jumpmind.metl.core.runtime.component.ComponentContext;
 import org.jumpmind.metl.core.runtime.component.ComponentStatistics;
@@ -116,6 +118,16 @@ public class FlowRuntime {
     
     Flow manipulatedFlow;
 
+    StepScheduler stepScheduler;
+
+    volatile boolean started = false;
+
+    /*
+     * Notified each time a step finishes so waiting for the flow to complete
+     * doesn't have to poll
+     */
+    final Object stepFinishedMonitor = new Object();
+
     public FlowRuntime(String executionId, String userId, AgentProjectVersionFlowDeployment deployment, Agent agent,
             IComponentRuntimeFactory componentRuntimeFactory,
             IDefinitionFactory componentDefinitionFactory,            
@@ -136,6 +148,19 @@ public class FlowRuntime {
             IConfigurationService configurationService, IExecutionService executionService,
             Map<String, IResourceRuntime> deployedResources, List<Notification> notifications,
             Map<String, String> globalSettings, Map<String, String> runtimeParameters) {
+        this(executionId, userId, deployment, agent, componentRuntimeFactory, definitionFactory,
+                threadService, operationsService, configurationService, executionService,
+                deployedResources, notifications, globalSettings, runtimeParameters, null);
+    }
+
+    public FlowRuntime(String executionId, String userId, AgentProjectVersionFlowDeployment deployment, Agent agent,
+            IComponentRuntimeFactory componentRuntimeFactory,
+            IDefinitionFactory definitionFactory,
+            ExecutorService threadService, IOperationsService operationsService,
+            IConfigurationService configurationService, IExecutionService executionService,
+            Map<String, IResourceRuntime> deployedResources, List<Notification> notifications,
+            Map<String, String> globalSettings, Map<String, String> runtimeParameters,
+            LookupCacheManager lookupCacheManager) {
         
         if (agent.isAutoRefresh() && configurationService != null && operationsService != null) {
             deployment.setFlow(configurationService.findFlow(deployment.getFlow().getId()));
@@ -174,6 +199,8 @@ public class FlowRuntime {
                 ComponentContext context = new ComponentContext(deployment.getAgentDeployment(), flowStep,
                         manipulatedFlow, executionTracker, deployedResources, flowParameters,
                         globalSettings, flowVariables);
+                context.setLookupCacheManager(lookupCacheManager);
+                context.setExecutionService(executionService);
                 StepRuntime stepRuntime = new StepRuntime(componentRuntimeFactory,
                         definitionFactory, context, this);
                 stepRuntimes.put(flowStep.getId(), stepRuntime);
@@ -211,6 +238,55 @@ public class FlowRuntime {
         manipulatedFlow.calculateApproximateOrder();        
     }
 
+    /**
+     * Runs the steps on a shared scheduler instead of giving each step its own
+     * thread. Must be set before the flow is started.
+     */
+    public void setStepScheduler(StepScheduler stepScheduler) {
+        this.stepScheduler = stepScheduler;
+    }
+
+    public StepScheduler getStepScheduler() {
+        return stepScheduler;
+    }
+
+    /**
+     * Applies the parameters of a request to a flow that was built ahead of
+     * time by a {@link FlowRuntimePool}. Must be called before the flow is
+     * started.
+     */
+    public void prepare(String userId, Map<String, String> runtimeParameters) {
+        Map<String, String> params = new HashMap<String, String>();
+        Date date = new Date();
+        params.put("_date", DateFormatUtils.format(date, DATE_FORMAT));
+        params.put("_time", DateFormatUtils.format(date, TIME_FORMAT));
+        params.put("_startDate", DateFormatUtils.format(date, DATE_FORMAT));
+        params.put("_startTime", DateFormatUtils.format(date, TIME_FORMAT));
+        if (runtimeParameters != null) {
+            params.putAll(runtimeParameters);
+        }
+        flowParameters.putAll(params);
+        for (StepRuntime stepRuntime : stepRuntimes.values()) {
+            stepRuntime.getComponentContext().getFlowParameters().putAll(params);
+        }
+        if (executionTracker instanceof ExecutionTrackerRecorder) {
+            ((ExecutionTrackerRecorder) executionTracker).setUserId(userId);
+        }
+    }
+
+    /**
+     * Releases the resources held by a flow that was built but never started
+     */
+    public void discard() {
+        if (!started && executionTracker instanceof ExecutionTrackerRecorder) {
+            ((ExecutionTrackerRecorder) executionTracker).shutdown();
+        }
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
     public AgentProjectVersionFlowDeployment getAgentProjectVersionFlowDeployment() {
         return agentProjectVersionFlowDeployment;
     }
@@ -277,6 +353,8 @@ public class FlowRuntime {
 
     public void start() throws InterruptedException {
 
+        started = true;
+
         executionTracker.beforeFlow(executionId, flowParameters);
 
         sendNotifications(Notification.EventType.FLOW_START);
@@ -296,10 +374,17 @@ public class FlowRuntime {
             }
         }
 
-        /* each step is started as a thread */
+        /*
+         * each step is started as a thread unless the agent schedules steps on
+         * a shared pool
+         */
         for (StepRuntime stepRuntime : stepRuntimes.values()) {
             stepRuntime.startRunning();
-            threadService.execute(stepRuntime);
+            if (stepScheduler != null) {
+                stepScheduler.schedule(stepRuntime);
+            } else {
+                threadService.execute(stepRuntime);
+            }
         }
 
         ControlMessage startMessage = new ControlMessage();
@@ -386,8 +471,19 @@ public class FlowRuntime {
      * Waiting until all steps have exited
      */
     public void waitForFlowCompletion() {
-        while (isRunning()) {
-            AppUtils.sleep(5);
+        synchronized (stepFinishedMonitor) {
+            while (isRunning()) {
+                try {
+                    stepFinishedMonitor.wait(500);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+
+    protected void stepFinished(StepRuntime stepRuntime) {
+        synchronized (stepFinishedMonitor) {
+            stepFinishedMonitor.notifyAll();
         }
     }
 
@@ -403,6 +499,17 @@ public class FlowRuntime {
             }
         }
 
+        /*
+         * Steps are completed in no particular order, so work that must only
+         * happen once the whole flow has succeeded waits until every step has
+         * completed without error
+         */
+        if (allErrors.size() == 0 && getAllErrors().size() == 0) {
+            for (StepRuntime stepRuntime : allSteps) {
+                stepRuntime.flowSucceeded();
+            }
+        }
+
         executionTracker.afterFlow();
 
         allErrors = getAllErrors();
@@ -0,0 +1,162 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jumpmind.metl.core.model.AgentDeploy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a number of flow runtimes for a deployment built ahead of time so a
+ * request only has to apply its parameters and run the flow. A flow runtime
+ * runs once, so every instance that is handed out is replaced in the
+ * background by a freshly built one.
+ */
+public class FlowRuntimePool {
+
+    final Logger log = LoggerFactory.getLogger(getClass());
+
+    AgentDeploy deployment;
+
+    int size;
+
+    Callable<FlowRuntime> flowRuntimeFactory;
+
+    ExecutorService buildThreads;
+
+    BlockingQueue<FlowRuntime> idle;
+
+    AtomicInteger building = new AtomicInteger();
+
+    AtomicLong hitCount = new AtomicLong();
+
+    AtomicLong missCount = new AtomicLong();
+
+    volatile boolean closed = false;
+
+    public FlowRuntimePool(AgentDeploy deployment, int size, Callable<FlowRuntime> flowRuntimeFactory, ExecutorService buildThreads) {
+        this.deployment = deployment;
+        this.size = size;
+        this.flowRuntimeFactory = flowRuntimeFactory;
+        this.buildThreads = buildThreads;
+        this.idle = new ArrayBlockingQueue<FlowRuntime>(size);
+    }
+
+    /**
+     * Builds flow runtimes in the background until the pool is full
+     */
+    public void fill() {
+        while (!closed && idle.size() + building.get() < size) {
+            building.incrementAndGet();
+            try {
+                buildThreads.execute(() -> build());
+            } catch (RejectedExecutionException e) {
+                building.decrementAndGet();
+                break;
+            }
+        }
+    }
+
+    protected void build() {
+        try {
+            FlowRuntime flowRuntime = flowRuntimeFactory.call();
+            if (closed || !idle.offer(flowRuntime)) {
+                flowRuntime.discard();
+            }
+        } catch (Exception e) {
+            log.warn("Failed to build a flow runtime ahead of time for '{}'", deployment.getName(), e);
+        } finally {
+            building.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hands out a flow runtime that is ready to be started with the
+     * parameters of the request applied. If the pool is empty the flow is
+     * built on the calling thread.
+     */
+    public FlowRuntime borrow(String userId, Map<String, String> runtimeParameters) throws Exception {
+        FlowRuntime flowRuntime = idle.poll();
+        fill();
+        if (flowRuntime == null) {
+            missCount.incrementAndGet();
+            flowRuntime = flowRuntimeFactory.call();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        flowRuntime.prepare(userId, runtimeParameters);
+        return flowRuntime;
+    }
+
+    /**
+     * Returns a flow runtime after a request is done with it. Parameters of
+     * the request have been applied to it, so one that never ran is discarded
+     * rather than handed to another request.
+     */
+    public void release(FlowRuntime flowRuntime) {
+        if (flowRuntime != null) {
+            flowRuntime.discard();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        FlowRuntime flowRuntime = null;
+        while ((flowRuntime = idle.poll()) != null) {
+            flowRuntime.discard();
+        }
+    }
+
+    public AgentDeploy getDeployment() {
+        return deployment;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[deployment=%s,size=%d,idle=%d,hits=%d,misses=%d]", getClass().getSimpleName(), deployment.getName(),
+                size, idle.size(), hitCount.get(), missCount.get());
+    }
+}
@@ -36,6 +36,8 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -64,7 +66,6 @@ import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.util.LogUtils;
 import org.jumpmind.metl.core.util.ThreadUtils;
-import org.jumpmind.util.AppUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,6 +79,19 @@ public class StepRuntime implements Runnable {
 
     public static final String UNIT_OF_WORK_FLOW = "Flow";
 
+    /*
+     * The most messages a step processes in one turn when it is run by a
+     * StepScheduler before it gives the thread to another step
+     */
+    static final int MAX_MESSAGES_PER_TURN = 100;
+
+    /*
+     * A step that is waiting for a message is woken up when one is queued.
+     * This only bounds the wait in case the step stops running while it is
+     * parked.
+     */
+    static final long MAX_WAIT_FOR_MESSAGE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
     protected BlockingQueue<Message> inQueue;
 
     protected Executor componentRuntimeExecutor;
@@ -126,6 +140,25 @@ public class StepRuntime implements Runnable {
     
     int threadCount;
 
+    /*
+     * Indexed by thread number. Each worker thread sends through its own
+     * callback, which carries the thread number for the statistics and logging.
+     */
+    SendMessageCallback[] sendMessageCallbacks;
+
+    /*
+     * Set when the step is run by a shared scheduler instead of on its own
+     * thread
+     */
+    StepScheduler scheduler;
+
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /*
+     * The thread that is parked waiting for a message to be queued
+     */
+    volatile Thread waitingThread;
+
     public StepRuntime(IComponentRuntimeFactory componentFactory, IDefinitionFactory componentDefinitionFactory, ComponentContext componentContext, FlowRuntime flowRuntime) {
         this.flowRuntime = flowRuntime;
         this.componentContext = componentContext;
@@ -138,8 +171,10 @@ public class StepRuntime implements Runnable {
         this.componentDefintion = componentDefintionFactory.getComponentDefinition(componentContext.getFlowStep().getComponent().getProjectVersionId(), getComponentType());        
         Component component = componentContext.getFlowStep().getComponent();
         this.threadCount = component.getInt(StepRuntime.THREAD_COUNT, 1);        
+        this.sendMessageCallbacks = new SendMessageCallback[threadCount + 1];
         for (int threadNumber = 1; threadNumber <= threadCount; threadNumber++) {
             createComponentRuntime(threadNumber);
+            sendMessageCallbacks[threadNumber] = createSendMessageCallback(threadNumber);
         }
     }
 
@@ -160,6 +195,10 @@ public class StepRuntime implements Runnable {
         return message == null || message instanceof ShutdownMessage;
     }
 
+    protected boolean hasQueuedMessages() {
+        return !inQueue.isEmpty();
+    }
+
     public void setTargetStepRuntimes(List<StepRuntime> targetStepRuntimes) {
         this.targetStepRuntimes = targetStepRuntimes;
         for (StepRuntime stepRuntime : targetStepRuntimes) {
@@ -186,6 +225,15 @@ public class StepRuntime implements Runnable {
     public List<StepRuntime> getSourceStepRuntimes() {
         return sourceStepRuntimes;
     }
+    
+    /**
+     * @return true if the component might change the rows it receives. When a
+     *         message is sent to more than one step, the steps that mutate
+     *         input get their own copy-on-write copy of the rows.
+     */
+    public boolean isMutatesInput() {
+        return componentDefintion == null || componentDefintion.isMutatesInput();
+    }
 
     protected void queue(Message message) throws InterruptedException {
         if (inQueue.remainingCapacity() == 0
@@ -194,10 +242,25 @@ public class StepRuntime implements Runnable {
                     + " not sufficient to handle inbound messages from other components in addition to inbound messages from itself.");
         }
         if (running) {
-            while (!inQueue.offer(message, 500, TimeUnit.MILLISECONDS)) {
-                if (cancelling) {
-                    throw new CancellationException();
+            if (scheduler == null) {
+                offer(message);
+                Thread waiting = waitingThread;
+                if (waiting != null) {
+                    LockSupport.unpark(waiting);
+                }
+            } else {
+                if (!inQueue.offer(message)) {
+                    scheduler.block(() -> offer(message));
                 }
+                scheduler.signal(this);
+            }
+        }
+    }
+
+    protected void offer(Message message) throws InterruptedException {
+        while (!inQueue.offer(message, 500, TimeUnit.MILLISECONDS)) {
+            if (cancelling) {
+                throw new CancellationException();
             }
         }
     }
@@ -258,14 +321,14 @@ public class StepRuntime implements Runnable {
         }
     }
 
-    protected SendMessageCallback createSendMessageCallback() {
-        return new SendMessageCallback();
+    protected SendMessageCallback createSendMessageCallback(int threadNumber) {
+        return new SendMessageCallback(threadNumber);
     }
 
     @Override
     public void run() {
         try {
-            SendMessageCallback target = createSendMessageCallback();
+            SendMessageCallback target = sendMessageCallbacks[1];
             /*
              * If we are a start step (don't have any input links), we'll only
              * get a single message which is the start message sent by the flow
@@ -278,32 +341,97 @@ public class StepRuntime implements Runnable {
                  * components could be generating messages which could block if
                  * we don't continue to poll
                  */
-                Message inputMessage = null;
-                synchronized (this) {
-                    inputMessage = inQueue.poll();
-                    if (inputMessage != null && !(inputMessage instanceof ShutdownMessage)) {
-                        activeCount++;
-                    }
+                if (!processNext(target) && running && !cancelled && !waitForMessage()) {
+                    log.info("{} stopped waiting for messages because its thread was interrupted",
+                            componentContext.getFlowStep().getName());
+                    break;
                 }
-                if (running && !cancelled) {
-                    if (inputMessage != null) {
-                        if (inputMessage instanceof ShutdownMessage) {
-                            process((ShutdownMessage) inputMessage, target);
-                        } else {
-                            process(inputMessage, target);
-                        }
-                    } else if (running && !cancelled) {
-                        AppUtils.sleep(50);
-                    }
+            }
+        } catch (Throwable ex) {
+            recordError(1, ex);
+        }
+    }
+
+    /**
+     * @return false if the thread was interrupted, which means the thread pool
+     *         is being shut down
+     */
+    protected boolean waitForMessage() {
+        waitingThread = Thread.currentThread();
+        try {
+            /*
+             * Check again after publishing the waiting thread. A message
+             * queued after this check will unpark the thread.
+             */
+            if (inQueue.isEmpty() && running && !cancelled) {
+                LockSupport.parkNanos(this, MAX_WAIT_FOR_MESSAGE_NANOS);
+            }
+            /*
+             * Parking returns right away while the interrupt flag is set, so
+             * the step would spin if it kept waiting
+             */
+            return !Thread.interrupted();
+        } finally {
+            waitingThread = null;
+        }
+    }
+
+    /**
+     * Called by a {@link StepScheduler} to process the messages that are
+     * queued. Returns when the queue is empty or after a limited number of
+     * messages so other steps can have the thread.
+     */
+    protected void runScheduled() {
+        try {
+            SendMessageCallback target = sendMessageCallbacks[1];
+            int count = 0;
+            while (running && !cancelled && count++ < MAX_MESSAGES_PER_TURN) {
+                if (!processNext(target)) {
+                    break;
                 }
             }
         } catch (Throwable ex) {
             recordError(1, ex);
         }
     }
+
+    /**
+     * @return true if a message was taken from the queue
+     */
+    protected boolean processNext(SendMessageCallback target) {
+        Message inputMessage = null;
+        synchronized (this) {
+            inputMessage = inQueue.poll();
+            if (inputMessage != null && !(inputMessage instanceof ShutdownMessage)) {
+                activeCount++;
+            }
+        }
+        if (inputMessage != null && running && !cancelled) {
+            if (inputMessage instanceof ShutdownMessage) {
+                process((ShutdownMessage) inputMessage, target);
+            } else {
+                process(inputMessage, target);
+            }
+        }
+        return inputMessage != null;
+    }
     
     protected synchronized void decrementActiveCount() {
         activeCount--;
+        notifyAll();
+    }
+
+    /*
+     * Waits until the message being handled is the only one in progress
+     */
+    protected synchronized void waitForOtherThreadsToFinish() {
+        while (activeCount > 1 && !cancelling) {
+            try {
+                wait(500);
+            } catch (InterruptedException e) {
+                throw new CancellationException();
+            }
+        }
     }
     
     protected synchronized int getActiveCountPlusQueueSize() {
@@ -318,18 +446,30 @@ public class StepRuntime implements Runnable {
          * race conditions.
          */
         if (threadCount > 1) {
-            while (unitOfWorkBoundaryReached && activeCount > 1) {
-                AppUtils.sleep(5);
+            if (unitOfWorkBoundaryReached) {
+                waitForOtherThreadsToFinish();
             }
-            this.componentRuntimeExecutor.execute(() -> processOnAnotherThread(inputMessage, unitOfWorkBoundaryReached, target));    
+            this.componentRuntimeExecutor.execute(() -> processOnAnotherThread(0, inputMessage, unitOfWorkBoundaryReached, null));
         } else {
-            processOnAnotherThread(inputMessage, unitOfWorkBoundaryReached, target);
+            processOnAnotherThread(1, inputMessage, unitOfWorkBoundaryReached, target);
         }
     }
 
-    protected void processOnAnotherThread(Message inputMessage, boolean unitOfWorkBoundaryReached, SendMessageCallback callback) {
-        int threadNumber = ThreadUtils.getThreadNumber(threadCount);
+    /**
+     * @param poolThreadNumber
+     *            the thread number or 0 to use the number of the current pool
+     *            thread and its callback
+     */
+    protected void processOnAnotherThread(int poolThreadNumber, Message inputMessage, boolean unitOfWorkBoundaryReached,
+            SendMessageCallback callback) {
+        int threadNumber = 1;
         try {
+            if (poolThreadNumber > 0) {
+                threadNumber = poolThreadNumber;
+            } else {
+                threadNumber = getPoolThreadNumber();
+                callback = sendMessageCallbacks[threadNumber];
+            }
             ComponentStatistics statistics = componentContext.getComponentStatistics();
             statistics.incrementInboundMessages(threadNumber);
             if (inputMessage instanceof ContentMessage<?>) {
@@ -349,9 +489,9 @@ public class StepRuntime implements Runnable {
             boolean logInput = component.getBoolean(AbstractComponentRuntime.LOG_INPUT, false);
 
             if (logInput) {
-                logInput(inputMessage, callback, unitOfWorkBoundaryReached);
+                logInput(threadNumber, inputMessage, callback, unitOfWorkBoundaryReached);
             }
-            callback.setCurrentInputMessage(threadNumber, inputMessage);
+            callback.setCurrentInputMessage(inputMessage);
             long ts = System.currentTimeMillis();
             
             try {
@@ -369,7 +509,7 @@ public class StepRuntime implements Runnable {
                 }
             }
             
-            statistics.incrementTimeSpentInHandle(threadNumber, System.currentTimeMillis()-ts-callback.useQueueTime(threadNumber));
+            statistics.incrementTimeSpentInHandle(threadNumber, System.currentTimeMillis()-ts-callback.useQueueTime());
 
             boolean recursionDone = liveSourceStepIds.size() == 1 && liveSourceStepIds.contains(componentContext.getFlowStep().getId())
                     && getActiveCountPlusQueueSize() == 1;
@@ -388,13 +528,22 @@ public class StepRuntime implements Runnable {
             }
             
         } catch (Throwable ex) {
-            recordError(ThreadUtils.getThreadNumber(threadCount), ex);
+            recordError(threadNumber, ex);
         } finally {
             componentContext.getExecutionTracker().afterHandle(threadNumber, componentContext, error);
             decrementActiveCount();
         }
     }
 
+    protected int getPoolThreadNumber() {
+        int threadNumber = ThreadUtils.getThreadNumber(threadCount);
+        if (threadNumber < 1 || threadNumber > threadCount) {
+            throw new IllegalStateException(String.format("The thread %s has the number %d which is not between 1 and %d",
+                    Thread.currentThread().getName(), threadNumber, threadCount));
+        }
+        return threadNumber;
+    }
+
     protected synchronized boolean idle() {
         return activeCount <= 0;
     }
@@ -517,6 +666,10 @@ public class StepRuntime implements Runnable {
         }
 
         recordFlowStepFinished();
+
+        if (flowRuntime != null) {
+            flowRuntime.stepFinished(this);
+        }
     }
 
     private void shutdownThreads(boolean waitForShutdown) {
@@ -589,6 +742,21 @@ public class StepRuntime implements Runnable {
         }
     }
 
+    public void flowSucceeded() {
+        componentContext.getComponentRuntimeByThread().values().forEach(c -> flowSucceeded(c));
+    }
+
+    private void flowSucceeded(IComponentRuntime componentRuntime) {
+        if (!cancelled) {
+            try {
+                componentRuntime.flowSucceeded();
+            } catch (Throwable ex) {
+                recordError(1, ex);
+                componentContext.getExecutionTracker().flowStepFailedOnComplete(componentContext, ex);
+            }
+        }
+    }
+
     public void flowCompletedWithErrors(Throwable myError, List<Throwable> allErrors) {
         componentContext.getComponentRuntimeByThread().values().forEach(c -> flowCompletedWithErrors(c, myError, allErrors));
     }
@@ -612,11 +780,9 @@ public class StepRuntime implements Runnable {
         return componentContext;
     }
 
-    protected void logInput(Message inputMessage, ISendMessageCallback messageTarget, boolean unitOfWorkBoundaryReached) {
+    protected void logInput(int threadNumber, Message inputMessage, ISendMessageCallback messageTarget, boolean unitOfWorkBoundaryReached) {
         MessageHeader header = inputMessage.getHeader();
 
-        int threadNumber = ThreadUtils.getThreadNumber(threadCount);
-
         String source = "ENTRY";
         try {
             source = componentContext.getManipulatedFlow().findFlowStepWithId(header.getOriginatingStepId()).getName();
@@ -647,10 +813,9 @@ public class StepRuntime implements Runnable {
 
     }
 
-    protected void logOutput(Message outputMessage, String... targetFlowStepIds) {
+    protected void logOutput(int threadNumber, Message outputMessage, String... targetFlowStepIds) {
 
         String targets = targetFlowStepIds != null && targetFlowStepIds.length > 0 ? Arrays.toString(targetFlowStepIds) : "[all]";
-        int threadNumber = ThreadUtils.getThreadNumber(threadCount);
 
         MessageHeader header = outputMessage.getHeader();
         componentContext.getExecutionTracker().log(threadNumber, LogLevel.INFO, componentContext,
@@ -677,11 +842,18 @@ public class StepRuntime implements Runnable {
 
     class SendMessageCallback implements ISendMessageCallback {
 
-        Map<Integer, Message> currentInputMessages = new HashMap<>();
-        Map<Integer, Long> queueTime = new HashMap<>();
+        final int threadNumber;
+
+        Message currentInputMessage;
 
-        private void setCurrentInputMessage(int threadNumber, Message currentInputMessage) {
-            currentInputMessages.put(threadNumber, currentInputMessage);
+        long queueTime;
+
+        SendMessageCallback(int threadNumber) {
+            this.threadNumber = threadNumber;
+        }
+
+        private void setCurrentInputMessage(Message currentInputMessage) {
+            this.currentInputMessage = currentInputMessage;
         }
 
         private Message createMessage(Message newMessage) {
@@ -691,14 +863,14 @@ public class StepRuntime implements Runnable {
         private Message createMessage(Message newMessage, Map<String, Serializable> headerSettings) {
             ComponentStatistics statistics = componentContext.getComponentStatistics();
             MessageHeader header = newMessage.getHeader();
-            Message inputMessage = currentInputMessages.get(ThreadUtils.getThreadNumber(threadCount));
+            Message inputMessage = currentInputMessage;
             if (inputMessage != null) {
                 header.putAll(inputMessage.getHeader());
             }
             if (headerSettings != null) {
                 header.putAll(headerSettings);
             }
-            header.setSequenceNumber(statistics.getNumberOutboundMessages(ThreadUtils.getThreadNumber(threadCount)));
+            header.setSequenceNumber(statistics.getNumberOutboundMessages(threadNumber));
             return newMessage;
         }
 
@@ -720,9 +892,22 @@ public class StepRuntime implements Runnable {
             return payload;
         }
 
+        private Message copyForTarget(Message message) {
+            if (message instanceof EntityDataMessage) {
+                EntityDataMessage copy = new EntityDataMessage(message.getHeader().getOriginatingStepId(),
+                        copy(((EntityDataMessage) message).getPayload()));
+                MessageHeader header = copy.getHeader();
+                header.putAll(message.getHeader());
+                header.setExecutionId(message.getHeader().getExecutionId());
+                header.setSequenceNumber(message.getHeader().getSequenceNumber());
+                return copy;
+            } else {
+                return message;
+            }
+        }
+
         private void sendMessage(Message message, String... targetFlowStepIds) {
             ComponentStatistics statistics = componentContext.getComponentStatistics();
-            int threadNumber = ThreadUtils.getThreadNumber(threadCount);
             statistics.incrementOutboundMessages(threadNumber);
             if (message instanceof ContentMessage<?>) {
                 Object payload = ((ContentMessage<?>)message).getPayload();
@@ -739,13 +924,14 @@ public class StepRuntime implements Runnable {
             boolean logOutput = component.getBoolean(AbstractComponentRuntime.LOG_OUTPUT, false);
 
             if (logOutput) {
-                logOutput(message, targetFlowStepIds);
+                logOutput(threadNumber, message, targetFlowStepIds);
             }
             
             long ts = System.currentTimeMillis();
 
             Collection<String> targetStepIds = targetFlowStepIds != null ? Arrays.asList(targetFlowStepIds) : Collections.emptyList();
 
+            List<StepRuntime> forwardRuntimes = new ArrayList<>(targetStepRuntimes.size());
             for (StepRuntime targetRuntime : targetStepRuntimes) {
                 boolean forward = targetStepIds == null || targetStepIds.size() == 0
                         || targetStepIds.contains(targetRuntime.getComponentContext().getFlowStep().getId());
@@ -755,40 +941,46 @@ public class StepRuntime implements Runnable {
                     forward = false;
                 }
                 if (forward) {
-                    try {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Sending " + message.getClass().getSimpleName() + " to "
-                                    + targetRuntime.getComponentContext().getFlowStep().getName());
-                        }
+                    forwardRuntimes.add(targetRuntime);
+                }
+            }
+
+            for (StepRuntime targetRuntime : forwardRuntimes) {
+                try {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Sending " + message.getClass().getSimpleName() + " to "
+                                + targetRuntime.getComponentContext().getFlowStep().getName());
+                    }
+                    /*
+                     * Targets that only read their input share the same
+                     * message. Targets that might change it get their own
+                     * copy so the change isn't seen by the other targets.
+                     */
+                    if (forwardRuntimes.size() > 1 && targetRuntime.isMutatesInput()) {
+                        targetRuntime.queue(copyForTarget(message));
+                    } else {
                         targetRuntime.queue(message);
-                        if (message instanceof ControlMessage) {
-                            targetStepRuntimeUnitOfWorkSent.add(targetRuntime.getComponentContext().getFlowStep().getId());
-                        }
-                    } catch (Exception e) {
-                        if (e instanceof RuntimeException) {
-                            throw (RuntimeException) e;
-                        } else {
-                            throw new RuntimeException(e);
-                        }
+                    }
+                    if (message instanceof ControlMessage) {
+                        targetStepRuntimeUnitOfWorkSent.add(targetRuntime.getComponentContext().getFlowStep().getId());
+                    }
+                } catch (Exception e) {
+                    if (e instanceof RuntimeException) {
+                        throw (RuntimeException) e;
+                    } else {
+                        throw new RuntimeException(e);
                     }
                 }
             }
             
             long queueTime = System.currentTimeMillis()-ts;
-            Long totalQueueTime = this.queueTime.get(threadNumber);
-            if (totalQueueTime == null) {
-                totalQueueTime = 0l;
-            }
-            totalQueueTime += queueTime;
-            this.queueTime.put(threadNumber, totalQueueTime);
+            this.queueTime += queueTime;
             statistics.incrementTimeSpentWaiting(threadNumber, queueTime);
         }
         
-        protected long useQueueTime(int threadNumber) {
-            Long time = this.queueTime.remove(threadNumber);
-            if (time == null) {
-                time = 0l;
-            }             
+        protected long useQueueTime() {
+            long time = this.queueTime;
+            this.queueTime = 0;
             return time;
         }
         
@@ -0,0 +1,203 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the steps of an agent's flows on a bounded, work stealing pool of
+ * threads. A step is only given a thread while it has messages queued. It
+ * processes a limited number of them and then gives the thread back so that
+ * other steps get a turn.
+ * <p>
+ * A step that blocks because the queue of a target step is full does so
+ * through {@link #block(IBlockingAction)}, which lets the pool add a thread so
+ * the target step can still run.
+ */
+public class StepScheduler {
+
+    final Logger log = LoggerFactory.getLogger(getClass());
+
+    ForkJoinPool pool;
+
+    Set<StepRuntime> steps = ConcurrentHashMap.newKeySet();
+
+    AtomicInteger activeStepCount = new AtomicInteger();
+
+    LongAdder turnCount = new LongAdder();
+
+    public StepScheduler(String namePrefix, int threadCount) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ForkJoinWorkerThreadFactory threadFactory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(namePrefix + "-step-" + threadNumber.getAndIncrement());
+            return thread;
+        };
+        this.pool = new ForkJoinPool(threadCount, threadFactory, (t, e) -> log.error("Unexpected error on " + t.getName(), e), true);
+    }
+
+    /**
+     * Starts scheduling a step that is running
+     */
+    public void schedule(StepRuntime step) {
+        step.scheduler = this;
+        steps.add(step);
+        signal(step);
+    }
+
+    /**
+     * Gives the step a turn on the pool if it doesn't already have one
+     * pending or in progress
+     */
+    public void signal(StepRuntime step) {
+        if (step.scheduled.compareAndSet(false, true)) {
+            try {
+                pool.execute(() -> runTurn(step));
+            } catch (RejectedExecutionException e) {
+                /*
+                 * The scheduler was shut down while the step was still running
+                 */
+                step.scheduled.set(false);
+                steps.remove(step);
+                log.debug("Not scheduling {} because the scheduler has been shut down", step.getComponentContext().getFlowStep().getName());
+            }
+        }
+    }
+
+    protected void runTurn(StepRuntime step) {
+        activeStepCount.incrementAndGet();
+        try {
+            step.runScheduled();
+        } finally {
+            activeStepCount.decrementAndGet();
+            turnCount.increment();
+            step.scheduled.set(false);
+            if (!step.isRunning()) {
+                steps.remove(step);
+            } else if (step.hasQueuedMessages()) {
+                /*
+                 * A message might have been queued after the step found its
+                 * queue empty but before it gave up its turn
+                 */
+                signal(step);
+            }
+        }
+    }
+
+    /**
+     * Runs an action that might block. When called from one of the
+     * scheduler's threads, the pool is allowed to add a thread while this one
+     * is blocked.
+     */
+    public void block(IBlockingAction action) throws InterruptedException {
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinPool.managedBlock(new ManagedBlocker() {
+
+                boolean done = false;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    action.run();
+                    done = true;
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return done;
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * @return the number of steps that are running and being scheduled
+     */
+    public int getScheduledStepCount() {
+        steps.removeIf(step -> !step.isRunning());
+        return steps.size();
+    }
+
+    /**
+     * @return the number of steps that currently have a thread
+     */
+    public int getActiveStepCount() {
+        return activeStepCount.get();
+    }
+
+    /**
+     * @return the number of steps that are running but waiting for messages
+     */
+    public int getIdleStepCount() {
+        return Math.max(0, getScheduledStepCount() - getActiveStepCount());
+    }
+
+    /**
+     * @return the number of turns steps have been given since the scheduler
+     *         was started
+     */
+    public long getTurnCount() {
+        return turnCount.sum();
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public int getThreadCount() {
+        return pool.getPoolSize();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+        }
+        steps.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{parallelism=%d,threads=%d,scheduledSteps=%d,activeSteps=%d,idleSteps=%d,turns=%d}",
+                getClass().getSimpleName(), getParallelism(), getThreadCount(), getScheduledStepCount(), getActiveStepCount(),
+                getIdleStepCount(), getTurnCount());
+    }
+
+    public interface IBlockingAction {
+        public void run() throws InterruptedException;
+    }
+}
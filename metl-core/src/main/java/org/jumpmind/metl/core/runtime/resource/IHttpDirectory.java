@@ -20,6 +20,9 @@
  */
 package org.jumpmind.metl.core.runtime.resource;
 
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.pool.PoolStats;
+
 public interface IHttpDirectory extends IDirectory {
 
     public String getHttpMethod();
@@ -38,4 +41,8 @@ public interface IHttpDirectory extends IDirectory {
     
     public String getToken();
 
+    public CloseableHttpClient getHttpClient();
+
+    public PoolStats getPoolStats();
+
 }
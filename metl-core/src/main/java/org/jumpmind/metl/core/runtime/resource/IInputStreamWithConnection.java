@@ -21,11 +21,12 @@
 package org.jumpmind.metl.core.runtime.resource;
 
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+
+import org.apache.http.HttpResponse;
 
 public interface IInputStreamWithConnection {
 
-    public HttpURLConnection getHttpConnection();
+    public HttpResponse getHttpResponse();
     
     public InputStream getInputStream();
 }
@@ -31,34 +31,42 @@ import java.util.TreeSet;
 import org.jumpmind.metl.core.model.AgentDeploy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.AntPathMatcher;
 
 public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
 
     final Logger log = LoggerFactory.getLogger(getClass());
 
-    AntPathMatcher patternMatcher = new AntPathMatcher();
-    
     Map<HttpMethod, Set<HttpRequestMapping>> mappingsByHttpMethod = new HashMap<>();
     
     Map<AgentDeploy, Set<HttpRequestMapping>> mappingsByAgentDeployment = new HashMap<>();
+
+    /*
+     * Rebuilt and swapped on every register and unregister so lookups never
+     * have to lock
+     */
+    volatile Map<HttpMethod, HttpRouteIndex> routeIndexByHttpMethod = Collections.emptyMap();
     
     @Override
     public HttpRequestMapping findBestMatch(HttpMethod method, String path) {
-        Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(method);
-        if (mappings != null) {
-            for (HttpRequestMapping httpRequestMapping : mappings) {
-                log.info(String.format("Found available uri: %s",httpRequestMapping.getPath()));
-                if (patternMatcher.match(httpRequestMapping.getPath(), path)) {
-                    return httpRequestMapping;
-                }
+        HttpRequestMatch match = findMatch(method, path);
+        return match != null ? match.getMapping() : null;
+    }
+
+    @Override
+    public HttpRequestMatch findMatch(HttpMethod method, String path) {
+        HttpRouteIndex routeIndex = routeIndexByHttpMethod.get(method);
+        if (routeIndex != null) {
+            HttpRequestMatch match = routeIndex.match(path);
+            if (log.isDebugEnabled()) {
+                log.debug("Matched {} {} to {}", method, path, match != null ? match.getMapping() : null);
             }
+            return match;
         }
         return null;
     }
     
     @Override
-    public List<HttpRequestMapping> getHttpRequestMappingsFor(AgentDeploy deployment) {
+    public synchronized List<HttpRequestMapping> getHttpRequestMappingsFor(AgentDeploy deployment) {
         Set<HttpRequestMapping> mappings = mappingsByAgentDeployment.get(deployment);
         if (mappings != null) {
             return new ArrayList<>(mappings);
@@ -68,13 +76,14 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
     }  
     
     @Override
-    public void register(HttpRequestMapping request) {
+    public synchronized void register(HttpRequestMapping request) {
         Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(request.getMethod());
         if (mappings == null) {
             mappings = new TreeSet<>();
             mappingsByHttpMethod.put(request.getMethod(), mappings);
         }
         mappings.add(request);        
+        rebuildRouteIndex(request.getMethod());
         
         mappings = mappingsByAgentDeployment.get(request.getDeployment());
         if (mappings == null) {
@@ -88,11 +97,12 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
     }
     
     @Override
-    public void unregister(HttpRequestMapping request) {
+    public synchronized void unregister(HttpRequestMapping request) {
         boolean unregistered = false;
         Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(request.getMethod());
         if (mappings != null) {            
             unregistered |= mappings.remove(request);
+            rebuildRouteIndex(request.getMethod());
         }
         
         mappings = mappingsByAgentDeployment.get(request.getDeployment());
@@ -104,6 +114,16 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
             log.info("Unregistering REST service: {}", request);
         }
     }
-    
+
+    protected void rebuildRouteIndex(HttpMethod method) {
+        Map<HttpMethod, HttpRouteIndex> routeIndexes = new HashMap<>(routeIndexByHttpMethod);
+        Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(method);
+        if (mappings != null && mappings.size() > 0) {
+            routeIndexes.put(method, new HttpRouteIndex(mappings));
+        } else {
+            routeIndexes.remove(method);
+        }
+        routeIndexByHttpMethod = routeIndexes;
+    }
     
 }
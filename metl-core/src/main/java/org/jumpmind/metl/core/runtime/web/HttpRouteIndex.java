@@ -0,0 +1,229 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.AntPathMatcher;
+
+/**
+ * An immutable index of the mappings for one http method. Paths are split
+ * into segments and stored in a trie so a lookup only visits the segments of
+ * the request path. A segment is a literal, a whole segment variable like
+ * <code>{id}</code>, <code>*</code> or <code>**</code>. Mappings that use
+ * patterns inside of a segment (<code>{id}.json</code>, <code>file?</code>,
+ * <code>{id:[0-9]+}</code>) are checked with an {@link AntPathMatcher}.
+ * <p>
+ * When more than one mapping matches, the one that sorts first wins, which is
+ * the same mapping that walking the sorted mappings would have found.
+ */
+class HttpRouteIndex {
+
+    static final String SEPARATOR = "/";
+
+    final AntPathMatcher patternMatcher = new AntPathMatcher();
+
+    final RouteNode root = new RouteNode();
+
+    final List<HttpRequestMapping> patternMappings = new ArrayList<>();
+
+    HttpRouteIndex(Collection<HttpRequestMapping> mappings) {
+        for (HttpRequestMapping mapping : mappings) {
+            add(mapping);
+        }
+    }
+
+    protected void add(HttpRequestMapping mapping) {
+        String path = mapping.getPath();
+        RouteNode node = root;
+        List<String> variableNames = new ArrayList<>();
+        boolean endsWithAnyDepth = false;
+        for (String segment : tokenize(path)) {
+            endsWithAnyDepth = false;
+            if (segment.equals("**")) {
+                if (node.anyDepth == null) {
+                    node.anyDepth = new RouteNode();
+                }
+                node = node.anyDepth;
+                endsWithAnyDepth = true;
+            } else if (segment.equals("*")) {
+                if (node.wildcard == null) {
+                    node.wildcard = new RouteNode();
+                }
+                node = node.wildcard;
+            } else if (isVariable(segment)) {
+                if (node.variable == null) {
+                    node.variable = new RouteNode();
+                }
+                node = node.variable;
+                variableNames.add(segment.substring(1, segment.length() - 1));
+            } else if (isPattern(segment)) {
+                patternMappings.add(mapping);
+                return;
+            } else {
+                RouteNode child = node.literals.get(segment);
+                if (child == null) {
+                    child = new RouteNode();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        node.routes.add(new Route(mapping, variableNames, path.startsWith(SEPARATOR), path.endsWith(SEPARATOR), endsWithAnyDepth));
+    }
+
+    HttpRequestMatch match(String path) {
+        Candidate best = new Candidate(path.startsWith(SEPARATOR), path.endsWith(SEPARATOR));
+        match(root, tokenize(path), 0, new ArrayList<>(), best);
+
+        for (HttpRequestMapping mapping : patternMappings) {
+            if ((best.route == null || mapping.compareTo(best.route.mapping) < 0) && patternMatcher.match(mapping.getPath(), path)) {
+                return new HttpRequestMatch(mapping, patternMatcher.extractUriTemplateVariables(mapping.getPath(), path));
+            }
+        }
+
+        if (best.route != null) {
+            Map<String, String> pathVariables = new LinkedHashMap<>();
+            for (int i = 0; i < best.route.variableNames.size(); i++) {
+                pathVariables.put(best.route.variableNames.get(i), best.variableValues.get(i));
+            }
+            return new HttpRequestMatch(best.route.mapping, pathVariables);
+        } else {
+            return null;
+        }
+    }
+
+    protected void match(RouteNode node, String[] segments, int index, List<String> variableValues, Candidate best) {
+        if (index == segments.length) {
+            for (Route route : node.routes) {
+                best.consider(route, variableValues);
+            }
+        } else {
+            RouteNode literal = node.literals.get(segments[index]);
+            if (literal != null) {
+                match(literal, segments, index + 1, variableValues, best);
+            }
+            if (node.variable != null) {
+                variableValues.add(segments[index]);
+                match(node.variable, segments, index + 1, variableValues, best);
+                variableValues.remove(variableValues.size() - 1);
+            }
+            if (node.wildcard != null) {
+                match(node.wildcard, segments, index + 1, variableValues, best);
+            }
+        }
+        if (node.anyDepth != null) {
+            for (int next = index; next <= segments.length; next++) {
+                match(node.anyDepth, segments, next, variableValues, best);
+            }
+        }
+    }
+
+    protected static boolean isVariable(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}")
+                && segment.indexOf('{', 1) < 0 && segment.indexOf('}') == segment.length() - 1 && segment.indexOf(':') < 0;
+    }
+
+    protected static boolean isPattern(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+    }
+
+    protected static String[] tokenize(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                segments.add(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    static class RouteNode {
+
+        Map<String, RouteNode> literals = new HashMap<>();
+
+        RouteNode variable;
+
+        RouteNode wildcard;
+
+        RouteNode anyDepth;
+
+        List<Route> routes = new ArrayList<>(1);
+    }
+
+    static class Route {
+
+        HttpRequestMapping mapping;
+
+        List<String> variableNames;
+
+        boolean leadingSeparator;
+
+        boolean trailingSeparator;
+
+        boolean endsWithAnyDepth;
+
+        Route(HttpRequestMapping mapping, List<String> variableNames, boolean leadingSeparator, boolean trailingSeparator,
+                boolean endsWithAnyDepth) {
+            this.mapping = mapping;
+            this.variableNames = variableNames;
+            this.leadingSeparator = leadingSeparator;
+            this.trailingSeparator = trailingSeparator;
+            this.endsWithAnyDepth = endsWithAnyDepth;
+        }
+    }
+
+    static class Candidate {
+
+        boolean leadingSeparator;
+
+        boolean trailingSeparator;
+
+        Route route;
+
+        List<String> variableValues;
+
+        Candidate(boolean leadingSeparator, boolean trailingSeparator) {
+            this.leadingSeparator = leadingSeparator;
+            this.trailingSeparator = trailingSeparator;
+        }
+
+        void consider(Route candidate, List<String> values) {
+            if (candidate.leadingSeparator == leadingSeparator
+                    && (candidate.endsWithAnyDepth || candidate.trailingSeparator == trailingSeparator)
+                    && (route == null || candidate.mapping.compareTo(route.mapping) < 0)) {
+                route = candidate;
+                variableValues = new ArrayList<>(values);
+            }
+        }
+    }
+}
@@ -27,6 +27,8 @@ import org.jumpmind.metl.core.model.AgentDeploy;
 public interface IHttpRequestMappingRegistry {
     
     public HttpRequestMapping findBestMatch(HttpMethod method, String path);
+
+    public HttpRequestMatch findMatch(HttpMethod method, String path);
     
     public void register(HttpRequestMapping request);
     
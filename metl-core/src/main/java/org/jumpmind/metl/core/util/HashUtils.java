@@ -0,0 +1,192 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final public class HashUtils {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private HashUtils() {
+    }
+
+    /**
+     * Computes the 128 bit x64 variant of MurmurHash3.
+     * 
+     * @param hash
+     *            receives the high 64 bits in the first element and the low 64
+     *            bits in the second
+     */
+    public static void murmur3Hash128(byte[] data, int offset, int length, long seed, long[] hash) {
+        long h1 = seed;
+        long h2 = seed;
+        int blocks = length >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            int index = offset + (i << 4);
+            long k1 = getLong(data, index);
+            long k2 = getLong(data, index + 8);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = offset + (blocks << 4);
+        switch (length & 15) {
+            case 15:
+                k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14:
+                k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13:
+                k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12:
+                k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11:
+                k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10:
+                k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= (long) (data[tail + 8] & 0xff);
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= C1;
+                h2 ^= k2;
+            case 8:
+                k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7:
+                k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6:
+                k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5:
+                k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4:
+                k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3:
+                k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2:
+                k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= (long) (data[tail] & 0xff);
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= C2;
+                h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        hash[0] = h1;
+        hash[1] = h2;
+    }
+
+    private static long getLong(byte[] data, int index) {
+        return (data[index] & 0xffL) | (data[index + 1] & 0xffL) << 8 | (data[index + 2] & 0xffL) << 16
+                | (data[index + 3] & 0xffL) << 24 | (data[index + 4] & 0xffL) << 32 | (data[index + 5] & 0xffL) << 40
+                | (data[index + 6] & 0xffL) << 48 | (data[index + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * Builds the bytes of a key from a list of values and hashes them. Values
+     * are compared by their string form and each one is length prefixed so
+     * that values can't run together. An instance is reused from key to key
+     * and is not thread safe.
+     */
+    public static class KeyHasher {
+
+        byte[] bytes = new byte[256];
+
+        int length;
+
+        public void reset() {
+            length = 0;
+        }
+
+        public void append(Object value) {
+            if (value == null) {
+                appendInt(-1);
+            } else {
+                byte[] valueBytes = value instanceof byte[] ? (byte[]) value
+                        : value.toString().getBytes(StandardCharsets.UTF_8);
+                appendInt(valueBytes.length);
+                ensureCapacity(valueBytes.length);
+                System.arraycopy(valueBytes, 0, bytes, length, valueBytes.length);
+                length += valueBytes.length;
+            }
+        }
+
+        /**
+         * @param hash
+         *            receives the 128 bit hash of the values appended since
+         *            the last reset
+         */
+        public void hash(long[] hash) {
+            murmur3Hash128(bytes, 0, length, 0, hash);
+        }
+
+        protected void appendInt(int value) {
+            ensureCapacity(4);
+            bytes[length++] = (byte) (value >>> 24);
+            bytes[length++] = (byte) (value >>> 16);
+            bytes[length++] = (byte) (value >>> 8);
+            bytes[length++] = (byte) value;
+        }
+
+        protected void ensureCapacity(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+    }
+
+}
@@ -20,23 +20,36 @@
  */
 package org.jumpmind.metl.core.util;
 
+import java.util.BitSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 final public class ThreadUtils {
 
     private ThreadUtils() {
     }
 
+    /*
+     * Threads created by a CustomThreadFactory know their number so it doesn't
+     * have to be parsed from the thread name each time it is needed.  A thread
+     * takes the lowest number that no live thread of its factory has, so the
+     * threads of a fixed pool stay numbered from 1 to the thread count even
+     * when a thread that died is replaced.
+     */
+    static final ThreadLocal<Integer> currentThreadNumber = new ThreadLocal<>();
+
     public static int getThreadNumber(int maxThreads) {
         if (maxThreads == 1) {
             return 1;
         } else {
+            Integer number = currentThreadNumber.get();
+            if (number != null) {
+                return number;
+            }
             int threadNumber = 1;
             String name = Thread.currentThread().getName();
             int lastIndex = name.lastIndexOf("-");
@@ -51,10 +64,22 @@ final public class ThreadUtils {
     }
 
     public static ExecutorService createFixedThreadPool(String namePrefix, int queueCapacity, int threadCount) {
+          CustomThreadFactory threadFactory = new CustomThreadFactory(namePrefix);
           ThreadPoolExecutor executor =  new ThreadPoolExecutor(threadCount, threadCount,
                 0L, TimeUnit.MILLISECONDS,
                 new LinkedBlockingQueue<Runnable>(queueCapacity),
-                new CustomThreadFactory(namePrefix));
+                threadFactory) {
+              @Override
+              protected void afterExecute(Runnable r, Throwable t) {
+                  /*
+                   * The replacement for a thread whose task threw is created
+                   * before that thread exits, so hand its number over now
+                   */
+                  if (t != null) {
+                      threadFactory.release();
+                  }
+              }
+          };
             executor.setRejectedExecutionHandler((r, e) -> {try {
                 e.getQueue().put(r);
             } catch (Exception e1) {
@@ -70,15 +95,23 @@ final public class ThreadUtils {
     static class CustomThreadFactory implements ThreadFactory {
 
         String namePrefix;
-        final AtomicInteger threadNumber = new AtomicInteger(1);
+        final BitSet numbersInUse = new BitSet();
 
         public CustomThreadFactory(String namePrefix) {
             this.namePrefix = namePrefix;
         }
 
         public Thread newThread(Runnable r) {
-            Thread t = new Thread(r);
-            t.setName(namePrefix + "-" + threadNumber.getAndIncrement());
+            int number = acquire();
+            Thread t = new Thread(() -> {
+                currentThreadNumber.set(number);
+                try {
+                    r.run();
+                } finally {
+                    release();
+                }
+            });
+            t.setName(namePrefix + "-" + number);
             if (t.isDaemon()) {
                 t.setDaemon(false);
             }
@@ -87,5 +120,25 @@ final public class ThreadUtils {
             }
             return t;
         }
+
+        synchronized int acquire() {
+            int number = numbersInUse.nextClearBit(1);
+            numbersInUse.set(number);
+            return number;
+        }
+
+        /**
+         * Frees the number of the current thread for the next thread that is
+         * created
+         */
+        void release() {
+            Integer number = currentThreadNumber.get();
+            if (number != null) {
+                currentThreadNumber.remove();
+                synchronized (this) {
+                    numbersInUse.clear(number);
+                }
+            }
+        }
     }
 }
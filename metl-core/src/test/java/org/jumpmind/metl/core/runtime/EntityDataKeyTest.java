@@ -0,0 +1,70 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class EntityDataKeyTest {
+
+    @Test
+    public void testNumericValuesCompareByValue() {
+        assertEquals(key("1.50", true), key(new BigDecimal("1.5"), true));
+        assertEquals(key("0.00", true), key(0, true));
+        assertEquals(key("1.50", true).hashCode(), key(new BigDecimal("1.5"), true).hashCode());
+        assertNotEquals(key("1.50", false), key("1.5", false));
+        assertEquals(key("abc", true), key("abc", false));
+    }
+
+    @Test
+    public void testBinaryValuesCompareByContent() {
+        assertEquals(key(new byte[] { 1, 2 }, false), key(new byte[] { 1, 2 }, false));
+        assertNotEquals(key(new byte[] { 1, 2 }, false), key(new byte[] { 2, 1 }, false));
+    }
+
+    @Test
+    public void testNullsSortFirst() {
+        assertTrue(key(null, true).compareTo(key("1", true)) < 0);
+        assertTrue(key("1", true).compareTo(key(null, true)) > 0);
+        assertEquals(0, key(null, true).compareTo(key(null, true)));
+        assertTrue(key("2", true).compareTo(key("10", true)) < 0);
+        assertTrue(key("2", false).compareTo(key("10", false)) > 0);
+    }
+
+    @Test
+    public void testKeyOfRow() {
+        EntityData data = new EntityData();
+        data.put("id", "007");
+        data.put("name", "bond");
+        EntityDataKey key = EntityDataKey.of(data, new String[] { "id", "name" }, new boolean[] { true, false });
+        assertEquals(new BigDecimal("7"), key.getValues()[0]);
+        assertEquals("bond", key.getValues()[1]);
+    }
+
+    private static EntityDataKey key(Object value, boolean numeric) {
+        return new EntityDataKey(new Object[] { EntityDataKey.normalize(value, numeric) });
+    }
+}
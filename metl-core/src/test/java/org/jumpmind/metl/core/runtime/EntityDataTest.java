@@ -0,0 +1,134 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EntityDataTest {
+
+    EntityDataSchema schema = new EntityDataSchema(Arrays.asList("AbC", "def", "ghi"));
+
+    @Test
+    public void testSlotAndOverflowValues() {
+        EntityData data = new EntityData(schema);
+        data.put("abc", 1);
+        data.put("ghi", null);
+        data.put("other", "x");
+        assertEquals(3, data.size());
+        assertEquals(1, data.get("ABC"));
+        assertEquals("x", data.get("OTHER"));
+        assertTrue(data.containsKey("GHI"));
+        assertFalse(data.containsKey("def"));
+        assertEquals(Arrays.asList("AbC", "ghi", "other"), Arrays.asList(data.keySet().toArray()));
+    }
+
+    @Test
+    public void testEqualsRowWithoutSchema() {
+        EntityData data = new EntityData(schema);
+        data.put("AbC", 1);
+        data.put("other", "x");
+        EntityData plain = new EntityData();
+        plain.put("AbC", 1);
+        plain.put("other", "x");
+        assertEquals(plain, data);
+        assertEquals(data, plain);
+        assertEquals(plain.hashCode(), data.hashCode());
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        EntityData data = new EntityData(schema);
+        data.put("abc", 1);
+        data.setChangeType(EntityData.ChangeType.DEL);
+        EntityData copy = data.copy();
+        copy.put("def", 2);
+        assertNull(data.get("def"));
+        assertEquals(2, copy.size());
+        assertEquals(EntityData.ChangeType.DEL, copy.getChangeType());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        EntityData data = new EntityData(schema);
+        data.put("abc", 1);
+        data.put("def", 2);
+        data.put("other", "x");
+        Iterator<Map.Entry<String, Object>> i = data.entrySet().iterator();
+        while (i.hasNext()) {
+            String key = i.next().getKey();
+            if (key.equals("def") || key.equals("other")) {
+                i.remove();
+            }
+        }
+        assertEquals(1, data.size());
+        assertTrue(data.containsKey("abc"));
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        EntityData data = new EntityData(schema);
+        data.put("abc", 1);
+        data.put("other", "x");
+        EntityData copy1 = data.copy();
+        EntityData copy2 = copy1.copy();
+        copy1.put("abc", 2);
+        copy2.remove("other");
+        data.put("other", "y");
+        assertEquals(1, data.get("abc"));
+        assertEquals("y", data.get("other"));
+        assertEquals(2, copy1.get("abc"));
+        assertEquals("x", copy1.get("other"));
+        assertEquals(1, copy2.get("abc"));
+        assertFalse(copy2.containsKey("other"));
+    }
+
+    @Test
+    public void testIteratorRemoveFromSharedRow() {
+        EntityData data = new EntityData();
+        data.put("a", 1);
+        data.put("b", 2);
+        data.put("c", 3);
+        EntityData copy = data.copy();
+        Iterator<Map.Entry<String, Object>> i = copy.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, Object> entry = i.next();
+            if (entry.getKey().equals("a")) {
+                entry.setValue(10);
+            } else {
+                i.remove();
+            }
+        }
+        assertEquals(1, copy.size());
+        assertEquals(10, copy.get("a"));
+        assertEquals(3, data.size());
+        assertEquals(1, data.get("a"));
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.runtime.cache.MappedLookupCacheStore.Chunk;
+import org.junit.After;
+import org.junit.Test;
+
+public class MappedLookupCacheStoreTest {
+
+    static final int CHUNK_SIZE = 4096;
+
+    MappedLookupCacheStore store = new MappedLookupCacheStore(CHUNK_SIZE);
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        Object text = store.store("hello");
+        Object number = store.store(42);
+        Object decimal = store.store(new BigDecimal("12.50"));
+        Object nothing = store.store(null);
+        assertEquals("hello", store.load(text));
+        assertEquals(42, store.load(number));
+        assertEquals(new BigDecimal("12.50"), store.load(decimal));
+        assertNull(store.load(nothing));
+    }
+
+    @Test
+    public void testValueLargerThanAChunkStaysOnTheHeap() {
+        String large = value(0, CHUNK_SIZE * 2);
+        Object handle = store.store(large);
+        assertTrue(handle instanceof MappedLookupCacheStore.HeapValue);
+        assertEquals(large, store.load(handle));
+        store.release(handle);
+        assertEquals(0, store.liveBytes);
+    }
+
+    @Test
+    public void testReleasedSlotIsReused() {
+        Object first = store.store("first");
+        Object second = store.store("second");
+        store.release(first);
+        store.release(first);
+        try {
+            store.load(first);
+            fail("Expected the released value to be unavailable");
+        } catch (IllegalStateException e) {
+        }
+
+        Object third = store.store("third");
+        assertEquals(first, third);
+        assertEquals("third", store.load(third));
+        assertEquals("second", store.load(second));
+        assertEquals(2, store.slotCount);
+    }
+
+    @Test
+    public void testEmptyChunkIsKeptAsTheSpare() {
+        List<Object> handles = new ArrayList<>();
+        while (store.chunks.size() < 3) {
+            handles.add(store.store(value(handles.size(), 100)));
+        }
+        Chunk first = store.chunks.get(0);
+        Chunk second = store.chunks.get(1);
+
+        for (Object handle : handles) {
+            if (store.addresses[(Integer) handle] >>> 32 < 2) {
+                store.release(handle);
+            }
+        }
+
+        assertTrue(store.spare == first || store.spare == second);
+        Chunk discarded = store.spare == first ? second : first;
+        assertNull(discarded.buffer);
+        assertFalse(discarded.file.exists());
+        assertNull(store.chunks.get(discarded.index));
+        assertNotNull(store.spare.buffer);
+        assertTrue(store.spare.file.exists());
+
+        Chunk spare = store.spare;
+        int index = 0;
+        while (store.current != spare) {
+            handles.add(store.store(value(index++, 100)));
+        }
+        assertNull(store.spare);
+    }
+
+    @Test
+    public void testCompaction() {
+        Map<Object, String> live = new LinkedHashMap<>();
+        List<Object> handles = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String value = value(i, 100);
+            Object handle = store.store(value);
+            handles.add(handle);
+            live.put(handle, value);
+        }
+        int chunkCount = store.chunks.size();
+        assertTrue(chunkCount > 10);
+        Map<Chunk, Boolean> allocated = new IdentityHashMap<>();
+        for (Chunk chunk : store.chunks) {
+            allocated.put(chunk, true);
+        }
+
+        for (int i = 0; i < handles.size(); i++) {
+            if (i % 4 != 0) {
+                store.release(handles.get(i));
+                live.remove(handles.get(i));
+            }
+        }
+
+        assertTrue(store.filledBytes - store.liveBytes <= store.filledBytes * MappedLookupCacheStore.MAX_GARBAGE_RATIO + CHUNK_SIZE);
+        int mapped = 0;
+        for (Chunk chunk : store.chunks) {
+            if (chunk != null) {
+                mapped++;
+            }
+        }
+        assertTrue(mapped < chunkCount / 2);
+        for (Map.Entry<Object, String> entry : live.entrySet()) {
+            assertEquals(entry.getValue(), store.load(entry.getKey()));
+        }
+
+        for (Chunk chunk : allocated.keySet()) {
+            if (!store.chunks.contains(chunk)) {
+                assertNull(chunk.buffer);
+                assertFalse(chunk.file.exists());
+            }
+        }
+
+        for (Object handle : live.keySet()) {
+            store.release(handle);
+        }
+        assertEquals(0, store.liveBytes);
+        assertEquals(0, store.filledBytes);
+    }
+
+    @Test
+    public void testClearDeletesTheFiles() {
+        for (int i = 0; i < 100; i++) {
+            store.store(value(i, 100));
+        }
+        List<Chunk> chunks = new ArrayList<>(store.chunks);
+        store.clear();
+        for (Chunk chunk : chunks) {
+            assertNull(chunk.buffer);
+            assertFalse(chunk.file.exists());
+        }
+        assertEquals(0, store.chunks.size());
+    }
+
+    protected String value(int index, int length) {
+        StringBuilder value = new StringBuilder(Integer.toString(index));
+        while (value.length() < length) {
+            value.append('x');
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class DeduperTest {
+
+    static final int ROW_COUNT = 500;
+
+    static final int KEY_COUNT = 37;
+
+    RelationalModel model = createModel();
+
+    int seqModulo = Integer.MAX_VALUE;
+
+    @Test
+    public void testPreserveFirstRecord() {
+        List<String> expected = expected(false);
+        List<String> inMemory = dedupe(Deduper.DEDUPE_ATTRIBUTE, Deduper.PRESERVE_FIRST, Long.MAX_VALUE, false);
+        assertEquals(expected, inMemory);
+        assertEquals(expected, sorted(dedupe(Deduper.DEDUPE_ATTRIBUTE, Deduper.PRESERVE_FIRST, 1000, true)));
+        assertEquals(expected, sorted(dedupe(Deduper.DEDUPE_ATTRIBUTE, Deduper.PRESERVE_FIRST, 1, true)));
+    }
+
+    @Test
+    public void testPreserveLastRecord() {
+        List<String> expected = expected(true);
+        assertEquals(expected, dedupe(Deduper.DEDUPE_ATTRIBUTE, Deduper.PRESERVE_LAST, Long.MAX_VALUE, false));
+        assertEquals(expected, sorted(dedupe(Deduper.DEDUPE_ATTRIBUTE, Deduper.PRESERVE_LAST, 1000, true)));
+        assertEquals(expected, sorted(dedupe(Deduper.DEDUPE_ATTRIBUTE, Deduper.PRESERVE_LAST, 1, true)));
+    }
+
+    @Test
+    public void testDedupeEntity() {
+        seqModulo = 2 * KEY_COUNT;
+        List<String> inMemory = sorted(dedupe(Deduper.DEDUPE_ENTITY, Deduper.PRESERVE_FIRST, Long.MAX_VALUE, false));
+        assertEquals(seqModulo, inMemory.size());
+        assertEquals(inMemory, sorted(dedupe(Deduper.DEDUPE_ENTITY, Deduper.PRESERVE_FIRST, 1000, true)));
+        assertEquals(inMemory, sorted(dedupe(Deduper.DEDUPE_ENTITY, Deduper.PRESERVE_LAST, 1, true)));
+    }
+
+    /*
+     * Runs two units of work so that the state reset between them is covered
+     * too.  Spilled rows come back in partition order, so callers sort them
+     * before comparing against the in memory run.
+     */
+    protected List<String> dedupe(String dedupeType, String preserveRecord, long maxMemory, boolean expectSpill) {
+        Deduper deduper = createDeduper(dedupeType, preserveRecord);
+        deduper.maxMemory = maxMemory;
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        List<String> results = new ArrayList<>();
+        for (int unitOfWork = 0; unitOfWork < 2; unitOfWork++) {
+            ArrayList<EntityData> rows = new ArrayList<>();
+            for (int i = 0; i < ROW_COUNT; i++) {
+                rows.add(row(i));
+                if (rows.size() == 50) {
+                    deduper.handle(new EntityDataMessage("source", rows), callback, false);
+                    rows = new ArrayList<>();
+                }
+            }
+            deduper.handle(new ControlMessage("source"), callback, true);
+
+            List<String> unitOfWorkResults = new ArrayList<>();
+            for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+                for (EntityData data : payload) {
+                    unitOfWorkResults.add(data.get("key") + ":" + data.get("seq"));
+                }
+            }
+            callback.getPayloadList().clear();
+            if (unitOfWork == 0) {
+                results = unitOfWorkResults;
+            } else {
+                assertEquals(sorted(results), sorted(unitOfWorkResults));
+            }
+        }
+        long spilled = deduper.getComponentStatistics().getNumberEntitiesSpilled(0);
+        assertEquals(expectSpill, spilled > 0);
+        deduper.stop();
+        return results;
+    }
+
+    protected List<String> expected(boolean preserveLast) {
+        Map<Integer, Integer> kept = new LinkedHashMap<>();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            int key = i % KEY_COUNT;
+            if (preserveLast || !kept.containsKey(key)) {
+                kept.put(key, i);
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : kept.entrySet()) {
+            expected.add(entry.getKey() + ":" + entry.getValue());
+        }
+        return expected;
+    }
+
+    protected List<String> sorted(List<String> values) {
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    protected EntityData row(int seq) {
+        EntityData data = new EntityData(model.getEntityDataSchema());
+        data.put("key", seq % KEY_COUNT);
+        data.put("seq", seq % seqModulo);
+        return data;
+    }
+
+    protected Deduper createDeduper(String dedupeType, String preserveRecord) {
+        Setting[] settings = new Setting[2];
+        settings[0] = new Setting(Deduper.DEDUPE_TYPE, dedupeType);
+        settings[1] = new Setting(Deduper.PRESERVE_RECORD, preserveRecord);
+        List<ComponentAttribSetting> attributeSettings = new ArrayList<>();
+        attributeSettings.add(new ComponentAttribSetting("key", Deduper.ATTRIBUTE_DEDUPE_ENABLED, "true"));
+        Component component = TestUtils.createComponent(Deduper.TYPE, false, null, model, null, null, attributeSettings, settings);
+        Flow flow = TestUtils.createFlow("TestFlow", TestUtils.createFolder("Test Folder"));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setId("dedupe");
+        flowStep.setFlowId(flow.getId());
+        flowStep.setCreateBy("Test");
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+        Deduper deduper = new Deduper();
+        deduper.setContext(new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), new HashMap<>(), null, null, null));
+        deduper.start();
+        return deduper;
+    }
+
+    protected static RelationalModel createModel() {
+        ModelEntity entity = new ModelEntity("test", "TEST");
+        entity.addModelAttribute(new ModelAttrib("key", entity.getId(), "KEY"));
+        entity.addModelAttribute(new ModelAttrib("seq", entity.getId(), "SEQ"));
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttribSetting;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.util.HashUtils;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class HashRouterTest {
+
+    RelationalModel model = createModel();
+
+    @Test
+    public void testRoutingIsStable() {
+        Map<Object, String> first = route(createRouter("c", "a", "b"), 3000);
+        Map<Object, String> second = route(createRouter("b", "c", "a"), 3000);
+        assertEquals(first, second);
+
+        String[] sortedTargets = { "a", "b", "c" };
+        HashUtils.KeyHasher hasher = new HashUtils.KeyHasher();
+        long[] hash = new long[2];
+        for (Map.Entry<Object, String> entry : first.entrySet()) {
+            hasher.reset();
+            hasher.append(entry.getKey());
+            hasher.hash(hash);
+            assertEquals(sortedTargets[(int) ((hash[0] & Long.MAX_VALUE) % sortedTargets.length)], entry.getValue());
+        }
+    }
+
+    @Test
+    public void testRoutingIsSpreadEvenly() {
+        Map<Object, String> routes = route(createRouter("c", "a", "b"), 3000);
+        assertEquals(1000, routes.size());
+        Map<String, Integer> counts = new HashMap<>();
+        for (String target : routes.values()) {
+            counts.merge(target, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(counts.toString(), count > 270 && count < 400);
+        }
+    }
+
+    @Test
+    public void testRowOrderIsKeptPerKey() {
+        HashRouter router = createRouter("a", "b");
+        router.rowsPerMessage = 7;
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        router.handle(new EntityDataMessage("source", rows(500, 100)), callback, true);
+        Map<Object, Integer> lastSeq = new HashMap<>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            assertTrue(payload.size() <= 7);
+            for (EntityData data : payload) {
+                Integer previous = lastSeq.put(data.get("key"), (Integer) data.get("seq"));
+                assertTrue(previous == null || previous < (Integer) data.get("seq"));
+            }
+        }
+        assertEquals(100, lastSeq.size());
+    }
+
+    /*
+     * Sends each key three times in separate messages and records the single
+     * target that every key was routed to
+     */
+    protected Map<Object, String> route(HashRouter router, int rowCount) {
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        ArrayList<EntityData> rows = rows(rowCount, rowCount / 3);
+        for (int i = 0; i < rows.size(); i += 100) {
+            router.handle(new EntityDataMessage("source", new ArrayList<>(rows.subList(i, i + 100))), callback, false);
+        }
+        Map<Object, String> routes = new HashMap<>();
+        List<ArrayList<EntityData>> payloads = callback.getPayloadList();
+        for (int i = 0; i < payloads.size(); i++) {
+            List<String> targets = callback.getTargetStepIds().get(i);
+            assertEquals(1, targets.size());
+            for (EntityData data : payloads.get(i)) {
+                String previous = routes.put(data.get("key"), targets.get(0));
+                assertTrue(previous == null || previous.equals(targets.get(0)));
+            }
+        }
+        return routes;
+    }
+
+    protected ArrayList<EntityData> rows(int count, int keyCount) {
+        ArrayList<EntityData> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            EntityData data = new EntityData(model.getEntityDataSchema());
+            data.put("key", "key-" + (i % keyCount));
+            data.put("seq", i);
+            rows.add(data);
+        }
+        return rows;
+    }
+
+    protected HashRouter createRouter(String... targetStepIds) {
+        List<ComponentAttribSetting> attributeSettings = new ArrayList<>();
+        attributeSettings.add(new ComponentAttribSetting("key", HashRouter.ATTRIBUTE_PARTITION_ENABLED, "true"));
+        Component component = TestUtils.createComponent(HashRouter.TYPE, false, null, model, model, null, attributeSettings);
+
+        Flow flow = TestUtils.createFlow("TestFlow", TestUtils.createFolder("Test Folder"));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setId("router");
+        flowStep.setFlowId(flow.getId());
+        flowStep.setCreateBy("Test");
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+        flow.getFlowStepLinks().add(new FlowStepLink("source", "router"));
+        for (String targetStepId : Arrays.asList(targetStepIds)) {
+            flow.getFlowStepLinks().add(new FlowStepLink("router", targetStepId));
+        }
+
+        HashRouter router = new HashRouter();
+        router.setContext(new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), new HashMap<>(), null, null, null));
+        router.start();
+        return router;
+    }
+
+    protected static RelationalModel createModel() {
+        ModelEntity entity = new ModelEntity("test", "TEST");
+        entity.addModelAttribute(new ModelAttrib("key", entity.getId(), "KEY"));
+        entity.addModelAttribute(new ModelAttrib("seq", entity.getId(), "SEQ"));
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+}
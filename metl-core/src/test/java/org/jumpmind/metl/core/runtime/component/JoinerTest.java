@@ -0,0 +1,242 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.DataType;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.ModelAttrib;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.RelationalModel;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class JoinerTest {
+
+    RelationalModel model = createModel();
+
+    Joiner joiner;
+
+    @After
+    public void tearDown() {
+        if (joiner != null) {
+            joiner.stop();
+        }
+    }
+
+    @Test
+    public void testInnerJoin() {
+        List<String> joined = join(Joiner.JOIN_TYPE_INNER, Joiner.JOIN_ALGORITHM_HASH, 1000, true);
+        assertEquals(Arrays.asList("10:1:alice", "11:1:alice", "12:2:bob"), joined);
+    }
+
+    @Test
+    public void testLeftOuterJoin() {
+        List<String> joined = join(Joiner.JOIN_TYPE_LEFT_OUTER, Joiner.JOIN_ALGORITHM_HASH, 1000, true);
+        assertEquals(Arrays.asList("10:1:alice", "11:1:alice", "12:2:bob", "13:4:null", "14:null:null"), joined);
+    }
+
+    @Test
+    public void testFullOuterJoin() {
+        List<String> joined = join(Joiner.JOIN_TYPE_FULL_OUTER, Joiner.JOIN_ALGORITHM_HASH, 1000, true);
+        assertEquals(Arrays.asList("10:1:alice", "11:1:alice", "12:2:bob", "13:4:null", "14:null:null", "null:3:carol",
+                "null:null:nobody"), joined);
+    }
+
+    @Test
+    public void testProbeRowsBeforeBuildComplete() {
+        assertEquals(join(Joiner.JOIN_TYPE_FULL_OUTER, Joiner.JOIN_ALGORITHM_HASH, 1000, true),
+                join(Joiner.JOIN_TYPE_FULL_OUTER, Joiner.JOIN_ALGORITHM_HASH, 1000, false));
+        assertEquals(join(Joiner.JOIN_TYPE_FULL_OUTER, Joiner.JOIN_ALGORITHM_HASH, 1000, true),
+                join(Joiner.JOIN_TYPE_FULL_OUTER, Joiner.JOIN_ALGORITHM_HASH, 1, false));
+    }
+
+    @Test
+    public void testSpillingMatchesInMemoryJoin() {
+        for (String joinType : new String[] { Joiner.JOIN_TYPE_INNER, Joiner.JOIN_TYPE_LEFT_OUTER, Joiner.JOIN_TYPE_FULL_OUTER }) {
+            List<String> inMemory = join(joinType, Joiner.JOIN_ALGORITHM_HASH, 1000, true);
+            assertEquals(0, spilledCount());
+            List<String> spilled = join(joinType, Joiner.JOIN_ALGORITHM_HASH, 1, true);
+            assertTrue(spilledCount() > 0);
+            assertEquals(joinType, inMemory, spilled);
+        }
+    }
+
+    @Test
+    public void testDuplicateBuildKeys() {
+        List<EntityData> customers = createCustomers();
+        customers.add(customer("1", "alicia"));
+        for (int maxRowsInMemory : new int[] { 1000, 1 }) {
+            List<String> joined = join(Joiner.JOIN_TYPE_INNER, Joiner.JOIN_ALGORITHM_HASH, maxRowsInMemory, true, customers,
+                    createOrders());
+            assertEquals(Arrays.asList("10:1:alice", "10:1:alicia", "11:1:alice", "11:1:alicia", "12:2:bob"), joined);
+        }
+    }
+
+    @Test
+    public void testSortMergeMatchesHashJoin() {
+        for (String joinType : new String[] { Joiner.JOIN_TYPE_INNER, Joiner.JOIN_TYPE_LEFT_OUTER, Joiner.JOIN_TYPE_FULL_OUTER }) {
+            assertEquals(joinType, join(joinType, Joiner.JOIN_ALGORITHM_HASH, 1000, true),
+                    join(joinType, Joiner.JOIN_ALGORITHM_SORT_MERGE, 1, true));
+        }
+    }
+
+    @Test
+    public void testNumericKeysMatchByValue() {
+        List<EntityData> customers = new ArrayList<>();
+        customers.add(customer("1.0", "alice"));
+        List<EntityData> orders = new ArrayList<>();
+        orders.add(order("10", "01"));
+        assertEquals(Arrays.asList("10:01:alice"),
+                join(Joiner.JOIN_TYPE_INNER, Joiner.JOIN_ALGORITHM_HASH, 1000, true, customers, orders));
+    }
+
+    protected List<String> join(String joinType, String algorithm, int maxRowsInMemory, boolean buildFirst) {
+        return join(joinType, algorithm, maxRowsInMemory, buildFirst, createCustomers(), createOrders());
+    }
+
+    protected List<String> join(String joinType, String algorithm, int maxRowsInMemory, boolean buildFirst,
+            List<EntityData> customers, List<EntityData> orders) {
+        if (joiner != null) {
+            joiner.stop();
+        }
+        joiner = createJoiner(joinType, algorithm, maxRowsInMemory);
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        if (buildFirst) {
+            joiner.handle(new EntityDataMessage("build", new ArrayList<>(customers)), callback, false);
+            joiner.handle(new ControlMessage("build"), callback, false);
+            joiner.handle(new EntityDataMessage("probe", new ArrayList<>(orders)), callback, false);
+            joiner.handle(new ControlMessage("probe"), callback, true);
+        } else {
+            joiner.handle(new EntityDataMessage("probe", new ArrayList<>(orders)), callback, false);
+            joiner.handle(new ControlMessage("probe"), callback, false);
+            joiner.handle(new EntityDataMessage("build", new ArrayList<>(customers)), callback, false);
+            joiner.handle(new ControlMessage("build"), callback, true);
+        }
+
+        List<String> joined = new ArrayList<>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            for (EntityData data : payload) {
+                Object customerId = data.get("order_customer_id") != null ? data.get("order_customer_id") : data.get("customer_id");
+                joined.add(data.get("order_id") + ":" + customerId + ":" + data.get("customer_name"));
+            }
+        }
+        Collections.sort(joined);
+        return joined;
+    }
+
+    protected long spilledCount() {
+        return joiner.getComponentStatistics().getNumberEntitiesSpilled(0);
+    }
+
+    protected Joiner createJoiner(String joinType, String algorithm, int maxRowsInMemory) {
+        Setting[] settings = new Setting[7];
+        settings[0] = new Setting(Joiner.BUILD_SOURCE_STEP, "build");
+        settings[1] = new Setting(Joiner.PROBE_SOURCE_STEP, "probe");
+        settings[2] = new Setting(Joiner.BUILD_KEY_ATTRIBUTES, "CUSTOMER.ID");
+        settings[3] = new Setting(Joiner.PROBE_KEY_ATTRIBUTES, "ORDERS.CUSTOMER_ID");
+        settings[4] = new Setting(Joiner.JOIN_TYPE, joinType);
+        settings[5] = new Setting(Joiner.JOIN_ALGORITHM, algorithm);
+        settings[6] = new Setting(Joiner.MAX_ROWS_IN_MEMORY, Integer.toString(maxRowsInMemory));
+        Component component = TestUtils.createComponent(Joiner.TYPE, false, null, model, model, null, null, settings);
+
+        Flow flow = TestUtils.createFlow("TestFlow", TestUtils.createFolder("Test Folder"));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setId("join");
+        flowStep.setFlowId(flow.getId());
+        flowStep.setCreateBy("Test");
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+        flow.getFlowStepLinks().add(new FlowStepLink("build", "join"));
+        flow.getFlowStepLinks().add(new FlowStepLink("probe", "join"));
+
+        Joiner joiner = new Joiner();
+        joiner.setContext(new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), new HashMap<>(), null, null, null));
+        joiner.start();
+        return joiner;
+    }
+
+    protected List<EntityData> createCustomers() {
+        List<EntityData> customers = new ArrayList<>();
+        customers.add(customer("1", "alice"));
+        customers.add(customer("2", "bob"));
+        customers.add(customer("3", "carol"));
+        customers.add(customer(null, "nobody"));
+        return customers;
+    }
+
+    protected List<EntityData> createOrders() {
+        List<EntityData> orders = new ArrayList<>();
+        orders.add(order("10", "1"));
+        orders.add(order("11", "1"));
+        orders.add(order("12", "2"));
+        orders.add(order("13", "4"));
+        orders.add(order("14", null));
+        return orders;
+    }
+
+    protected EntityData customer(String id, String name) {
+        EntityData data = new EntityData(model.getEntityDataSchema());
+        data.put("customer_id", id);
+        data.put("customer_name", name);
+        return data;
+    }
+
+    protected EntityData order(String id, String customerId) {
+        EntityData data = new EntityData(model.getEntityDataSchema());
+        data.put("order_id", id);
+        data.put("order_customer_id", customerId);
+        return data;
+    }
+
+    protected static RelationalModel createModel() {
+        ModelEntity customer = new ModelEntity("customer", "CUSTOMER");
+        customer.addModelAttribute(new ModelAttrib("customer_id", customer.getId(), "ID"));
+        customer.addModelAttribute(new ModelAttrib("customer_name", customer.getId(), "NAME"));
+        ModelEntity order = new ModelEntity("orders", "ORDERS");
+        order.addModelAttribute(new ModelAttrib("order_id", order.getId(), "ID"));
+        ModelAttrib customerId = new ModelAttrib("order_customer_id", order.getId(), "CUSTOMER_ID");
+        customerId.setDataType(DataType.NUMERIC);
+        order.addModelAttribute(customerId);
+        RelationalModel model = new RelationalModel();
+        model.getModelEntities().add(customer);
+        model.getModelEntities().add(order);
+        return model;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KeyHashTableTest {
+
+    @Test
+    public void testPutAndGetAcrossGrowth() {
+        KeyHashTable table = new KeyHashTable();
+        Random random = new Random(1);
+        Map<String, Integer> expected = new HashMap<>();
+        long[][] keys = new long[5000][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new long[] { random.nextLong(), random.nextLong() };
+            assertEquals(-1, table.put(keys[i][0], keys[i][1], i));
+            expected.put(keys[i][0] + ":" + keys[i][1], i);
+        }
+        assertEquals(keys.length, table.size());
+        assertTrue(table.getMemoryUsed() >= keys.length * 20L);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, table.get(keys[i][0], keys[i][1]));
+        }
+        assertEquals(-1, table.get(1, 2));
+
+        Map<String, Integer> visited = new HashMap<>();
+        table.forEach((high, low, value) -> visited.put(high + ":" + low, value));
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void testPutReplacesValue() {
+        KeyHashTable table = new KeyHashTable();
+        assertEquals(-1, table.put(5, 6, 1));
+        assertEquals(1, table.put(5, 6, 2));
+        assertEquals(2, table.get(5, 6));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testAdd() {
+        KeyHashTable table = new KeyHashTable();
+        assertTrue(table.add(1, 2));
+        assertFalse(table.add(1, 2));
+        assertTrue(table.add(2, 1));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testZeroKey() {
+        KeyHashTable table = new KeyHashTable();
+        assertEquals(-1, table.get(0, 0));
+        assertEquals(-1, table.put(0, 0, 7));
+        assertEquals(-1, table.put(0, 1, 8));
+        assertEquals(7, table.get(0, 0));
+        assertEquals(8, table.get(0, 1));
+        assertEquals(2, table.size());
+
+        Map<String, Integer> visited = new HashMap<>();
+        table.forEach((high, low, value) -> visited.put(high + ":" + low, value));
+        assertEquals(Integer.valueOf(7), visited.get("0:0"));
+        assertEquals(Integer.valueOf(8), visited.get("0:1"));
+
+        table.clear();
+        assertEquals(-1, table.get(0, 0));
+    }
+
+    @Test
+    public void testCollidingSlots() {
+        KeyHashTable table = new KeyHashTable();
+        for (int i = 0; i < 100; i++) {
+            table.put(i, 16, i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, table.get(i, 16));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        KeyHashTable table = new KeyHashTable();
+        for (int i = 1; i <= 100; i++) {
+            table.add(i, i);
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.get(1, 1));
+        assertEquals(KeyHashTable.MIN_CAPACITY * 20L, table.getMemoryUsed());
+    }
+}
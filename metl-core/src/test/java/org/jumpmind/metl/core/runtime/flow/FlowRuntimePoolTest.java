@@ -0,0 +1,111 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.metl.core.model.AgentDeploy;
+import org.junit.After;
+import org.junit.Test;
+
+public class FlowRuntimePoolTest {
+
+    ExecutorService buildThreads = Executors.newCachedThreadPool();
+
+    List<FlowRuntime> built = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void tearDown() {
+        buildThreads.shutdownNow();
+    }
+
+    @Test
+    public void testBorrowHandsOutPrebuiltFlowAndReplacesIt() throws Exception {
+        FlowRuntimePool pool = newPool(2);
+        pool.fill();
+        waitForIdle(pool, 2);
+        assertEquals(2, built.size());
+
+        FlowRuntime first = built.get(0);
+        Map<String, String> params = Collections.singletonMap("id", "1");
+        FlowRuntime flowRuntime = pool.borrow("user", params);
+        assertSame(first, flowRuntime);
+        verify(flowRuntime).prepare("user", params);
+        assertEquals(1, pool.getHitCount());
+
+        waitForIdle(pool, 2);
+        assertEquals(3, built.size());
+
+        pool.release(flowRuntime);
+        verify(flowRuntime).discard();
+    }
+
+    @Test
+    public void testBorrowBuildsOnCallerWhenEmpty() throws Exception {
+        FlowRuntimePool pool = newPool(1);
+        pool.close();
+        FlowRuntime flowRuntime = pool.borrow("user", null);
+        verify(flowRuntime).prepare("user", null);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testCloseDiscardsIdleFlows() throws Exception {
+        FlowRuntimePool pool = newPool(3);
+        pool.fill();
+        waitForIdle(pool, 3);
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+        for (FlowRuntime flowRuntime : built) {
+            verify(flowRuntime).discard();
+        }
+    }
+
+    protected FlowRuntimePool newPool(int size) {
+        AgentDeploy deployment = new AgentDeploy();
+        deployment.setName("test");
+        return new FlowRuntimePool(deployment, size, () -> {
+            FlowRuntime flowRuntime = mock(FlowRuntime.class);
+            built.add(flowRuntime);
+            return flowRuntime;
+        }, buildThreads);
+    }
+
+    protected void waitForIdle(FlowRuntimePool pool, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ((pool.getIdleCount() < count || pool.building.get() > 0) && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, pool.getIdleCount());
+    }
+}
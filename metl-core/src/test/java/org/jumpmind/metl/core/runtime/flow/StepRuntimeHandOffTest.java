@@ -0,0 +1,255 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.runtime.component.ComponentContext;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that a message is handed from one idle step to the next as soon as it
+ * is queued. This is the latency a request/response flow pays at every hop.
+ * When steps polled their queues and slept for 50ms when they were empty it
+ * averaged around 25-35ms per hop.
+ */
+public class StepRuntimeHandOffTest {
+
+    static final int STEP_COUNT = 12;
+
+    static final int RUNS = 20;
+
+    ExecutorService threads = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    /*
+     * A step that only noticed its message when its wait timed out would take
+     * half of the maximum wait per hop on average, so the whole chain taking
+     * less than one maximum wait on average means the steps were woken up.
+     * The bound is loose on purpose so that a slow machine doesn't fail it.
+     */
+    @Test
+    public void testParkedStepsAreWokenWhenQueued() throws Exception {
+        long totalNanos = 0;
+        for (int run = 0; run < RUNS; run++) {
+            totalNanos += runOnce();
+        }
+        long averageNanos = totalNanos / RUNS;
+        assertTrue(String.format("Parked steps should be woken up when a message is queued but %d hops took %dms", STEP_COUNT - 1,
+                TimeUnit.NANOSECONDS.toMillis(averageNanos)), averageNanos < StepRuntime.MAX_WAIT_FOR_MESSAGE_NANOS);
+    }
+
+    protected long runOnce() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        long[] receivedAt = new long[1];
+
+        Flow flow = new Flow();
+        flow.setProjectVersionId("test");
+        XMLComponentDefinition definition = new XMLComponentDefinition();
+        IDefinitionFactory definitionFactory = mock(IDefinitionFactory.class);
+        when(definitionFactory.getComponentDefinition(anyString(), anyString())).thenReturn(definition);
+        FlowRuntime flowRuntime = mock(FlowRuntime.class);
+
+        List<StepRuntime> steps = new ArrayList<>();
+        for (int i = 0; i < STEP_COUNT; i++) {
+            boolean lastStep = i == STEP_COUNT - 1;
+            Component component = new Component();
+            component.setType("HandOff");
+            component.setProjectVersionId("test");
+            FlowStep flowStep = new FlowStep(component);
+            flowStep.setName("Step " + i);
+            ComponentContext context = new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), null, null, null, null);
+            steps.add(new StepRuntime((projectVersionId, type, c, threadNumber) -> new HandOff(definition, c, threadNumber,
+                    lastStep ? () -> {
+                        receivedAt[0] = System.nanoTime();
+                        received.countDown();
+                    } : null), definitionFactory, context, flowRuntime));
+        }
+
+        for (int i = 0; i < STEP_COUNT; i++) {
+            List<StepRuntime> targets = i < STEP_COUNT - 1 ? Collections.singletonList(steps.get(i + 1)) : Collections.emptyList();
+            List<StepRuntime> sources = i > 0 ? Collections.singletonList(steps.get(i - 1)) : Collections.emptyList();
+            steps.get(i).setTargetStepRuntimes(new ArrayList<>(targets));
+            steps.get(i).setSourceStepRuntimes(new ArrayList<>(sources));
+        }
+
+        for (StepRuntime step : steps) {
+            step.start();
+        }
+        for (StepRuntime step : steps) {
+            step.startRunning();
+            threads.execute(step);
+        }
+
+        try {
+            /*
+             * Let every step find its queue empty and park before the message
+             * is sent
+             */
+            for (StepRuntime step : steps) {
+                awaitParked(step);
+            }
+
+            long start = System.nanoTime();
+            steps.get(0).queue(new ControlMessage());
+            assertTrue("The message never made it to the last step", received.await(30, TimeUnit.SECONDS));
+            for (StepRuntime step : steps) {
+                assertNull(step.getError());
+            }
+            return receivedAt[0] - start;
+        } finally {
+            for (StepRuntime step : steps) {
+                step.cancel();
+            }
+            for (StepRuntime step : steps) {
+                awaitStopped(step);
+            }
+        }
+    }
+
+    protected void awaitParked(StepRuntime step) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        Thread waiting = step.waitingThread;
+        while (waiting == null || LockSupport.getBlocker(waiting) != step) {
+            assertTrue("The step never waited for a message", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+            waiting = step.waitingThread;
+        }
+    }
+
+    protected void awaitStopped(StepRuntime step) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (step.isRunning()) {
+            assertTrue("The step didn't stop", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Forwards text messages. The first step turns the start message into a
+     * text message and the last step reports that it received one.
+     */
+    static class HandOff implements IComponentRuntime {
+
+        XMLComponentDefinition definition;
+
+        ComponentContext context;
+
+        int threadNumber;
+
+        Runnable onReceived;
+
+        HandOff(XMLComponentDefinition definition, ComponentContext context, int threadNumber, Runnable onReceived) {
+            this.definition = definition;
+            this.context = context;
+            this.threadNumber = threadNumber;
+            this.onReceived = onReceived;
+        }
+
+        @Override
+        public void create(XMLComponentDefinition definition, ComponentContext context, int threadNumber) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            boolean startMessage = inputMessage instanceof ControlMessage && inputMessage.getHeader().getOriginatingStepId() == null;
+            if (inputMessage instanceof TextMessage || startMessage) {
+                if (onReceived != null) {
+                    onReceived.run();
+                } else {
+                    callback.sendTextMessage(null, "hop");
+                }
+            }
+        }
+
+        @Override
+        public void flowCompleted(boolean cancelled) {
+        }
+
+        @Override
+        public void flowCompletedWithErrors(Throwable myError) {
+        }
+
+        @Override
+        public void flowSucceeded() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public ComponentContext getComponentContext() {
+            return context;
+        }
+
+        @Override
+        public XMLComponentDefinition getComponentDefintion() {
+            return definition;
+        }
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return true;
+        }
+
+        @Override
+        public int getThreadNumber() {
+            return threadNumber;
+        }
+
+        @Override
+        public void interrupt() {
+        }
+    }
+}
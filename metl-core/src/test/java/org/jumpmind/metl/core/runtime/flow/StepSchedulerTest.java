@@ -0,0 +1,199 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.component.ComponentContext;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
+import org.jumpmind.metl.core.runtime.flow.StepScheduler.IBlockingAction;
+import org.junit.After;
+import org.junit.Test;
+
+public class StepSchedulerTest {
+
+    StepScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testMessageQueuedAtTheEndOfATurnGetsAnotherTurn() throws Exception {
+        scheduler = new StepScheduler("test", 1);
+        AtomicInteger turns = new AtomicInteger();
+        CountDownLatch secondTurn = new CountDownLatch(1);
+        TestStep step = new TestStep(null) {
+            @Override
+            protected void runScheduled() {
+                if (turns.incrementAndGet() == 1) {
+                    /*
+                     * The step found its queue empty and a message is queued
+                     * before the turn ends. The signal does nothing because the
+                     * step still has its turn.
+                     */
+                    queued.set(1);
+                    scheduler.signal(this);
+                } else {
+                    queued.set(0);
+                    secondTurn.countDown();
+                }
+            }
+        };
+        scheduler.schedule(step);
+
+        assertTrue("The message that was queued at the end of the turn was never processed", secondTurn.await(10, TimeUnit.SECONDS));
+        awaitIdle(step);
+        assertEquals(2, turns.get());
+        assertEquals(2, scheduler.getTurnCount());
+    }
+
+    @Test
+    public void testBlockedStepLetsThePoolAddAThread() throws Exception {
+        scheduler = new StepScheduler("test", 1);
+        BlockingQueue<String> targetQueue = new ArrayBlockingQueue<>(1);
+        targetQueue.put("full");
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(1);
+        TestStep source = new TestStep(() -> {
+            scheduler.block(() -> {
+                blocking.countDown();
+                targetQueue.put("message");
+            });
+            sent.countDown();
+        });
+        TestStep target = new TestStep(() -> targetQueue.take());
+
+        scheduler.schedule(source);
+        assertTrue("The source step never blocked", blocking.await(10, TimeUnit.SECONDS));
+        scheduler.schedule(target);
+
+        assertTrue("The target step never got a thread while the only thread was blocked", sent.await(10, TimeUnit.SECONDS));
+        assertEquals("message", targetQueue.peek());
+        assertTrue(scheduler.getThreadCount() > 1);
+    }
+
+    @Test
+    public void testBlockOffThePoolRunsTheAction() throws Exception {
+        scheduler = new StepScheduler("test", 1);
+        AtomicBoolean ran = new AtomicBoolean();
+        scheduler.block(() -> ran.set(true));
+        assertTrue(ran.get());
+    }
+
+    @Test
+    public void testShutdownInterruptsTurnsAndRejectsLaterSignals() throws Exception {
+        scheduler = new StepScheduler("test", 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        TestStep step = new TestStep(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        scheduler.schedule(step);
+        assertTrue("The step never got a turn", started.await(10, TimeUnit.SECONDS));
+
+        scheduler.shutdown();
+        assertTrue("The turn in progress was not interrupted", interrupted.await(10, TimeUnit.SECONDS));
+        assertTrue(scheduler.pool.isTerminated());
+        assertEquals(0, scheduler.getScheduledStepCount());
+
+        AtomicBoolean ran = new AtomicBoolean();
+        TestStep late = new TestStep(() -> ran.set(true));
+        scheduler.schedule(late);
+        assertFalse(late.scheduled.get());
+        assertFalse(ran.get());
+        assertEquals(0, scheduler.getScheduledStepCount());
+    }
+
+    protected void awaitIdle(StepRuntime step) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ((step.scheduled.get() || scheduler.getActiveStepCount() > 0) && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertFalse(step.scheduled.get());
+    }
+
+    /**
+     * A running step whose turns run the given action instead of processing
+     * queued messages
+     */
+    static class TestStep extends StepRuntime {
+
+        IBlockingAction turn;
+
+        AtomicInteger queued = new AtomicInteger();
+
+        TestStep(IBlockingAction turn) {
+            super((projectVersionId, type, context, threadNumber) -> mock(IComponentRuntime.class), mock(IDefinitionFactory.class),
+                    newContext(), mock(FlowRuntime.class));
+            this.turn = turn;
+            startRunning();
+        }
+
+        @Override
+        protected void runScheduled() {
+            try {
+                turn.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        protected boolean hasQueuedMessages() {
+            return queued.get() > 0;
+        }
+
+        static ComponentContext newContext() {
+            Flow flow = new Flow();
+            flow.setProjectVersionId("test");
+            Component component = new Component();
+            component.setType("Test");
+            component.setProjectVersionId("test");
+            FlowStep flowStep = new FlowStep(component);
+            flowStep.setName("Test");
+            return new ComponentContext(null, flowStep, flow, new ExecutionTrackerNoOp(), null, null, null, null);
+        }
+    }
+}
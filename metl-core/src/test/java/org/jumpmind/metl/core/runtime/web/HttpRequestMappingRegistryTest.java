@@ -0,0 +1,109 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.jumpmind.metl.core.model.AgentDeploy;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpRequestMappingRegistryTest {
+
+    HttpRequestMappingRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new HttpRequestMappingRegistry();
+        register(HttpMethod.GET, "/customers");
+        register(HttpMethod.GET, "/customers/{id}");
+        register(HttpMethod.GET, "/customers/active");
+        register(HttpMethod.GET, "/customers/{id}/orders/{orderId}");
+        register(HttpMethod.GET, "/files/*/content");
+        register(HttpMethod.GET, "/static/**");
+        register(HttpMethod.GET, "/reports/{name}.json");
+        register(HttpMethod.POST, "/customers");
+    }
+
+    @Test
+    public void testLiteralMatch() {
+        assertMatch("/customers", HttpMethod.GET, "/customers");
+        assertMatch("/customers", HttpMethod.POST, "/customers");
+        assertNull(registry.findMatch(HttpMethod.PUT, "/customers"));
+        assertNull(registry.findMatch(HttpMethod.GET, "/customers/"));
+        assertNull(registry.findMatch(HttpMethod.GET, "/vendors"));
+    }
+
+    @Test
+    public void testLiteralSortsBeforeVariable() {
+        assertMatch("/customers/active", HttpMethod.GET, "/customers/active");
+        HttpRequestMatch match = assertMatch("/customers/{id}", HttpMethod.GET, "/customers/42");
+        assertEquals("42", match.getPathVariables().get("id"));
+    }
+
+    @Test
+    public void testPathVariablesAreExtracted() {
+        HttpRequestMatch match = assertMatch("/customers/{id}/orders/{orderId}", HttpMethod.GET, "/customers/7/orders/99");
+        assertEquals(2, match.getPathVariables().size());
+        assertEquals("7", match.getPathVariables().get("id"));
+        assertEquals("99", match.getPathVariables().get("orderId"));
+        assertNull(registry.findMatch(HttpMethod.GET, "/customers/7/orders"));
+    }
+
+    @Test
+    public void testWildcards() {
+        assertMatch("/files/*/content", HttpMethod.GET, "/files/a.txt/content");
+        assertNull(registry.findMatch(HttpMethod.GET, "/files/a/b/content"));
+        assertMatch("/static/**", HttpMethod.GET, "/static");
+        assertMatch("/static/**", HttpMethod.GET, "/static/css/site.css");
+    }
+
+    @Test
+    public void testPatternInsideSegment() {
+        HttpRequestMatch match = assertMatch("/reports/{name}.json", HttpMethod.GET, "/reports/sales.json");
+        assertEquals("sales", match.getPathVariables().get("name"));
+        assertNull(registry.findMatch(HttpMethod.GET, "/reports/sales.xml"));
+    }
+
+    @Test
+    public void testUnregister() {
+        HttpRequestMapping mapping = registry.findBestMatch(HttpMethod.GET, "/customers/active");
+        registry.unregister(mapping);
+        assertMatch("/customers/{id}", HttpMethod.GET, "/customers/active");
+    }
+
+    protected HttpRequestMatch assertMatch(String expectedPath, HttpMethod method, String path) {
+        HttpRequestMatch match = registry.findMatch(method, path);
+        assertEquals(expectedPath, match != null ? match.getMapping().getPath() : null);
+        return match;
+    }
+
+    protected void register(HttpMethod method, String path) {
+        AgentDeploy deployment = new AgentDeploy();
+        deployment.setName(method + " " + path);
+        HttpRequestMapping mapping = new HttpRequestMapping();
+        mapping.setMethod(method);
+        mapping.setPath(path);
+        mapping.setDeployment(deployment);
+        registry.register(mapping);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.jumpmind.metl.core.util.HashUtils.KeyHasher;
+import org.junit.Test;
+
+public class HashUtilsTest {
+
+    @Test
+    public void testSameValuesHashTheSame() {
+        long[] first = hash("a", 1, null);
+        KeyHasher hasher = new KeyHasher();
+        hasher.append("some much longer value that grows the buffer of the hasher past its initial size of two "
+                + "hundred and fifty six bytes so that the buffer has to be copied into a bigger one before it can "
+                + "hold all of the bytes of this value");
+        hasher.hash(new long[2]);
+        hasher.reset();
+        hasher.append("a");
+        hasher.append(1);
+        hasher.append(null);
+        long[] second = new long[2];
+        hasher.hash(second);
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void testValuesDoNotRunTogether() {
+        assertFalse(Arrays.equals(hash("ab", "c"), hash("a", "bc")));
+        assertFalse(Arrays.equals(hash("a", null), hash("a", "")));
+        assertFalse(Arrays.equals(hash("a"), hash("a", "")));
+    }
+
+    @Test
+    public void testStringFormIsHashed() {
+        assertArrayEquals(hash(1), hash("1"));
+        assertArrayEquals(hash(new byte[] { 'x', 'y' }), hash("xy"));
+    }
+
+    @Test
+    public void testHashOfEveryTailLength() {
+        byte[] data = new byte[33];
+        long[] previous = new long[2];
+        for (int length = 0; length <= data.length; length++) {
+            long[] hash = new long[2];
+            HashUtils.murmur3Hash128(data, 0, length, 0, hash);
+            if (length > 0) {
+                assertFalse(Arrays.equals(previous, hash));
+            }
+            long[] shifted = new long[2];
+            byte[] offsetData = new byte[data.length + 3];
+            HashUtils.murmur3Hash128(offsetData, 3, length, 0, shifted);
+            assertArrayEquals(hash, shifted);
+            previous = hash;
+        }
+    }
+
+    @Test
+    public void testHashIsSpread() {
+        int[] buckets = new int[8];
+        for (int i = 0; i < 8000; i++) {
+            buckets[(int) ((hash(i)[0] & Long.MAX_VALUE) % buckets.length)]++;
+        }
+        for (int count : buckets) {
+            assertTrue(Arrays.toString(buckets), count > 800 && count < 1200);
+        }
+    }
+
+    protected long[] hash(Object... values) {
+        KeyHasher hasher = new KeyHasher();
+        for (Object value : values) {
+            hasher.append(value);
+        }
+        long[] hash = new long[2];
+        hasher.hash(hash);
+        return hash;
+    }
+}
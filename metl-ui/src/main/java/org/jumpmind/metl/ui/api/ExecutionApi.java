@@ -63,6 +63,7 @@ import org.jumpmind.metl.core.runtime.component.Results;
 import org.jumpmind.metl.core.runtime.flow.FlowRuntime;
 import org.jumpmind.metl.core.runtime.web.HttpMethod;
 import org.jumpmind.metl.core.runtime.web.HttpRequestMapping;
+import org.jumpmind.metl.core.runtime.web.HttpRequestMatch;
 import org.jumpmind.metl.core.runtime.web.IHttpRequestMappingRegistry;
 import org.jumpmind.metl.core.util.GeneralUtils;
 import org.jumpmind.metl.core.util.VersionUtils;
@@ -72,7 +73,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.AntPathMatcher;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -126,8 +126,6 @@ public class ExecutionApi {
     @Autowired
     IHttpRequestMappingRegistry requestRegistry;
 
-    AntPathMatcher patternMatcher = new AntPathMatcher();
-
     @ApiOperation(
             value = "Invoke a flow that is deployed to an agent by name.  This is the way a non-webservice enabled flow is typically called by an external tool")
     @RequestMapping(value = "/agents/{agentName}/deployments/{deploymentName}/invoke", method = RequestMethod.GET)
@@ -331,10 +329,11 @@ public class ExecutionApi {
         String requestType = request.getMethod();
         String restOfTheUrl = ((String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE)).substring(WS.length());
         log.info(String.format("Attempting to find a service uri match for %s with request type %s", restOfTheUrl, requestType));
-        HttpRequestMapping mapping = requestRegistry.findBestMatch(HttpMethod.valueOf(requestType), restOfTheUrl);
-        if (mapping != null) {
+        HttpRequestMatch match = requestRegistry.findMatch(HttpMethod.valueOf(requestType), restOfTheUrl);
+        if (match != null) {
+            HttpRequestMapping mapping = match.getMapping();
             Map<String, String> params = toMap(request);
-            params.putAll(patternMatcher.extractUriTemplateVariables(mapping.getPath(), restOfTheUrl));
+            params.putAll(match.getPathVariables());
             if (isNotBlank(payload)) {
                 params.put(REQUEST_VALUE_PARAMETER, payload.toString());
             }
@@ -345,21 +344,25 @@ public class ExecutionApi {
             }
             AgentDeploy deployment = mapping.getDeployment();
             AgentRuntime agentRuntime = agentManager.getAgentRuntime(deployment.getAgentId());
-            FlowRuntime flowRuntime = agentRuntime.createFlowRuntime(whoAreYou(request), deployment, params);
-            IHasSecurity security = flowRuntime.getHasSecurity();
-            if (enforceSecurity(security, request, response)) {
-                String executionId = flowRuntime.getExecutionId();
-                response.setHeader(HEADER_EXECUTION_ID, executionId);
-                Results results = flowRuntime.execute();
-                if (results != null) {
-                    String contentType = results.getContentType();
-                    if (isNotBlank(contentType)) {
-                        response.setContentType(contentType);
-                    } else if (isBlank(response.getContentType())) {
-                        response.setContentType("application/octet-stream;charset=utf-8");
+            FlowRuntime flowRuntime = agentRuntime.borrowFlowRuntime(whoAreYou(request), deployment, params);
+            try {
+                IHasSecurity security = flowRuntime.getHasSecurity();
+                if (enforceSecurity(security, request, response)) {
+                    String executionId = flowRuntime.getExecutionId();
+                    response.setHeader(HEADER_EXECUTION_ID, executionId);
+                    Results results = flowRuntime.execute();
+                    if (results != null) {
+                        String contentType = results.getContentType();
+                        if (isNotBlank(contentType)) {
+                            response.setContentType(contentType);
+                        } else if (isBlank(response.getContentType())) {
+                            response.setContentType("application/octet-stream;charset=utf-8");
+                        }
+                        resultPayload = results.getValue();
                     }
-                    resultPayload = results.getValue();
                 }
+            } finally {
+                agentRuntime.releaseFlowRuntime(deployment, flowRuntime);
             }
             return resultPayload;
 
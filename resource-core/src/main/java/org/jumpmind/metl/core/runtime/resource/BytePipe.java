@@ -0,0 +1,170 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded buffer of bytes between a thread that writes and a thread that
+ * reads. Unlike {@link java.io.PipedInputStream} it does not track which
+ * threads use it, so the bytes may be written by more than one thread and the
+ * writing thread may exit before the pipe is closed. Readers and writers wait
+ * until there is data or room, or until the other end is closed.
+ */
+class BytePipe {
+
+    final byte[] buffer;
+
+    int readPosition;
+
+    int count;
+
+    boolean writeClosed;
+
+    boolean readClosed;
+
+    final InputStream inputStream = new PipeInputStream();
+
+    final OutputStream outputStream = new PipeOutputStream();
+
+    BytePipe(int size) {
+        this.buffer = new byte[size];
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    protected synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (count == 0) {
+            if (readClosed) {
+                throw new IOException("The pipe is closed");
+            } else if (writeClosed) {
+                return -1;
+            }
+            await();
+        }
+        int length = Math.min(len, count);
+        int first = Math.min(length, buffer.length - readPosition);
+        System.arraycopy(buffer, readPosition, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, length - first);
+        readPosition = (readPosition + length) % buffer.length;
+        count -= length;
+        notifyAll();
+        return length;
+    }
+
+    protected synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (writeClosed) {
+                throw new IOException("The pipe is closed");
+            } else if (readClosed) {
+                throw new IOException("The reading end of the pipe is closed");
+            } else if (count == buffer.length) {
+                await();
+            } else {
+                int writePosition = (readPosition + count) % buffer.length;
+                int length = Math.min(len, Math.min(buffer.length - count, buffer.length - writePosition));
+                System.arraycopy(b, off, buffer, writePosition, length);
+                count += length;
+                off += length;
+                len -= length;
+                notifyAll();
+            }
+        }
+    }
+
+    protected synchronized int available() {
+        return count;
+    }
+
+    protected synchronized void closeWrite() {
+        writeClosed = true;
+        notifyAll();
+    }
+
+    protected synchronized void closeRead() {
+        readClosed = true;
+        count = 0;
+        notifyAll();
+    }
+
+    protected void await() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on the pipe");
+        }
+    }
+
+    class PipeInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return BytePipe.this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BytePipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return BytePipe.this.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeRead();
+        }
+    }
+
+    class PipeOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            BytePipe.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BytePipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeWrite();
+        }
+    }
+}
@@ -22,9 +22,6 @@ package org.jumpmind.metl.core.runtime.resource;
 
 import static org.jumpmind.metl.core.runtime.resource.HttpDirectory.HTTP_METHOD_GET;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-
 import org.jumpmind.properties.TypedProperties;
 
 public class Http extends AbstractResourceRuntime {
@@ -39,6 +36,12 @@ public class Http extends AbstractResourceRuntime {
 
     public static final String HTTP_TIMEOUT = "http.timeout";
 
+    public static final String MAX_CONNECTIONS = "http.pool.max.connections";
+
+    public static final String MAX_CONNECTIONS_PER_HOST = "http.pool.max.connections.per.host";
+
+    public static final String KEEP_ALIVE_MS = "http.keep.alive.ms";
+
     public static final String SECURITY = "security.type";
 
     public static final String SECURITY_USERNAME = "security.usertoken.username";
@@ -75,11 +78,15 @@ public class Http extends AbstractResourceRuntime {
                 properties.get(SECURITY_OAUTH10_TOKEN), properties.get(SECURITY_OAUTH10_TOKEN_SECRET),
                 properties.get(SECURITY_OAUTH10_VERSION), properties.get(SECURITY_OAUTH10_SIGNATURE_METHOD),
                 properties.get(SECURITY_OAUTH10_REALM));
+        streamable.setMaxConnections(properties.getInt(MAX_CONNECTIONS, 50));
+        streamable.setMaxConnectionsPerHost(properties.getInt(MAX_CONNECTIONS_PER_HOST, 20));
+        streamable.setKeepAliveMs(properties.getLong(KEEP_ALIVE_MS, 30000));
     }
 
     @Override
     public void stop() {
         streamable.close();
+        streamable.shutdown();
     }
 
     @SuppressWarnings("unchecked")
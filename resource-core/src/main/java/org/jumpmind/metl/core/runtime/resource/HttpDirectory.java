@@ -20,22 +20,34 @@
  */
 package org.jumpmind.metl.core.runtime.resource;
 
-import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,6 +90,13 @@ public class HttpDirectory implements IHttpDirectory {
     String oa1TokenSecret;
     int timeout;
     int contentLength;
+    int maxConnections = 50;
+    int maxConnectionsPerHost = 20;
+    long keepAliveMs = 30000;
+
+    PoolingHttpClientConnectionManager connectionManager;
+    CloseableHttpClient httpClient;
+    ExecutorService uploadExecutor;
 
     public HttpDirectory(String url, String httpMethod, String contentType, int timeout,
             String security, String username, String password, String token, String oa1ConsumerKey,
@@ -178,23 +197,20 @@ public class HttpDirectory implements IHttpDirectory {
     @Override
     public InputStream getInputStream(String relativePath, boolean mustExist, boolean closeSession, Map<String, String> headers,
             Map<String, String> parameters) {
+        HttpRequestBase request = buildHttpRequest(relativePath, headers, parameters);
+        CloseableHttpResponse httpResponse = null;
         try {
-            HttpURLConnection httpConnection = buildHttpUrlConnection(relativePath, headers,
-                    parameters);
-            int responseCode = httpConnection.getResponseCode();
-            
-            if (responseCode == 200) {
-                String type = httpConnection.getContentEncoding();
-               InputStream in = new HttpInputStream(httpConnection);
-                if (!isBlank(type) && type.equals("gzip")) {
-                    in = new GZIPInputStream(in);
-                }
-                return in;
+            httpResponse = getHttpClient().execute(request);
+            int responseCode = httpResponse.getStatusLine().getStatusCode();
+            if (responseCode == 200 && httpResponse.getEntity() != null) {
+                /* gzip content encoding is decoded by the client */
+                return new HttpInputStream(httpResponse);
             } else {
+                IOUtils.closeQuietly(httpResponse);
                 throw new IoException("Received an unexpected response code of " + responseCode);
             }
-
         } catch (IOException e) {
+            IOUtils.closeQuietly(httpResponse);
             throw new IoException(e);
         }
     }
@@ -214,9 +230,8 @@ public class HttpDirectory implements IHttpDirectory {
     @Override
     public OutputStream getOutputStream(String relativePath, boolean mustExist, boolean closeSession, boolean append,
             Map<String, String> headers, Map<String, String> parameters) {
-        HttpURLConnection httpUrlConnection = buildHttpUrlConnection(relativePath, headers,
-                parameters);
-        return new HttpOutputStream(httpUrlConnection);
+        HttpEntityEnclosingRequestBase request = buildHttpRequest(relativePath, headers, parameters);
+        return new HttpOutputStream(getHttpClient(), request, contentLength, getUploadExecutor());
     }
 
     @Override
@@ -225,37 +240,78 @@ public class HttpDirectory implements IHttpDirectory {
         return getOutputStream(relativePath, mustExist, closeSession, append, null, null);
     }
 
-    protected HttpURLConnection buildHttpUrlConnection(String relativePath,
+    @Override
+    public synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(Math.max(1, maxConnections));
+            connectionManager.setDefaultMaxPerRoute(Math.max(1, Math.min(maxConnections, maxConnectionsPerHost)));
+            httpClient = HttpClients.custom().setConnectionManager(connectionManager).setKeepAliveStrategy((response, context) -> {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAliveMs;
+            }).build();
+        }
+        return httpClient;
+    }
+
+    @Override
+    public synchronized PoolStats getPoolStats() {
+        return connectionManager != null ? connectionManager.getTotalStats() : null;
+    }
+
+    protected synchronized ExecutorService getUploadExecutor() {
+        if (uploadExecutor == null) {
+            uploadExecutor = ThreadUtils.createUnboundedThreadPool("http-upload");
+        }
+        return uploadExecutor;
+    }
+
+    /**
+     * Release the pooled connections. The pool is owned by the resource and
+     * outlives individual reads and writes, so this is only called when the
+     * resource is stopped.
+     */
+    public synchronized void shutdown() {
+        if (httpClient != null) {
+            log.info("Closing HTTP connection pool for {}.  Final pool stats: {}", url, connectionManager.getTotalStats());
+            IOUtils.closeQuietly(httpClient);
+            httpClient = null;
+            connectionManager = null;
+        }
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdownNow();
+            uploadExecutor = null;
+        }
+    }
+
+    protected HttpEntityEnclosingRequestBase buildHttpRequest(String relativePath,
             Map<String, String> headers, Map<String, String> parameters) {
         try {
             String fullUrl = url;
             if (isNotBlank(relativePath)) {
                 fullUrl += relativePath;
             }
-            HttpURLConnection httpUrlConnection = (HttpURLConnection) new URL(fullUrl)
-                    .openConnection();
+            HttpEntityEnclosingRequestBase request = new HttpMethodRequest(httpMethod);
+            request.setURI(new URL(fullUrl).toURI());
             if (headers != null) {
                 for (String key : headers.keySet()) {
-                    httpUrlConnection.setRequestProperty(key, headers.get(key));
+                    request.setHeader(key, headers.get(key));
                 }
             }
-            httpUrlConnection.setConnectTimeout(timeout);
-            httpUrlConnection.setReadTimeout(timeout);
-            httpUrlConnection.setRequestMethod(httpMethod);
-            httpUrlConnection.setDoOutput(true);
-            httpUrlConnection.setDoInput(true);
+            request.setConfig(RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout)
+                    .setConnectionRequestTimeout(timeout).build());
             if (isNotBlank(contentType)) {
-                httpUrlConnection.setRequestProperty("Content-Type", contentType);
+                request.setHeader("Content-Type", contentType);
             }
-            setBasicAuthIfNeeded(httpUrlConnection);
-            setOAuth10IfNeeded(httpUrlConnection, parameters);
-            return httpUrlConnection;
+            setBasicAuthIfNeeded(request);
+            setOAuth10IfNeeded(request, parameters);
+            return request;
         } catch (Exception e) {
             throw new IoException(e);
         }
     }
 
-    protected void setOAuth10IfNeeded(HttpURLConnection conn, Map<String, String> parameters) {
+    protected void setOAuth10IfNeeded(HttpRequestBase request, Map<String, String> parameters) {
         if (SECURITY_OAUTH_10.equals(security)) {
             OAuthParameters parms = new OAuthParameters();
             parms.setConsumerKey(oa1ConsumerKey);
@@ -268,7 +324,7 @@ public class HttpDirectory implements IHttpDirectory {
             OAuthSecrets secrets = new OAuthSecrets();
             secrets.setConsumerSecret(oa1ConsumerSecret);
             secrets.setTokenSecret(oa1TokenSecret);
-            OAuthReq req = new OAuthReq(conn, parameters, url);
+            OAuthReq req = new OAuthReq(request, parameters, url);
             try {
                 OAuthSignature.sign(req, parms, secrets);
             } catch (Exception e) {
@@ -278,13 +334,13 @@ public class HttpDirectory implements IHttpDirectory {
         }
     }
 
-    protected void setBasicAuthIfNeeded(HttpURLConnection conn) {
+    protected void setBasicAuthIfNeeded(HttpRequestBase request) {
         if (SECURITY_BASIC.equals(security)) {
             String userpassword = String.format("%s:%s", username, password);
             String encodedAuthorization = new String(Base64.encodeBase64(userpassword.getBytes()));
-            conn.setRequestProperty("Authorization", "Basic " + encodedAuthorization);
+            request.setHeader("Authorization", "Basic " + encodedAuthorization);
         } else if (SECURITY_TOKEN.equals(security)) {
-            conn.setRequestProperty("Authorization", "Bearer " + token);
+            request.setHeader("Authorization", "Bearer " + token);
         }
     }
 
@@ -372,30 +428,55 @@ public class HttpDirectory implements IHttpDirectory {
         return timeout;
     }
 
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public void setKeepAliveMs(long keepAliveMs) {
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    static class HttpMethodRequest extends HttpEntityEnclosingRequestBase {
+
+        String method;
+
+        public HttpMethodRequest(String method) {
+            this.method = method;
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+    }
 
 
     private class OAuthReq implements OAuthRequest {
 
-        HttpURLConnection conn;
+        HttpRequestBase request;
         Map<String, String> parameters;
         String baseURL;
 
-        public OAuthReq(HttpURLConnection conn, Map<String, String> parameters, String baseURL) {
-            this.conn = conn;
-            this.parameters = parameters;
+        public OAuthReq(HttpRequestBase request, Map<String, String> parameters, String baseURL) {
+            this.request = request;
+            this.parameters = parameters != null ? parameters : Collections.emptyMap();
             this.baseURL = baseURL;
         }
 
         @Override
         public String getRequestMethod() {
-            return conn.getRequestMethod();
+            return request.getMethod();
         }
 
         @Override
         public URL getRequestURL() {
             URL url;
             try {
-                url = new URL(baseURL + conn.getURL().getPath());
+                url = new URL(baseURL + request.getURI().getPath());
             } catch (Exception e) {
                 log.error("Error creating base URL " + e.getMessage());
                 throw new RuntimeException(e);
@@ -422,10 +503,10 @@ public class HttpDirectory implements IHttpDirectory {
 
         @Override
         public List<String> getHeaderValues(String name) {
-            String headerVal = conn.getHeaderField(name);
-            if (headerVal != null) {
+            Header header = request.getFirstHeader(name);
+            if (header != null) {
                 List<String> headerVals = new ArrayList<String>();
-                headerVals.add(headerVal);
+                headerVals.add(header.getValue());
                 return headerVals;
             } else {
                 return null;
@@ -434,15 +515,13 @@ public class HttpDirectory implements IHttpDirectory {
 
         @Override
         public void addHeaderValue(String name, String value) throws IllegalStateException {
-            conn.addRequestProperty(name, value);
+            request.addHeader(name, value);
         }
     }
     
     public boolean test() {
-        try {
-            HttpURLConnection httpConnection = buildHttpUrlConnection(null, null, null);
-            httpConnection.connect();
-            if (HttpURLConnection.HTTP_OK == httpConnection.getResponseCode()) {
+        try (CloseableHttpResponse httpResponse = getHttpClient().execute(buildHttpRequest(null, null, null))) {
+            if (HttpStatus.SC_OK == httpResponse.getStatusLine().getStatusCode()) {
                 return true;
             }
         } catch (Exception e) {
@@ -22,8 +22,10 @@ package org.jumpmind.metl.core.runtime.resource;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.jumpmind.exception.IoException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,24 +34,23 @@ public class HttpInputStream extends InputStream implements IInputStreamWithConn
 
     final Logger log = LoggerFactory.getLogger(getClass());
 
-    HttpURLConnection httpUrlConnection;
+    CloseableHttpResponse httpResponse;
 
     InputStream is;
 
-    StringBuilder response = new StringBuilder();
-
-    public HttpInputStream(HttpURLConnection httpUrlConnection) {
-        this.httpUrlConnection = httpUrlConnection;
+    public HttpInputStream(CloseableHttpResponse httpResponse) {
+        this.httpResponse = httpResponse;
         try {
-            this.is = this.httpUrlConnection.getInputStream();
+            this.is = this.httpResponse.getEntity().getContent();
         } catch (IOException e) {
+            IOUtils.closeQuietly(httpResponse);
             throw new IoException(e);
         }
     }
 
     @Override
-    public HttpURLConnection getHttpConnection() {
-        return httpUrlConnection;
+    public HttpResponse getHttpResponse() {
+        return httpResponse;
     }
 
     @Override
@@ -57,6 +58,29 @@ public class HttpInputStream extends InputStream implements IInputStreamWithConn
         return this.is.read();
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return this.is.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.is.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        /*
+         * Closing the content stream first drains it so the connection is
+         * handed back to the pool for reuse instead of being discarded
+         */
+        try {
+            this.is.close();
+        } finally {
+            this.httpResponse.close();
+        }
+    }
+
     @Override
     public InputStream getInputStream() {
         return is;
@@ -20,34 +20,70 @@
  */
 package org.jumpmind.metl.core.runtime.resource;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.jumpmind.exception.IoException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Streams the request body to the server while it is being written. The
+ * request runs on a separate thread that pulls the body through a pipe, so
+ * the body is sent with chunked transfer encoding (or a fixed length when
+ * one is known) and never has to be buffered in memory. The pipe doesn't
+ * depend on the writing thread, so the body may be written from any thread.
+ * <p>
+ * The stream must always be closed, even when writing to it failed. Until it
+ * is closed the request thread waits for more of the body while it holds a
+ * pooled connection. A write that fails aborts the request itself.
+ */
 public class HttpOutputStream extends OutputStream implements IOutputStreamWithResponse {
 
-    final Logger log = LoggerFactory.getLogger(getClass());
+    static final int PIPE_BUFFER_SIZE = 64 * 1024;
 
-    HttpURLConnection httpUrlConnection;
+    final Logger log = LoggerFactory.getLogger(getClass());
 
     OutputStream os;
 
+    HttpEntityEnclosingRequestBase request;
+
+    Future<Integer> responseCode;
+
     StringBuilder response = new StringBuilder();
 
-    public HttpOutputStream(HttpURLConnection httpUrlConnection) {
-        this.httpUrlConnection = httpUrlConnection;
-        try {
-            this.os = this.httpUrlConnection.getOutputStream();
-        } catch (IOException e) {
-            throw new IoException(e);
-        }
+    public HttpOutputStream(CloseableHttpClient httpClient, HttpEntityEnclosingRequestBase request,
+            long contentLength, ExecutorService executor) {
+        this.request = request;
+        BytePipe pipe = new BytePipe(PIPE_BUFFER_SIZE);
+        InputStream is = pipe.getInputStream();
+        this.os = pipe.getOutputStream();
+        InputStreamEntity entity = new InputStreamEntity(is, contentLength > 0 ? contentLength : -1);
+        entity.setChunked(contentLength <= 0);
+        request.setEntity(entity);
+        this.responseCode = executor.submit(() -> {
+            try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+                HttpEntity responseEntity = httpResponse.getEntity();
+                if (responseEntity != null) {
+                    response.append(EntityUtils.toString(responseEntity, HttpDirectory.DEFAULT_CHARSET));
+                }
+                return httpResponse.getStatusLine().getStatusCode();
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        });
     }
 
     @Override
@@ -57,50 +93,87 @@ public class HttpOutputStream extends OutputStream implements IOutputStreamWithR
 
     @Override
     public void write(int b) throws IOException {
-        this.os.write(b);
+        try {
+            this.os.write(b);
+        } catch (IOException | RuntimeException e) {
+            throw requestFailure(e);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        try {
+            this.os.write(b, off, len);
+        } catch (IOException | RuntimeException e) {
+            throw requestFailure(e);
+        }
     }
 
     @Override
     public void flush() throws IOException {
-        this.os.flush();
+        try {
+            this.os.flush();
+        } catch (IOException | RuntimeException e) {
+            throw requestFailure(e);
+        }
     }
 
     @Override
     public void close() throws IOException {
-        this.os.close();
-        BufferedReader in = null;
-        int responseCode = -1;
         try {
-            responseCode = httpUrlConnection.getResponseCode();
-            boolean isError = (responseCode >= 400);
-            
-            if (isError) {
-                if (httpUrlConnection.getErrorStream() != null) {
-                    in = new BufferedReader(new InputStreamReader(httpUrlConnection.getErrorStream(), "UTF-8"));
-                }
-            } else {
-                in = new BufferedReader(new InputStreamReader(httpUrlConnection.getInputStream(), "UTF-8"));
-            }
-            
-            if (in != null) {
-                String line = in.readLine();
-                while (line != null) {
-                    response.append(line);
-                    response.append(System.getProperty("line.separator"));
-                    line = in.readLine();
-                }
-            }
-        } catch (IOException e) {
+            this.os.close();
+        } catch (IOException | RuntimeException e) {
+            throw requestFailure(e);
+        }
+        int code = -1;
+        try {
+            code = responseCode.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new IoException(e);
-        } finally {
-            IOUtils.closeQuietly(in);
+        } catch (ExecutionException e) {
+            throw new IoException(e.getCause());
+        } catch (CancellationException e) {
+            throw new IoException("The request was aborted because its body could not be written");
         }
-        if (responseCode > 299) {
+        if (code > 299) {
             throw new IoException(String.format(
                     "Received an unexpected response code of %d with error content of: %s",
-                    responseCode, response.toString().replace("%","%%")));
+                    code, response.toString().replace("%","%%")));
         }
+    }
 
+    /**
+     * Aborts the request so the request thread stops waiting for the rest of
+     * the body and its connection is not returned to the pool with a partial
+     * body on it. The request thread is interrupted because it is blocked on
+     * the pipe, not on the connection.
+     */
+    protected void abort() {
+        request.abort();
+        responseCode.cancel(true);
+        IOUtils.closeQuietly(os);
+    }
+
+    /**
+     * A write fails when the request stopped reading the pipe. Report why the
+     * request failed rather than the broken pipe.
+     */
+    protected IOException requestFailure(Exception e) {
+        boolean done = responseCode.isDone();
+        abort();
+        if (done) {
+            try {
+                return new IOException(String.format(
+                        "Received a response code of %d before the request body was fully written: %s",
+                        responseCode.get(), response), e);
+            } catch (ExecutionException ex) {
+                return new IOException(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return e instanceof IOException ? (IOException) e : new IOException(e);
     }
 
-}
\ No newline at end of file
+}
@@ -43,8 +43,16 @@ public class Sftp extends AbstractResourceRuntime {
     public static final String SFTP_MUST_EXIST = "sftp.must.exist";
     
     public static final String SFTP_CONNECTION_TIMEOUT = "sftp.connection.timeout";
+
+    public static final String SFTP_POOL_MIN_SESSIONS = "sftp.pool.min.sessions";
+
+    public static final String SFTP_POOL_MAX_SESSIONS = "sftp.pool.max.sessions";
+
+    public static final String SFTP_KEEP_ALIVE_MS = "sftp.keep.alive.ms";
+
+    public static final String SFTP_POOL_IDLE_TIMEOUT_MS = "sftp.pool.idle.timeout.ms";
     
-    IDirectory streamableResource;
+    SftpDirectory streamableResource;
 
     @Override
     protected void start(TypedProperties properties) {
@@ -57,11 +65,16 @@ public class Sftp extends AbstractResourceRuntime {
                 properties.getProperty(SFTP_BASE_PATH),                
                 properties.getInt(SFTP_CONNECTION_TIMEOUT),
                 properties.is(SFTP_MUST_EXIST));
+        streamableResource.setMinSessions(properties.getInt(SFTP_POOL_MIN_SESSIONS, 0));
+        streamableResource.setMaxSessions(properties.getInt(SFTP_POOL_MAX_SESSIONS, 0));
+        streamableResource.setKeepAliveMs(properties.getLong(SFTP_KEEP_ALIVE_MS, 30000));
+        streamableResource.setIdleTimeoutMs(properties.getLong(SFTP_POOL_IDLE_TIMEOUT_MS, 300000));
     }
 
     @Override
     public void stop() {
         streamableResource.close();
+        streamableResource.shutdown();
     }
 
     @SuppressWarnings("unchecked")
@@ -27,11 +27,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.exception.IoException;
@@ -57,8 +58,12 @@ public class SftpDirectory extends AbstractDirectory {
     protected String keyFileLocation;
     protected Integer connectionTimeout;
     protected boolean mustExist;
-    protected ThreadLocal<Session> threadSession;
-    protected ThreadLocal<Map<Integer, ChannelSftp>> threadChannels;
+    protected Map<Thread, SessionLease> threadLeases;
+    protected int minSessions = 0;
+    protected int maxSessions = 0;
+    protected long keepAliveMs = 30000;
+    protected long idleTimeoutMs = 300000;
+    protected SftpSessionPool sessionPool;
     
     // Define reusable channels
     private static final int CHANNEL_1 = 0;
@@ -85,8 +90,7 @@ public class SftpDirectory extends AbstractDirectory {
         this.connectionTimeout = connectionTimeout;
         this.mustExist = mustExist;
         this.keyFileLocation = keyFileLocation;
-        this.threadSession = new ThreadLocal<Session>();
-        this.threadChannels = new ThreadLocal<Map<Integer, ChannelSftp>>();
+        this.threadLeases = new ConcurrentHashMap<Thread, SessionLease>();
     }
 
     @Override
@@ -211,27 +215,85 @@ public class SftpDirectory extends AbstractDirectory {
         close(true);
     }
 
+    /**
+     * Disconnects the channels opened by this thread and hands its session
+     * back to the pool for the next caller.
+     */
     @Override
     public void close(boolean success) {
-        Session session = threadSession.get();
-        if (session != null) {
+        SessionLease lease = threadLeases.remove(Thread.currentThread());
+        if (lease != null) {
+            releaseLease(lease);
+        }
+    }    
+
+    protected void releaseLease(SessionLease lease) {
+        if (!lease.released.compareAndSet(false, true)) {
+            return;
+        }
+        for (ChannelSftp channel : lease.transientChannels) {
+            channel.disconnect();
+        }
+        lease.transientChannels.clear();
+        for (ChannelSftp channel : lease.channels.values()) {
+            if (channel != null) {
+                channel.disconnect();
+            }
+        }
+        lease.channels.clear();
+        releaseSession(lease.session);
+    }
+
+    /**
+     * Hands back the sessions of threads that will never close them. A lease
+     * without open streams is reclaimed once its thread has died or it has not
+     * been used for longer than the idle timeout, which happens when a
+     * directory is opened on one pooled thread and closed on another.
+     */
+    protected void reclaimAbandonedLeases() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Thread, SessionLease> entry : threadLeases.entrySet()) {
+            SessionLease lease = entry.getValue();
+            boolean dead = !entry.getKey().isAlive();
+            boolean idle = idleTimeoutMs > 0 && now - lease.lastUsedTime > idleTimeoutMs;
+            if (lease.openStreams.get() == 0 && (dead || idle) && threadLeases.remove(entry.getKey(), lease)) {
+                log.info("Reclaiming the SFTP session leased by {} thread {}", dead ? "dead" : "idle", entry.getKey().getName());
+                releaseLease(lease);
+            }
+        }
+    }
+
+    protected synchronized void releaseSession(Session session) {
+        if (sessionPool != null) {
+            sessionPool.release(session);
+        } else {
             session.disconnect();
-            threadSession.set(null);
         }
-        Map<Integer, ChannelSftp> channels = threadChannels.get();
-        if (channels != null) {
-            Iterator<Entry<Integer, ChannelSftp>> itr = channels.entrySet().iterator();
-            while (itr.hasNext()) {
-                Map.Entry<Integer, ChannelSftp> entry = itr.next();
-                ChannelSftp channel = entry.getValue();
-                if (channel != null) {
-                    channel.disconnect();
-                }
+    }
+
+    /**
+     * Closes the pooled sessions. Called when the resource is stopped.
+     */
+    public synchronized void shutdown() {
+        for (Thread thread : new ArrayList<Thread>(threadLeases.keySet())) {
+            SessionLease lease = threadLeases.remove(thread);
+            if (lease != null) {
+                releaseLease(lease);
             }
-            channels.clear();
-            threadChannels.set(null);
         }
-    }    
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+    }
+
+    protected synchronized SftpSessionPool getSessionPool() {
+        if (sessionPool == null) {
+            sessionPool = new SftpSessionPool(this::statelessConnect, minSessions, maxSessions, keepAliveMs, idleTimeoutMs,
+                    connectionTimeout != null && connectionTimeout > 0 ? connectionTimeout : 60000);
+        }
+        return sessionPool;
+    }
     
     @Override
     public boolean requiresContentLength() {
@@ -248,35 +310,32 @@ public class SftpDirectory extends AbstractDirectory {
     }
     
     public void connect() {
-        JSch jsch=new JSch();
-        Session session = null;
-        try {
-            if (StringUtils.isNotEmpty(keyFileLocation)) {
-                jsch.addIdentity(keyFileLocation);
-            }
-            session = jsch.getSession(user, server, port);
-            if (StringUtils.isNotEmpty(password)) {
-                session.setPassword(password.getBytes());
-            }
-            java.util.Properties config = new java.util.Properties();
-            config.put("StrictHostKeyChecking", "no");
-            config.put("PreferredAuthentications", "publickey,keyboard-interactive,password");
-            session.setConfig(config);
-            session.connect(connectionTimeout);
-            threadSession.set(session);
-        } catch (JSchException e) {
-            throw new IoException(e);
-        }           
+        openSession();
     }
     
     protected Session openSession() {
-        Session session = threadSession.get();
-        if (session == null) {
-            session = statelessConnect();
-            threadSession.set(session);
-        }    
-//    	session.sendKeepAliveMsg();
-        return session;
+        return openLease().session;
+    }
+
+    protected SessionLease openLease() {
+        Thread thread = Thread.currentThread();
+        SessionLease lease = threadLeases.get(thread);
+        if (lease == null) {
+            reclaimAbandonedLeases();
+            lease = new SessionLease(getSessionPool().borrow());
+            threadLeases.put(thread, lease);
+        }
+        lease.lastUsedTime = System.currentTimeMillis();
+        return lease;
+    }
+
+    /**
+     * Releases the lease of a stream that closes its session, whichever thread
+     * the stream is closed on.
+     */
+    protected void closeLease(SessionLease lease) {
+        threadLeases.values().remove(lease);
+        releaseLease(lease);
     }
     
     
@@ -286,9 +345,10 @@ public class SftpDirectory extends AbstractDirectory {
      * @return a new channel.
      */
     protected ChannelSftp openConnectedChannel() throws JSchException {
-        Session session = openSession();
-        ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+        SessionLease lease = openLease();
+        ChannelSftp channel = (ChannelSftp) lease.session.openChannel("sftp");
         channel.connect();
+        lease.transientChannels.add(channel);
         try {
             channel.cd(basePath);
         } catch (SftpException e) {
@@ -306,14 +366,11 @@ public class SftpDirectory extends AbstractDirectory {
      */
     protected ChannelSftp openConnectedChannel(int channelId) throws JSchException {
 
-        Session session = openSession();
-        Map<Integer, ChannelSftp> channels = threadChannels.get();
-        if (channels == null) {
-            channels = new HashMap<Integer, ChannelSftp>();            
-        }
+        SessionLease lease = openLease();
+        Map<Integer, ChannelSftp> channels = lease.channels;
         ChannelSftp channel = channels.get(channelId);
         if (channel == null || channel.isClosed()) {
-            channel = (ChannelSftp) session.openChannel("sftp");
+            channel = (ChannelSftp) lease.session.openChannel("sftp");
         }
         if (!channel.isConnected()) {
             channel.connect();
@@ -324,7 +381,6 @@ public class SftpDirectory extends AbstractDirectory {
             }
         }
         channels.put(channelId, channel);
-        threadChannels.set(channels);
         return channel;
     }
     
@@ -343,6 +399,9 @@ public class SftpDirectory extends AbstractDirectory {
             config.put("StrictHostKeyChecking", "no");
             config.put("PreferredAuthentications", "publickey,keyboard-interactive,password");
             session.setConfig(config);
+            if (keepAliveMs > 0) {
+                session.setServerAliveInterval((int) keepAliveMs);
+            }
             session.connect(connectionTimeout);
             return session;
         } catch (JSchException e) {
@@ -350,6 +409,22 @@ public class SftpDirectory extends AbstractDirectory {
 		}   
     }
 
+    public void setMinSessions(int minSessions) {
+        this.minSessions = minSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    public void setKeepAliveMs(long keepAliveMs) {
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
     @Override
     public List<FileInfo> listFiles(String... relativePaths) {
         return listFiles(true, relativePaths);
@@ -459,17 +534,17 @@ public class SftpDirectory extends AbstractDirectory {
 
     @Override
     public InputStream getInputStream(String relativePath, boolean mustExist, boolean closeSession) {
-    	Session session = null;
+    	SessionLease lease = null;
     	ChannelSftp sftp = null;
         try {
-        	session = openSession();
+        	lease = openLease();
             // Get a reusable channel if the session is not auto closed.
             sftp = (closeSession) ? openConnectedChannel() : openConnectedChannel(CHANNEL_IN);
             sftp.cd(basePath);
             if (mustExist && !fileExists(sftp, relativePath)) {
                 throw new IoException("Could not find endpoint '%s' that was configured as MUST EXIST",relativePath);
             }
-            return new CloseableInputStream(sftp.get(relativePath), session, sftp, closeSession);
+            return new CloseableInputStream(sftp.get(relativePath), lease, sftp, closeSession);
         } catch (Exception e) {
             if (e instanceof IoException || 
                     (e instanceof SftpException && ((SftpException) e).id != 2)) {
@@ -492,14 +567,14 @@ public class SftpDirectory extends AbstractDirectory {
 
     @Override
     public OutputStream getOutputStream(String relativePath, boolean mustExist, boolean closeSession, boolean append) {
-    	Session session = null;
+    	SessionLease lease = null;
     	ChannelSftp sftp = null;
         try {
-        	session = openSession();
+        	lease = openLease();
             // Get a reusable channel if the session is not auto closed.
             sftp = (closeSession) ? openConnectedChannel() : openConnectedChannel(CHANNEL_OUT);
             createRelativePathDirectoriesIfNecessary(sftp, relativePath, mustExist);
-            return new CloseableOutputStream(sftp.put(relativePath, ChannelSftp.OVERWRITE), session, sftp, closeSession);
+            return new CloseableOutputStream(sftp.put(relativePath, ChannelSftp.OVERWRITE), lease, sftp, closeSession);
         } catch (Exception e) {            
             throw new IoException(e);
         } 
@@ -568,50 +643,86 @@ public class SftpDirectory extends AbstractDirectory {
         return basePath;
     }
 
+    /**
+     * A pooled session with the channels opened on it. A lease belongs to the
+     * thread that opened it until that thread closes the directory or a stream
+     * opened with it closes the session.
+     */
+    static class SessionLease {
+        final Session session;
+        final Map<Integer, ChannelSftp> channels = new HashMap<Integer, ChannelSftp>();
+        final List<ChannelSftp> transientChannels = new ArrayList<ChannelSftp>();
+        final AtomicInteger openStreams = new AtomicInteger();
+        final AtomicBoolean released = new AtomicBoolean();
+        volatile long lastUsedTime = System.currentTimeMillis();
+
+        SessionLease(Session session) {
+            this.session = session;
+        }
+    }
+
     class CloseableOutputStream extends BufferedOutputStream {
-        Session session;
+        SessionLease lease;
         ChannelSftp sftp;
         boolean closeSession = true;
+        boolean closed;
 
-        public CloseableOutputStream(OutputStream os, Session session, ChannelSftp sftp, boolean closeSession) {
+        public CloseableOutputStream(OutputStream os, SessionLease lease, ChannelSftp sftp, boolean closeSession) {
             super(os);
-            this.session = session;
+            this.lease = lease;
             this.sftp = sftp;
             this.closeSession = closeSession;
+            lease.openStreams.incrementAndGet();
         }
 
         @Override
         public void close() throws IOException {
-            super.close();
-            if (closeSession) {
-                SftpDirectory.this.close();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                lease.openStreams.decrementAndGet();
+                lease.lastUsedTime = System.currentTimeMillis();
+                if (closeSession) {
+                    closeLease(lease);
+                }
             }
         }
     }
 
     class CloseableInputStream extends BufferedInputStream {
-        Session session;
+        SessionLease lease;
         ChannelSftp sftp;
         boolean closeSession = true;
+        boolean closed;
 
-        public CloseableInputStream(InputStream is, Session session, ChannelSftp sftp, boolean closeSession) {
+        public CloseableInputStream(InputStream is, SessionLease lease, ChannelSftp sftp, boolean closeSession) {
             super(is);
-            this.session = session;
+            this.lease = lease;
             this.sftp = sftp;
             this.closeSession = closeSession;
+            lease.openStreams.incrementAndGet();
         }
 
         @Override
         public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lease.openStreams.decrementAndGet();
+            lease.lastUsedTime = System.currentTimeMillis();
             if (closeSession) {
                 try {
                     super.close();
                 } catch (Exception ex) {
                     log.debug("", ex);
                 } finally {
-                    SftpDirectory.this.close();
+                    closeLease(lease);
                 }
-                super.close();
             }
         }
     }
@@ -0,0 +1,234 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.resource;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.jumpmind.exception.IoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Session;
+
+/**
+ * A pool of authenticated SSH sessions owned by one {@link Sftp} resource.
+ * Sessions are handed out to one thread or stream at a time and returned when
+ * the directory or stream is closed, so flows using the same resource skip the SSH
+ * handshake. Idle sessions are kept alive and health checked in the background
+ * and evicted once they have been idle longer than the idle timeout, down to
+ * the configured minimum.
+ */
+class SftpSessionPool {
+
+    static final Logger log = LoggerFactory.getLogger(SftpSessionPool.class);
+
+    final Supplier<Session> sessionFactory;
+
+    final int minSessions;
+
+    final int maxSessions;
+
+    final long keepAliveMs;
+
+    final long idleTimeoutMs;
+
+    final long maxWaitMs;
+
+    final LinkedBlockingDeque<PooledSession> idleSessions = new LinkedBlockingDeque<>();
+
+    final AtomicInteger openSessions = new AtomicInteger();
+
+    final Semaphore leases;
+
+    ScheduledExecutorService maintenanceExecutor;
+
+    volatile boolean closed;
+
+    SftpSessionPool(Supplier<Session> sessionFactory, int minSessions, int maxSessions, long keepAliveMs, long idleTimeoutMs,
+            long maxWaitMs) {
+        this.sessionFactory = sessionFactory;
+        this.maxSessions = maxSessions;
+        this.minSessions = maxSessions > 0 ? Math.min(minSessions, maxSessions) : minSessions;
+        this.keepAliveMs = keepAliveMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxWaitMs = maxWaitMs;
+        this.leases = maxSessions > 0 ? new Semaphore(maxSessions, true) : null;
+        if (keepAliveMs > 0 || idleTimeoutMs > 0 || this.minSessions > 0) {
+            long interval = Math.max(1000, keepAliveMs > 0 ? keepAliveMs : idleTimeoutMs);
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sftp-session-pool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenanceExecutor.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    Session borrow() {
+        if (closed) {
+            throw new IllegalStateException("The SFTP session pool has been closed");
+        }
+        acquireLease();
+        try {
+            PooledSession pooled = idleSessions.pollFirst();
+            while (pooled != null) {
+                if (isHealthy(pooled)) {
+                    return pooled.session;
+                }
+                discard(pooled.session);
+                pooled = idleSessions.pollFirst();
+            }
+            Session session = sessionFactory.get();
+            openSessions.incrementAndGet();
+            return session;
+        } catch (RuntimeException e) {
+            releaseLease();
+            throw e;
+        }
+    }
+
+    void release(Session session) {
+        if (session == null) {
+            return;
+        }
+        if (closed || !session.isConnected()) {
+            discard(session);
+        } else {
+            idleSessions.offerFirst(new PooledSession(session));
+        }
+        releaseLease();
+    }
+
+    void close() {
+        closed = true;
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        log.info("Closing SFTP session pool.  {}", getStats());
+        PooledSession pooled = idleSessions.pollFirst();
+        while (pooled != null) {
+            discard(pooled.session);
+            pooled = idleSessions.pollFirst();
+        }
+    }
+
+    String getStats() {
+        int idle = idleSessions.size();
+        int open = openSessions.get();
+        return String.format("open=%d, idle=%d, leased=%d, max=%s", open, idle, Math.max(0, open - idle),
+                maxSessions > 0 ? Integer.toString(maxSessions) : "unbounded");
+    }
+
+    protected void maintain() {
+        try {
+            long now = System.currentTimeMillis();
+            for (PooledSession pooled : new ArrayList<>(idleSessions)) {
+                // take the session out of the queue first so a borrower cannot
+                // use it while the keep alive is being sent
+                if (!idleSessions.remove(pooled)) {
+                    continue;
+                }
+                boolean expired = idleTimeoutMs > 0 && now - pooled.lastUsedTime > idleTimeoutMs
+                        && openSessions.get() > minSessions;
+                if (expired || closed || !isHealthy(pooled)) {
+                    discard(pooled.session);
+                } else {
+                    idleSessions.offerLast(pooled);
+                }
+            }
+            while (!closed && openSessions.get() < minSessions) {
+                PooledSession pooled = new PooledSession(sessionFactory.get());
+                openSessions.incrementAndGet();
+                idleSessions.offerLast(pooled);
+                if (closed && idleSessions.remove(pooled)) {
+                    discard(pooled.session);
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("SFTP session pool maintenance complete.  {}", getStats());
+            }
+        } catch (Exception e) {
+            log.warn("SFTP session pool maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    protected boolean isHealthy(PooledSession pooled) {
+        if (!pooled.session.isConnected()) {
+            return false;
+        }
+        if (keepAliveMs > 0 && System.currentTimeMillis() - pooled.lastUsedTime >= keepAliveMs) {
+            try {
+                pooled.session.sendKeepAliveMsg();
+            } catch (Exception e) {
+                log.debug("Discarding SFTP session that failed its keep alive: {}", e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void discard(Session session) {
+        openSessions.decrementAndGet();
+        try {
+            session.disconnect();
+        } catch (Exception e) {
+            log.debug("Failed to disconnect SFTP session", e);
+        }
+    }
+
+    protected void acquireLease() {
+        if (leases != null) {
+            try {
+                if (!leases.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                    throw new IoException("Timed out after %d ms waiting for an SFTP session.  All %d sessions are in use", maxWaitMs,
+                            maxSessions);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IoException(e);
+            }
+        }
+    }
+
+    protected void releaseLease() {
+        if (leases != null) {
+            leases.release();
+        }
+    }
+
+    static class PooledSession {
+
+        final Session session;
+
+        long lastUsedTime = System.currentTimeMillis();
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.resource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BytePipeTest {
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWritingThreadsExitBeforeClose() throws Exception {
+        BytePipe pipe = new BytePipe(1024);
+        Future<byte[]> read = executor.submit(() -> readAll(pipe.getInputStream()));
+        byte[] data = data(100);
+        Thread first = new Thread(() -> write(pipe.getOutputStream(), data, 0, 50));
+        first.start();
+        first.join();
+        Thread.sleep(100);
+        Thread second = new Thread(() -> write(pipe.getOutputStream(), data, 50, 50));
+        second.start();
+        second.join();
+        pipe.getOutputStream().close();
+        assertArrayEquals(data, read.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWriterWaitsForRoom() throws Exception {
+        BytePipe pipe = new BytePipe(7);
+        byte[] data = data(10000);
+        Future<?> written = executor.submit(() -> {
+            for (int i = 0; i < data.length; i += 13) {
+                write(pipe.getOutputStream(), data, i, Math.min(13, data.length - i));
+            }
+            pipe.getOutputStream().close();
+            return null;
+        });
+        InputStream is = pipe.getInputStream();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        int b = is.read();
+        while (b >= 0) {
+            read.write(b);
+            b = is.read();
+        }
+        written.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(data, read.toByteArray());
+        assertEquals(-1, is.read(new byte[1], 0, 1));
+    }
+
+    @Test
+    public void testWriteFailsWhenTheReaderCloses() throws Exception {
+        BytePipe pipe = new BytePipe(8);
+        Future<?> written = executor.submit(() -> {
+            pipe.getOutputStream().write(data(100));
+            return null;
+        });
+        while (pipe.available() < 8) {
+            Thread.sleep(10);
+        }
+        pipe.getInputStream().close();
+        try {
+            written.get(10, TimeUnit.SECONDS);
+            fail("Expected the write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            pipe.getInputStream().read();
+            fail("Expected the read to fail");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testWaitingReaderIsInterrupted() throws Exception {
+        BytePipe pipe = new BytePipe(8);
+        Future<?> read = executor.submit(() -> pipe.getInputStream().read());
+        Thread.sleep(100);
+        read.cancel(true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        pipe.getOutputStream().write(1);
+        assertEquals(1, pipe.available());
+    }
+
+    @Test
+    public void testWriteAfterCloseFails() throws Exception {
+        BytePipe pipe = new BytePipe(8);
+        pipe.getOutputStream().close();
+        try {
+            pipe.getOutputStream().write(1);
+            fail("Expected the write to fail");
+        } catch (IOException e) {
+        }
+        assertEquals(-1, pipe.getInputStream().read());
+    }
+
+    protected static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16];
+        int length = is.read(buffer);
+        while (length >= 0) {
+            bytes.write(buffer, 0, length);
+            length = is.read(buffer);
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static void write(OutputStream os, byte[] data, int offset, int length) {
+        try {
+            os.write(data, offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
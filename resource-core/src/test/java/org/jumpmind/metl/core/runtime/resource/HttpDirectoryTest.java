@@ -0,0 +1,211 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.resource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.exception.IoException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpDirectoryTest {
+
+    HttpServer server;
+
+    ExecutorService serverExecutor = Executors.newFixedThreadPool(4);
+
+    Map<String, Object> received = new ConcurrentHashMap<>();
+
+    Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    HttpDirectory directory;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/upload", exchange -> {
+            byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+            received.put("body", body);
+            received.put("method", exchange.getRequestMethod());
+            String transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            if (transferEncoding != null) {
+                received.put("transferEncoding", transferEncoding);
+            }
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null) {
+                received.put("contentLength", contentLength);
+            }
+            respond(exchange, 200, "received " + body.length);
+        });
+        server.createContext("/fail", exchange -> {
+            IOUtils.toByteArray(exchange.getRequestBody());
+            respond(exchange, 500, "boom");
+        });
+        server.createContext("/download", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            respond(exchange, 200, "hello world");
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (directory != null) {
+            directory.shutdown();
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testChunkedUpload() throws Exception {
+        directory = createDirectory(HttpDirectory.HTTP_METHOD_POST);
+        byte[] data = data(HttpOutputStream.PIPE_BUFFER_SIZE * 3 + 17);
+        OutputStream os = directory.getOutputStream("/upload", false);
+        os.write(data);
+        os.close();
+        assertArrayEquals(data, (byte[]) received.get("body"));
+        assertEquals("POST", received.get("method"));
+        assertEquals("chunked", received.get("transferEncoding"));
+        assertEquals("received " + data.length, ((IOutputStreamWithResponse) os).getResponse());
+    }
+
+    @Test
+    public void testFixedLengthUpload() throws Exception {
+        directory = createDirectory(HttpDirectory.HTTP_METHOD_PUT);
+        byte[] data = data(1000);
+        directory.setContentLength(data.length);
+        OutputStream os = directory.getOutputStream("/upload", false);
+        os.write(data);
+        os.close();
+        assertArrayEquals(data, (byte[]) received.get("body"));
+        assertEquals("PUT", received.get("method"));
+        assertEquals(Integer.toString(data.length), received.get("contentLength"));
+        assertNull(received.get("transferEncoding"));
+    }
+
+    @Test
+    public void testUploadWrittenByThreadsThatExit() throws Exception {
+        directory = createDirectory(HttpDirectory.HTTP_METHOD_POST);
+        byte[] data = data(5000);
+        OutputStream os = directory.getOutputStream("/upload", false);
+        Thread first = new Thread(() -> write(os, data, 0, 2000));
+        first.start();
+        first.join();
+        Thread.sleep(1500);
+        Thread second = new Thread(() -> write(os, data, 2000, 3000));
+        second.start();
+        second.join();
+        os.close();
+        assertArrayEquals(data, (byte[]) received.get("body"));
+    }
+
+    @Test
+    public void testErrorResponseFailsTheUpload() throws Exception {
+        directory = createDirectory(HttpDirectory.HTTP_METHOD_POST);
+        OutputStream os = directory.getOutputStream("/fail", false);
+        os.write(data(100));
+        try {
+            os.close();
+            fail("Expected the upload to fail");
+        } catch (IoException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("500"));
+            assertTrue(e.getMessage(), e.getMessage().contains("boom"));
+        }
+    }
+
+    @Test
+    public void testDownloadsReuseThePooledConnection() throws Exception {
+        directory = createDirectory(HttpDirectory.HTTP_METHOD_GET);
+        assertSame(directory.getHttpClient(), directory.getHttpClient());
+        for (int i = 0; i < 5; i++) {
+            try (InputStream is = directory.getInputStream("/download", true)) {
+                assertEquals("hello world", IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(1, clientPorts.size());
+        assertEquals(0, directory.getPoolStats().getLeased());
+        assertEquals(1, directory.getPoolStats().getAvailable());
+    }
+
+    @Test
+    public void testDownloadOfMissingPathFails() {
+        directory = createDirectory(HttpDirectory.HTTP_METHOD_GET);
+        try {
+            directory.getInputStream("/missing", true);
+            fail("Expected the download to fail");
+        } catch (IoException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("404"));
+        }
+        assertEquals(0, directory.getPoolStats().getLeased());
+    }
+
+    protected HttpDirectory createDirectory(String httpMethod) {
+        return new HttpDirectory("http://localhost:" + server.getAddress().getPort(), httpMethod, "application/octet-stream",
+                10000, HttpDirectory.SECURITY_NONE, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    protected static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    protected static void write(OutputStream os, byte[] data, int offset, int length) {
+        try {
+            os.write(data, offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.Session;
+
+public class SftpDirectoryTest {
+
+    List<Session> created = new ArrayList<>();
+
+    List<ChannelSftp> channels = new ArrayList<>();
+
+    SftpDirectory directory;
+
+    @Before
+    public void setup() {
+        directory = new SftpDirectory(null, "localhost", 22, "user", null, null, "/", 1000, false);
+        directory.sessionPool = new SftpSessionPool(this::newSession, 0, 1, 0, 0, 200);
+    }
+
+    @After
+    public void tearDown() {
+        directory.shutdown();
+    }
+
+    @Test
+    public void testStreamClosedOnAnotherThreadReturnsItsSession() throws Exception {
+        AtomicReference<InputStream> stream = new AtomicReference<>();
+        runOnThread(() -> stream.set(directory.getInputStream("file.txt", false, true)));
+        assertEquals(0, directory.sessionPool.leases.availablePermits());
+
+        stream.get().close();
+        verify(channels.get(0)).disconnect();
+        assertEquals(1, directory.sessionPool.leases.availablePermits());
+        assertEquals(1, directory.sessionPool.idleSessions.size());
+        assertTrue(directory.threadLeases.isEmpty());
+
+        directory.connect();
+        assertEquals(1, created.size());
+    }
+
+    @Test
+    public void testSessionLeasedByDeadThreadIsReclaimed() throws Exception {
+        runOnThread(() -> directory.connect());
+        assertEquals(1, directory.threadLeases.size());
+
+        Session session = directory.openSession();
+        assertSame(created.get(0), session);
+        assertEquals(1, created.size());
+        assertEquals(1, directory.threadLeases.size());
+
+        directory.close();
+        assertEquals(1, directory.sessionPool.idleSessions.size());
+    }
+
+    @Test
+    public void testIdleLeaseIsReclaimed() throws Exception {
+        directory.setIdleTimeoutMs(60000);
+        CountDownLatch connected = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            directory.connect();
+            connected.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        owner.start();
+        try {
+            connected.await();
+            directory.threadLeases.get(owner).lastUsedTime -= 120000;
+
+            directory.openSession();
+            assertEquals(1, created.size());
+            assertTrue(owner.isAlive());
+            assertTrue(!directory.threadLeases.containsKey(owner));
+        } finally {
+            done.countDown();
+            owner.join();
+        }
+    }
+
+    @Test
+    public void testLeaseWithOpenStreamIsNotReclaimed() throws Exception {
+        directory.setIdleTimeoutMs(60000);
+        directory.sessionPool = new SftpSessionPool(this::newSession, 0, 2, 0, 0, 200);
+        AtomicReference<InputStream> stream = new AtomicReference<>();
+        Thread owner = new Thread(() -> stream.set(directory.getInputStream("file.txt", false, false)));
+        owner.start();
+        owner.join();
+        directory.threadLeases.get(owner).lastUsedTime -= 120000;
+
+        directory.openSession();
+        assertEquals(2, created.size());
+        assertTrue(directory.threadLeases.containsKey(owner));
+
+        stream.get().close();
+        directory.close();
+        directory.openSession();
+        assertTrue(!directory.threadLeases.containsKey(owner));
+    }
+
+    void runOnThread(Runnable runnable) throws InterruptedException {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+    }
+
+    Session newSession() {
+        try {
+            Session session = mock(Session.class);
+            when(session.isConnected()).thenReturn(true);
+            ChannelSftp channel = mock(ChannelSftp.class);
+            when(channel.isConnected()).thenReturn(false);
+            when(channel.get(anyString())).thenReturn(new ByteArrayInputStream("data".getBytes()));
+            when(session.openChannel("sftp")).thenReturn(channel);
+            channels.add(channel);
+            created.add(session);
+            return session;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.runtime.resource.SftpSessionPool.PooledSession;
+import org.junit.After;
+import org.junit.Test;
+
+import com.jcraft.jsch.Session;
+
+public class SftpSessionPoolTest {
+
+    List<Session> created = new ArrayList<>();
+
+    SftpSessionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testBorrowTimesOutWhenAllLeasesAreTaken() {
+        pool = new SftpSessionPool(this::newSession, 0, 2, 0, 0, 100);
+        Session first = pool.borrow();
+        pool.borrow();
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrow();
+            fail("Expected the borrow to time out");
+        } catch (IoException e) {
+            assertTrue(System.currentTimeMillis() - start >= 100);
+        }
+        assertEquals(2, created.size());
+
+        pool.release(first);
+        assertSame(first, pool.borrow());
+        assertEquals(2, pool.openSessions.get());
+    }
+
+    @Test
+    public void testUnhealthyIdleSessionIsDiscardedOnBorrow() {
+        pool = new SftpSessionPool(this::newSession, 0, 1, 0, 0, 100);
+        Session session = pool.borrow();
+        pool.release(session);
+        when(session.isConnected()).thenReturn(false);
+
+        Session replacement = pool.borrow();
+        assertNotSame(session, replacement);
+        verify(session).disconnect();
+        assertEquals(1, pool.openSessions.get());
+        assertEquals(0, pool.idleSessions.size());
+    }
+
+    @Test
+    public void testIdleSessionsAreEvictedDownToMinSessions() {
+        pool = new SftpSessionPool(this::newSession, 1, 0, 0, 60000, 100);
+        List<Session> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.borrow());
+        }
+        for (Session session : borrowed) {
+            pool.release(session);
+        }
+        for (PooledSession pooled : pool.idleSessions) {
+            pooled.lastUsedTime -= 120000;
+        }
+
+        pool.maintain();
+        assertEquals(1, pool.openSessions.get());
+        assertEquals(1, pool.idleSessions.size());
+        int disconnected = 0;
+        for (Session session : borrowed) {
+            if (!pool.idleSessions.isEmpty() && pool.idleSessions.peekFirst().session == session) {
+                verify(session, never()).disconnect();
+            } else {
+                verify(session).disconnect();
+                disconnected++;
+            }
+        }
+        assertEquals(2, disconnected);
+    }
+
+    @Test
+    public void testMaintenanceChecksSessionsOutsideTheIdleQueue() throws Exception {
+        List<Boolean> queuedWhileChecked = new ArrayList<>();
+        pool = new SftpSessionPool(this::newSession, 0, 1, 60000, 0, 100) {
+            @Override
+            protected boolean isHealthy(PooledSession pooled) {
+                queuedWhileChecked.add(idleSessions.contains(pooled));
+                return super.isHealthy(pooled);
+            }
+        };
+        Session session = pool.borrow();
+        pool.release(session);
+        pool.idleSessions.peekFirst().lastUsedTime -= 120000;
+
+        pool.maintain();
+        assertEquals(1, queuedWhileChecked.size());
+        assertFalse(queuedWhileChecked.get(0));
+        verify(session).sendKeepAliveMsg();
+        verify(session, never()).disconnect();
+        assertEquals(1, pool.idleSessions.size());
+        assertSame(session, pool.borrow());
+    }
+
+    @Test
+    public void testSessionReleasedAfterCloseIsDisconnected() {
+        pool = new SftpSessionPool(this::newSession, 0, 1, 0, 0, 100);
+        Session session = pool.borrow();
+        pool.close();
+
+        pool.release(session);
+        verify(session).disconnect();
+        assertEquals(0, pool.openSessions.get());
+        assertEquals(0, pool.idleSessions.size());
+        assertEquals(1, pool.leases.availablePermits());
+        try {
+            pool.borrow();
+            fail("Expected a closed pool to refuse to lend sessions");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    Session newSession() {
+        Session session = mock(Session.class);
+        when(session.isConnected()).thenReturn(true);
+        created.add(session);
+        return session;
+    }
+}